@@ -0,0 +1,94 @@
+package com.rohit.benchmark.jmh;
+
+import com.codahale.metrics.Counter;
+import com.rohit.stats.counters.StripedCounter;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * class CounterContentionBenchmark
+ *
+ * One shared AtomicLong, dropwizard Counter and StripedCounter incremented by 1 and 16
+ * threads, next to the full MetricsCounters.incTotalBytesUp path of a ProviderMetrics set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class CounterContentionBenchmark {
+
+    private final AtomicLong atomic = new AtomicLong();
+    private final Counter counter = new Counter();
+    private final StripedCounter striped = new StripedCounter();
+
+    private ProviderMetrics metrics;
+
+    @Setup
+    public void setup() {
+        metrics = ProviderMetrics.forKey(MetricsKey.of("JMH_CONTENTION"));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long atomicLong1Thread() {
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long atomicLong16Threads() {
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void counter1Thread() {
+        counter.inc();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void counter16Threads() {
+        counter.inc();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void stripedCounter1Thread() {
+        striped.inc();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void stripedCounter16Threads() {
+        striped.inc();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void bytesUp1Thread() {
+        metrics.incTotalBytesUp(1);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void bytesUp16Threads() {
+        metrics.incTotalBytesUp(1);
+    }
+}
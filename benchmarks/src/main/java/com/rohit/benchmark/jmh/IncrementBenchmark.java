@@ -0,0 +1,70 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class IncrementBenchmark
+ *
+ * The counter updaters of one ProviderMetrics set shared by 1, 4 and 16 threads, with the
+ * overall totals aggregated when read (the default mode). See DualWriteBenchmark for the
+ * same calls writing the overall totals too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class IncrementBenchmark {
+
+    private ProviderMetrics metrics;
+
+    @Setup
+    public void setup() {
+        metrics = ProviderMetrics.forKey(MetricsKey.of("JMH_INCREMENT"));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void bytesUp1Thread() {
+        metrics.incTotalBytesUp(1024);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void bytesUp4Threads() {
+        metrics.incTotalBytesUp(1024);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void bytesUp16Threads() {
+        metrics.incTotalBytesUp(1024);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void putRequest1Thread() {
+        metrics.incTotalSuccessfulPutRequests();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void putRequest16Threads() {
+        metrics.incTotalSuccessfulPutRequests();
+    }
+}
@@ -0,0 +1,86 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.monitoring.PrometheusEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class PrometheusScrapeBenchmark
+ *
+ * The Prometheus endpoint over the given number of keys: a full render with the cache off,
+ * whose allocation the GC profiler reports per render, and an HTTP scrape served from the
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class PrometheusScrapeBenchmark {
+
+    @Param({"10000"})
+    public int keyCount;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private PrometheusEndpoint uncached;
+
+    private PrometheusEndpoint cached;
+
+    private URL url;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < keyCount; i++) {
+            ProviderMetrics metrics = ProviderMetrics.forKey(MetricsKey.of("JMH_SCRAPE_" + i));
+            metrics.incTotalBytesUp(i);
+            metrics.incTotalSuccessfulPutRequests();
+            metrics.incTotalGetTime(metrics.startGetTime());
+        }
+        uncached = new PrometheusEndpoint(0, 0);
+        cached = new PrometheusEndpoint(0, PrometheusEndpoint.DEFAULT_CACHE_MILLIS);
+        cached.start();
+        url = new URL("http://localhost:" + cached.getPort() + PrometheusEndpoint.PATH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cached.stop();
+    }
+
+    @Benchmark
+    public byte[] render() {
+        return uncached.scrape();
+    }
+
+    @Benchmark
+    public long httpScrapeFromCache() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        long read = 0;
+        try (InputStream in = connection.getInputStream()) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                read += n;
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class ProviderLookupBenchmark
+ *
+ * ProviderMetrics.forKey() and MetricsKey.of() looking up random known keys among the given
+ * number of registered ones, on 1 and 4 threads. See RegistrationBenchmark for the cost of
+ * creating a set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class ProviderLookupBenchmark {
+
+    @Param({"10000"})
+    public int keyCount;
+
+    private String[] names;
+
+    private MetricsKey[] keys;
+
+    @Setup
+    public void setup() {
+        names = new String[keyCount];
+        keys = new MetricsKey[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            names[i] = "JMH_LOOKUP_" + i;
+            keys[i] = MetricsKey.of(names[i]);
+            ProviderMetrics.forKey(keys[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ProviderMetrics forKey1Thread() {
+        return ProviderMetrics.forKey(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ProviderMetrics forKey4Threads() {
+        return ProviderMetrics.forKey(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public MetricsKey keyOf1Thread() {
+        return MetricsKey.of(names[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public MetricsKey keyOf4Threads() {
+        return MetricsKey.of(names[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
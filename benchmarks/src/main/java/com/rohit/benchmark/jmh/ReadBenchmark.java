@@ -0,0 +1,88 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.RecordMetrics;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.monitoring.MetricsManager;
+import com.rohit.stats.monitoring.MetricsOption;
+import com.rohit.stats.monitoring.MetricsResult;
+import com.rohit.stats.monitoring.MetricsSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class ReadBenchmark
+ *
+ * Stats reads through MetricsManager, the options RecordMetrics prints, on the direct read
+ * path: getMetrics() building a MetricsResult and getSnapshot() into a reused snapshot, for
+ * one key and for every one of the given number of keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class ReadBenchmark {
+
+    @Param({"100"})
+    public int keyCount;
+
+    private final MetricsManager manager = MetricsManager.getMetricsManager();
+    private final List<MetricsOption> optionList = new ArrayList<MetricsOption>(RecordMetrics.options);
+    private final EnumSet<MetricsOption> options = EnumSet.copyOf(RecordMetrics.options);
+    private final MetricsSnapshot snapshot = new MetricsSnapshot();
+
+    private MetricsKey[] keys;
+
+    @Setup
+    public void setup() {
+        keys = new MetricsKey[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = MetricsKey.of("JMH_READ_" + i);
+            ProviderMetrics metrics = ProviderMetrics.forKey(keys[i]);
+            metrics.incTotalBytesUp(1024);
+            metrics.incTotalPutTime(metrics.startPutTime());
+            metrics.incTotalSuccessfulPutRequests();
+        }
+    }
+
+    @Benchmark
+    public MetricsResult metricsOneKey() throws Exception {
+        return manager.getMetrics(optionList, keys[0]);
+    }
+
+    @Benchmark
+    public long snapshotOneKey() throws Exception {
+        return manager.getSnapshot(options, keys[0], snapshot).get(MetricsOption.BYTES_UP);
+    }
+
+    @Benchmark
+    public void metricsAllKeys(Blackhole blackhole) throws Exception {
+        for (MetricsKey key : keys) {
+            blackhole.consume(manager.getMetrics(optionList, key));
+        }
+    }
+
+    @Benchmark
+    public void snapshotAllKeys(Blackhole blackhole) throws Exception {
+        for (MetricsKey key : keys) {
+            blackhole.consume(manager.getSnapshot(options, key, snapshot).get(MetricsOption.BYTES_UP));
+        }
+    }
+}
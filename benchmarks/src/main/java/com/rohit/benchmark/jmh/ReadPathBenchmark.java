@@ -0,0 +1,69 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.monitoring.MetricsManager;
+import com.rohit.stats.monitoring.MetricsOption;
+import com.rohit.stats.monitoring.MetricsReadPath;
+import com.rohit.stats.monitoring.MetricsResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class ReadPathBenchmark
+ *
+ * MetricsManager.getMetrics() of one key through the direct registry read path and through
+ * JMX, for the six counter options and for every option. JMX stays enabled in this fork,
+ * as the JMX path reads the reporter's MBeans.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1)
+public class ReadPathBenchmark {
+
+    @Param({"DIRECT", "JMX"})
+    public MetricsReadPath path;
+
+    private final MetricsManager manager = MetricsManager.getMetricsManager();
+    private final List<MetricsOption> counters = Arrays.asList(MetricsOption.BYTES_UP,
+            MetricsOption.TOTAL_SUCCESSFUL_PUTS, MetricsOption.PUT_TIME, MetricsOption.BYTES_DOWN,
+            MetricsOption.TOTAL_SUCCESSFUL_GETS, MetricsOption.GET_TIME);
+    private final List<MetricsOption> all = Arrays.asList(MetricsOption.values());
+
+    private MetricsKey key;
+
+    @Setup
+    public void setup() {
+        key = MetricsKey.of("JMH_READ_PATH");
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        metrics.incTotalBytesUp(1024);
+        metrics.incTotalPutTime(metrics.startPutTime());
+        manager.setReadPath(path);
+    }
+
+    @Benchmark
+    public MetricsResult counterOptions() throws Exception {
+        return manager.getMetrics(counters, key);
+    }
+
+    @Benchmark
+    public MetricsResult allOptions() throws Exception {
+        return manager.getMetrics(all, key);
+    }
+}
@@ -0,0 +1,51 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class RegistrationBenchmark
+ *
+ * The life of a metric set: forKey() creating and registering a new ProviderMetrics, one
+ * update, and remove() unregistering it and folding its values into the overall totals.
+ * Keys are reused round robin, so the registry stays the same size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class RegistrationBenchmark {
+
+    private final MetricsKey[] keys = new MetricsKey[1024];
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = MetricsKey.of("JMH_REGISTER_" + i);
+        }
+    }
+
+    @Benchmark
+    public ProviderMetrics registerAndRemove() {
+        MetricsKey key = keys[next++ & (keys.length - 1)];
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        metrics.incTotalBytesUp(1);
+        return ProviderMetrics.remove(key);
+    }
+}
@@ -0,0 +1,61 @@
+package com.rohit.benchmark.jmh;
+
+import com.rohit.stats.counters.TimeCounter;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class TimingBenchmark
+ *
+ * Start/stop pairs: a bare TimeCounter, and startPutTime()/incTotalPutTime() of a provider,
+ * which also records the latency histogram. Both take two System.nanoTime() calls, which
+ * bound the cost from below.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmetrics.jmx.enabled=false")
+public class TimingBenchmark {
+
+    private final TimeCounter counter = new TimeCounter();
+
+    private ProviderMetrics metrics;
+
+    @Setup
+    public void setup() {
+        metrics = ProviderMetrics.forKey(MetricsKey.of("JMH_TIMING"));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long timeCounterPair() {
+        return counter.stop(counter.start());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void putTimePair1Thread() {
+        metrics.incTotalPutTime(metrics.startPutTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void putTimePair4Threads() {
+        metrics.incTotalPutTime(metrics.startPutTime());
+    }
+}
@@ -1,7 +1,15 @@
 package com.rohit;
 
+import com.rohit.load.LoadDriver;
 import com.rohit.stats.RecordMetrics;
+import com.rohit.stats.monitoring.ClusterAggregator;
+import com.rohit.stats.monitoring.ClusterPusher;
+import com.rohit.stats.monitoring.CounterFileReader;
+import com.rohit.stats.monitoring.PrometheusEndpoint;
+import com.rohit.stats.monitoring.PushReporter;
+import com.rohit.stats.monitoring.RuleEngine;
 
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class Main {
@@ -12,11 +20,32 @@ public class Main {
         return sc.nextInt();
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && "load".equals(args[0])) {
+            // Headless: drive a generated workload instead of reading choices from the console
+            PrometheusEndpoint.startFromProperties();
+            PushReporter.startFromProperties();
+            ClusterAggregator.startFromProperties();
+            ClusterPusher.startFromProperties();
+            RuleEngine.startFromProperties();
+            boolean ok = LoadDriver.drive(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(ok ? 0 : 1);
+        }
+        if (args.length > 0 && "counters".equals(args[0])) {
+            // Reads the counter file of another JVM, starts no metrics of its own
+            CounterFileReader.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
         Scanner sc = new Scanner(System.in);
 
         RecordMetrics rc = new RecordMetrics();
+        PrometheusEndpoint.startFromProperties();
+        PushReporter.startFromProperties();
+        ClusterAggregator.startFromProperties();
+        ClusterPusher.startFromProperties();
+        RuleEngine.startFromProperties();
 
         while (true){
             System.out.println("=======================================");
@@ -0,0 +1,126 @@
+package com.rohit.load;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class Distribution
+ *
+ * A distribution of non-negative longs, blob sizes in bytes or latencies in nanoseconds,
+ * parsed from a short spec:
+ *
+ *     none                  always 0
+ *     fixed:V               always V
+ *     uniform:MIN-MAX       uniform between MIN and MAX, both included
+ *     exp:MEAN              exponential with the given mean
+ *     lognormal:MEDIAN:S    log-normal with the given median and shape S, heavy tailed for S > 1
+ *
+ * Sizes take a k, m or g suffix (powers of 1024), latencies one of ns, us, ms or s.
+ */
+final class Distribution {
+
+    private enum Kind { FIXED, UNIFORM, EXPONENTIAL, LOGNORMAL }
+
+    private final String spec;
+    private final Kind kind;
+    private final double a;
+    private final double b;
+
+    private Distribution(String spec, Kind kind, double a, double b) {
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * @param time true to read the values as durations, false as byte counts
+     */
+    public static Distribution parse(String spec, boolean time) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0].toLowerCase()) {
+                case "none":
+                    return new Distribution(spec, Kind.FIXED, 0, 0);
+                case "fixed":
+                    return new Distribution(spec, Kind.FIXED, value(parts[1], time), 0);
+                case "uniform": {
+                    String[] range = parts[1].split("-");
+                    double min = value(range[0], time);
+                    double max = value(range[1], time);
+                    if (max < min) {
+                        throw new IllegalArgumentException("empty range");
+                    }
+                    return new Distribution(spec, Kind.UNIFORM, min, max);
+                }
+                case "exp":
+                    return new Distribution(spec, Kind.EXPONENTIAL, value(parts[1], time), 0);
+                case "lognormal":
+                    return new Distribution(spec, Kind.LOGNORMAL, Math.log(Math.max(value(parts[1], time), 1)),
+                            Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("unknown distribution");
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("bad distribution '" + spec + "': " + e.getMessage(), e);
+        }
+    }
+
+    static double value(String text, boolean time) {
+        String s = text.trim().toLowerCase();
+        long scale = 1;
+        if (time) {
+            String[][] units = {{"ns", "1"}, {"us", "1000"}, {"ms", "1000000"}, {"s", "1000000000"}};
+            for (String[] unit : units) {
+                if (s.endsWith(unit[0])) {
+                    s = s.substring(0, s.length() - unit[0].length());
+                    scale = Long.parseLong(unit[1]);
+                    break;
+                }
+            }
+        } else if (s.endsWith("k") || s.endsWith("m") || s.endsWith("g")) {
+            scale = 1L << (10 * ("kmg".indexOf(s.charAt(s.length() - 1)) + 1));
+            s = s.substring(0, s.length() - 1);
+        }
+        double value = Double.parseDouble(s) * scale;
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + text);
+        }
+        return value;
+    }
+
+    /**
+     * @return the next value, never negative
+     */
+    public long sample(Random random) {
+        switch (kind) {
+            case UNIFORM:
+                return (long) (a + random.nextDouble() * (b - a + 1));
+            case EXPONENTIAL:
+                return (long) (-a * Math.log(1.0 - random.nextDouble()));
+            case LOGNORMAL:
+                return (long) Math.exp(a + b * random.nextGaussian());
+            default:
+                return (long) a;
+        }
+    }
+
+    /**
+     * @return true for "none" and for a fixed 0
+     */
+    public boolean isZero() {
+        return kind == Kind.FIXED && a == 0;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    static String formatNanos(double nanos) {
+        if (nanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+        return nanos >= 1000 ? String.format("%.2f us", nanos / 1e3) : String.format("%.0f ns", nanos);
+    }
+}
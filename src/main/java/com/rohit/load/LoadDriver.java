@@ -0,0 +1,372 @@
+package com.rohit.load;
+
+import com.rohit.stats.metrics.EventRing;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import com.rohit.stats.monitoring.MetricsManager;
+import com.rohit.stats.monitoring.MetricsOption;
+import com.rohit.stats.monitoring.MetricsSnapshot;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * class LoadDriver
+ *
+ * Headless load generator: many concurrent workers issue PUTs and GETs against provider
+ * metric sets, recording each one the way RecordMetrics does (byte count, start/stop time,
+ * success) with a simulated latency parked between start and stop. At the end it reports
+ * the throughput achieved and the time spent recording metrics, and checks that the
+ * counters of every provider, and the overall totals, moved by exactly what was issued.
+ *
+ * Settings are key=value arguments, all optional:
+ *
+ *     ops=1000000          operations in total, or duration=30s to run for a time
+ *     concurrency=64       concurrent workers
+ *     threads=virtual      one virtual thread per worker where the JVM has them, or
+ *                          "platform" for a pool of platform threads (also the fallback)
+ *     mix=aws.put:40,aws.get:40,azure.put:10,azure.get:10
+ *                          weights of provider.op, aws and azure being the default keys
+ *     size=lognormal:64k:1.5
+ *                          blob size distribution, see Distribution
+ *     latency=none         simulated latency of every provider
+ *     latency.NAME=exp:2ms simulated latency of one provider
+ *     sample.every=1       time one operation in N, see ProviderMetrics.setLatencySampling();
+ *                          the timed counts are then estimates, reported next to the
+ *                          counts issued instead of checked
+ *
+ * Usage: java -cp ... com.rohit.Main load [key=value ...]
+ */
+public class LoadDriver {
+
+    /** Ops claimed from the shared budget at a time */
+    private static final int CLAIM = 256;
+
+    private static final EnumSet<MetricsOption> LATENCIES = EnumSet.of(
+            MetricsOption.PUT_LATENCY_P50, MetricsOption.PUT_LATENCY_P99,
+            MetricsOption.GET_LATENCY_P50, MetricsOption.GET_LATENCY_P99);
+
+    /** One provider of the mix, with what was issued against it */
+    private static final class Provider {
+        final String name;
+        final ProviderMetrics metrics;
+        final Distribution latency;
+        final long[] before = new long[MetricsCounters.TOTALS];
+        final long[] issued = new long[MetricsCounters.TOTALS];
+
+        Provider(String name, ProviderMetrics metrics, Distribution latency) {
+            this.name = name;
+            this.metrics = metrics;
+            this.latency = latency;
+        }
+    }
+
+    /** What one worker did, summed up at the end */
+    private static final class WorkerResult {
+        final long[][] issued;
+        long ops;
+        long recordingNanos;
+        long busyNanos;
+
+        WorkerResult(int providers) {
+            issued = new long[providers][MetricsCounters.TOTALS];
+        }
+    }
+
+    private final Map<String, String> settings;
+    private final List<Provider> providers = new ArrayList<Provider>();
+    /** Per mix entry: provider index, put or get, and the cumulative weight */
+    private int[] mixProvider;
+    private boolean[] mixPut;
+    private int[] mixWeight;
+    private final Distribution sizes;
+    private final int concurrency;
+    private final String threads;
+    private final long ops;
+    private final long durationNanos;
+
+    LoadDriver(Map<String, String> settings) {
+        this.settings = settings;
+        this.concurrency = Integer.parseInt(setting("concurrency", "64"));
+        this.threads = setting("threads", "virtual");
+        this.sizes = Distribution.parse(setting("size", "lognormal:64k:1.5"), false);
+        String duration = settings.remove("duration");
+        this.durationNanos = duration == null ? 0 : (long) Distribution.value(duration, true);
+        this.ops = durationNanos > 0 ? Long.MAX_VALUE : Long.parseLong(setting("ops", "1000000"));
+        parseMix(setting("mix", "aws.put:40,aws.get:40,azure.put:10,azure.get:10"));
+        String sampleEvery = settings.remove("sample.every");
+        if (sampleEvery != null) {
+            for (Provider provider : providers) {
+                ProviderMetrics.setLatencySampling(provider.metrics.getMetricsKey(), Integer.parseInt(sampleEvery));
+            }
+        }
+    }
+
+    /**
+     * Runs the workload given by the key=value arguments
+     *
+     * @return whether every counter moved by what was issued
+     */
+    public static boolean drive(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            }
+            settings.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+        }
+        return new LoadDriver(settings).run();
+    }
+
+    private String setting(String key, String defaultValue) {
+        String value = settings.remove(key);
+        return value != null ? value : defaultValue;
+    }
+
+    private void parseMix(String mix) {
+        String defaultLatency = setting("latency", "none");
+        String[] entries = mix.split(",");
+        mixProvider = new int[entries.length];
+        mixPut = new boolean[entries.length];
+        mixWeight = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split(":");
+            int dot = entry[0].lastIndexOf('.');
+            String name = entry[0].substring(0, dot);
+            String op = entry[0].substring(dot + 1);
+            if (!"put".equals(op) && !"get".equals(op)) {
+                throw new IllegalArgumentException("mix entry " + entries[i] + " is not NAME.put or NAME.get");
+            }
+            int provider = providerIndex(name, defaultLatency);
+            total += Integer.parseInt(entry[1]);
+            mixProvider[i] = provider;
+            mixPut[i] = "put".equals(op);
+            mixWeight[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("mix has no weight");
+        }
+    }
+
+    private int providerIndex(String name, String defaultLatency) {
+        for (int i = 0; i < providers.size(); i++) {
+            if (providers.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        MetricsKey key = "aws".equalsIgnoreCase(name) ? ProviderMetrics.AWS_KEY
+                : "azure".equalsIgnoreCase(name) ? ProviderMetrics.AZURE_KEY : MetricsKey.of(name);
+        Distribution latency = Distribution.parse(setting("latency." + name, defaultLatency), true);
+        providers.add(new Provider(name, ProviderMetrics.forKey(key), latency));
+        return providers.size() - 1;
+    }
+
+    /**
+     * @return true if the final counters match the ops issued
+     */
+    boolean run() throws Exception {
+        if (!settings.isEmpty()) {
+            throw new IllegalArgumentException("unknown settings " + settings.keySet());
+        }
+        long[] overallBefore = new long[MetricsCounters.TOTALS];
+        OverallMetrics.getOverallMetrics().getTotals(overallBefore);
+        for (Provider provider : providers) {
+            provider.metrics.getTotals(provider.before);
+        }
+
+        ExecutorService executor = newExecutor();
+        final AtomicLong budget = new AtomicLong(ops);
+        final long deadline = System.nanoTime() + durationNanos;
+        List<Future<WorkerResult>> futures = new ArrayList<Future<WorkerResult>>();
+        long start = System.nanoTime();
+        for (int w = 0; w < concurrency; w++) {
+            futures.add(executor.submit(() -> work(budget, deadline)));
+        }
+        WorkerResult total = new WorkerResult(providers.size());
+        for (Future<WorkerResult> future : futures) {
+            WorkerResult result = future.get();
+            total.ops += result.ops;
+            total.recordingNanos += result.recordingNanos;
+            total.busyNanos += result.busyNanos;
+            for (int p = 0; p < providers.size(); p++) {
+                for (int i = 0; i < MetricsCounters.TOTALS; i++) {
+                    providers.get(p).issued[i] += result.issued[p][i];
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        EventRing ring = EventRing.get();
+        if (ring != null && !ring.awaitDrained(10, TimeUnit.SECONDS)) {
+            System.out.println("event ring not drained after 10s");
+        }
+
+        System.out.printf("%d ops in %.2f s by %d workers: %.0f ops/s%n", total.ops, elapsed / 1e9, concurrency,
+                total.ops * 1e9 / elapsed);
+        System.out.printf("metric recording: %s per op, %.2f%% of worker time (clock reads around it included)%n",
+                Distribution.formatNanos((double) total.recordingNanos / Math.max(total.ops, 1)),
+                100.0 * total.recordingNanos / Math.max(total.busyNanos, 1));
+        if (ring != null) {
+            System.out.printf("event ring: max occupancy %d of %d, %d events dropped%n",
+                    ring.getMaxOccupancy(), ring.getCapacity(), ring.getDroppedCount());
+        }
+        return report(overallBefore);
+    }
+
+    private ExecutorService newExecutor() {
+        if ("virtual".equals(threads)) {
+            try {
+                // Java 21, looked up by reflection as the project builds for Java 8
+                Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println("workers on virtual threads");
+                return (ExecutorService) virtual.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("virtual threads not available, falling back to platform threads");
+            }
+        } else if (!"platform".equals(threads)) {
+            throw new IllegalArgumentException("threads is virtual or platform, not " + threads);
+        }
+        System.out.printf("workers on %d platform threads%n", concurrency);
+        return Executors.newFixedThreadPool(concurrency);
+    }
+
+    private WorkerResult work(AtomicLong budget, long deadline) {
+        Random random = ThreadLocalRandom.current();
+        WorkerResult result = new WorkerResult(providers.size());
+        int totalWeight = mixWeight[mixWeight.length - 1];
+        long claimed = 0;
+        while (true) {
+            if (durationNanos > 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    break;
+                }
+            } else if (claimed == 0) {
+                claimed = Math.min(budget.getAndAdd(-CLAIM), CLAIM);
+                if (claimed <= 0) {
+                    break;
+                }
+            }
+            claimed--;
+
+            int pick = random.nextInt(totalWeight);
+            int entry = 0;
+            while (mixWeight[entry] <= pick) {
+                entry++;
+            }
+            Provider provider = providers.get(mixProvider[entry]);
+            long[] issued = result.issued[mixProvider[entry]];
+            ProviderMetrics metrics = provider.metrics;
+            long size = sizes.sample(random);
+            long latency = provider.latency.sample(random);
+
+            long begin = System.nanoTime();
+            long token;
+            if (mixPut[entry]) {
+                metrics.incTotalBytesUp(size);
+                token = metrics.startPutTime();
+            } else {
+                metrics.incTotalBytesDown(size);
+                token = metrics.startGetTime();
+            }
+            // The token is the start time, when the op is timed at all
+            long started = token != MetricsCounters.NOT_SAMPLED ? token : System.nanoTime();
+            if (latency > 0) {
+                LockSupport.parkNanos(latency);
+            }
+            long stop = System.nanoTime();
+            if (mixPut[entry]) {
+                metrics.incTotalPutTime(token, size);
+                metrics.incTotalSuccessfulPutRequests();
+                issued[MetricsCounters.TOTAL_BYTES_UP] += size;
+                issued[MetricsCounters.TOTAL_PUT_REQUESTS]++;
+                issued[MetricsCounters.TOTAL_PUT_TIMED]++;
+            } else {
+                metrics.incTotalGetTime(token, size);
+                metrics.incTotalSuccessfulGetRequests();
+                issued[MetricsCounters.TOTAL_BYTES_DOWN] += size;
+                issued[MetricsCounters.TOTAL_GET_REQUESTS]++;
+                issued[MetricsCounters.TOTAL_GET_TIMED]++;
+            }
+            long end = System.nanoTime();
+            result.recordingNanos += (started - begin) + (end - stop);
+            result.busyNanos += end - begin;
+            result.ops++;
+        }
+        return result;
+    }
+
+    private static final int[] CHECKED = {
+            MetricsCounters.TOTAL_BYTES_UP, MetricsCounters.TOTAL_PUT_REQUESTS, MetricsCounters.TOTAL_PUT_TIMED,
+            MetricsCounters.TOTAL_BYTES_DOWN, MetricsCounters.TOTAL_GET_REQUESTS, MetricsCounters.TOTAL_GET_TIMED};
+    private static final String[] CHECKED_NAMES = {"bytes up", "puts", "timed puts", "bytes down", "gets", "timed gets"};
+
+    private static boolean isEstimate(int index) {
+        return index == MetricsCounters.TOTAL_PUT_TIMED || index == MetricsCounters.TOTAL_GET_TIMED;
+    }
+
+    private boolean report(long[] overallBefore) throws Exception {
+        boolean ok = true;
+        long[] now = new long[MetricsCounters.TOTALS];
+        long[] issuedSum = new long[MetricsCounters.TOTALS];
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        boolean sampled = false;
+        System.out.printf("%-12s %10s %10s %14s %14s %22s %22s%n", "provider", "puts", "gets", "bytes up",
+                "bytes down", "put p50/p99 (us)", "get p50/p99 (us)");
+        for (Provider provider : providers) {
+            provider.metrics.getTotals(now);
+            boolean estimates = provider.metrics.getLatencySampleEvery() > 1;
+            sampled |= estimates;
+            for (int i = 0; i < CHECKED.length; i++) {
+                int index = CHECKED[i];
+                issuedSum[index] += provider.issued[index];
+                long recorded = now[index] - provider.before[index];
+                if (estimates && isEstimate(index)) {
+                    System.out.printf("sampled %s %s: issued %d, estimated %d%n", provider.name, CHECKED_NAMES[i],
+                            provider.issued[index], recorded);
+                } else if (recorded != provider.issued[index]) {
+                    System.out.printf("MISMATCH %s %s: issued %d, recorded %d%n", provider.name, CHECKED_NAMES[i],
+                            provider.issued[index], recorded);
+                    ok = false;
+                }
+            }
+            MetricsManager.getMetricsManager().getSnapshot(LATENCIES, provider.metrics.getMetricsKey(), snapshot);
+            System.out.printf("%-12s %10d %10d %14d %14d %22s %22s%n", provider.name,
+                    provider.issued[MetricsCounters.TOTAL_PUT_REQUESTS], provider.issued[MetricsCounters.TOTAL_GET_REQUESTS],
+                    provider.issued[MetricsCounters.TOTAL_BYTES_UP], provider.issued[MetricsCounters.TOTAL_BYTES_DOWN],
+                    snapshot.get(MetricsOption.PUT_LATENCY_P50) + " / " + snapshot.get(MetricsOption.PUT_LATENCY_P99),
+                    snapshot.get(MetricsOption.GET_LATENCY_P50) + " / " + snapshot.get(MetricsOption.GET_LATENCY_P99));
+        }
+        OverallMetrics.getOverallMetrics().getTotals(now);
+        for (int i = 0; i < CHECKED.length; i++) {
+            int index = CHECKED[i];
+            long recorded = now[index] - overallBefore[index];
+            if (sampled && isEstimate(index)) {
+                continue;
+            }
+            if (recorded != issuedSum[index]) {
+                System.out.printf("MISMATCH overall %s: issued %d, recorded %d%n", CHECKED_NAMES[i], issuedSum[index],
+                        recorded);
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "final counters match the ops issued" : "final counters DO NOT match the ops issued");
+        return ok;
+    }
+}
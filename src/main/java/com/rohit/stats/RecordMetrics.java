@@ -1,129 +1,114 @@
 package com.rohit.stats;
 
 import com.rohit.stats.metrics.MetricsKey;
-import com.rohit.stats.metrics.AzureMetrics;
-import com.rohit.stats.metrics.AwsMetrics;
 import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.Transfer;
 import com.rohit.stats.monitoring.MetricsManager;
 import com.rohit.stats.monitoring.MetricsOption;
-import com.rohit.stats.monitoring.MetricsResult;
+import com.rohit.stats.monitoring.MetricsSnapshot;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
 
 public class RecordMetrics {
 
-    private AwsMetrics awsMetrics;
-    private AzureMetrics azureMetrics;
+    private ProviderMetrics awsMetrics;
+    private ProviderMetrics azureMetrics;
 
     private MetricsKey awsKey;
     private MetricsKey azureKey;
     /** Used in collecting stats */
-    public static final List<MetricsOption> options = new ArrayList<MetricsOption>();
+    public static final EnumSet<MetricsOption> options = EnumSet.of(
+            MetricsOption.BYTES_UP, MetricsOption.BYTES_DOWN,
+            MetricsOption.PUT_TIME, MetricsOption.GET_TIME,
+            MetricsOption.TOTAL_SUCCESSFUL_PUTS, MetricsOption.TOTAL_SUCCESSFUL_GETS,
+            MetricsOption.PUT_LATENCY_P50, MetricsOption.PUT_LATENCY_P90, MetricsOption.PUT_LATENCY_P99,
+            MetricsOption.PUT_LATENCY_P999, MetricsOption.PUT_LATENCY_MAX,
+            MetricsOption.GET_LATENCY_P50, MetricsOption.GET_LATENCY_P90, MetricsOption.GET_LATENCY_P99,
+            MetricsOption.GET_LATENCY_P999, MetricsOption.GET_LATENCY_MAX,
+            MetricsOption.BYTES_UP_RATE_M1, MetricsOption.PUT_REQUEST_RATE_M1,
+            MetricsOption.BYTES_DOWN_RATE_M1, MetricsOption.GET_REQUEST_RATE_M1,
+            MetricsOption.PUT_TRANSFERS_IN_FLIGHT, MetricsOption.PUT_BYTES_IN_FLIGHT,
+            MetricsOption.GET_TRANSFERS_IN_FLIGHT, MetricsOption.GET_BYTES_IN_FLIGHT);
 
-    public RecordMetrics(){
-        awsKey = AwsMetrics.DEFAULT_KEY;
-        azureKey = AzureMetrics.DEFAULT_KEY;
-
-        options.add(MetricsOption.BYTES_UP);
-        options.add(MetricsOption.BYTES_DOWN);
-        options.add(MetricsOption.PUT_TIME);
-        options.add(MetricsOption.GET_TIME);
-        options.add(MetricsOption.TOTAL_SUCCESSFUL_PUTS);
-        options.add(MetricsOption.TOTAL_SUCCESSFUL_GETS);
+    /** Reused by every stats call */
+    private final MetricsSnapshot stats = new MetricsSnapshot();
 
-        new Thread(() -> awsMetrics = new AwsMetrics(awsKey)).start();
+    public RecordMetrics(){
+        awsKey = ProviderMetrics.AWS_KEY;
+        azureKey = ProviderMetrics.AZURE_KEY;
 
-        new Thread(() -> azureMetrics = new AzureMetrics(azureKey)).start();
+        awsMetrics = ProviderMetrics.forKey(awsKey);
+        azureMetrics = ProviderMetrics.forKey(azureKey);
     }
 
     public void putBlobAws(int size) throws InterruptedException {
         System.out.println("Performing PUT Blob");
-        awsMetrics.incTotalBytesUp(size);
-        awsMetrics.startPutTime();
-        TimeUnit.SECONDS.sleep(2);
-        awsMetrics.incTotalPutTime();
-        awsMetrics.incTotalSuccessfulPutRequests();
+        transfer(awsMetrics.startPutTransfer(), size, 2);
         System.out.println("PUT Blob done!");
     }
     public void getBlobAws(int size) throws InterruptedException {
         System.out.println("Performing GET Blob");
-        awsMetrics.incTotalBytesDown(size);
-        awsMetrics.startGetTime();
-        TimeUnit.SECONDS.sleep(4);
-        awsMetrics.incTotalGetTime();
-        awsMetrics.incTotalSuccessfulGetRequests();
+        transfer(awsMetrics.startGetTransfer(), size, 4);
         System.out.println("GET Blob done!");
     }
 
     public void putBlobAzure(int size) throws InterruptedException {
         System.out.println("Performing PUT Blob");
-        azureMetrics.incTotalBytesUp(size);
-        azureMetrics.startPutTime();
-        TimeUnit.SECONDS.sleep(6);
-        azureMetrics.incTotalPutTime();
-        azureMetrics.incTotalSuccessfulPutRequests();
+        transfer(azureMetrics.startPutTransfer(), size, 6);
         System.out.println("PUT Blob done!");
     }
     public void getBlobAzure(int size) throws InterruptedException {
         System.out.println("Performing GET Blob");
-        azureMetrics.incTotalBytesDown(size);
-        azureMetrics.startGetTime();
-        TimeUnit.SECONDS.sleep(6);
-        azureMetrics.incTotalGetTime();
-        azureMetrics.incTotalSuccessfulGetRequests();
+        transfer(azureMetrics.startGetTransfer(), size, 6);
         System.out.println("GET Blob done!");
     }
 
-    public void printStatsAll(){
-        try{
-            System.out.println("==============================================");
-            System.out.println("Overall Stats");
-            System.out.println("==============================================");
-            MetricsResult totalStats = MetricsManager.getMetricsManager().getMetrics(options, OverallMetrics.getOverallMetrics().getMetricsKey());
-            System.out.println("Total bytes uploaded: "+totalStats.getBytesUp());
-            System.out.println("Total bytes upload time: "+totalStats.getPutTime());
-            System.out.println("Total successful PUT operations: "+totalStats.getTotalSuccessfulPuts());
-            System.out.println("Total bytes downloaded: "+totalStats.getBytesDown());
-            System.out.println("Total bytes download time: "+totalStats.getGetTime());
-            System.out.println("Total successful GET operations: "+totalStats.getTotalSuccessfulGets());
-            System.out.println("==============================================");
-
-        }catch (Exception e){
-            e.printStackTrace();
+    /** Moves the blob in one chunk a second, abandoning the transfer if interrupted */
+    private static void transfer(Transfer transfer, int size, int seconds) throws InterruptedException {
+        try {
+            for (int s = 0; s < seconds; s++) {
+                TimeUnit.SECONDS.sleep(1);
+                transfer.chunk(size / seconds + (s < size % seconds ? 1 : 0));
+            }
+            transfer.succeeded();
+        } finally {
+            transfer.close();
         }
     }
-    public void printStatsAws(){
-        try{
-            System.out.println("==============================================");
-            System.out.println("AWS Stats");
-            System.out.println("==============================================");
-            MetricsResult awsStats = MetricsManager.getMetricsManager().getMetrics(options, awsKey);
-            System.out.println("Total bytes uploaded: "+awsStats.getBytesUp());
-            System.out.println("Total bytes upload time: "+awsStats.getPutTime());
-            System.out.println("Total successful PUT operations: "+awsStats.getTotalSuccessfulPuts());
-            System.out.println("Total bytes downloaded: "+awsStats.getBytesDown());
-            System.out.println("Total bytes download time: "+awsStats.getGetTime());
-            System.out.println("Total successful GET operations: "+awsStats.getTotalSuccessfulGets());
-            System.out.println("==============================================");
 
-        }catch (Exception e){
-            e.printStackTrace();
-        }
+    public void printStatsAll(){
+        printStats("Overall Stats", OverallMetrics.getOverallMetrics().getMetricsKey());
+    }
+    public void printStatsAws(){
+        printStats("AWS Stats", awsKey);
     }
     public void printStatsAzure(){
+        printStats("AZURE Stats", azureKey);
+    }
+
+    private synchronized void printStats(String title, MetricsKey key){
         try{
             System.out.println("==============================================");
-            System.out.println("AZURE Stats");
+            System.out.println(title);
             System.out.println("==============================================");
-            MetricsResult azureStats = MetricsManager.getMetricsManager().getMetrics(options, azureKey);
-            System.out.println("Total bytes uploaded: "+azureStats.getBytesUp());
-            System.out.println("Total bytes upload time: "+azureStats.getPutTime());
-            System.out.println("Total successful PUT operations: "+azureStats.getTotalSuccessfulPuts());
-            System.out.println("Total bytes downloaded: "+azureStats.getBytesDown());
-            System.out.println("Total bytes download time: "+azureStats.getGetTime());
-            System.out.println("Total successful GET operations: "+azureStats.getTotalSuccessfulGets());
+            MetricsManager.getMetricsManager().getSnapshot(options, key, stats);
+            System.out.println("Total bytes uploaded: "+stats.get(MetricsOption.BYTES_UP));
+            System.out.println("Total bytes upload time: "+stats.get(MetricsOption.PUT_TIME));
+            System.out.println("Total successful PUT operations: "+stats.get(MetricsOption.TOTAL_SUCCESSFUL_PUTS));
+            System.out.println("Total bytes downloaded: "+stats.get(MetricsOption.BYTES_DOWN));
+            System.out.println("Total bytes download time: "+stats.get(MetricsOption.GET_TIME));
+            System.out.println("Total successful GET operations: "+stats.get(MetricsOption.TOTAL_SUCCESSFUL_GETS));
+            System.out.println("PUT latency p50/p90/p99/p99.9/max (us): "+stats.get(MetricsOption.PUT_LATENCY_P50)
+                    +" / "+stats.get(MetricsOption.PUT_LATENCY_P90)+" / "+stats.get(MetricsOption.PUT_LATENCY_P99)
+                    +" / "+stats.get(MetricsOption.PUT_LATENCY_P999)+" / "+stats.get(MetricsOption.PUT_LATENCY_MAX));
+            System.out.println("GET latency p50/p90/p99/p99.9/max (us): "+stats.get(MetricsOption.GET_LATENCY_P50)
+                    +" / "+stats.get(MetricsOption.GET_LATENCY_P90)+" / "+stats.get(MetricsOption.GET_LATENCY_P99)
+                    +" / "+stats.get(MetricsOption.GET_LATENCY_P999)+" / "+stats.get(MetricsOption.GET_LATENCY_MAX));
+            System.out.println("In flight PUT/GET transfers (bytes so far): "
+                    +stats.get(MetricsOption.PUT_TRANSFERS_IN_FLIGHT)+" ("+stats.get(MetricsOption.PUT_BYTES_IN_FLIGHT)+") / "
+                    +stats.get(MetricsOption.GET_TRANSFERS_IN_FLIGHT)+" ("+stats.get(MetricsOption.GET_BYTES_IN_FLIGHT)+")");
             System.out.println("==============================================");
 
         }catch (Exception e){
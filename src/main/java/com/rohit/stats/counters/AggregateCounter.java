@@ -0,0 +1,89 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Counter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * A Counter that owns no hot state of its own and computes its count when read,
+ * by summing a set of source counters.
+ *
+ * Used by OverallMetrics so that a provider update only touches the provider's counter.
+ * When a source is removed its last value is folded into a retired total, so the aggregate
+ * never goes backwards when a metric set is cleaned up.
+ *
+ * The removal and the fold are one step to a reader: removeSource() makes handOvers odd
+ * while it works, and a read that overlapped a removal is done again, so it never misses
+ * the value of the source nor counts it twice.
+ */
+
+public class AggregateCounter extends Counter implements CounterAggregate {
+
+    private final Set<Counter> sources = ConcurrentHashMap.newKeySet();
+
+    /** Values of removed sources plus anything added directly through inc() */
+    private final StripedCounter retired = new StripedCounter();
+
+    /** Odd while a source is being removed, counts up by 2 per removal */
+    private volatile long handOvers;
+
+    @Override
+    public void addSource( Counter source ) {
+        sources.add( source );
+    }
+
+    /**
+     * Stops reading the given source and keeps its current value in the total.
+     */
+    @Override
+    public synchronized void removeSource( Counter source ) {
+        if (!sources.contains( source )) {
+            return;
+        }
+        handOvers++;
+        try {
+            sources.remove( source );
+            retired.inc( source.getCount() );
+        } finally {
+            handOvers++;
+        }
+    }
+
+    @Override
+    public int getSourceCount() { return sources.size(); }
+
+    @Override
+    public void inc() { retired.inc(); }
+
+    @Override
+    public void inc(long n) { retired.inc( n ); }
+
+    @Override
+    public void dec() { retired.dec(); }
+
+    @Override
+    public void dec(long n) { retired.dec( n ); }
+
+    /**
+     * @return the retired total plus the current count of every source
+     */
+    @Override
+    public long getCount()
+    {
+        while (true) {
+            long seen = handOvers;
+            if ((seen & 1) == 0) {
+                long sum = retired.getCount();
+                for (Counter source : sources) {
+                    sum += source.getCount();
+                }
+                if (handOvers == seen) {
+                    return sum;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.rohit.stats.counters;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * The LatencyHistogram form of AggregateCounter.
+ *
+ * Reads merge the buckets of every source into one preallocated table, so percentiles
+ * are computed over all sources exactly as if every value had been recorded here.
+ * A removed source has its buckets folded into this histogram's own.
+ *
+ * A merge reads BUCKETS longs of every source, so it is reused for MERGE_REUSE_NANOS: one
+ * poll of the percentile and count gauges of this histogram merges once, and the
+ * values it reports are up to that much behind the sources. Adding or removing a source
+ * makes the next read merge again.
+ */
+
+public class AggregateLatencyHistogram extends LatencyHistogram {
+
+    private final Set<LatencyHistogram> sources = ConcurrentHashMap.newKeySet();
+
+    /** How long the result of a merge is read before the sources are merged again */
+    static final long MERGE_REUSE_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+    /** Merge target for reads, guarded by this */
+    private final AtomicLongArray merged = new AtomicLongArray( BUCKETS );
+    /** System.nanoTime() of the last merge, guarded by this */
+    private long mergedAt;
+    /** Cleared when the sources change, so that the next read merges */
+    private volatile boolean mergeValid;
+
+    public void addSource( LatencyHistogram source ) {
+        sources.add( source );
+        mergeValid = false;
+    }
+
+    /**
+     * Stops reading the given source and keeps its recorded values, in one step to the
+     * merging reads, which also hold this.
+     */
+    public synchronized void removeSource( LatencyHistogram source ) {
+        if (sources.remove( source )) {
+            merge( source );
+            mergeValid = false;
+        }
+    }
+
+    public int getSourceCount() { return sources.size(); }
+
+    @Override
+    public synchronized long getTotalCount()
+    {
+        return totalCount( mergeSources() );
+    }
+
+    @Override
+    public long getMax()
+    {
+        long max = super.getMax();
+        for (LatencyHistogram source : sources) {
+            max = Math.max( max, source.getMax() );
+        }
+        return max;
+    }
+
+    @Override
+    public synchronized long getValueAtPercentile( double percentile )
+    {
+        return valueAtPercentile( mergeSources(), percentile, getMax() );
+    }
+
+    @Override
+    public synchronized void getValuesAtPercentiles( double[] percentiles, int count, long[] values )
+    {
+        valuesAtPercentiles( mergeSources(), percentiles, count, values, getMax() );
+    }
+
+    @Override
+    public long getCountAbove( long nanos )
+    {
+        long above = super.getCountAbove( nanos );
+        for (LatencyHistogram source : sources) {
+            above += source.getCountAbove( nanos );
+        }
+        return above;
+    }
+
+    @Override
+    public synchronized void addTo( AtomicLongArray target )
+    {
+        AtomicLongArray m = mergeSources();
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = m.get( i );
+            if (n != 0) {
+                target.addAndGet( i, n );
+            }
+        }
+    }
+
+    /*
+     * Returns the merged buckets, merging the sources again once the last merge is older
+     *    than MERGE_REUSE_NANOS or the sources changed. Call holding this.
+     */
+    private AtomicLongArray mergeSources()
+    {
+        long now = System.nanoTime();
+        if (mergeValid && now - mergedAt < MERGE_REUSE_NANOS) {
+            return merged;
+        }
+        mergeValid = true;
+        mergedAt = now;
+        for (int i = 0; i < BUCKETS; i++) {
+            merged.set( i, 0 );
+        }
+        super.addTo( merged );
+        for (LatencyHistogram source : sources) {
+            source.addTo( merged );
+        }
+        return merged;
+    }
+}
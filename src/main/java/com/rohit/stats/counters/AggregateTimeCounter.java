@@ -0,0 +1,90 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Counter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * The TimeCounter form of AggregateCounter.
+ *
+ * Sums the nanosecond totals and operation counts of its sources when read, and only then
+ * converts to the report unit, so the aggregate is not off by the rounding of every source.
+ * A source is removed and folded in one step to a reader, as in AggregateCounter.
+ */
+
+public class AggregateTimeCounter extends TimeCounter implements CounterAggregate {
+
+    private final Set<TimeCounter> sources = ConcurrentHashMap.newKeySet();
+
+    /** Odd while a source is being removed, counts up by 2 per removal */
+    private volatile long handOvers;
+
+    /**
+     * Adds the source if it is a TimeCounter, other counters are ignored.
+     */
+    @Override
+    public void addSource( Counter source ) {
+        if (source instanceof TimeCounter) {
+            sources.add( (TimeCounter) source );
+        }
+    }
+
+    /**
+     * Stops reading the given source and keeps its current totals.
+     */
+    @Override
+    public synchronized void removeSource( Counter source ) {
+        if (!sources.contains( source )) {
+            return;
+        }
+        handOvers++;
+        try {
+            sources.remove( source );
+            TimeCounter time = (TimeCounter) source;
+            record( time.getTotalNanos(), time.getOperationCount() );
+        } finally {
+            handOvers++;
+        }
+    }
+
+    @Override
+    public int getSourceCount() { return sources.size(); }
+
+    @Override
+    public long getTotalNanos()
+    {
+        while (true) {
+            long seen = handOvers;
+            if ((seen & 1) == 0) {
+                long sum = super.getTotalNanos();
+                for (TimeCounter source : sources) {
+                    sum += source.getTotalNanos();
+                }
+                if (handOvers == seen) {
+                    return sum;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public long getOperationCount()
+    {
+        while (true) {
+            long seen = handOvers;
+            if ((seen & 1) == 0) {
+                long sum = super.getOperationCount();
+                for (TimeCounter source : sources) {
+                    sum += source.getOperationCount();
+                }
+                if (handOvers == seen) {
+                    return sum;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
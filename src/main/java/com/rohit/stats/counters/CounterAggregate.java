@@ -0,0 +1,20 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Counter;
+
+/**
+ *
+ * A counter whose value is computed from other counters when it is read.
+ *
+ * Removing a source keeps the source's last value in the aggregate, so an aggregate
+ * never goes backwards when one of its sources goes away.
+ */
+
+public interface CounterAggregate {
+
+    void addSource( Counter source );
+
+    void removeSource( Counter source );
+
+    int getSourceCount();
+}
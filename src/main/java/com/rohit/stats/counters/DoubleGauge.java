@@ -0,0 +1,16 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ *
+ * A Gauge over a primitive double, the counterpart of LongGauge for rates.
+ */
+
+public abstract class DoubleGauge implements Gauge<Double> {
+
+    public abstract double getDoubleValue();
+
+    @Override
+    public Double getValue() { return getDoubleValue(); }
+}
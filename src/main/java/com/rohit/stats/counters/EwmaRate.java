@@ -0,0 +1,127 @@
+package com.rohit.stats.counters;
+
+/**
+ *
+ * Per second rates of a counter: the instantaneous rate and 1, 5 and 15 minute
+ * exponentially weighted moving averages.
+ *
+ * Nothing is recorded on the update path. The rates are derived from the seconds ring of
+ * the RollingWindows holding the counter: a read folds each second closed since the
+ * previous read into the averages,
+ *
+ *     rate = rate * e^(-1/T) + delta * (1 - e^(-1/T))
+ *
+ * so a meter that is read seldom costs nothing, and the rates do not depend on when or
+ * how often they are read. The instantaneous rate is the delta of the last closed second.
+ * Seconds that already left the ring are folded as one step at their average rate.
+ *
+ * Reads lock the windows, so an amount the owner excludes from the windows is left out of
+ * the rates as well.
+ */
+
+public class EwmaRate {
+
+    public static final int INSTANT = 0;
+    public static final int ONE_MINUTE = 1;
+    public static final int FIVE_MINUTES = 2;
+    public static final int FIFTEEN_MINUTES = 3;
+
+    private static final double[] WINDOW_SECONDS = { 0, 60, 300, 900 };
+
+    /** Weight an average keeps over one second, per window */
+    private static final double[] DECAY = new double[WINDOW_SECONDS.length];
+
+    static {
+        for (int i = ONE_MINUTE; i < DECAY.length; i++) {
+            DECAY[i] = Math.exp( -1.0 / WINDOW_SECONDS[i] );
+        }
+    }
+
+    private static final RollingWindows.Resolution SECOND = RollingWindows.Resolution.SECOND;
+
+    private final RollingWindows windows;
+    private final int counter;
+
+    private final double[] rates = new double[WINDOW_SECONDS.length];
+    /** Number of the next second to fold, 0 before the first one */
+    private long next;
+    /** Closed total of the counter up to next */
+    private long folded;
+
+    /**
+     * @param counter index of the counter in the windows
+     */
+    public EwmaRate( RollingWindows windows, int counter ) {
+        if (counter < 0 || counter >= windows.getCounterCount()) {
+            throw new IllegalArgumentException( "counter " + counter );
+        }
+        this.windows = windows;
+        this.counter = counter;
+    }
+
+    /**
+     * @param window one of INSTANT, ONE_MINUTE, FIVE_MINUTES and FIFTEEN_MINUTES
+     * @return the rate in events per second
+     */
+    public double getRate( int window ) {
+        synchronized (windows) {
+            fold();
+            return rates[window];
+        }
+    }
+
+    /**
+     * @return a gauge reporting the given rate
+     */
+    public DoubleGauge rateGauge( final int window ) {
+        if (window < INSTANT || window > FIFTEEN_MINUTES) {
+            throw new IllegalArgumentException( "window " + window );
+        }
+        return new DoubleGauge() {
+            @Override
+            public double getDoubleValue() {
+                return getRate( window );
+            }
+        };
+    }
+
+    private void fold() {
+        long end = windows.closedSlots( SECOND );
+        if (end <= next) {
+            return;
+        }
+        long total = windows.getClosedTotal( counter );
+        if (next == 0) {
+            // The averages start at the rate of the first second seen
+            long delta = windows.get( counter, SECOND, end - 1 );
+            for (int i = INSTANT; i < rates.length; i++) {
+                rates[i] = delta;
+            }
+        } else {
+            long seconds = end - next;
+            int visible = (int) Math.min( seconds, SECOND.getSlots() );
+            long older = seconds - visible;
+            if (older > 0) {
+                long sum = total - folded;
+                for (long s = end - visible; s < end; s++) {
+                    sum -= windows.get( counter, SECOND, s );
+                }
+                double average = (double) sum / older;
+                for (int i = ONE_MINUTE; i < rates.length; i++) {
+                    double decay = Math.exp( -older / WINDOW_SECONDS[i] );
+                    rates[i] = rates[i] * decay + average * (1.0 - decay);
+                }
+            }
+            long delta = 0;
+            for (long s = end - visible; s < end; s++) {
+                delta = windows.get( counter, SECOND, s );
+                for (int i = ONE_MINUTE; i < rates.length; i++) {
+                    rates[i] = rates[i] * DECAY[i] + delta * (1.0 - DECAY[i]);
+                }
+            }
+            rates[INSTANT] = delta;
+        }
+        next = end;
+        folded = total;
+    }
+}
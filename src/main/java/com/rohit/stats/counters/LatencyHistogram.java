@@ -0,0 +1,344 @@
+package com.rohit.stats.counters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ *
+ * A fixed size, log bucketed histogram of operation latencies in nanoseconds.
+ *
+ * Values below 16 get a bucket each. Above that every power of 2 is split into 16 linear
+ * sub buckets (HDR style), so a bucket is never wider than 1/16 of its lower bound and a
+ * reported percentile is within about 6% of the true value. 720 buckets cover everything
+ * up to 2^48 ns (about 78 hours); larger values land in the last bucket.
+ *
+ * record() is a bucket index computation and one atomic increment, with no locks and no
+ * allocation. The bucket table itself is only allocated on the first record, so a histogram
+ * that is never used costs a few fields.
+ *
+ * As a gauge the histogram reports how many operations it has recorded; the percentiles are
+ * exposed through percentileGauge() and maxGauge().
+ */
+
+public class LatencyHistogram extends LongGauge {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_MAGNITUDE = 47;
+    public static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final AtomicReferenceFieldUpdater<LatencyHistogram,AtomicLongArray> COUNTS =
+            AtomicReferenceFieldUpdater.newUpdater( LatencyHistogram.class, AtomicLongArray.class, "counts" );
+
+    private volatile AtomicLongArray counts;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * record()
+     *
+     * Adds one operation that took the given number of nanoseconds.
+     */
+    public void record( long nanos )
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets().incrementAndGet( bucketIndex( nanos ) );
+        updateMax( nanos );
+    }
+
+    /**
+     * record()
+     *
+     * Adds a number of operations that took the given number of nanoseconds each, e.g. one
+     * sampled operation standing for the ones that were not timed.
+     */
+    public void record( long nanos, long count )
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets().addAndGet( bucketIndex( nanos ), count );
+        updateMax( nanos );
+    }
+
+    /**
+     * @return number of recorded operations
+     */
+    public long getTotalCount() { return totalCount( counts ); }
+
+    @Override
+    public long getLongValue() { return getTotalCount(); }
+
+    /**
+     * @return the largest recorded value in nanoseconds
+     */
+    public long getMax() { return max.get(); }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the recorded value at the given percentile in nanoseconds, 0 when empty
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        return valueAtPercentile( counts, percentile, getMax() );
+    }
+
+    /**
+     * getCountAbove()
+     *
+     * @return number of recorded operations slower than the given value at the resolution of
+     * the buckets, those in the buckets above its own. Only the buckets up to the max are read.
+     */
+    public long getCountAbove( long nanos )
+    {
+        AtomicLongArray c = counts;
+        if (c == null) {
+            return 0;
+        }
+        long above = 0;
+        for (int i = bucketIndex( Math.max( nanos, 0 ) ) + 1, last = bucketIndex( max.get() ); i <= last; i++) {
+            above += c.get( i );
+        }
+        return above;
+    }
+
+    /**
+     * addTo()
+     *
+     * Adds the counts of this histogram to the given table of BUCKETS counts.
+     */
+    public void addTo( AtomicLongArray target )
+    {
+        AtomicLongArray c = counts;
+        if (c == null) {
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = c.get( i );
+            if (n != 0) {
+                target.addAndGet( i, n );
+            }
+        }
+    }
+
+    /**
+     * @return the number of operations in the given bucket, 0 to BUCKETS - 1
+     */
+    public long getBucketCount( int index )
+    {
+        AtomicLongArray c = counts;
+        return c == null ? 0 : c.get( index );
+    }
+
+    /**
+     * addBucketCount()
+     *
+     * Adds operations straight to a bucket, e.g. merged in from another process, and raises
+     * the max to the given value.
+     */
+    public void addBucketCount( int index, long count, long max )
+    {
+        if (count != 0) {
+            buckets().addAndGet( index, count );
+        }
+        updateMax( max );
+    }
+
+    /**
+     * merge()
+     *
+     * Adds all counts and the max of the given histogram to this one.
+     */
+    public void merge( LatencyHistogram other )
+    {
+        if (other.counts != null) {
+            other.addTo( buckets() );
+        }
+        updateMax( other.getMax() );
+    }
+
+    /**
+     * getValuesAtPercentiles()
+     *
+     * Like getValueAtPercentile() for several percentiles at once, in one pass over the
+     * buckets.
+     *
+     * @param percentiles between 0 and 100, in any order
+     * @param count number of percentiles to compute
+     * @param values receives the value at each percentile in nanoseconds
+     */
+    public void getValuesAtPercentiles( double[] percentiles, int count, long[] values )
+    {
+        valuesAtPercentiles( counts, percentiles, count, values, getMax() );
+    }
+
+    /**
+     * @return a gauge reporting the value at the given percentile in microseconds
+     */
+    public PercentileGauge percentileGauge( final double percentile )
+    {
+        return new PercentileGauge( this, percentile );
+    }
+
+    /**
+     * A gauge reporting one percentile of a histogram in microseconds. Readers of several
+     * percentiles of the same histogram can use getValuesAtPercentiles() instead.
+     */
+    public static final class PercentileGauge extends LongGauge {
+
+        private final LatencyHistogram histogram;
+        private final double percentile;
+
+        PercentileGauge( LatencyHistogram histogram, double percentile ) {
+            this.histogram = histogram;
+            this.percentile = percentile;
+        }
+
+        public LatencyHistogram getHistogram() { return histogram; }
+
+        public double getPercentile() { return percentile; }
+
+        @Override
+        public long getLongValue() {
+            return TimeUnit.NANOSECONDS.toMicros( histogram.getValueAtPercentile( percentile ) );
+        }
+    }
+
+    /**
+     * @return a gauge reporting the largest recorded value in microseconds
+     */
+    public LongGauge maxGauge()
+    {
+        return new LongGauge() {
+            @Override
+            public long getLongValue() {
+                return TimeUnit.NANOSECONDS.toMicros( getMax() );
+            }
+        };
+    }
+
+    protected void updateMax( long value )
+    {
+        long current = max.get();
+        while (value > current && !max.compareAndSet( current, value )) {
+            current = max.get();
+        }
+    }
+
+    protected AtomicLongArray buckets()
+    {
+        AtomicLongArray c = counts;
+        if (c == null) {
+            COUNTS.compareAndSet( this, null, new AtomicLongArray( BUCKETS ) );
+            c = counts;
+        }
+        return c;
+    }
+
+    static int bucketIndex( long value )
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros( value );
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the smallest value that falls in the given bucket
+     */
+    static long bucketLowValue( int index )
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+    }
+
+    /**
+     * @return the middle of the range of values that falls in the given bucket
+     */
+    static long bucketMidValue( int index )
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return bucketLowValue( index ) + ((1L << shift) >>> 1);
+    }
+
+    static long totalCount( AtomicLongArray c )
+    {
+        if (c == null) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += c.get( i );
+        }
+        return total;
+    }
+
+    static void valuesAtPercentiles( AtomicLongArray c, double[] percentiles, int count, long[] values, long max )
+    {
+        long total = totalCount( c );
+        if (total == 0) {
+            for (int p = 0; p < count; p++) {
+                values[p] = 0;
+            }
+            return;
+        }
+        // Pending percentiles hold their negated rank, found ones their value
+        int pending = count;
+        for (int p = 0; p < count; p++) {
+            values[p] = -Math.max( (long) Math.ceil( Math.min( percentiles[p], 100.0 ) / 100.0 * total ), 1 );
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && pending > 0; i++) {
+            long n = c.get( i );
+            if (n == 0) {
+                continue;
+            }
+            seen += n;
+            for (int p = 0; p < count; p++) {
+                if (values[p] < 0 && seen >= -values[p]) {
+                    values[p] = Math.min( bucketMidValue( i ), max );
+                    pending--;
+                }
+            }
+        }
+        for (int p = 0; p < count; p++) {
+            if (values[p] < 0) {
+                values[p] = max;
+            }
+        }
+    }
+
+    static long valueAtPercentile( AtomicLongArray c, double percentile, long max )
+    {
+        long total = totalCount( c );
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil( Math.min( percentile, 100.0 ) / 100.0 * total );
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += c.get( i );
+            if (seen >= rank) {
+                return Math.min( bucketMidValue( i ), max );
+            }
+        }
+        return max;
+    }
+}
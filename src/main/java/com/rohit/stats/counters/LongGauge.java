@@ -0,0 +1,19 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ *
+ * A Gauge over a primitive long.
+ *
+ * JMX and other dropwizard consumers go through getValue(), code in this project reads
+ * getLongValue() and so does not box.
+ */
+
+public abstract class LongGauge implements Gauge<Long> {
+
+    public abstract long getLongValue();
+
+    @Override
+    public Long getValue() { return getLongValue(); }
+}
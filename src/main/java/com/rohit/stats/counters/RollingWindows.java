@@ -0,0 +1,291 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Counter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Recent history of a fixed group of counters: per interval deltas kept in ring buffers at
+ * a few resolutions, 120 seconds, 60 minutes and 48 hours.
+ *
+ * Nothing happens on the update path. tick() samples every counter and writes the delta
+ * since the previous tick into the seconds ring. Every 60 seconds the sum of the closed
+ * minute is rolled up into the minutes ring, and every 60 minutes into the hours ring. Tick
+ * numbers are global, so the slots of all instances start and end together.
+ *
+ * Only instances whose counters changed need to be ticked each second. advance() sets the
+ * global tick number, and a read of an instance left behind ticks it up to that number
+ * first, closing the seconds it missed with 0: an idle instance costs nothing until read.
+ *
+ * All rings are allocated up front, so the memory of an instance is fixed and ticking does
+ * not allocate. TimeCounters are sampled in nanoseconds, other counters by getCount().
+ *
+ * tick() and exclude() synchronize on the instance, so an owner holding its monitor can
+ * add to a counter and exclude() the amount without it showing up in any slot, whether the
+ * ticker or a read ticks it.
+ *
+ * Reads synchronize on the instance too, as a read may tick it itself: a read sees the
+ * slots of one tick, never a slot number moved on before its slot was written.
+ */
+
+public class RollingWindows {
+
+    /** A resolution of the history: how long a slot lasts and how many are kept */
+    public enum Resolution {
+        SECOND( 1, 120 ),
+        MINUTE( 60, 60 ),
+        HOUR( 3600, 48 );
+
+        private final long slotSeconds;
+        private final int slots;
+
+        Resolution( long slotSeconds, int slots ) {
+            this.slotSeconds = slotSeconds;
+            this.slots = slots;
+        }
+
+        public long getSlotSeconds() { return slotSeconds; }
+
+        public int getSlots() { return slots; }
+
+        /**
+         * @return the finest resolution whose ring covers the given duration, or HOUR
+         */
+        public static Resolution covering( long duration, TimeUnit unit ) {
+            long seconds = unit.toSeconds( duration );
+            for (Resolution resolution : values()) {
+                if (seconds <= resolution.slotSeconds * resolution.slots) {
+                    return resolution;
+                }
+            }
+            return HOUR;
+        }
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+    private static final int SECONDS_PER_MINUTE = 60;
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private final Counter[] sources;
+
+    /** One ring per resolution, laid out as [counter][slot] */
+    private final long[][] rings = new long[RESOLUTIONS.length][];
+
+    /** Running sums of the open minute and hour, per counter */
+    private final long[] openMinute;
+    private final long[] openHour;
+
+    /** Last sampled value of each counter */
+    private final long[] last;
+
+    /** Sum of every closed second, per counter */
+    private final long[] closedTotals;
+
+    /** Per resolution, the number of the next slot to close. Guarded by this, like the rings */
+    private final long[] closed = new long[RESOLUTIONS.length];
+    private volatile long published;
+
+    /** The global tick number reads catch up to, see advance() */
+    private static volatile long current;
+
+    public RollingWindows( Counter... sources ) {
+        this.sources = sources.clone();
+        for (Resolution resolution : RESOLUTIONS) {
+            rings[resolution.ordinal()] = new long[sources.length * resolution.slots];
+        }
+        openMinute = new long[sources.length];
+        openHour = new long[sources.length];
+        last = new long[sources.length];
+        closedTotals = new long[sources.length];
+        // Count from the values at creation
+        for (int c = 0; c < sources.length; c++) {
+            last[c] = sample( sources[c] );
+        }
+    }
+
+    /**
+     * advance()
+     *
+     * Sets the global tick number the instances that were not ticked catch up to when read.
+     *    Called once a second by the ticker, before it ticks the instances that changed.
+     */
+    public static void advance( long tickNo ) {
+        current = tickNo;
+    }
+
+    /**
+     * @return the global tick number set by advance()
+     */
+    static long currentTick() { return current; }
+
+    /**
+     * @return number of counters kept
+     */
+    public int getCounterCount() { return sources.length; }
+
+    /**
+     * @return the index of the given counter, in the order given to the constructor, or -1
+     */
+    public int indexOf( Counter counter ) {
+        for (int c = 0; c < sources.length; c++) {
+            if (sources[c] == counter) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * tick()
+     *
+     * Closes every second up to the given global tick number, the current one holding the
+     * deltas since the previous tick and skipped ones holding 0. Ticks at or before the
+     * last one are ignored.
+     */
+    public synchronized void tick( long tickNo ) {
+        long next = closed[Resolution.SECOND.ordinal()];
+        if (next == 0) {
+            // First tick: the history starts now, slots before it read as 0
+            next = tickNo;
+            closed[Resolution.MINUTE.ordinal()] = tickNo / SECONDS_PER_MINUTE;
+            closed[Resolution.HOUR.ordinal()] = tickNo / (SECONDS_PER_MINUTE * MINUTES_PER_HOUR);
+        }
+        if (tickNo < next) {
+            return;
+        }
+        for (long t = next; t < tickNo; t++) {
+            closeSecond( t, false );
+        }
+        closeSecond( tickNo, true );
+        published = tickNo;
+    }
+
+    /**
+     * exclude()
+     *
+     * Leaves the given amount, just added to a counter, out of the history.
+     */
+    public synchronized void exclude( int counter, long amount ) {
+        last[counter] += amount;
+    }
+
+    private void closeSecond( long second, boolean sample ) {
+        long[] ring = rings[Resolution.SECOND.ordinal()];
+        int slots = Resolution.SECOND.slots;
+        int slot = (int) (second % slots);
+        for (int c = 0; c < sources.length; c++) {
+            long delta = 0;
+            if (sample) {
+                long value = sample( sources[c] );
+                // A counter that went backwards was reset, count from the new value
+                delta = Math.max( value - last[c], 0 );
+                last[c] = value;
+            }
+            ring[c * slots + slot] = delta;
+            openMinute[c] += delta;
+            closedTotals[c] += delta;
+        }
+        closed[Resolution.SECOND.ordinal()] = second + 1;
+
+        if ((second + 1) % SECONDS_PER_MINUTE == 0) {
+            long minute = second / SECONDS_PER_MINUTE;
+            closeSlot( Resolution.MINUTE, minute, openMinute, openHour );
+            if ((minute + 1) % MINUTES_PER_HOUR == 0) {
+                closeSlot( Resolution.HOUR, minute / MINUTES_PER_HOUR, openHour, null );
+            }
+        }
+    }
+
+    private void closeSlot( Resolution resolution, long slotNo, long[] open, long[] rollInto ) {
+        long[] ring = rings[resolution.ordinal()];
+        int slots = resolution.slots;
+        int slot = (int) (slotNo % slots);
+        for (int c = 0; c < sources.length; c++) {
+            ring[c * slots + slot] = open[c];
+            if (rollInto != null) {
+                rollInto[c] += open[c];
+            }
+            open[c] = 0;
+        }
+        closed[resolution.ordinal()] = slotNo + 1;
+    }
+
+    private static long sample( Counter counter ) {
+        if (counter instanceof TimeCounter) {
+            return ((TimeCounter) counter).getTotalNanos();
+        }
+        return counter.getCount();
+    }
+
+    /**
+     * sum()
+     *
+     * @param counter index of the counter, in the order given to the constructor
+     * @param slots number of most recent closed slots to add up
+     * @return the total of the counter over those slots
+     */
+    public synchronized long sum( int counter, Resolution resolution, int slots ) {
+        long end = closedSlots( resolution );
+        int n = (int) Math.min( Math.min( slots, resolution.slots ), end );
+        long[] ring = rings[resolution.ordinal()];
+        int base = counter * resolution.slots;
+        long total = 0;
+        for (long s = end - n; s < end; s++) {
+            total += ring[base + (int) (s % resolution.slots)];
+        }
+        return total;
+    }
+
+    /**
+     * get()
+     *
+     * @param slotNo the number of a closed slot still in the ring, one of the last
+     *    resolution.getSlots() below closedSlots( resolution )
+     * @return the total of the counter in that slot
+     */
+    public synchronized long get( int counter, Resolution resolution, long slotNo ) {
+        return rings[resolution.ordinal()][counter * resolution.slots + (int) (slotNo % resolution.slots)];
+    }
+
+    /**
+     * @return the sum of every closed second of a counter, since the first tick
+     */
+    public synchronized long getClosedTotal( int counter ) {
+        return closedTotals[counter];
+    }
+
+    /**
+     * series()
+     *
+     * Copies the most recent closed slots of a counter into the given array, oldest first.
+     *
+     * @return number of slots copied, at most out.length and the ring size
+     */
+    public synchronized int series( int counter, Resolution resolution, long[] out ) {
+        long end = closedSlots( resolution );
+        int n = (int) Math.min( Math.min( out.length, resolution.slots ), end );
+        long[] ring = rings[resolution.ordinal()];
+        int base = counter * resolution.slots;
+        for (int i = 0; i < n; i++) {
+            out[i] = ring[base + (int) ((end - n + i) % resolution.slots)];
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of the next slot to close at the given resolution, once caught up
+     *    with the global tick number
+     */
+    public synchronized long closedSlots( Resolution resolution ) {
+        long tickNo = current;
+        if (published < tickNo) {
+            // Not ticked since it was last changed, close the seconds up to the global one
+            tick( tickNo );
+        }
+        if (published == 0) {
+            return 0;
+        }
+        return closed[resolution.ordinal()];
+    }
+}
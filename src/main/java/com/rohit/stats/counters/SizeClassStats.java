@@ -0,0 +1,136 @@
+package com.rohit.stats.counters;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Operation count, byte total and time total of the blobs of one direction, by log2 size
+ * class: class 0 holds empty blobs, class c the sizes from 2^(c-1) up to 2^c - 1, and the
+ * last class everything from 2^(CLASSES-2) on, 64 TB. So class 21 holds 1 MB up to 2 MB.
+ *
+ * Every class keeps its values in LongAdders of its own, created by the first blob of the
+ * class, so request threads recording blobs of the same class spread over cells as a
+ * StripedCounter does, and those of different classes never touch the same values. The
+ * table of classes is only allocated by the first update, so sets that never see a blob of
+ * some direction cost a reference, and the others pay for the classes they use.
+ */
+
+public class SizeClassStats {
+
+    public static final int CLASSES = 48;
+
+    /** Bits a size class takes, e.g. in the low bits of an EventRing value */
+    public static final int CLASS_BITS = 6;
+
+    /** The values of one size class */
+    private static final class SizeClass {
+        final LongAdder ops = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    /** newUpdater() only takes the raw class of the field, hence the cast */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final AtomicReferenceFieldUpdater<SizeClassStats,AtomicReferenceArray<SizeClass>> TABLE =
+            (AtomicReferenceFieldUpdater) AtomicReferenceFieldUpdater.newUpdater( SizeClassStats.class,
+                    AtomicReferenceArray.class, "table" );
+
+    private volatile AtomicReferenceArray<SizeClass> table;
+
+    /**
+     * @return the size class of a blob of the given size in bytes
+     */
+    public static int classOf( long size ) {
+        return size <= 0 ? 0 : Math.min( Long.SIZE - Long.numberOfLeadingZeros( size ), CLASSES - 1 );
+    }
+
+    /**
+     * @return the smallest size in the given class, in bytes
+     */
+    public static long lowerBound( int sizeClass ) {
+        return sizeClass == 0 ? 0 : 1L << (sizeClass - 1);
+    }
+
+    /**
+     * recordBytes()
+     *
+     * Counts one blob of the given size.
+     */
+    public void recordBytes( long size ) {
+        SizeClass c = sizeClass( classOf( size ) );
+        c.ops.increment();
+        c.bytes.add( size );
+    }
+
+    /**
+     * recordTime()
+     *
+     * Adds time, in nanoseconds, spent on the blobs of the given class.
+     */
+    public void recordTime( int sizeClass, long nanos ) {
+        sizeClass( sizeClass ).nanos.add( nanos );
+    }
+
+    public long getOps( int sizeClass ) {
+        SizeClass c = find( sizeClass );
+        return c == null ? 0 : c.ops.sum();
+    }
+
+    public long getBytes( int sizeClass ) {
+        SizeClass c = find( sizeClass );
+        return c == null ? 0 : c.bytes.sum();
+    }
+
+    public long getNanos( int sizeClass ) {
+        SizeClass c = find( sizeClass );
+        return c == null ? 0 : c.nanos.sum();
+    }
+
+    /**
+     * addTo()
+     *
+     * Adds every value of this breakdown to the given one.
+     */
+    public void addTo( SizeClassStats target ) {
+        AtomicReferenceArray<SizeClass> t = table;
+        if (t == null) {
+            return;
+        }
+        for (int i = 0; i < CLASSES; i++) {
+            SizeClass c = t.get( i );
+            if (c == null) {
+                continue;
+            }
+            long ops = c.ops.sum();
+            long bytes = c.bytes.sum();
+            long nanos = c.nanos.sum();
+            if (ops != 0 || bytes != 0 || nanos != 0) {
+                SizeClass into = target.sizeClass( i );
+                into.ops.add( ops );
+                into.bytes.add( bytes );
+                into.nanos.add( nanos );
+            }
+        }
+    }
+
+    private SizeClass find( int sizeClass ) {
+        AtomicReferenceArray<SizeClass> t = table;
+        return t == null ? null : t.get( sizeClass );
+    }
+
+    private SizeClass sizeClass( int sizeClass ) {
+        AtomicReferenceArray<SizeClass> t = table;
+        if (t == null) {
+            TABLE.compareAndSet( this, null, new AtomicReferenceArray<SizeClass>( CLASSES ) );
+            t = table;
+        }
+        SizeClass c = t.get( sizeClass );
+        if (c == null) {
+            t.compareAndSet( sizeClass, null, new SizeClass() );
+            c = t.get( sizeClass );
+        }
+        return c;
+    }
+}
@@ -0,0 +1,54 @@
+package com.rohit.stats.counters;
+
+import com.codahale.metrics.Counter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * A Counter built for many writer threads and few readers.
+ *
+ * The count is kept in a java.util.concurrent.atomic.LongAdder. While uncontended every
+ * update is a single CAS on its base value, so an idle or lightly used counter costs a few
+ * dozen bytes. Only when threads collide does the adder add cells, each on a cache line of
+ * its own, and it doubles them only while collisions go on, up to the cpu count. A counter
+ * that a couple of threads share never pays for a table sized for the whole machine, which
+ * matters with ten of these per metric set and tens of thousands of sets.
+ *
+ * getCount() sums the base and every cell. The sum is not an atomic snapshot while writers are
+ * running, but every completed update is counted by the next read.
+ *
+ * It extends Counter so that the registry, the JmxReporter and the aggregates treat it as
+ * one, which costs the LongAdder every dropwizard Counter allocates and that is never used
+ * here: about 32 bytes a counter, with no cells as nothing ever writes it. Counted in, an idle
+ * StripedCounter takes about 90 bytes, so a metric set's counters cost a few hundred bytes
+ * more than bare longs would at high key counts.
+ */
+
+public class StripedCounter extends Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public StripedCounter()
+    {
+        super();
+    }
+
+    @Override
+    public void inc() { count.increment(); }
+
+    @Override
+    public void inc(long n) { count.add( n ); }
+
+    @Override
+    public void dec() { count.decrement(); }
+
+    @Override
+    public void dec(long n) { count.add( -n ); }
+
+    /**
+     * @return the sum of the base and all cells
+     */
+    @Override
+    public long getCount() { return count.sum(); }
+}
@@ -2,64 +2,125 @@ package com.rohit.stats.counters;
 
 import com.codahale.metrics.Counter;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  *
- * A TimeCounter to mimic keeping track of time since the counter was created.
+ * A TimeCounter keeps track of the total time spent in an operation, and of how many
+ * operations were timed.
+ *
+ * Every operation carries its own start token, so any number of operations can be timed
+ * at once on the same counter:
+ *
+ *     long token = counter.start();
+ *     ... do the work ...
+ *     counter.stop( token );
  *
- * Override the methods inc() and getCount() as we will maintain a variable currentRecordedTime
- * to calculate and hold the time taken for that operation
+ * The token is a System.nanoTime() reading, so timing allocates nothing. Elapsed nanoseconds
+ * are added to a StripedCounter, and getCount() converts the total to the report unit
+ * (seconds unless given otherwise) only when read.
  */
 
 public class TimeCounter extends Counter {
-    private long start;
-    private long currentRecordedTime;
+
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final StripedCounter operations = new StripedCounter();
+    private final TimeUnit reportUnit;
 
     public TimeCounter()
+    {
+        this( TimeUnit.SECONDS );
+    }
+
+    public TimeCounter( TimeUnit reportUnit )
     {
         super();
-        start = System.currentTimeMillis();
+        this.reportUnit = reportUnit;
     }
+
+    /**
+     * start()
+     *
+     * @return the start token for one operation, to be passed to stop()
+     */
+    public long start() { return System.nanoTime(); }
+
     /**
-     * setStartTime()
+     * stop()
      *
-     * Sets/Resets the start time of this counter to NOW!!
+     * Records the operation started with the given token.
+     *
+     * @param startToken the value returned by start()
+     * @return the elapsed time in nanoseconds
      */
-    public void setStartTime() { setStartTime( System.currentTimeMillis()); }
+    public long stop( long startToken )
+    {
+        long elapsed = System.nanoTime() - startToken;
+        record( elapsed );
+        return elapsed;
+    }
 
     /**
-     * setStartTime()
+     * record()
      *
-     * Allows user to set where they want the time to have originated.
-     *    This is useful for when a request starts, but sometime later
-     *    this counter is created.
+     * Adds one operation that took the given number of nanoseconds.
      */
-    public void setStartTime( long startTime ) {
-        start = startTime; }
+    public void record( long nanos )
+    {
+        totalNanos.inc( nanos );
+        operations.inc();
+    }
 
-    public long recordCurrentTime()
+    /**
+     * record()
+     *
+     * Adds a number of operations and their combined time in nanoseconds.
+     */
+    public void record( long nanos, long count )
     {
-        long end = System.currentTimeMillis();
-        long currentRecordedTime = end - start;
-        currentRecordedTime = currentRecordedTime / 1000;
-        System.out.println("Time taken to perform this operation: "+currentRecordedTime);
-        return currentRecordedTime;
-    }  // -- end of recordCurrentTime() --
+        totalNanos.inc( nanos );
+        operations.inc( count );
+    }
+
+    /**
+     * @return total time of all recorded operations in nanoseconds
+     */
+    public long getTotalNanos() { return totalNanos.getCount(); }
+
+    /**
+     * @return number of recorded operations
+     */
+    public long getOperationCount() { return operations.getCount(); }
+
+    public TimeUnit getReportUnit() { return reportUnit; }
 
     /**
      * @param time
-     * Increment the currentRecordedTime variable
+     * Adds time, given in the report unit, without counting an operation
      */
     @Override
     public void inc(long time) {
-        currentRecordedTime = currentRecordedTime + time;
+        totalNanos.inc( reportUnit.toNanos( time ) );
+    }
+
+    @Override
+    public void dec() { dec( 1 ); }
+
+    /**
+     * @param time
+     * Takes time, given in the report unit, off the total without uncounting an operation
+     */
+    @Override
+    public void dec(long time) {
+        totalNanos.dec( reportUnit.toNanos( time ) );
     }
 
     /**
-     * @return currentRecordedTime
+     * @return the total time in the report unit
      */
     @Override
     public long getCount()
     {
-        return currentRecordedTime;
+        return reportUnit.convert( getTotalNanos(), TimeUnit.NANOSECONDS );
     }
 }
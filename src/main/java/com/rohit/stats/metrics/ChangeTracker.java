@@ -0,0 +1,212 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * class ChangeTracker
+ *
+ * Dirty tracking of the metric sets for one incremental consumer. Every tracker owns one of
+ * the activity bits of MetricsCounters: the first update of a set after the tracker cleared
+ * its bit queues the set for that tracker, and later updates only read the bits. drain()
+ * hands over the queued sets and clears their bits again, so a set is queued at most once
+ * between two drains and a consumer never looks at sets that did not change.
+ *
+ * Sets that are removed or evicted are queued for every tracker as well, so that consumers
+ * can let go of them.
+ *
+ * At most MAX_TRACKERS trackers can be open at once. Trackers opened with openFor(), for
+ * consumers in user code such as cursors, can take all but RESERVED_TRACKERS of them, so the
+ * window ticker, counter file, journal and cluster pusher always get theirs. Such a tracker
+ * also closes itself once its owner is collected, so a consumer dropped without being closed
+ * does not keep its bit, nor the removed sets queued for it.
+ */
+public final class ChangeTracker {
+
+    /** Bit index of the first tracker, below are the other activity bits */
+    private static final int FIRST_BIT = Integer.numberOfTrailingZeros( MetricsCounters.TRACKER_ACTIVITY );
+
+    public static final int MAX_TRACKERS = Integer.bitCount( MetricsCounters.TRACKER_ACTIVITY );
+
+    /** Trackers openFor() leaves to the consumers of the library itself */
+    public static final int RESERVED_TRACKERS = 4;
+
+    /** Most trackers open through openFor() at once */
+    public static final int MAX_OWNED_TRACKERS = MAX_TRACKERS - RESERVED_TRACKERS;
+
+    private static final AtomicInteger owned = new AtomicInteger();
+
+    /** Owners collected with their tracker still open */
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+    /** Closes its tracker once the owner is collected */
+    private static final class Owner extends WeakReference<Object> {
+        final ChangeTracker tracker;
+
+        Owner( Object owner, ChangeTracker tracker ) {
+            super( owner, collected );
+            this.tracker = tracker;
+        }
+    }
+
+    /** Open trackers by bit index */
+    private static final AtomicReferenceArray<ChangeTracker> trackers = new AtomicReferenceArray<ChangeTracker>( Integer.SIZE );
+
+    private final int bit;
+    private final ConcurrentLinkedQueue<MetricsCounters> changed = new ConcurrentLinkedQueue<MetricsCounters>();
+    private volatile boolean closed;
+    /** Set for a tracker opened with openFor() */
+    private Owner owner;
+
+    private ChangeTracker( int bit ) {
+        this.bit = bit;
+    }
+
+    /**
+     * open()
+     *
+     * Opens a tracker and clears its bit on every current set. Every set updated from here on
+     *    is queued, so a consumer can read its baseline right after this call.
+     *
+     * @throws IllegalStateException if MAX_TRACKERS are open
+     */
+    public static ChangeTracker open() {
+        closeCollected();
+        for (int index = FIRST_BIT; index < FIRST_BIT + MAX_TRACKERS; index++) {
+            ChangeTracker tracker = new ChangeTracker( 1 << index );
+            if (trackers.compareAndSet( index, null, tracker )) {
+                tracker.clear( OverallMetrics.getOverallMetrics() );
+                for (ProviderMetrics metrics : ProviderMetrics.getAll()) {
+                    tracker.clear( metrics );
+                }
+                return tracker;
+            }
+        }
+        throw new IllegalStateException( "at most " + MAX_TRACKERS + " change trackers can be open" );
+    }
+
+    /**
+     * openFor()
+     *
+     * Opens a tracker, as open() does, for the given owner, and closes it when the owner is
+     *    collected without having closed it.
+     *
+     * @throws IllegalStateException if MAX_OWNED_TRACKERS trackers are open for owners
+     */
+    public static ChangeTracker openFor( Object owner ) {
+        closeCollected();
+        int count;
+        do {
+            count = owned.get();
+            if (count >= MAX_OWNED_TRACKERS) {
+                throw new IllegalStateException( "at most " + MAX_OWNED_TRACKERS
+                        + " change trackers can be open for cursors and the like, close the ones no longer read" );
+            }
+        } while (!owned.compareAndSet( count, count + 1 ));
+        ChangeTracker tracker;
+        try {
+            tracker = open();
+        } catch (RuntimeException e) {
+            owned.decrementAndGet();
+            throw e;
+        }
+        tracker.owner = new Owner( owner, tracker );
+        return tracker;
+    }
+
+    /**
+     * @return number of trackers open for owners
+     */
+    public static int getOwnedCount() { return owned.get(); }
+
+    /*
+     * closeCollected()
+     *
+     * Closes the trackers whose owner was collected.
+     */
+    private static void closeCollected() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            ((Owner) ref).tracker.close();
+        }
+    }
+
+    private void clear( MetricsCounters set ) {
+        set.clearActivity( bit );
+    }
+
+    /**
+     * changed()
+     *
+     * Queues a set whose tracker bits were just set by an update, for the trackers owning them.
+     */
+    public static void changed( MetricsCounters set, int bits ) {
+        bits &= MetricsCounters.TRACKER_ACTIVITY;
+        while (bits != 0) {
+            int index = Integer.numberOfTrailingZeros( bits );
+            bits &= bits - 1;
+            ChangeTracker tracker = trackers.get( index );
+            if (tracker != null) {
+                tracker.changed.add( set );
+            }
+        }
+    }
+
+    /**
+     * released()
+     *
+     * Queues a set leaving the registry for every open tracker.
+     */
+    static void released( MetricsCounters set ) {
+        // Before queuing, so that a dropped consumer does not hold on to the set
+        closeCollected();
+        for (int index = FIRST_BIT; index < FIRST_BIT + MAX_TRACKERS; index++) {
+            ChangeTracker tracker = trackers.get( index );
+            if (tracker != null) {
+                tracker.changed.add( set );
+            }
+        }
+    }
+
+    /**
+     * drain()
+     *
+     * Moves the sets changed since the last drain into the given collection, and clears
+     *    their bit first, so that an update racing with the caller's read queues the set again.
+     *    A set can be handed over more than once; pass a set to drop duplicates.
+     */
+    public void drain( Collection<MetricsCounters> into ) {
+        MetricsCounters set;
+        while ((set = changed.poll()) != null) {
+            set.clearActivity( bit );
+            into.add( set );
+        }
+    }
+
+    /**
+     * close()
+     *
+     * Stops tracking and frees the bit for another tracker.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        trackers.compareAndSet( Integer.numberOfTrailingZeros( bit ), this, null );
+        changed.clear();
+        if (owner != null) {
+            owner.clear();
+            owned.decrementAndGet();
+        }
+    }
+
+    public boolean isClosed() { return closed; }
+}
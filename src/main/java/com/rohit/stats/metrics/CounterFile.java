@@ -0,0 +1,371 @@
+package com.rohit.stats.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class CounterFile
+ *
+ * The counter file: the totals of every metric set are published to a memory mapped file,
+ * where another process can read them at any time without JMX or HTTP, see
+ * CounterFileReader.
+ *
+ * The file holds a copy of the totals, not the counters. The counters stay on the heap, in
+ * their StripedCounters, so recording an update costs what it does without the file, and
+ * the file takes no counter state off the heap; counting in the mapping instead would put
+ * every update of a counter on one shared, unstriped line and tie the counter to its slot.
+ *
+ * The file starts with a header line, then a label record per slot and then a value slot
+ * per set, one cache line holding its MetricsCounters.TOTALS longs. A label record holds the
+ * set's name, cut to MAX_NAME_BYTES, and its state. All numbers are longs in the native byte
+ * order, written and read with the putLong() and getLong() of a MappedByteBuffer. The magic
+ * is written last.
+ *
+ * Every PUBLISH_MILLIS the MetricsScheduler copies the totals of the sets updated since the
+ * last time, as a ChangeTracker tells, into their slots, so the file is that much behind the
+ * heap. Every change of a slot, to its label or its values, is made under the sequence number
+ * of its label record, odd while the slot changes and even after: a reader that sees the same
+ * even number before and after reading a slot has read it whole.
+ *
+ * Java 8 offers no fences for the accesses of a buffer, so fence() writes and then reads a
+ * volatile field after the odd number and before the even one, which the memory model lets
+ * no access cross. HotSpot compiles that to a full cpu barrier, which also orders the writes
+ * as the reader's process sees them; the memory model itself promises nothing for another
+ * process, so on another JVM the reader may see a torn slot as whole.
+ *
+ * Slot 0 holds what the released sets left: when a set is removed or evicted its totals
+ * are added there, and its slot goes to the next new set, zeroed. When every slot is taken
+ * new sets are left out of the file, counted in the overflow field. Histograms and the other
+ * metrics are not published. Selected by metrics.counter.file, the file is created once,
+ * replacing the one a previous run left.
+ */
+public final class CounterFile implements MetricsConstants {
+
+    public static final long MAGIC = 0x4d434e5400000002L;     // "MCNT", version 2
+
+    // --- Header, one cache line of longs ----
+    public static final int HEADER_BYTES = 64;
+    public static final int MAGIC_OFFSET = 0;
+    public static final int CAPACITY_OFFSET = 8;
+    /** Slots handed out so far, live or released */
+    public static final int USED_OFFSET = 16;
+    /** Sets left out of the file as it was full */
+    public static final int OVERFLOW_OFFSET = 24;
+    public static final int PID_OFFSET = 32;
+    /** System.currentTimeMillis() when the file was created */
+    public static final int STARTED_OFFSET = 40;
+
+    // --- Label records, one per slot: sequence, state, name length and name ----
+    public static final int LABEL_BYTES = 128;
+    public static final int LABEL_SEQUENCE = 0;
+    public static final int LABEL_STATE = 8;
+    public static final int LABEL_NAME_LENGTH = 16;
+    public static final int LABEL_NAME = 24;
+    public static final int MAX_NAME_BYTES = LABEL_BYTES - LABEL_NAME;
+
+    public static final int FREE = 0;
+    public static final int LIVE = 1;
+    public static final int RELEASED = 2;
+
+    // --- Value slots, one cache line each ----
+    public static final int SLOT_BYTES = MetricsCounters.TOTALS * 8;
+
+    public static final int RETIRED_SLOT = 0;
+    public static final String RETIRED_NAME = "(retired)";
+
+    /** How often the totals of the updated sets are published */
+    public static final long PUBLISH_MILLIS = 1000;
+
+    static final int DEFAULT_SLOTS = 4096;
+
+    private static final CounterFile instance = fromProperties();
+
+    private final File file;
+    private final int capacity;
+    private final MappedByteBuffer mapped;
+
+    /** Written and read by fence() only */
+    private static volatile long fence;
+
+    // --- Guarded by this ----
+    private int next = RETIRED_SLOT + 1;
+    private long overflow;
+    private final ArrayDeque<Integer> released = new ArrayDeque<Integer>();
+    private final long[] retired = new long[MetricsCounters.TOTALS];
+    private final long[] totals = new long[MetricsCounters.TOTALS];
+
+    // --- Used by the publishing task only ----
+    private ChangeTracker tracker;
+    private final Set<MetricsCounters> changed = new LinkedHashSet<MetricsCounters>();
+    private final long[] published = new long[MetricsCounters.TOTALS];
+
+    /** One slot of the file, given to one set */
+    public static final class Slot {
+
+        private final CounterFile file;
+        private final int index;
+
+        /** Guarded by the file */
+        private boolean released;
+
+        Slot( CounterFile file, int index ) {
+            this.file = file;
+            this.index = index;
+        }
+
+        public int getIndex() { return index; }
+
+        /**
+         * release()
+         *
+         * Adds the totals of the given set, the one the slot was given to, to the retired
+         *    slot and frees the slot for another set, once.
+         */
+        public void release( MetricsCounters set ) {
+            file.release( this, set );
+        }
+    }
+
+    CounterFile( File file, int capacity ) throws IOException {
+        if (capacity < 2) {
+            throw new IllegalArgumentException( "a counter file needs 2 slots at least, got " + capacity );
+        }
+        if (fileBytes( capacity ) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException( "a counter file of " + capacity + " slots is too large" );
+        }
+        this.file = file;
+        this.capacity = capacity;
+        // A reader may still map the old file; a new one leaves its mapping alone
+        if (file.exists() && !file.delete()) {
+            throw new IOException( "cannot replace " + file );
+        }
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            raf.setLength( fileBytes( capacity ) );
+            mapped = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, fileBytes( capacity ) );
+        } finally {
+            raf.close();
+        }
+        mapped.order( ByteOrder.nativeOrder() );
+
+        mapped.putLong( CAPACITY_OFFSET, capacity );
+        mapped.putLong( PID_OFFSET, pid() );
+        mapped.putLong( STARTED_OFFSET, System.currentTimeMillis() );
+        mapped.putLong( USED_OFFSET, next );
+        writeSlot( RETIRED_SLOT, LIVE, RETIRED_NAME, retired );
+        fence();
+        mapped.putLong( MAGIC_OFFSET, MAGIC );
+    }
+
+    private static CounterFile fromProperties() {
+        String path = System.getProperty( CounterFileProperty );
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        CounterFile file;
+        try {
+            file = new CounterFile( new File( path ), Integer.getInteger( CounterFileSlotsProperty, DEFAULT_SLOTS ) );
+        } catch (IOException | RuntimeException e) {
+            // Never keeps the metrics from working, they are just not published
+            System.out.printf( "counter file %s could not be opened: %s\n", path, e );
+            return null;
+        }
+        MetricsScheduler.get().scheduleWithFixedDelay( file::publish, PUBLISH_MILLIS, PUBLISH_MILLIS,
+                TimeUnit.MILLISECONDS );
+        MetricsScheduler.installShutdownHook();
+        return file;
+    }
+
+    /**
+     * @return the counter file, or null when the totals are not published
+     */
+    public static CounterFile get() { return instance; }
+
+    /**
+     * allocate()
+     *
+     * @return a slot for the set of the given name, or null when the totals are not
+     *    published, the default, or the file is full
+     */
+    public static Slot allocate( String name ) {
+        CounterFile file = instance;
+        return file == null ? null : file.allocateSlot( name );
+    }
+
+    /**
+     * registerMetrics()
+     *
+     * Adds counter.file.slots.used and counter.file.overflow to the registry, when there is a
+     *    counter file.
+     */
+    public static void registerMetrics( MetricRegistry registry ) {
+        final CounterFile file = instance;
+        if (file == null) {
+            return;
+        }
+        registry.register( "counter.file.slots.used", new LongGauge() {
+            @Override
+            public long getLongValue() { return file.getUsedSlots(); }
+        } );
+        registry.register( "counter.file.overflow", new LongGauge() {
+            @Override
+            public long getLongValue() { return file.getOverflow(); }
+        } );
+    }
+
+    public File getFile() { return file; }
+
+    public int getCapacity() { return capacity; }
+
+    public synchronized long getUsedSlots() { return next; }
+
+    public synchronized long getOverflow() { return overflow; }
+
+    /**
+     * @return the offset of the label record of a slot
+     */
+    public static long labelOffset( int slot ) {
+        return HEADER_BYTES + (long) slot * LABEL_BYTES;
+    }
+
+    /**
+     * @return the offset of the values of a slot, in a file of the given capacity
+     */
+    public static long valueOffset( int capacity, int slot ) {
+        return labelOffset( capacity ) + (long) slot * SLOT_BYTES;
+    }
+
+    public static long fileBytes( int capacity ) {
+        return valueOffset( capacity, capacity );
+    }
+
+    /*
+     * Writes the totals of the sets updated since the last run to their slots. The first run
+     *    writes every set, as the tracker only sees the updates made once it is open. The
+     *    tracker is opened here, out of the constructor, as opening it needs the overall set.
+     *    The overall set, which has a slot in dual write mode only, is written every run: its
+     *    own updaters leave the tracker alone. Runs on the MetricsScheduler thread only.
+     */
+    void publish() {
+        try {
+            if (tracker == null) {
+                tracker = ChangeTracker.open();
+                changed.addAll( ProviderMetrics.getAll() );
+            }
+            changed.add( OverallMetrics.getOverallMetrics() );
+            tracker.drain( changed );
+            for (MetricsCounters set : changed) {
+                Slot slot = set.getStorage();
+                if (slot != null && slot.file == this) {
+                    set.getTotals( published );
+                    publish( slot, published );
+                }
+            }
+            changed.clear();
+        } catch (RuntimeException e) {
+            // Report it and go on, or the scheduler would never publish again
+            e.printStackTrace();
+        }
+    }
+
+    synchronized void publish( Slot slot, long[] values ) {
+        // A released slot may be another set's by now
+        if (!slot.released) {
+            writeSlot( slot.index, LIVE, null, values );
+        }
+    }
+
+    synchronized Slot allocateSlot( String name ) {
+        int index;
+        Integer free = released.poll();
+        if (free != null) {
+            index = free;
+        } else if (next < capacity) {
+            index = next++;
+            mapped.putLong( USED_OFFSET, next );
+        } else {
+            mapped.putLong( OVERFLOW_OFFSET, ++overflow );
+            return null;
+        }
+        Arrays.fill( totals, 0 );
+        writeSlot( index, LIVE, name, totals );
+        return new Slot( this, index );
+    }
+
+    private synchronized void release( Slot slot, MetricsCounters set ) {
+        if (slot.released) {
+            return;
+        }
+        slot.released = true;
+        set.getTotals( totals );
+        for (int i = 0; i < retired.length; i++) {
+            retired[i] += totals[i];
+        }
+        writeSlot( RETIRED_SLOT, LIVE, null, retired );
+        writeSlot( slot.index, RELEASED, null, null );
+        released.add( slot.index );
+    }
+
+    /*
+     * Rewrites a slot, keeping its name or values when given none. The sequence of its label
+     *    record is odd while the slot changes, and even again after.
+     */
+    private void writeSlot( int slot, int state, String name, long[] values ) {
+        int at = (int) labelOffset( slot );
+        long sequence = mapped.getLong( at + LABEL_SEQUENCE );
+        mapped.putLong( at + LABEL_SEQUENCE, sequence + 1 );
+        fence();
+        mapped.putLong( at + LABEL_STATE, state );
+        if (name != null) {
+            byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+            int length = Math.min( bytes.length, MAX_NAME_BYTES );
+            for (int i = 0; i < length; i++) {
+                mapped.put( at + LABEL_NAME + i, bytes[i] );
+            }
+            mapped.putLong( at + LABEL_NAME_LENGTH, length );
+        }
+        if (values != null) {
+            int value = (int) valueOffset( capacity, slot );
+            for (int i = 0; i < values.length; i++) {
+                mapped.putLong( value + i * 8, values[i] );
+            }
+        }
+        fence();
+        mapped.putLong( at + LABEL_SEQUENCE, sequence + 2 );
+    }
+
+    /*
+     * Keeps the accesses of the buffer before it ahead of those after it: nothing moves
+     *    after the volatile write, nor before the volatile read following it.
+     */
+    private static void fence() {
+        fence = 0;
+        long ignored = fence;
+    }
+
+    private static long pid() {
+        // The runtime name is pid@host on the usual JVMs
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong( name.substring( 0, name.indexOf( '@' ) ) );
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.rohit.stats.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.counters.StripedCounter;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * class EventRing
+ *
+ * The ring recording mode: request threads publish every update as a small event into a
+ * preallocated ring buffer and return at once, and a single aggregator thread applies the
+ * events to the counters, histograms and windows of their set with MetricsCounters.record().
+ *
+ * An event is the set it belongs to, an op and one long, the byte count or the elapsed
+ * nanoseconds, kept in parallel arrays so that publishing allocates nothing. A producer
+ * claims a sequence with a CAS, fills the slot and publishes it with an ordered write of the
+ * sequence into the slot's marker. The aggregator reads the slots in sequence order and
+ * hands them back to the producers in batches.
+ *
+ * When the ring is full a producer drops the event, counting it, or waits for room by
+ * yielding or parking, see FullStrategy. An idle aggregator spins, yields or parks for a
+ * growing pause, see WaitStrategy.
+ *
+ * stop() closes the claim cursor, so that no event is claimed after it: the aggregator
+ * applies every event claimed before, then ends, and producers apply their updates
+ * themselves from then on, as in direct mode. The metrics shutdown hook stops the ring
+ * before the journal and the counter file take their last totals, see MetricsScheduler.
+ *
+ * Selected with metrics.recording.mode=ring. The ring is created once, when MetricsCounters
+ * is loaded.
+ */
+public final class EventRing implements MetricsConstants {
+
+    // --- Ops, one per MetricsCounters updater ----
+    public static final int BYTES_UP = 0;
+    public static final int PUT_TIME = 1;
+    public static final int PUT_REQUEST = 2;
+    public static final int BYTES_DOWN = 3;
+    public static final int GET_TIME = 4;
+    public static final int GET_REQUEST = 5;
+    // The time of a blob of known size: nanoseconds << SizeClassStats.CLASS_BITS | size class
+    public static final int PUT_TIME_SIZED = 6;
+    public static final int GET_TIME_SIZED = 7;
+    // The bytes of one chunk of a Transfer, and its end: bytes moved << 2 | Transfer.Outcome
+    public static final int BYTES_UP_CHUNK = 8;
+    public static final int BYTES_DOWN_CHUNK = 9;
+    public static final int PUT_TRANSFER_END = 10;
+    public static final int GET_TRANSFER_END = 11;
+
+    /** What a producer does when the ring is full */
+    public enum FullStrategy { DROP, YIELD, PARK }
+
+    /** What the aggregator does when the ring is empty */
+    public enum WaitStrategy { SPIN, YIELD, PARK }
+
+    static final int DEFAULT_SIZE = 1 << 16;
+
+    /** Events read before the consumed cursor is moved on */
+    private static final int BATCH = 256;
+
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 1 );
+    private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos( 500 );
+
+    /** The two cursors sit 128 bytes apart, so producers and the aggregator do not share a line */
+    private static final int CURSOR_STRIDE = 16;
+    private static final int CLAIMED = CURSOR_STRIDE;
+    private static final int CONSUMED = 2 * CURSOR_STRIDE;
+
+    /** Set in the claim cursor by stop(), above any sequence */
+    private static final long CLOSED = 1L << 62;
+
+    /** Applies one event: MetricsCounters.record(), or what a test wants to see */
+    interface Handler {
+        void apply( MetricsCounters set, int op, long value );
+    }
+
+    private static final EventRing instance = fromProperties();
+
+    private final int capacity;
+    private final int mask;
+    private final MetricsCounters[] sets;
+    private final int[] ops;
+    private final long[] values;
+
+    /** Sequence + 1 of the event held by each slot, once it is published */
+    private final AtomicLongArray published;
+
+    /** Next sequence to claim, and next sequence the aggregator reads */
+    private final AtomicLongArray cursors = new AtomicLongArray( 3 * CURSOR_STRIDE );
+
+    private final FullStrategy full;
+    private final WaitStrategy wait;
+    private final Handler handler;
+    private final Thread aggregator;
+
+    private final StripedCounter dropped = new StripedCounter();
+    private volatile long maxOccupancy;
+
+    EventRing( int size, FullStrategy full, WaitStrategy wait, Handler handler ) {
+        int n = 2;
+        while (n < size && n < (1 << 30)) {
+            n <<= 1;
+        }
+        this.capacity = n;
+        this.mask = n - 1;
+        this.sets = new MetricsCounters[n];
+        this.ops = new int[n];
+        this.values = new long[n];
+        this.published = new AtomicLongArray( n );
+        this.full = full;
+        this.wait = wait;
+        this.handler = handler;
+        aggregator = MetricsScheduler.newThreadFactory( "metrics-aggregator" ).newThread( this::aggregate );
+        aggregator.start();
+    }
+
+    private static EventRing fromProperties() {
+        if (!RecordingModeRing.equalsIgnoreCase( System.getProperty( RecordingModeProperty, RecordingModeDirect ) )) {
+            return null;
+        }
+        EventRing ring = new EventRing( Integer.getInteger( RingSizeProperty, DEFAULT_SIZE ),
+                FullStrategy.valueOf( System.getProperty( RingFullProperty, "yield" ).toUpperCase() ),
+                WaitStrategy.valueOf( System.getProperty( RingWaitProperty, "park" ).toUpperCase() ),
+                ( set, op, value ) -> set.record( op, value ) );
+        MetricsScheduler.installShutdownHook();
+        return ring;
+    }
+
+    /**
+     * @return the ring, or null when updates are recorded directly
+     */
+    public static EventRing get() { return instance; }
+
+    /**
+     * registerMetrics()
+     *
+     * Adds ring.occupancy, ring.occupancy.max and ring.dropped.events to the registry, in
+     *    ring mode.
+     */
+    public static void registerMetrics( MetricRegistry registry ) {
+        final EventRing ring = instance;
+        if (ring == null) {
+            return;
+        }
+        registry.register( "ring.occupancy", new LongGauge() {
+            @Override
+            public long getLongValue() { return ring.getOccupancy(); }
+        } );
+        registry.register( "ring.occupancy.max", new LongGauge() {
+            @Override
+            public long getLongValue() { return ring.getMaxOccupancy(); }
+        } );
+        registry.register( "ring.dropped.events", ring.dropped );
+    }
+
+    /**
+     * publish()
+     *
+     * Queues one update of the given set for the aggregator, or applies it right away once
+     *    the ring is stopped.
+     */
+    public void publish( MetricsCounters set, int op, long value ) {
+        long seq;
+        int waits = 0;
+        while (true) {
+            seq = cursors.get( CLAIMED );
+            if ((seq & CLOSED) != 0) {
+                handler.apply( set, op, value );
+                return;
+            }
+            if (seq - cursors.get( CONSUMED ) >= capacity) {
+                if (full == FullStrategy.DROP) {
+                    dropped.inc();
+                    return;
+                }
+                pause( full == FullStrategy.YIELD ? WaitStrategy.YIELD : WaitStrategy.PARK, waits++ );
+            } else if (cursors.compareAndSet( CLAIMED, seq, seq + 1 )) {
+                break;
+            }
+        }
+        int slot = (int) seq & mask;
+        sets[slot] = set;
+        ops[slot] = op;
+        values[slot] = value;
+        // Ordered after the writes above, which the aggregator reads once it sees the marker
+        published.lazySet( slot, seq + 1 );
+    }
+
+    private void aggregate() {
+        long next = cursors.get( CONSUMED );
+        int idle = 0;
+        while (true) {
+            int read = 0;
+            int slot = (int) next & mask;
+            while (published.get( slot ) == next + 1) {
+                if (read % BATCH == 0) {
+                    // Hand the slots read so far back, and sample how full the ring is
+                    cursors.lazySet( CONSUMED, next );
+                    long occupancy = (cursors.get( CLAIMED ) & ~CLOSED) - next;
+                    if (occupancy > maxOccupancy) {
+                        maxOccupancy = occupancy;
+                    }
+                }
+                MetricsCounters set = sets[slot];
+                sets[slot] = null;
+                try {
+                    handler.apply( set, ops[slot], values[slot] );
+                } catch (RuntimeException e) {
+                    // One bad event must not stop the aggregator
+                    e.printStackTrace();
+                }
+                next++;
+                read++;
+                slot = (int) next & mask;
+            }
+            if (read > 0) {
+                cursors.set( CONSUMED, next );
+                idle = 0;
+            } else if (cursors.get( CLAIMED ) == (next | CLOSED)) {
+                // Stopped, and every event claimed before is applied
+                return;
+            } else {
+                pause( wait, idle++ );
+            }
+        }
+    }
+
+    /**
+     * stop()
+     *
+     * Lets no more events in, and waits for the aggregator to apply the ones already
+     *    published and end. Updates published from then on are applied by the thread
+     *    publishing them.
+     *
+     * @return false if the timeout ran out before the aggregator ended
+     */
+    public boolean stop( long timeout, TimeUnit unit ) {
+        long claimed;
+        do {
+            claimed = cursors.get( CLAIMED );
+        } while ((claimed & CLOSED) == 0 && !cursors.compareAndSet( CLAIMED, claimed, claimed | CLOSED ));
+        LockSupport.unpark( aggregator );
+        try {
+            aggregator.join( Math.max( unit.toMillis( timeout ), 1 ) );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !aggregator.isAlive();
+    }
+
+    /**
+     * @return true once stop() was called
+     */
+    public boolean isStopped() { return (cursors.get( CLAIMED ) & CLOSED) != 0; }
+
+    private static void pause( WaitStrategy strategy, int times ) {
+        switch (strategy) {
+            case SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                // Park for 1us, doubling up to 500us while nothing happens
+                LockSupport.parkNanos( Math.min( MIN_PARK_NANOS << Math.min( times, 10 ), MAX_PARK_NANOS ) );
+        }
+    }
+
+    /**
+     * awaitDrained()
+     *
+     * Waits until every event published before the call has been applied, e.g. before
+     *    reading exact totals.
+     *
+     * @return false if the timeout ran out first
+     */
+    public boolean awaitDrained( long timeout, TimeUnit unit ) {
+        long target = cursors.get( CLAIMED ) & ~CLOSED;
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+        int waits = 0;
+        while (cursors.get( CONSUMED ) - target < 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            pause( WaitStrategy.PARK, waits++ );
+        }
+        return true;
+    }
+
+    /**
+     * @return number of events published but not yet applied
+     */
+    public long getOccupancy() {
+        return Math.max( (cursors.get( CLAIMED ) & ~CLOSED) - cursors.get( CONSUMED ), 0 );
+    }
+
+    /**
+     * @return the highest occupancy the aggregator has seen
+     */
+    public long getMaxOccupancy() { return maxOccupancy; }
+
+    /**
+     * @return number of events dropped because the ring was full
+     */
+    public long getDroppedCount() { return dropped.getCount(); }
+
+    /**
+     * @return number of events published
+     */
+    public long getPublishedCount() { return cursors.get( CLAIMED ) & ~CLOSED; }
+
+    public int getCapacity() { return capacity; }
+
+    public FullStrategy getFullStrategy() { return full; }
+
+    public WaitStrategy getWaitStrategy() { return wait; }
+}
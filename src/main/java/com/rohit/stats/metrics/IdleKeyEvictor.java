@@ -0,0 +1,160 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * class IdleKeyEvictor
+ *
+ * Bounds the number of ProviderMetrics sets. A periodic sweep on the MetricsScheduler
+ * thread evicts the sets that were not updated for the idle TTL, and then the least
+ * recently updated ones while there are more than maxKeys. Pinned keys are never evicted.
+ *
+ * Request threads only set an activity bit (see MetricsCounters.touch()), the sweep reads
+ * and clears it, so the record path carries no LRU bookkeeping.
+ *
+ * An evicted set leaves the registry and JMX at once, but stays in the overall totals
+ * until the next sweep, when its final values are folded in. Updates made through a
+ * reference taken before the eviction are kept as long as they land before that fold.
+ */
+final class IdleKeyEvictor implements Runnable, MetricsConstants {
+
+    static final long DEFAULT_SWEEP_INTERVAL_SECONDS = 5;
+
+    private final int maxKeys;
+    private final long idleTtlNanos;
+    private final long sweepIntervalNanos;
+
+    private final AtomicBoolean sweepRequested = new AtomicBoolean();
+    private final AtomicLong evictions = new AtomicLong();
+    private ScheduledFuture<?> task;
+
+    private static final Comparator<ProviderMetrics> LEAST_RECENTLY_ACTIVE = new Comparator<ProviderMetrics>() {
+        @Override
+        public int compare( ProviderMetrics a, ProviderMetrics b ) {
+            return Long.compare( a.lastActive - b.lastActive, 0 );
+        }
+    };
+
+    /**
+     * @param maxKeys most sets kept, 0 for no limit
+     * @param idleTtlNanos idle time after which a set is evicted, 0 for no TTL
+     * @param sweepIntervalNanos time between two sweeps
+     */
+    IdleKeyEvictor( int maxKeys, long idleTtlNanos, long sweepIntervalNanos ) {
+        if (maxKeys < 0 || idleTtlNanos < 0 || sweepIntervalNanos <= 0) {
+            throw new IllegalArgumentException( "maxKeys=" + maxKeys + " idleTtlNanos=" + idleTtlNanos
+                    + " sweepIntervalNanos=" + sweepIntervalNanos );
+        }
+        this.maxKeys = maxKeys;
+        this.idleTtlNanos = idleTtlNanos;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+    }
+
+    /**
+     * @return an evictor configured from the system properties, or null if neither a
+     *    key limit nor an idle TTL is set
+     */
+    static IdleKeyEvictor fromProperties() {
+        int maxKeys = Integer.getInteger( KeysMaxProperty, 0 );
+        long ttl = Long.getLong( KeysIdleTtlProperty, 0L );
+        long interval = Long.getLong( KeysSweepIntervalProperty, DEFAULT_SWEEP_INTERVAL_SECONDS );
+        if (maxKeys <= 0 && ttl <= 0) {
+            return null;
+        }
+        return new IdleKeyEvictor( Math.max( maxKeys, 0 ), TimeUnit.SECONDS.toNanos( Math.max( ttl, 0 ) ),
+                TimeUnit.SECONDS.toNanos( interval ) );
+    }
+
+    synchronized void start() {
+        if (task == null) {
+            task = MetricsScheduler.get().scheduleWithFixedDelay( this, sweepIntervalNanos, sweepIntervalNanos,
+                    TimeUnit.NANOSECONDS );
+        }
+    }
+
+    /**
+     * Stops the periodic sweep and folds whatever is still retiring into the totals.
+     */
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel( false );
+            task = null;
+        }
+        OverallMetrics.flushRetired();
+    }
+
+    int getMaxKeys() { return maxKeys; }
+
+    long getEvictionCount() { return evictions.get(); }
+
+    /**
+     * requestSweep()
+     *
+     * Runs a sweep soon on the scheduler thread, used when the key limit is exceeded between
+     *    two periodic sweeps. Requests made while one is pending are merged.
+     */
+    void requestSweep() {
+        if (sweepRequested.compareAndSet( false, true )) {
+            MetricsScheduler.get().execute( this );
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        sweepRequested.set( false );
+        try {
+            sweep( System.nanoTime() );
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic sweep, report it and sweep again next time
+            e.printStackTrace();
+        }
+    }
+
+    private void sweep( long now ) {
+        // Sets retired by an earlier sweep have had one interval to drain their last updates
+        OverallMetrics.flushRetired( now - sweepIntervalNanos );
+
+        List<ProviderMetrics> candidates = new ArrayList<ProviderMetrics>();
+        for (ProviderMetrics metrics : ProviderMetrics.getAll()) {
+            if (metrics.clearActivity( MetricsCounters.ACTIVE_SINCE_SWEEP )) {
+                metrics.lastActive = now;
+            }
+            if (ProviderMetrics.isPinned( metrics.getMetricsKey() )) {
+                continue;
+            }
+            if (idleTtlNanos > 0 && now - metrics.lastActive >= idleTtlNanos) {
+                evict( metrics );
+            } else {
+                candidates.add( metrics );
+            }
+        }
+
+        int excess = maxKeys > 0 ? ProviderMetrics.getAll().size() - maxKeys : 0;
+        if (excess > 0) {
+            Collections.sort( candidates, LEAST_RECENTLY_ACTIVE );
+            for (int i = 0; i < candidates.size() && excess > 0; i++) {
+                if (evict( candidates.get( i ) )) {
+                    excess--;
+                }
+            }
+        }
+    }
+
+    private boolean evict( ProviderMetrics metrics ) {
+        if (ProviderMetrics.evict( metrics )) {
+            evictions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+}
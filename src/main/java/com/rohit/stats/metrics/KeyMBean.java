@@ -0,0 +1,254 @@
+package com.rohit.stats.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.rohit.stats.counters.DoubleGauge;
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class KeyMBean
+ *
+ * The key JMX mode (metrics.jmx.mode=key): one DynamicMBean per metric set, named
+ * metrics:type=key,name=<key name>, in place of the JmxReporter's MBean per metric. Every
+ * counter, gauge, percentile and rate of the set is an attribute named by its metric id,
+ * e.g. "total.bytes.up" or "put.latency.p99", counters and long gauges as Long and rates as
+ * Double. Percentiles are in microseconds, as from their gauges.
+ *
+ * getAttributes() reads all the requested attributes in one pass, holding the monitor of the
+ * set's windows, so that no restore or window tick falls in between, and the percentiles of
+ * one histogram come from a single walk over its buckets. It is not a snapshot of the set:
+ * recording threads never take that monitor, so operations keep counting while the pass
+ * runs, and two attributes read in it, e.g. a byte total and a request total, may each
+ * include operations the other does not.
+ */
+public final class KeyMBean implements DynamicMBean {
+
+    private static final String DOMAIN = "metrics";
+
+    /** The MBeans we registered, by name */
+    private static final Map<ObjectName,KeyMBean> registered = new HashMap<ObjectName,KeyMBean>();
+
+    private final MetricsCounters set;
+    private final ObjectName objectName;
+    private final MBeanInfo info;
+
+    /** Metrics of the set by attribute name, in MBeanInfo order */
+    private final Map<String,Integer> indexes;
+    private final Metric[] metrics;
+
+    /** The histogram a percentile attribute reads, -1 for every other attribute */
+    private final int[] histogramOf;
+    /** Position of a percentile attribute among the percentiles of its histogram */
+    private final int[] percentileSlot;
+    private final LatencyHistogram[] histograms;
+    private final double[][] percentiles;
+
+    private KeyMBean( MetricsCounters set, Map<String,Metric> map ) throws MalformedObjectNameException {
+        this.set = set;
+        this.objectName = objectName( set.getMetricsKey().getKeyName() );
+        String prefix = set.getMetricsKey().getKeyName() + ".";
+
+        List<String> names = new ArrayList<String>( map.size() );
+        List<Metric> found = new ArrayList<Metric>( map.size() );
+        for (Map.Entry<String,Metric> entry : map.entrySet()) {
+            Metric metric = entry.getValue();
+            if (entry.getKey().startsWith( prefix ) && typeOf( metric ) != null) {
+                names.add( entry.getKey().substring( prefix.length() ) );
+                found.add( metric );
+            }
+        }
+
+        int n = names.size();
+        this.indexes = new HashMap<String,Integer>( n * 2 );
+        this.metrics = found.toArray( new Metric[n] );
+        this.histogramOf = new int[n];
+        this.percentileSlot = new int[n];
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[n];
+
+        // Group the percentile gauges by histogram, so each is read with one call
+        IdentityHashMap<LatencyHistogram,List<Integer>> byHistogram = new IdentityHashMap<LatencyHistogram,List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            indexes.put( names.get( i ), i );
+            attributes[i] = new MBeanAttributeInfo( names.get( i ), typeOf( metrics[i] ), names.get( i ),
+                    true, false, false );
+            histogramOf[i] = -1;
+            if (metrics[i] instanceof LatencyHistogram.PercentileGauge) {
+                LatencyHistogram histogram = ((LatencyHistogram.PercentileGauge) metrics[i]).getHistogram();
+                List<Integer> members = byHistogram.get( histogram );
+                if (members == null) {
+                    members = new ArrayList<Integer>();
+                    byHistogram.put( histogram, members );
+                }
+                members.add( i );
+            }
+        }
+        this.histograms = byHistogram.keySet().toArray( new LatencyHistogram[byHistogram.size()] );
+        this.percentiles = new double[histograms.length][];
+        for (int h = 0; h < histograms.length; h++) {
+            List<Integer> members = byHistogram.get( histograms[h] );
+            percentiles[h] = new double[members.size()];
+            for (int slot = 0; slot < members.size(); slot++) {
+                int i = members.get( slot );
+                histogramOf[i] = h;
+                percentileSlot[i] = slot;
+                percentiles[h][slot] = ((LatencyHistogram.PercentileGauge) metrics[i]).getPercentile();
+            }
+        }
+
+        this.info = new MBeanInfo( KeyMBean.class.getName(), "Metrics of " + set.getMetricsKey().getKeyName(),
+                attributes, null, null, null );
+    }
+
+    /**
+     * @return the name of the MBean of the given key, e.g. metrics:type=key,name=AWS_METRICS
+     */
+    public static ObjectName objectName( String keyName ) throws MalformedObjectNameException {
+        return new ObjectName( DOMAIN + ":type=key,name=" + ObjectName.quote( keyName ) );
+    }
+
+    /**
+     * register()
+     *
+     * Registers the MBean of the given set with the platform MBeanServer, replacing one left
+     *    by an earlier set of the same key.
+     */
+    static void register( MetricsCounters set, Map<String,Metric> map ) {
+        try {
+            KeyMBean bean = new KeyMBean( set, map );
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (registered) {
+                if (server.isRegistered( bean.objectName )) {
+                    server.unregisterMBean( bean.objectName );
+                }
+                server.registerMBean( bean, bean.objectName );
+                registered.put( bean.objectName, bean );
+            }
+        } catch (JMException e) {
+            System.out.printf( "KeyMBean register Exception : %s\n", e.toString() );
+        }
+    }
+
+    /**
+     * unregister()
+     *
+     * Removes the MBean of the given set, unless another set of the same key replaced it.
+     */
+    static void unregister( MetricsCounters set ) {
+        try {
+            ObjectName name = objectName( set.getMetricsKey().getKeyName() );
+            synchronized (registered) {
+                KeyMBean bean = registered.get( name );
+                if (bean != null && bean.set == set) {
+                    registered.remove( name );
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+                }
+            }
+        } catch (JMException e) {
+            System.out.printf( "KeyMBean unregister Exception : %s\n", e.toString() );
+        }
+    }
+
+    /**
+     * @return number of key MBeans registered
+     */
+    public static int getRegisteredCount() {
+        synchronized (registered) {
+            return registered.size();
+        }
+    }
+
+    private static String typeOf( Metric metric ) {
+        if (metric instanceof Counter || metric instanceof LongGauge) {
+            return Long.class.getName();
+        }
+        if (metric instanceof DoubleGauge) {
+            return Double.class.getName();
+        }
+        return null;
+    }
+
+    @Override
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException {
+        AttributeList values = getAttributes( new String[] { attribute } );
+        if (values.isEmpty()) {
+            throw new AttributeNotFoundException( attribute );
+        }
+        return ((Attribute) values.get( 0 )).getValue();
+    }
+
+    /**
+     * getAttributes()
+     *
+     * Reads the given attributes in one pass. Unknown names are left out of the list.
+     */
+    @Override
+    public AttributeList getAttributes( String[] attributes ) {
+        AttributeList values = new AttributeList( attributes.length );
+        long[][] percentileValues = new long[histograms.length][];
+        synchronized (set.getWindows()) {
+            for (String attribute : attributes) {
+                Integer index = indexes.get( attribute );
+                if (index == null) {
+                    continue;
+                }
+                int i = index;
+                Object value;
+                int h = histogramOf[i];
+                if (h >= 0) {
+                    if (percentileValues[h] == null) {
+                        percentileValues[h] = new long[percentiles[h].length];
+                        histograms[h].getValuesAtPercentiles( percentiles[h], percentiles[h].length, percentileValues[h] );
+                    }
+                    value = TimeUnit.NANOSECONDS.toMicros( percentileValues[h][percentileSlot[i]] );
+                } else if (metrics[i] instanceof Counter) {
+                    value = ((Counter) metrics[i]).getCount();
+                } else if (metrics[i] instanceof LongGauge) {
+                    value = ((LongGauge) metrics[i]).getLongValue();
+                } else {
+                    value = ((DoubleGauge) metrics[i]).getDoubleValue();
+                }
+                values.add( new Attribute( attribute, value ) );
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException( "read only: " + attribute.getName() );
+    }
+
+    @Override
+    public AttributeList setAttributes( AttributeList attributes ) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws ReflectionException {
+        throw new ReflectionException( new NoSuchMethodException( actionName ) );
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() { return info; }
+}
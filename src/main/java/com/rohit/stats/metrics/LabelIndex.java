@@ -0,0 +1,189 @@
+package com.rohit.stats.metrics;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * class LabelIndex
+ *
+ * Inverted index from label to series, for the roll-up queries of MetricsManager. Every
+ * registered ProviderMetrics gets a small series id, and every label name=value a posting
+ * list, the BitSet of the ids of the series carrying it. A query intersects the postings
+ * of its filter, then splits the result by the values of the group-by labels, so it only
+ * touches the series it returns.
+ *
+ * Series are added when their set is registered and removed when it is cleaned up or
+ * retired.
+ */
+public final class LabelIndex {
+
+    /**
+     * Receives the series of one group of a query.
+     */
+    public interface GroupVisitor {
+        /**
+         * @param group values of the group-by labels the series share
+         * @param series the series of the group, valid during the call
+         * @param count number of series
+         */
+        void visit( LabelSet group, ProviderMetrics[] series, int count );
+    }
+
+    private static final LabelIndex instance = new LabelIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ProviderMetrics[] series = new ProviderMetrics[1024];
+    private final BitSet live = new BitSet();
+    private final Map<ProviderMetrics,Integer> ids = new HashMap<ProviderMetrics,Integer>();
+
+    /** Series ids by label name, then by label value */
+    private final Map<String,Map<String,BitSet>> postings = new HashMap<String,Map<String,BitSet>>();
+
+    private LabelIndex() {
+    }
+
+    public static LabelIndex get() { return instance; }
+
+    /**
+     * add()
+     *
+     * Indexes a set under the labels of its key.
+     */
+    void add( ProviderMetrics metrics ) {
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey( metrics )) {
+                return;
+            }
+            int id = live.nextClearBit( 0 );
+            if (id == series.length) {
+                ProviderMetrics[] grown = new ProviderMetrics[2 * series.length];
+                System.arraycopy( series, 0, grown, 0, series.length );
+                series = grown;
+            }
+            series[id] = metrics;
+            live.set( id );
+            ids.put( metrics, id );
+            LabelSet labels = metrics.getMetricsKey().getLabels();
+            for (int i = 0; i < labels.size(); i++) {
+                Map<String,BitSet> values = postings.get( labels.getName( i ) );
+                if (values == null) {
+                    values = new HashMap<String,BitSet>();
+                    postings.put( labels.getName( i ), values );
+                }
+                BitSet ids = values.get( labels.getValue( i ) );
+                if (ids == null) {
+                    ids = new BitSet();
+                    values.put( labels.getValue( i ), ids );
+                }
+                ids.set( id );
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove()
+     *
+     * Drops a set from the index, and the postings left empty.
+     */
+    void remove( ProviderMetrics metrics ) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove( metrics );
+            if (id == null) {
+                return;
+            }
+            series[id] = null;
+            live.clear( id );
+            LabelSet labels = metrics.getMetricsKey().getLabels();
+            for (int i = 0; i < labels.size(); i++) {
+                Map<String,BitSet> values = postings.get( labels.getName( i ) );
+                BitSet ids = values.get( labels.getValue( i ) );
+                ids.clear( id );
+                if (ids.isEmpty()) {
+                    values.remove( labels.getValue( i ) );
+                    if (values.isEmpty()) {
+                        postings.remove( labels.getName( i ) );
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * query()
+     *
+     * Hands the series matching every label of the filter to the visitor, one call per
+     *    distinct combination of values of the group-by labels. Series lacking a group-by
+     *    label are grouped without it. With no group-by labels all matches form one group.
+     *
+     * @param filter labels a series must have, LabelSet.EMPTY for all series
+     * @param groupBy names of the labels to group by
+     */
+    public void query( LabelSet filter, String[] groupBy, GroupVisitor visitor ) {
+        lock.readLock().lock();
+        try {
+            BitSet selected = (BitSet) live.clone();
+            for (int i = 0; i < filter.size() && !selected.isEmpty(); i++) {
+                Map<String,BitSet> values = postings.get( filter.getName( i ) );
+                BitSet ids = values == null ? null : values.get( filter.getValue( i ) );
+                if (ids == null) {
+                    return;
+                }
+                selected.and( ids );
+            }
+            if (!selected.isEmpty()) {
+                group( selected, groupBy, 0, LabelSet.EMPTY, visitor, new ProviderMetrics[selected.cardinality()] );
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void group( BitSet selected, String[] groupBy, int depth, LabelSet group, GroupVisitor visitor,
+                        ProviderMetrics[] buffer ) {
+        if (depth == groupBy.length) {
+            int count = 0;
+            for (int id = selected.nextSetBit( 0 ); id >= 0; id = selected.nextSetBit( id + 1 )) {
+                buffer[count++] = series[id];
+            }
+            visitor.visit( group, buffer, count );
+            return;
+        }
+        Map<String,BitSet> values = postings.get( groupBy[depth] );
+        BitSet rest = (BitSet) selected.clone();
+        if (values != null) {
+            for (Map.Entry<String,BitSet> value : values.entrySet()) {
+                if (!selected.intersects( value.getValue() )) {
+                    continue;
+                }
+                BitSet matching = (BitSet) selected.clone();
+                matching.and( value.getValue() );
+                rest.andNot( value.getValue() );
+                group( matching, groupBy, depth + 1, group.with( groupBy[depth], value.getKey() ), visitor, buffer );
+            }
+        }
+        if (!rest.isEmpty()) {
+            group( rest, groupBy, depth + 1, group, visitor, buffer );
+        }
+    }
+
+    /**
+     * @return number of indexed series
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
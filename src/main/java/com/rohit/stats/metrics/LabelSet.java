@@ -0,0 +1,175 @@
+package com.rohit.stats.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * class LabelSet
+ *
+ * The labels of a metric set, e.g. provider=aws, region=eu-west-1, bucket=logs, sorted by
+ * name. Label sets are immutable and interned: of() hands out one canonical instance per
+ * distinct set, and the names and values are interned strings, so 100k keys sharing a few
+ * label values keep one copy of each. Canonical instances are held weakly and go away
+ * with the last key using them.
+ */
+public final class LabelSet {
+
+    private static final Map<LabelSet,WeakReference<LabelSet>> interned =
+            Collections.synchronizedMap( new WeakHashMap<LabelSet,WeakReference<LabelSet>>() );
+
+    public static final LabelSet EMPTY = intern( new LabelSet( new String[0], new String[0] ) );
+
+    private final String[] names;
+    private final String[] values;
+    private final int hash;
+
+    private LabelSet( String[] names, String[] values ) {
+        this.names = names;
+        this.values = values;
+        this.hash = 31 * Arrays.hashCode( names ) + Arrays.hashCode( values );
+    }
+
+    /**
+     * of()
+     *
+     * @param namesAndValues name, value, name, value, ...
+     * @return the canonical label set, e.g. of( "provider", "aws", "region", "eu-west-1" )
+     */
+    public static LabelSet of( String... namesAndValues ) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException( "labels come in name, value pairs" );
+        }
+        int n = namesAndValues.length / 2;
+        String[] names = new String[n];
+        String[] values = new String[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            String name = namesAndValues[2 * i];
+            String value = namesAndValues[2 * i + 1];
+            if (name == null || name.isEmpty() || value == null) {
+                throw new IllegalArgumentException( "bad label " + name + "=" + value );
+            }
+            // Insertion sort by name, the sets are small
+            int at = size;
+            while (at > 0 && names[at - 1].compareTo( name ) > 0) {
+                names[at] = names[at - 1];
+                values[at] = values[at - 1];
+                at--;
+            }
+            if (at > 0 && names[at - 1].equals( name )) {
+                throw new IllegalArgumentException( "label " + name + " given twice" );
+            }
+            names[at] = name.intern();
+            values[at] = value.intern();
+            size++;
+        }
+        return intern( new LabelSet( names, values ) );
+    }
+
+    /**
+     * parse()
+     *
+     * @param text labels as "name=value,name=value", empty for no labels
+     */
+    public static LabelSet parse( String text ) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return EMPTY;
+        }
+        String[] pairs = trimmed.split( "," );
+        String[] namesAndValues = new String[2 * pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            int eq = pairs[i].indexOf( '=' );
+            if (eq <= 0) {
+                throw new IllegalArgumentException( "bad label '" + pairs[i] + "' in " + text );
+            }
+            namesAndValues[2 * i] = pairs[i].substring( 0, eq ).trim();
+            namesAndValues[2 * i + 1] = pairs[i].substring( eq + 1 ).trim();
+        }
+        return of( namesAndValues );
+    }
+
+    private static LabelSet intern( LabelSet labels ) {
+        synchronized (interned) {
+            WeakReference<LabelSet> ref = interned.get( labels );
+            LabelSet canonical = ref == null ? null : ref.get();
+            if (canonical == null) {
+                canonical = labels;
+                interned.put( labels, new WeakReference<LabelSet>( labels ) );
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * with()
+     *
+     * @return the canonical set of these labels plus, or with a new value for, the given one
+     */
+    public LabelSet with( String name, String value ) {
+        String[] namesAndValues = new String[2 * names.length + 2];
+        int n = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals( name )) {
+                namesAndValues[n++] = names[i];
+                namesAndValues[n++] = values[i];
+            }
+        }
+        namesAndValues[n++] = name;
+        namesAndValues[n++] = value;
+        return of( Arrays.copyOf( namesAndValues, n ) );
+    }
+
+    /**
+     * @return the value of the given label, or null if the set does not have it
+     */
+    public String get( String name ) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals( name )) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public int size() { return names.length; }
+
+    public boolean isEmpty() { return names.length == 0; }
+
+    public String getName( int index ) { return names[index]; }
+
+    public String getValue( int index ) { return values[index]; }
+
+    @Override
+    public boolean equals( Object o ) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LabelSet)) {
+            return false;
+        }
+        LabelSet that = (LabelSet) o;
+        return hash == that.hash && Arrays.equals( names, that.names ) && Arrays.equals( values, that.values );
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+
+    /**
+     * @return the labels as "name=value,name=value", as read by parse()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                sb.append( ',' );
+            }
+            sb.append( names[i] ).append( '=' ).append( values[i] );
+        }
+        return sb.toString();
+    }
+}
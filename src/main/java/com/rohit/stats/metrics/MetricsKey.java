@@ -2,26 +2,126 @@ package com.rohit.stats.metrics;
 
 import com.rohit.stats.metrics.interfaces.MetricsConstants;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * class MetricsKey
+ *
+ * Names a metric set, e.g. a provider, bucket, container or tenant.
+ *
+ * Keys are immutable and compare by name, so they can be used in hash maps. The key a
+ * metric set is created with becomes the canonical instance of its name, and MetricsKey.of()
+ * hands it out as long as the set exists, which makes the hash lookups for a hot key an
+ * identity check. For a name without a set of() returns a new key and keeps nothing, so
+ * lookups of unknown names and keys that come and go do not pile up here.
+ *
+ * A key can carry labels, e.g. provider=aws,region=eu-west-1. The labels of the key a set
+ * is created with are those of the name until the set goes; they are indexed by LabelIndex
+ * for roll-up queries. Name and equality stay those of the key name.
+ */
 public class MetricsKey  implements Comparable<MetricsKey> {
 
-    private String keyName;
+    private static final ConcurrentHashMap<String,MetricsKey> interned = new ConcurrentHashMap<String,MetricsKey>();
+
+    private final String keyName;
+    private final int hash;
+    private final LabelSet labels;
 
 
     /**
      * Default constructor to set the default values
      */
     public MetricsKey() {
-        keyName = MetricsConstants.DEFAULT;
+        this( MetricsConstants.DEFAULT );
     }
 
     public MetricsKey(String container) {
+        this( container, LabelSet.EMPTY );
+    }
+
+    public MetricsKey(String container, LabelSet labels) {
+        if (container == null)
+            throw new NullPointerException( "keyName" );
+        if (labels == null)
+            throw new NullPointerException( "labels" );
         this.keyName = container;
+        this.hash = container.hashCode();
+        this.labels = labels;
     }
 
-    public String getKeyName() { return keyName; }
+    /**
+     * of()
+     *
+     * @return the canonical key for the given name, whatever its labels, or a new key
+     *    without labels when the name has no set
+     */
+    public static MetricsKey of( String keyName ) {
+        MetricsKey key = interned.get( keyName );
+        return key != null ? key : new MetricsKey( keyName );
+    }
 
+    /**
+     * of()
+     *
+     * @return the canonical key for the given name, or a new key with the given labels when
+     *    the name has no set
+     * @throws IllegalArgumentException if the name has a set with other labels
+     */
+    public static MetricsKey of( String keyName, LabelSet labels ) {
+        MetricsKey key = interned.get( keyName );
+        if (key == null) {
+            return new MetricsKey( keyName, labels );
+        }
+        if (key.labels != labels) {
+            throw new IllegalArgumentException( "key " + keyName + " has labels {" + key.labels + "}, not {" + labels + "}" );
+        }
+        return key;
+    }
 
-    public void setKeyName(String keyName) { this.keyName = keyName; }
+    /**
+     * of()
+     *
+     * @return the canonical key named after the given labels, e.g. "provider=aws,region=eu-west-1"
+     */
+    public static MetricsKey of( LabelSet labels ) {
+        return of( labels.toString(), labels );
+    }
+
+    /**
+     * intern()
+     *
+     * Makes this key the canonical one of its name, unless the name has one already. Called
+     *    when the set of the key is created.
+     *
+     * @return the canonical key with this key's name
+     */
+    public MetricsKey intern() {
+        MetricsKey key = interned.get( keyName );
+        if (key == null) {
+            key = interned.putIfAbsent( keyName, this );
+            if (key == null) {
+                key = this;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * forget()
+     *
+     * Drops the canonical instance of a removed or evicted key, so that churning key names
+     *    do not pile up here. The next set of the name interns its own key.
+     */
+    static void forget( MetricsKey key ) {
+        interned.remove( key.keyName, key );
+    }
+
+    public String getKeyName() { return keyName; }
+
+    /**
+     * @return the labels of this key, LabelSet.EMPTY when it has none
+     */
+    public LabelSet getLabels() { return labels; }
 
 
     @Override
@@ -36,6 +136,21 @@ public class MetricsKey  implements Comparable<MetricsKey> {
         return 0;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof MetricsKey))
+            return false;
+        MetricsKey that = (MetricsKey) o;
+        return hash == that.hash && keyName.equals( that.keyName );
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public String toString() {
         return "keyName=" + this.getKeyName();
@@ -0,0 +1,102 @@
+package com.rohit.stats.metrics;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * class MetricsScheduler
+ *
+ * The one background thread shared by the periodic metric tasks (key eviction and the like),
+ * so that none of them ever runs on a request thread.
+ *
+ * The thread is a daemon and is only started when the first task is scheduled.
+ *
+ * The metrics shutdown hook lives here too, so that what must happen at exit happens in
+ * order: the EventRing applies what was published and stops, then the journal writes its
+ * last record and the counter file publishes the last totals, both of them reading totals
+ * that hold every update.
+ */
+public final class MetricsScheduler {
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    /** Registered once, by the first feature that needs it */
+    private static Thread shutdownHook;
+
+    /** How long each step of the shutdown may take */
+    private static final long SHUTDOWN_STEP_SECONDS = 1;
+
+    private MetricsScheduler() {
+    }
+
+    /**
+     * @return the shared scheduler
+     */
+    public static ScheduledExecutorService get() {
+        ScheduledExecutorService instance = scheduler;
+        if (instance == null) {
+            synchronized (MetricsScheduler.class) {
+                instance = scheduler;
+                if (instance == null) {
+                    instance = scheduler = Executors.newSingleThreadScheduledExecutor( newThreadFactory( "metrics-scheduler" ) );
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * installShutdownHook()
+     *
+     * Registers the metrics shutdown hook, if not done yet.
+     */
+    static synchronized void installShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread( MetricsScheduler::shutdown, "metrics-shutdown" );
+            Runtime.getRuntime().addShutdownHook( shutdownHook );
+        }
+    }
+
+    /*
+     * shutdown()
+     *
+     * Stops the ring, then closes the journal and publishes the counter file a last time.
+     *    Every step is bounded, so a stuck one cannot hold the JVM up for long.
+     */
+    private static void shutdown() {
+        EventRing ring = EventRing.get();
+        if (ring != null) {
+            ring.stop( SHUTDOWN_STEP_SECONDS, TimeUnit.SECONDS );
+        }
+        SnapshotJournal journal = SnapshotJournal.current();
+        if (journal != null) {
+            journal.close();
+        }
+        CounterFile file = CounterFile.get();
+        if (file != null) {
+            try {
+                // On the scheduler thread, which the periodic publishing runs on as well
+                get().submit( (Runnable) file::publish ).get( SHUTDOWN_STEP_SECONDS, TimeUnit.SECONDS );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                System.out.printf( "counter file not published at shutdown: %s\n", e );
+            }
+        }
+    }
+
+    /**
+     * @return a factory of daemon threads with the given name
+     */
+    public static ThreadFactory newThreadFactory( final String name ) {
+        return runnable -> {
+            Thread thread = new Thread( runnable, name );
+            thread.setDaemon( true );
+            return thread;
+        };
+    }
+}
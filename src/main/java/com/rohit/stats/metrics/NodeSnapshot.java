@@ -0,0 +1,320 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * class NodeSnapshot
+ *
+ * The binary format a node sends its metric sets in to a cluster aggregator. A frame is
+ *
+ *     int length, int magic, byte version, node id, long incarnation, sequence, set count
+ *     and per set: key name, labels, a flag, the 8 values of MetricsCounters.getTotals(),
+ *     and the PUT and GET latency histograms
+ *
+ * Strings are a varint length and UTF-8 bytes, numbers are varints. The totals are zigzag
+ * encoded differences from the values the same Encoder sent for the set before, so a busy
+ * counter costs a byte or two per frame. The flag is FULL when there is no such base: in the
+ * first frame of a connection, and for a set created anew. A Decoder keeps the bases by key
+ * name and labels. The histograms are sparse: their max, the number of non-empty buckets,
+ * then for each the gap to the previous bucket index and the count.
+ *
+ * Totals and bucket counts are always cumulative, since the process started, so frames
+ * can be merged losslessly: the receiver takes the difference from what it last saw of the
+ * node, and a value that went down tells it the node restarted.
+ */
+public final class NodeSnapshot {
+
+    private static final int MAGIC = 0x4d4e4f44;        // "MNOD"
+    private static final int VERSION = 1;
+
+    /** Set flags: the totals are differences from the previous frame, or full values */
+    private static final byte DELTA = 0;
+    private static final byte FULL = 1;
+
+    /** Frames larger than this are refused by the Decoder */
+    public static final int MAX_FRAME_BYTES = 256 << 20;
+
+    private NodeSnapshot() {
+    }
+
+    /**
+     * Receives the content of a decoded frame.
+     */
+    public interface Sink {
+        void node( String nodeId, long incarnation, long sequence );
+
+        /**
+         * @param totals cumulative totals, laid out as by MetricsCounters.getTotals()
+         * @param put cumulative PUT latency buckets, valid during the call
+         * @param get cumulative GET latency buckets, valid during the call
+         */
+        void set( String keyName, LabelSet labels, long[] totals, Buckets put, Buckets get );
+    }
+
+    /**
+     * The non-empty buckets of a LatencyHistogram, by ascending index, and its max.
+     */
+    public static final class Buckets {
+        private int size;
+        private int[] indexes = new int[32];
+        private long[] counts = new long[32];
+        private long max;
+
+        public int size() { return size; }
+
+        public int getIndex( int i ) { return indexes[i]; }
+
+        public long getCount( int i ) { return counts[i]; }
+
+        public long getMax() { return max; }
+
+        public long getTotalCount() {
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        void clear() {
+            size = 0;
+            max = 0;
+        }
+
+        void add( int index, long count ) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf( indexes, 2 * size );
+                counts = Arrays.copyOf( counts, 2 * size );
+            }
+            indexes[size] = index;
+            counts[size] = count;
+            size++;
+        }
+
+        void read( LatencyHistogram histogram ) {
+            clear();
+            max = histogram.getMax();
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                long count = histogram.getBucketCount( i );
+                if (count != 0) {
+                    add( i, count );
+                }
+            }
+        }
+
+        /**
+         * @return a copy holding just the non-empty buckets
+         */
+        public Buckets copy() {
+            Buckets copy = new Buckets();
+            copy.size = size;
+            copy.indexes = Arrays.copyOf( indexes, Math.max( size, 1 ) );
+            copy.counts = Arrays.copyOf( counts, Math.max( size, 1 ) );
+            copy.max = max;
+            return copy;
+        }
+    }
+
+    /**
+     * Builds the frames of one node for one connection. Not thread safe.
+     */
+    public static final class Encoder {
+        private final byte[] nodeId;
+        private final long incarnation;
+        private long sequence;
+
+        /** Totals last sent per set, the base of the differences */
+        private final Map<MetricsCounters,long[]> sent = new HashMap<MetricsCounters,long[]>();
+
+        /** Totals of the frame being built, moved to sent once it is complete */
+        private final Map<MetricsCounters,long[]> building = new HashMap<MetricsCounters,long[]>();
+
+        private ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+        private final Buckets buckets = new Buckets();
+
+        public Encoder( String nodeId, long incarnation ) {
+            this.nodeId = nodeId.getBytes( StandardCharsets.UTF_8 );
+            this.incarnation = incarnation;
+        }
+
+        /**
+         * reset()
+         *
+         * Forgets what was sent, for a new connection: the next frames carry full values.
+         */
+        public void reset() {
+            sent.clear();
+        }
+
+        /**
+         * forget()
+         *
+         * Drops the base of a set that is gone, so that it does not pile up here.
+         */
+        public void forget( MetricsCounters set ) {
+            sent.remove( set );
+        }
+
+        /**
+         * encode()
+         *
+         * @return the frame, length included, holding the given sets; valid until the next call
+         */
+        public ByteBuffer encode( Iterable<? extends MetricsCounters> sets ) {
+            while (true) {
+                try {
+                    building.clear();
+                    buffer.clear();
+                    buffer.putInt( 0 );
+                    buffer.putInt( MAGIC );
+                    buffer.put( (byte) VERSION );
+                    SnapshotJournal.putVarLong( buffer, nodeId.length );
+                    buffer.put( nodeId );
+                    buffer.putLong( incarnation );
+                    SnapshotJournal.putVarLong( buffer, sequence );
+                    int countAt = buffer.position();
+                    buffer.putInt( 0 );
+                    int count = 0;
+                    for (MetricsCounters set : sets) {
+                        putSet( set );
+                        count++;
+                    }
+                    buffer.putInt( countAt, count );
+                    buffer.putInt( 0, buffer.position() - 4 );
+                    buffer.flip();
+                    sent.putAll( building );
+                    sequence++;
+                    return buffer;
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate( buffer.capacity() * 2 );
+                }
+            }
+        }
+
+        private void putSet( MetricsCounters set ) {
+            MetricsKey key = set.getMetricsKey();
+            putString( buffer, key.getKeyName() );
+            putString( buffer, key.getLabels().isEmpty() ? "" : key.getLabels().toString() );
+            long[] totals = new long[MetricsCounters.TOTALS];
+            set.getTotals( totals );
+            long[] base = sent.get( set );
+            buffer.put( base == null ? FULL : DELTA );
+            for (int i = 0; i < totals.length; i++) {
+                putZigZag( buffer, base == null ? totals[i] : totals[i] - base[i] );
+            }
+            building.put( set, totals );
+            putBuckets( set.getPutLatency() );
+            putBuckets( set.getGetLatency() );
+        }
+
+        private void putBuckets( LatencyHistogram histogram ) {
+            buckets.read( histogram );
+            SnapshotJournal.putVarLong( buffer, buckets.max );
+            SnapshotJournal.putVarLong( buffer, buckets.size );
+            int previous = 0;
+            for (int i = 0; i < buckets.size; i++) {
+                SnapshotJournal.putVarLong( buffer, buckets.indexes[i] - previous );
+                SnapshotJournal.putVarLong( buffer, buckets.counts[i] );
+                previous = buckets.indexes[i];
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of one connection. Not thread safe.
+     */
+    public static final class Decoder {
+
+        /** Totals last received per key name and labels, the base of the differences */
+        private final Map<String,long[]> received = new HashMap<String,long[]>();
+
+        private final Buckets put = new Buckets();
+        private final Buckets get = new Buckets();
+        private final long[] totals = new long[MetricsCounters.TOTALS];
+
+        /**
+         * decode()
+         *
+         * Reads one frame, without its length, and hands its content to the sink.
+         *
+         * @throws IllegalArgumentException if the frame is not one of ours
+         */
+        public void decode( ByteBuffer frame, Sink sink ) {
+            if (frame.getInt() != MAGIC || frame.get() != VERSION) {
+                throw new IllegalArgumentException( "not a node snapshot" );
+            }
+            String nodeId = getString( frame );
+            long incarnation = frame.getLong();
+            long sequence = SnapshotJournal.getVarLong( frame );
+            sink.node( nodeId, incarnation, sequence );
+            int count = frame.getInt();
+            for (int n = 0; n < count; n++) {
+                String keyName = getString( frame );
+                String labels = getString( frame );
+                String id = labels.isEmpty() ? keyName : keyName + '{' + labels + '}';
+                long[] base = received.get( id );
+                if (base == null) {
+                    base = new long[MetricsCounters.TOTALS];
+                    received.put( id, base );
+                }
+                if (frame.get() == FULL) {
+                    Arrays.fill( base, 0 );
+                }
+                for (int i = 0; i < totals.length; i++) {
+                    base[i] += getZigZag( frame );
+                    totals[i] = base[i];
+                }
+                getBuckets( frame, put );
+                getBuckets( frame, get );
+                sink.set( keyName, labels.isEmpty() ? LabelSet.EMPTY : LabelSet.parse( labels ), totals, put, get );
+            }
+        }
+
+        private static void getBuckets( ByteBuffer frame, Buckets buckets ) {
+            buckets.clear();
+            buckets.max = SnapshotJournal.getVarLong( frame );
+            int size = (int) SnapshotJournal.getVarLong( frame );
+            int index = 0;
+            for (int i = 0; i < size; i++) {
+                index += (int) SnapshotJournal.getVarLong( frame );
+                if (index < 0 || index >= LatencyHistogram.BUCKETS) {
+                    throw new IllegalArgumentException( "bad bucket index " + index );
+                }
+                buckets.add( index, SnapshotJournal.getVarLong( frame ) );
+            }
+        }
+    }
+
+    private static void putString( ByteBuffer buffer, String value ) {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        SnapshotJournal.putVarLong( buffer, bytes.length );
+        buffer.put( bytes );
+    }
+
+    private static String getString( ByteBuffer buffer ) {
+        int length = (int) SnapshotJournal.getVarLong( buffer );
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException( "bad string length " + length );
+        }
+        byte[] bytes = new byte[length];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static void putZigZag( ByteBuffer buffer, long value ) {
+        SnapshotJournal.putVarLong( buffer, (value << 1) ^ (value >> 63) );
+    }
+
+    private static long getZigZag( ByteBuffer buffer ) {
+        long value = SnapshotJournal.getVarLong( buffer );
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -2,6 +2,14 @@ package com.rohit.stats.metrics;
 
 
 import com.codahale.metrics.*;
+import com.rohit.stats.counters.AggregateCounter;
+import com.rohit.stats.counters.AggregateLatencyHistogram;
+import com.rohit.stats.counters.AggregateTimeCounter;
+import com.rohit.stats.counters.CounterAggregate;
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.counters.SizeClassStats;
+import com.rohit.stats.counters.TimeCounter;
 import com.rohit.stats.metrics.interfaces.MetricsCounters;
 import com.rohit.stats.metrics.interfaces.MetricsConstants;
 
@@ -9,6 +17,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * class - OverallMetrics
@@ -25,6 +34,11 @@ import java.util.Set;
  *    we get referenced for the first time.  The static initializer makes sure
  *    everything is built and ready for use.
  *
+ * By default (metrics.overall.mode=aggregate) the overall counters are AggregateCounters that sum
+ *    every metric set passed to registerMetricSet when they are read, so a provider update writes
+ *    a single counter. With metrics.overall.mode=dual the providers also write every update to
+ *    the overall counters, as they did originally.
+ *
  */
 
 public class OverallMetrics extends MetricsCounters implements MetricsConstants, MetricSet {
@@ -32,15 +46,76 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
     private final MetricsKey metricsKey;
     private final HashMap<String,Metric> metricMap;
 
+    // --- The counters behind the overall totals, either our own or the aggregates ----
+    private final Counter totalBytesUp;
+    private final TimeCounter totalPutTime;
+    private final Counter totalSuccessfulPutRequests;
+    private final Counter totalBytesDown;
+    private final TimeCounter totalGetTime;
+    private final Counter totalSuccessfulGetRequests;
+    private final LatencyHistogram totalPutLatency;
+    private final LatencyHistogram totalGetLatency;
+    private final Counter totalPutSampleVariance;
+    private final Counter totalGetSampleVariance;
+    private final Counter totalFailedPutTransfers;
+    private final Counter totalAbandonedPutTransfers;
+    private final Counter totalFailedGetTransfers;
+    private final Counter totalAbandonedGetTransfers;
+
+    /** Aggregates by metric id, empty when running in dual write mode */
+    private final HashMap<String,CounterAggregate> aggregates;
+    private final HashMap<String,AggregateLatencyHistogram> latencyAggregates;
+
     // ---  Statics --------
     private static volatile OverallMetrics rootMetric;
     private static final Object mutex = new Object();
     private static MetricRegistry registry;
 
+    /** Sets removed from the registry whose values are still read live, see retireMetricSet() */
+    private static final ConcurrentLinkedQueue<RetiredSet> retiring = new ConcurrentLinkedQueue<RetiredSet>();
+
+    /** Odd while a set moves out of ProviderMetrics.getAll() or retiring, counts up by 2 per move */
+    private static volatile long setHandOvers;
+    private static final Object handOverLock = new Object();
+
+    private static final class RetiredSet {
+        final MetricSet metrics;
+        final long retiredAt;
+
+        RetiredSet( MetricSet metrics, long retiredAt ) {
+            this.metrics = metrics;
+            this.retiredAt = retiredAt;
+        }
+    }
+
     public static int getCount() {
         return registry.getCounters().size();
     }
 
+    /**
+     * @return the registry holding every registered metric set
+     */
+    public static MetricRegistry getRegistry() {
+        if (rootMetric == null) {
+            getOverallMetrics();
+        }
+        return registry;
+    }
+
+    /**
+     * @return false when the JMX view was turned off with metrics.jmx.enabled=false
+     */
+    public static boolean isJmxEnabled() {
+        return !"false".equalsIgnoreCase( System.getProperty( JmxEnabledProperty ) );
+    }
+
+    /**
+     * @return true when JMX shows one KeyMBean per metric set, with metrics.jmx.mode=key
+     */
+    public static boolean isKeyMBeanMode() {
+        return isJmxEnabled() && JmxModeKey.equalsIgnoreCase( System.getProperty( JmxModeProperty, JmxModeMetric ) );
+    }
+
     @Override
     public Map<String, Metric> getMetrics() {
         return metricMap;
@@ -48,34 +123,85 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
 
 
     private OverallMetrics() {
+        // Only the totals of dual write mode are the overall set's own, and worth a slot
+        super( isDualWriteMode() ? CounterFile.allocate( DEFAULT ) : null );
 
         registry = new MetricRegistry();
-        final JmxReporter reporter = JmxReporter.forRegistry(registry).build();
-        reporter.start();
+        if (isJmxEnabled() && !isKeyMBeanMode()) {
+            final JmxReporter reporter = JmxReporter.forRegistry(registry).build();
+            reporter.start();
+        }
+        EventRing.registerMetrics( registry );
+        CounterFile.registerMetrics( registry );
 
-        this.metricsKey = new MetricsKey(DEFAULT);
-        metricMap = new HashMap<String,Metric>(6);
+        this.metricsKey = MetricsKey.of(DEFAULT).intern();
+        metricMap = new HashMap<String,Metric>(64);
+        aggregates = new HashMap<String,CounterAggregate>(6);
+        latencyAggregates = new HashMap<String,AggregateLatencyHistogram>(2);
 
+        boolean aggregate = !isDualWriteMode();
+        totalBytesUp = aggregate ? aggregateFor( TotalBytesUp ) : bytesUp;
+        totalPutTime = aggregate ? timeAggregateFor( TotalPutTime ) : putTime;
+        totalSuccessfulPutRequests = aggregate ? aggregateFor( TotalSuccessfulPutRequests ) : successfulPutRequests;
+        totalBytesDown = aggregate ? aggregateFor( TotalBytesDown ) : bytesDown;
+        totalGetTime = aggregate ? timeAggregateFor( TotalGetTime ) : getTime;
+        totalSuccessfulGetRequests = aggregate ? aggregateFor( TotalSuccessfulGetRequests ) : successfulGetRequests;
+        totalPutLatency = aggregate ? latencyAggregateFor( PutLatency ) : putLatency;
+        totalGetLatency = aggregate ? latencyAggregateFor( GetLatency ) : getLatency;
+        totalPutSampleVariance = aggregate ? aggregateFor( MetricRegistry.name( PutLatency, LatencySampleVariance ) )
+                : putSampleVariance;
+        totalGetSampleVariance = aggregate ? aggregateFor( MetricRegistry.name( GetLatency, LatencySampleVariance ) )
+                : getSampleVariance;
+        totalFailedPutTransfers = aggregate ? aggregateFor( FailedPutTransfers ) : failedPutTransfers;
+        totalAbandonedPutTransfers = aggregate ? aggregateFor( AbandonedPutTransfers ) : abandonedPutTransfers;
+        totalFailedGetTransfers = aggregate ? aggregateFor( FailedGetTransfers ) : failedGetTransfers;
+        totalAbandonedGetTransfers = aggregate ? aggregateFor( AbandonedGetTransfers ) : abandonedGetTransfers;
+        windows = newWindows( totalBytesUp, totalSuccessfulPutRequests, totalPutTime,
+                totalBytesDown, totalSuccessfulGetRequests, totalGetTime );
 
         // ---- Put "Put" Metrics into the map -----
-        metricMap.put( buildKey( TotalBytesUp ),bytesUp );
-        metricMap.put( buildKey( TotalPutTime ),putTime );
-        metricMap.put( buildKey( TotalSuccessfulPutRequests ),successfulPutRequests );
+        metricMap.put( buildKey( TotalBytesUp ),totalBytesUp );
+        metricMap.put( buildKey( TotalPutTime ),totalPutTime );
+        metricMap.put( buildKey( TotalSuccessfulPutRequests ),totalSuccessfulPutRequests );
+        addLatencyMetrics( metricMap, metricsKey.getKeyName(), PutLatency, totalPutLatency );
+        bytesUpRate = addRateMetrics( metricMap, metricsKey.getKeyName(), BytesUpRate, totalBytesUp );
+        putRequestRate = addRateMetrics( metricMap, metricsKey.getKeyName(), PutRequestRate, totalSuccessfulPutRequests );
 
         // ---- Put "Get" Metrics into the map -----
-        metricMap.put( buildKey( TotalBytesDown ),bytesDown);
-        metricMap.put( buildKey( TotalGetTime ),getTime );
-        metricMap.put( buildKey( TotalSuccessfulGetRequests ),successfulGetRequests );
+        metricMap.put( buildKey( TotalBytesDown ),totalBytesDown);
+        metricMap.put( buildKey( TotalGetTime ),totalGetTime );
+        metricMap.put( buildKey( TotalSuccessfulGetRequests ),totalSuccessfulGetRequests );
+        addLatencyMetrics( metricMap, metricsKey.getKeyName(), GetLatency, totalGetLatency );
+        bytesDownRate = addRateMetrics( metricMap, metricsKey.getKeyName(), BytesDownRate, totalBytesDown );
+        getRequestRate = addRateMetrics( metricMap, metricsKey.getKeyName(), GetRequestRate, totalSuccessfulGetRequests );
+
+        // ---- Every transfer is also open here, so the in-flight gauges need no aggregate ----
+        addTransferMetrics( metricMap, metricsKey.getKeyName(), totalFailedPutTransfers, totalAbandonedPutTransfers,
+                totalFailedGetTransfers, totalAbandonedGetTransfers );
 
+        // ---- The sampling interval of the totals is the mean one, weighted by operations:
+        //      each sample of interval N adds N operations and N * (N - 1) variance ----
+        addSamplingMetrics( metricMap, metricsKey.getKeyName(), new LongGauge() {
+            @Override
+            public long getLongValue() {
+                long count = totalPutTime.getOperationCount() + totalGetTime.getOperationCount();
+                long variance = totalPutSampleVariance.getCount() + totalGetSampleVariance.getCount();
+                return count == 0 ? 1 : 1 + Math.round( (double) variance / count );
+            }
+        }, totalPutSampleVariance, totalPutTime, totalGetSampleVariance, totalGetTime );
 
         OverallMetrics.registerMetricSet( this );
+        WindowTicker.start();
+    }
+
+    private static boolean isDualWriteMode() {
+        return OverallModeDualWrite.equals( System.getProperty( OverallModeProperty, OverallModeAggregate ) );
     }
 
     /**
      * getMetrics()
      */
     public static OverallMetrics getOverallMetrics() {
-        System.out.println("Getting overall metrics");
         OverallMetrics instance = rootMetric;
         if(instance == null){
             synchronized (mutex){
@@ -88,8 +214,59 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
         return instance;
     }  // -- end of getMetrics() --
 
+    /**
+     * getDualWriteTarget()
+     *
+     * Returns the instance providers should forward their updates to, or null when the
+     *    overall totals are aggregated at read time and no forwarding is needed.
+     */
+    public static OverallMetrics getDualWriteTarget() {
+        OverallMetrics instance = getOverallMetrics();
+        return instance.isAggregating() ? null : instance;
+    }
+
     public MetricsKey getMetricsKey() { return metricsKey; }
 
+    /**
+     * @return true when the totals are computed from the registered metric sets
+     */
+    public boolean isAggregating() { return !aggregates.isEmpty(); }
+
+    private AggregateCounter aggregateFor( String keyId ) {
+        AggregateCounter counter = new AggregateCounter();
+        aggregates.put( keyId, counter );
+        return counter;
+    }
+
+    private AggregateTimeCounter timeAggregateFor( String keyId ) {
+        AggregateTimeCounter counter = new AggregateTimeCounter();
+        aggregates.put( keyId, counter );
+        return counter;
+    }
+
+    private AggregateLatencyHistogram latencyAggregateFor( String keyId ) {
+        AggregateLatencyHistogram histogram = new AggregateLatencyHistogram();
+        latencyAggregates.put( keyId, histogram );
+        return histogram;
+    }
+
+    /*
+     * findAggregate()
+     *
+     * Matches a registry name such as "AWS_METRICS.total.bytes.up" to the aggregate
+     *    for "total.bytes.up".
+     */
+    private static <T> T findAggregate( Map<String,T> aggregates, String name ) {
+        for (Map.Entry<String,T> entry : aggregates.entrySet()) {
+            String keyId = entry.getKey();
+            if (name.length() > keyId.length() && name.endsWith( keyId )
+                    && name.charAt( name.length() - keyId.length() - 1 ) == '.') {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
     /*
      * buildKey()
      */
@@ -107,18 +284,33 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
      *    cleanup by calling "cleanupMetricSet", otherwise, the metrics
      *    will exist in the registry for the life of the jvm.
      *
+     *    Each name is registered on its own: a name still held by an earlier set of the
+     *    same key is taken over, and a failure leaves the other names and the overall
+     *    totals of the set in place.
+     *
      * @param metrics
      */
     public static void registerMetricSet( MetricSet metrics) {
         //LOG.error( "Core: registering MetricSet : {}.",metrics );
+        for(Map.Entry<String,Metric> entry : metrics.getMetrics().entrySet()){
+            String key = entry.getKey();
+            Metric metric = entry.getValue();
+            try {
+                register( key, metric );
+            }
+            // Don't fail the request due to this.
+            catch( Exception e ) {
+                System.out.printf("Core registerMetricSet Exception for %s : %s\n",key,e.toString() );
+            }
+            linkAggregate( metrics, key, metric );
+        }
         try {
-
-//            System.out.println("Registering "+ metrics.getMetrics().size() +" metric keys");
-            for(String key : metrics.getMetrics().keySet()){
-//                System.out.println("Registering Metric : "+key);
-                registry.register(key,metrics.getMetrics().get(key));
+            if (metrics instanceof MetricsCounters && isKeyMBeanMode()) {
+                KeyMBean.register( (MetricsCounters) metrics, metrics.getMetrics() );
+            }
+            if (metrics instanceof ProviderMetrics) {
+                LabelIndex.get().add( (ProviderMetrics) metrics );
             }
-//            registry.registerAll( metrics );
         }
         // Don't fail the request due to this.
         catch( Exception e ) {
@@ -127,6 +319,32 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
         }
     }
 
+    /*
+     * register()
+     *
+     * Registers a metric, replacing the one a set that is gone left under the same name.
+     */
+    private static void register( String name, Metric metric ) {
+        try {
+            registry.register( name, metric );
+        } catch (IllegalArgumentException e) {
+            // Already exists: only an earlier set of the same key can have left it
+            registry.remove( name );
+            registry.register( name, metric );
+        }
+    }
+
+    /*
+     * unregister()
+     *
+     * Removes a metric from the registry unless its name was taken over by another set.
+     */
+    private static void unregister( String name, Metric metric ) {
+        if (registry.getMetrics().get( name ) == metric) {
+            registry.remove( name );
+        }
+    }
+
     /**
      * cleanupMetricSet()
      *
@@ -138,28 +356,342 @@ public class OverallMetrics extends MetricsCounters implements MetricsConstants,
     public static void cleanupMetricSet( MetricSet metrics ) {
         //LOG.error( "Core: cleanup MetricSet : {}.",metrics );
         Map<String,Metric> map = metrics.getMetrics();
+        releaseMetricSet( metrics );
         Set<String> keys = map.keySet();
         for ( String key : keys)
         {
-            registry.remove( key );
+            unregister( key, map.get( key ) );
+            unlinkAggregate( metrics, key, map.get( key ) );
         }
+        foldSizeClasses( metrics );
         map.clear();
+        releaseStorage( metrics );
     } // -- end of cleanupMetricSet() --
 
+    /**
+     * retireMetricSet()
+     *
+     * Removes the metrics from the registry (and so from JMX) right away, but keeps them
+     *    in the overall totals until the next flushRetired(). A thread that still held the
+     *    set when it was retired can finish its update without the update being lost.
+     *
+     * @param metrics
+     */
+    public static void retireMetricSet( MetricSet metrics ) {
+        for ( Map.Entry<String,Metric> entry : metrics.getMetrics().entrySet() )
+        {
+            unregister( entry.getKey(), entry.getValue() );
+        }
+        releaseMetricSet( metrics );
+        retiring.add( new RetiredSet( metrics, System.nanoTime() ) );
+    }
+
+    private static void releaseMetricSet( MetricSet metrics ) {
+        if (metrics instanceof ProviderMetrics) {
+            LabelIndex.get().remove( (ProviderMetrics) metrics );
+        }
+        if (metrics instanceof MetricsCounters) {
+            ChangeTracker.released( (MetricsCounters) metrics );
+            if (isKeyMBeanMode()) {
+                KeyMBean.unregister( (MetricsCounters) metrics );
+            }
+        }
+    }
+
+    /**
+     * flushRetired()
+     *
+     * Folds the final values of every retired set into the overall totals and lets go of
+     *    the sets.
+     */
+    public static void flushRetired() {
+        flushRetired( Long.MAX_VALUE );
+    }
+
+    /**
+     * flushRetired()
+     *
+     * Like flushRetired(), for the sets retired at or before the given System.nanoTime().
+     */
+    public static void flushRetired( long retiredBefore ) {
+        RetiredSet head;
+        while ((head = retiring.peek()) != null && head.retiredAt - retiredBefore <= 0) {
+            final RetiredSet retired = head;
+            handOverSet( () -> flush( retired ) );
+        }
+    }
+
+    private static void flush( RetiredSet retired ) {
+        if (!retiring.remove( retired )) {
+            return;
+        }
+        MetricSet metrics = retired.metrics;
+        Map<String,Metric> map = metrics.getMetrics();
+        for (Map.Entry<String,Metric> entry : map.entrySet()) {
+            unlinkAggregate( metrics, entry.getKey(), entry.getValue() );
+        }
+        foldSizeClasses( metrics );
+        map.clear();
+        releaseStorage( metrics );
+    }
+
+    /*
+     * handOverSet()
+     *
+     * Runs a step that takes a set out of ProviderMetrics.getAll() or the retiring sets, and
+     *    puts it in the retiring sets or folds it into the overall breakdowns, as one step to
+     *    addSizeClassesTo(): the step makes setHandOvers odd while it runs.
+     */
+    static void handOverSet( Runnable move ) {
+        synchronized (handOverLock) {
+            setHandOvers++;
+            try {
+                move.run();
+            } finally {
+                setHandOvers++;
+            }
+        }
+    }
+
+    private static void releaseStorage( MetricSet metrics ) {
+        if (metrics instanceof MetricsCounters) {
+            ((MetricsCounters) metrics).releaseStorage();
+        }
+    }
+
+    /*
+     * foldSizeClasses()
+     *
+     * Keeps the size classes of a set leaving the aggregates in the overall ones, as
+     *    unlinkAggregate() does for the counters.
+     */
+    private static void foldSizeClasses( MetricSet metrics ) {
+        OverallMetrics instance = rootMetric;
+        if (instance == null || !(metrics instanceof ProviderMetrics) || instance.aggregates.isEmpty()
+                || metrics.getMetrics().isEmpty()) {
+            // Not aggregated, or already folded: the metric map is cleared once a set is gone
+            return;
+        }
+        MetricsCounters set = (MetricsCounters) metrics;
+        set.getPutSizes().addTo( instance.putSizes );
+        set.getGetSizes().addTo( instance.getSizes );
+    }
+
+    /**
+     * addSizeClassesTo()
+     *
+     * Adds the blobs of all sets by size class to the given breakdowns. In dual write mode
+     *    the overall set has them all already, otherwise they are summed over the live and
+     *    retiring sets, plus what the removed ones left. A sum that overlapped the removal
+     *    of a set is done again, as AggregateCounter does, so the set is counted once.
+     */
+    public void addSizeClassesTo( SizeClassStats put, SizeClassStats get ) {
+        if (aggregates.isEmpty()) {
+            putSizes.addTo( put );
+            getSizes.addTo( get );
+            return;
+        }
+        while (true) {
+            long seen = setHandOvers;
+            if ((seen & 1) == 0) {
+                // Summed apart, so that a sum done again adds nothing twice
+                SizeClassStats puts = new SizeClassStats();
+                SizeClassStats gets = new SizeClassStats();
+                putSizes.addTo( puts );
+                getSizes.addTo( gets );
+                for (ProviderMetrics metrics : ProviderMetrics.getAll()) {
+                    metrics.getPutSizes().addTo( puts );
+                    metrics.getGetSizes().addTo( gets );
+                }
+                for (RetiredSet retired : retiring) {
+                    MetricsCounters set = (MetricsCounters) retired.metrics;
+                    set.getPutSizes().addTo( puts );
+                    set.getGetSizes().addTo( gets );
+                }
+                if (setHandOvers == seen) {
+                    puts.addTo( put );
+                    gets.addTo( get );
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return number of sets retired and not yet flushed
+     */
+    public static int getRetiringCount() {
+        return retiring.size();
+    }
+
+    /*
+     * linkAggregate()
+     *
+     * Adds a counter of a provider metric set to the matching overall aggregate.
+     */
+    private static void linkAggregate( MetricSet metrics, String key, Metric metric ) {
+        OverallMetrics instance = rootMetric;
+        if (instance == null || metrics instanceof OverallMetrics) {
+            return;
+        }
+        if (metric instanceof LatencyHistogram) {
+            AggregateLatencyHistogram aggregate = findAggregate( instance.latencyAggregates, key );
+            if (aggregate != null) {
+                aggregate.addSource( (LatencyHistogram) metric );
+            }
+        } else if (metric instanceof Counter) {
+            CounterAggregate aggregate = findAggregate( instance.aggregates, key );
+            if (aggregate != null) {
+                aggregate.addSource( (Counter) metric );
+            }
+        }
+    }
+
+    /*
+     * unlinkAggregate()
+     *
+     * Removes a counter from its overall aggregate, keeping its value in the totals.
+     */
+    private static void unlinkAggregate( MetricSet metrics, String key, Metric metric ) {
+        OverallMetrics instance = rootMetric;
+        if (instance == null || metrics instanceof OverallMetrics) {
+            return;
+        }
+        if (metric instanceof LatencyHistogram) {
+            AggregateLatencyHistogram aggregate = findAggregate( instance.latencyAggregates, key );
+            if (aggregate != null) {
+                aggregate.removeSource( (LatencyHistogram) metric );
+            }
+        } else if (metric instanceof Counter) {
+            CounterAggregate aggregate = findAggregate( instance.aggregates, key );
+            if (aggregate != null) {
+                aggregate.removeSource( (Counter) metric );
+            }
+        }
+    }
+
     //-------------------------------------------------------------------------
     //   "Put" metric updater methods.  On a "per root" basis
     //-------------------------------------------------------------------------
-    public void incTotalBytesUp( long someNumber ) { bytesUp.inc( someNumber ); }
-    public void incTotalPutTime( long someNumber ) { putTime.inc( someNumber ); }
-    public void incTotalSuccessfulPutRequests() { successfulPutRequests.inc(); }
+    @Override
+    public void incTotalBytesUp( long someNumber ) {
+        totalBytesUp.inc( someNumber );
+        putSizes.recordBytes( someNumber );
+    }
+    /**
+     * Records the time of a PUT started with startPutTime() in the overall totals, as a
+     *    provider set does in its own.
+     */
+    @Override
+    public void incTotalPutTime( long startToken ) {
+        if (startToken != NOT_SAMPLED) {
+            recordPutTime( System.nanoTime() - startToken, getLatencySampleEvery() );
+        }
+    }
+    @Override
+    public void incTotalPutTime( long startToken, long size ) {
+        if (startToken != NOT_SAMPLED) {
+            long nanos = System.nanoTime() - startToken;
+            int weight = getLatencySampleEvery();
+            recordPutTime( nanos, weight );
+            putSizes.recordTime( SizeClassStats.classOf( size ), nanos * weight );
+        }
+    }
+    public void recordPutTime( long nanos ) { recordPutTime( nanos, 1 ); }
+    /**
+     * Records a PUT time standing for the given number of sampled operations.
+     */
+    public void recordPutTime( long nanos, int weight ) {
+        totalPutTime.record( nanos * weight, weight );
+        totalPutLatency.record( nanos, weight );
+        if (weight > 1) {
+            totalPutSampleVariance.inc( (long) weight * (weight - 1) );
+        }
+    }
+    @Override
+    public void incTotalSuccessfulPutRequests() { totalSuccessfulPutRequests.inc(); }
     //-------------------------------------------------------------------------
     //   "Get" metric updater methods, on a per root basis
     //-------------------------------------------------------------------------
-    public void incTotalBytesDown( long someNumber ) { bytesDown.inc( someNumber ); }
-    public void incTotalGetTime(long someNumber ) {
-        getTime.inc( someNumber );
+    @Override
+    public void incTotalBytesDown( long someNumber ) {
+        totalBytesDown.inc( someNumber );
+        getSizes.recordBytes( someNumber );
+    }
+    @Override
+    public void incTotalGetTime( long startToken ) {
+        if (startToken != NOT_SAMPLED) {
+            recordGetTime( System.nanoTime() - startToken, getLatencySampleEvery() );
+        }
+    }
+    @Override
+    public void incTotalGetTime( long startToken, long size ) {
+        if (startToken != NOT_SAMPLED) {
+            long nanos = System.nanoTime() - startToken;
+            int weight = getLatencySampleEvery();
+            recordGetTime( nanos, weight );
+            getSizes.recordTime( SizeClassStats.classOf( size ), nanos * weight );
+        }
+    }
+    public void recordGetTime( long nanos ) { recordGetTime( nanos, 1 ); }
+    /**
+     * Records a GET time standing for the given number of sampled operations.
+     */
+    public void recordGetTime( long nanos, int weight ) {
+        totalGetTime.record( nanos * weight, weight );
+        totalGetLatency.record( nanos, weight );
+        if (weight > 1) {
+            totalGetSampleVariance.inc( (long) weight * (weight - 1) );
+        }
+    }
+    @Override
+    public void incTotalSuccessfulGetRequests() { totalSuccessfulGetRequests.inc(); }
+
+    @Override
+    public LatencyHistogram getPutLatency() { return totalPutLatency; }
+
+    @Override
+    public LatencyHistogram getGetLatency() { return totalGetLatency; }
+
+    @Override
+    public long getUnsuccessfulTransfers( boolean put ) {
+        return put ? totalFailedPutTransfers.getCount() + totalAbandonedPutTransfers.getCount()
+                : totalFailedGetTransfers.getCount() + totalAbandonedGetTransfers.getCount();
+    }
+
+    @Override
+    public void getTotals( long[] totals ) {
+        copyTotals( totals, totalBytesUp, totalSuccessfulPutRequests, totalPutTime,
+                totalBytesDown, totalSuccessfulGetRequests, totalGetTime );
+    }
+
+    @Override
+    protected void addToCounters( long[] totals ) {
+        addToCounters( totals, totalBytesUp, totalSuccessfulPutRequests, totalPutTime,
+                totalBytesDown, totalSuccessfulGetRequests, totalGetTime );
+    }
+
+    /**
+     * handOver()
+     *
+     * Moves amounts the overall totals already hold, laid out as by getTotals(), into the
+     *    counters of the given registered set, e.g. the restored totals of its key. The
+     *    overall totals stay as they are: when aggregating, the amounts are taken off the
+     *    overall set's own counters as the set adds them to the aggregates.
+     */
+    void handOver( MetricsCounters set, long[] totals ) {
+        synchronized (windows) {
+            set.addTotals( totals );
+            if (isAggregating()) {
+                long[] negated = new long[totals.length];
+                for (int i = 0; i < totals.length; i++) {
+                    negated[i] = -totals[i];
+                }
+                addToCounters( negated );
+            }
+        }
     }
-    public void incTotalSuccessfulGetRequests() { successfulGetRequests.inc(); }
 
     /**
      * Resets all metrics back to 0.
@@ -0,0 +1,279 @@
+package com.rohit.stats.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class  ProviderMetrics
+ *
+ * The metric set of one MetricsKey: a cloud provider, or a bucket, container or tenant
+ * within one.
+ *
+ * Sets are created on demand by forKey() and kept in a concurrent map, so looking up the
+ * set of a known key is a lock free hash lookup. The AWS and Azure defaults are two
+ * instances of this class, see aws() and azure().
+ *
+ * When a key limit or an idle TTL is configured (see configureEviction() and the
+ * metrics.keys.* properties) idle sets are evicted by an IdleKeyEvictor, and their values
+ * are folded into the overall totals. Callers should then look sets up with forKey() for
+ * each use rather than keep them, since updates to an evicted set are eventually dropped.
+ * The AWS and Azure sets are pinned and never evicted.
+ *
+ * Latency sampling is set per key with setLatencySampling(), and holds for the sets the
+ * key gets later too. Keys without a setting of their own use metrics.latency.sample.every.
+ *
+ */
+
+public class ProviderMetrics extends MetricsCounters implements MetricsConstants, MetricSet {
+
+    public static final MetricsKey AWS_KEY = MetricsKey.of( AWS_METRICS );
+    public static final MetricsKey AZURE_KEY = MetricsKey.of( AZURE_METRICS );
+
+    private static final ConcurrentHashMap<MetricsKey,ProviderMetrics> providers =
+            new ConcurrentHashMap<MetricsKey,ProviderMetrics>();
+
+    private static final Set<MetricsKey> pinned = ConcurrentHashMap.newKeySet();
+
+    private static volatile IdleKeyEvictor evictor;
+
+    /** Latency sampling intervals by key, see setLatencySampling() */
+    private static final ConcurrentHashMap<MetricsKey,Integer> sampling = new ConcurrentHashMap<MetricsKey,Integer>();
+
+    private static final int defaultSampleEvery = Integer.getInteger( LatencySampleEveryProperty, 1 );
+
+    static {
+        pinned.add( AWS_KEY );
+        pinned.add( AZURE_KEY );
+        IdleKeyEvictor configured = IdleKeyEvictor.fromProperties();
+        if (configured != null) {
+            evictor = configured;
+            configured.start();
+        }
+        // Before any set exists: restored totals wait for forKey() to create the set of their key
+        SnapshotJournal.openFromProperties();
+    }
+
+    private final HashMap<String,Metric> metricMap;
+
+    private final MetricsKey metricsKey;
+
+    /** System.nanoTime() of the last sweep that saw this set updated, kept by IdleKeyEvictor */
+    volatile long lastActive = System.nanoTime();
+
+    /**
+     * Builds the metricMap by generating keys for every metric to be tracked
+     * Registers the metrics in the platform metric registry
+     */
+    protected ProviderMetrics(MetricsKey key) {
+        super( CounterFile.allocate( key.getKeyName() ) );
+        metricsKey = key;
+
+        overallMetrics = OverallMetrics.getDualWriteTarget();
+        // --- Group the counters for this request in 1 MetricMap table -----
+        metricMap = new HashMap<String,Metric>(64);
+        metricMap.put( buildKey( TotalBytesUp ),bytesUp);
+        metricMap.put( buildKey( TotalPutTime ),putTime);
+        metricMap.put( buildKey( TotalSuccessfulPutRequests ),successfulPutRequests);
+        metricMap.put( buildKey( TotalBytesDown ),bytesDown);
+        metricMap.put( buildKey( TotalGetTime ),getTime );
+        metricMap.put( buildKey( TotalSuccessfulGetRequests ),successfulGetRequests );
+        addLatencyMetrics( metricMap, metricsKey.getKeyName(), PutLatency, putLatency );
+        addLatencyMetrics( metricMap, metricsKey.getKeyName(), GetLatency, getLatency );
+
+        windows = newWindows( bytesUp, successfulPutRequests, putTime, bytesDown, successfulGetRequests, getTime );
+        bytesUpRate = addRateMetrics( metricMap, metricsKey.getKeyName(), BytesUpRate, bytesUp );
+        putRequestRate = addRateMetrics( metricMap, metricsKey.getKeyName(), PutRequestRate, successfulPutRequests );
+        bytesDownRate = addRateMetrics( metricMap, metricsKey.getKeyName(), BytesDownRate, bytesDown );
+        getRequestRate = addRateMetrics( metricMap, metricsKey.getKeyName(), GetRequestRate, successfulGetRequests );
+        addTransferMetrics( metricMap, metricsKey.getKeyName(), failedPutTransfers, abandonedPutTransfers,
+                failedGetTransfers, abandonedGetTransfers );
+
+        Integer every = sampling.get( key );
+        setLatencySampleEvery( every != null ? every : defaultSampleEvery );
+        addSamplingMetrics( metricMap, metricsKey.getKeyName(), new LongGauge() {
+            @Override
+            public long getLongValue() { return getLatencySampleEvery(); }
+        }, putSampleVariance, putTime, getSampleVariance, getTime );
+
+        OverallMetrics.registerMetricSet(this);
+        SnapshotJournal.claimRestored( this );
+    }
+
+    /**
+     * forKey()
+     *
+     * @return the metric set of the given key, created and registered on first use
+     */
+    public static ProviderMetrics forKey( MetricsKey key ) {
+        ProviderMetrics metrics = providers.get( key );
+        if (metrics == null) {
+            // Interned under the lock of the key, so that an eviction cannot forget it in between
+            metrics = providers.computeIfAbsent( key, k -> new ProviderMetrics( k.intern() ) );
+            IdleKeyEvictor e = evictor;
+            if (e != null && e.getMaxKeys() > 0 && providers.size() > e.getMaxKeys()) {
+                e.requestSweep();
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * setLatencySampling()
+     *
+     * Times one PUT and one GET in the given number for the given key, now and for the sets
+     *    the key gets later. The time totals and latency histograms of the key become
+     *    estimates, see MetricsCounters.
+     *
+     * @param every sampling interval, 1 to time every operation
+     */
+    public static void setLatencySampling( MetricsKey key, final int every ) {
+        if (every < 1) {
+            throw new IllegalArgumentException( "sampling interval must be at least 1, got " + every );
+        }
+        sampling.put( key, every );
+        // Atomic with a set being created by forKey(), which reads the map in its constructor
+        providers.computeIfPresent( key, ( k, metrics ) -> {
+            metrics.setLatencySampleEvery( every );
+            return metrics;
+        } );
+    }
+
+    /**
+     * find()
+     *
+     * @return the metric set of the given key, or null if it was never created
+     */
+    public static ProviderMetrics find( MetricsKey key ) {
+        return providers.get( key );
+    }
+
+    /**
+     * remove()
+     *
+     * Unregisters the metric set of the given key. Its values stay in the overall totals.
+     *
+     * @return the removed set, or null if there was none
+     */
+    public static ProviderMetrics remove( MetricsKey key ) {
+        final ProviderMetrics[] removed = new ProviderMetrics[1];
+        // Unregistered before the key is free again, so a new set of the key registers cleanly
+        OverallMetrics.handOverSet( () -> providers.computeIfPresent( key, ( k, metrics ) -> {
+            OverallMetrics.cleanupMetricSet( metrics );
+            MetricsKey.forget( metrics.metricsKey );
+            removed[0] = metrics;
+            return null;
+        } ) );
+        return removed[0];
+    }
+
+    /**
+     * evict()
+     *
+     * Retires the given set if it is still the one registered for its key. The set leaves the
+     *    registry and the key is forgotten before the key is free again, so a concurrent
+     *    forKey() waits for the eviction and then builds and registers a new set in full.
+     */
+    static boolean evict( final ProviderMetrics metrics ) {
+        final boolean[] evicted = new boolean[1];
+        OverallMetrics.handOverSet( () -> providers.computeIfPresent( metrics.metricsKey, ( k, current ) -> {
+            if (current != metrics) {
+                return current;
+            }
+            OverallMetrics.retireMetricSet( metrics );
+            MetricsKey.forget( metrics.metricsKey );
+            evicted[0] = true;
+            return null;
+        } ) );
+        return evicted[0];
+    }
+
+    /**
+     * configureEviction()
+     *
+     * Replaces the eviction settings taken from the system properties.
+     *
+     * @param maxKeys most sets kept, 0 for no limit
+     * @param idleTtl idle time after which a set is evicted, 0 for no TTL
+     * @param unit unit of idleTtl
+     */
+    public static synchronized void configureEviction( int maxKeys, long idleTtl, TimeUnit unit ) {
+        IdleKeyEvictor previous = evictor;
+        evictor = null;
+        if (previous != null) {
+            previous.stop();
+        }
+        if (maxKeys > 0 || idleTtl > 0) {
+            long interval = TimeUnit.SECONDS.toNanos( Long.getLong( KeysSweepIntervalProperty,
+                    IdleKeyEvictor.DEFAULT_SWEEP_INTERVAL_SECONDS ) );
+            if (idleTtl > 0) {
+                interval = Math.min( interval, Math.max( unit.toNanos( idleTtl ) / 2, 1 ) );
+            }
+            IdleKeyEvictor configured = new IdleKeyEvictor( Math.max( maxKeys, 0 ),
+                    Math.max( unit.toNanos( idleTtl ), 0 ), interval );
+            evictor = configured;
+            configured.start();
+        }
+    }
+
+    /**
+     * @return number of sets evicted by the current eviction settings
+     */
+    public static long getEvictionCount() {
+        IdleKeyEvictor e = evictor;
+        return e == null ? 0 : e.getEvictionCount();
+    }
+
+    /**
+     * pin()
+     *
+     * Keeps the set of the given key from ever being evicted.
+     */
+    public static void pin( MetricsKey key ) { pinned.add( key ); }
+
+    public static void unpin( MetricsKey key ) { pinned.remove( key ); }
+
+    public static boolean isPinned( MetricsKey key ) { return pinned.contains( key ); }
+
+    /**
+     * @return every metric set created so far
+     */
+    public static Collection<ProviderMetrics> getAll() {
+        return Collections.unmodifiableCollection( providers.values() );
+    }
+
+    public static ProviderMetrics aws() { return forKey( AWS_KEY ); }
+
+    public static ProviderMetrics azure() { return forKey( AZURE_KEY ); }
+
+    public MetricsKey getMetricsKey() { return metricsKey; }
+
+    /**
+     * @param keyId
+     * @return generated key
+     */
+    private String buildKey( String keyId ) {
+        return MetricRegistry.name( this.metricsKey.getKeyName(),keyId );
+    }
+
+
+    /**
+     * @return metricMap
+     */
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metricMap;
+    }
+
+}
@@ -0,0 +1,629 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * class SnapshotJournal
+ *
+ * Keeps the lifetime totals of the overall metrics and of every ProviderMetrics set across
+ * restarts.
+ *
+ * A record is compact and binary: for each set in it the set's name and the varint encoded
+ * values of MetricsCounters.getTotals(), or a mark that the set was removed. Records are
+ * appended to a memory mapped segment file, and each carries a CRC32. Its magic number is
+ * written last, so a record torn by a crash is never taken for a good one.
+ *
+ * Every segment starts with a full record of all sets. After it come delta records, which
+ * hold the overall totals and only the sets a ChangeTracker saw updated or removed since the
+ * record before. When a segment is full a new one is started with a full record, and all but
+ * the last two segments are deleted.
+ *
+ * When the journal is opened the full record of the newest segment and the good delta records
+ * after it are replayed. The overall totals are restored right away, on top of whatever they
+ * already hold. The totals of a key are only restored when forKey() creates its set, so
+ * opening the journal creates no sets; until then they are carried into every full record.
+ *
+ * Records read the counters without locking, on the MetricsScheduler thread. An interval in
+ * which no set changed writes nothing, and nothing is forced to disk unless
+ * metrics.journal.sync is set, so an idle interval costs no I/O and a busy one dirties only
+ * the pages its record lands on.
+ */
+public final class SnapshotJournal implements MetricsConstants {
+
+    private static final int SEGMENT_MAGIC = 0x4d4a4e4c;    // "MJNL"
+    static final int RECORD_MAGIC = 0x534e4150;     // "SNAP"
+    private static final int VERSION = 1;
+
+    /** Kinds of record, the first byte of the payload */
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    /** What follows the name of a set in a record */
+    private static final byte TOTALS = 0;
+    private static final byte REMOVED = 1;
+
+    /** magic, version, segment number */
+    static final int SEGMENT_HEADER_BYTES = 16;
+    /** magic, payload length, sequence, time */
+    static final int RECORD_HEADER_BYTES = 24;
+    /** CRC32 of everything in the record after the magic */
+    static final int RECORD_TRAILER_BYTES = 4;
+
+    static final int DEFAULT_SEGMENT_BYTES = 4 << 20;
+    static final long DEFAULT_INTERVAL_SECONDS = 10;
+    private static final int KEPT_SEGMENTS = 2;
+
+    private static final String SEGMENT_PREFIX = "metrics-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static volatile SnapshotJournal current;
+
+    private final File dir;
+    private final int segmentBytes;
+    private final boolean sync;
+
+    private MappedByteBuffer segment;
+    private long segmentNo;
+    private long sequence;
+
+    /** The sets changed since the last record */
+    private ChangeTracker tracker;
+    private final Set<MetricsCounters> changed = Collections.newSetFromMap( new IdentityHashMap<MetricsCounters,Boolean>() );
+    private final Set<String> names = new HashSet<String>();
+
+    /** The record being built */
+    private ByteBuffer encoded = ByteBuffer.allocate( 64 * 1024 );
+    private int encodedSets;
+    private int lastSets;
+
+    private final long[] totals = new long[MetricsCounters.TOTALS];
+    /** The overall totals in the last record */
+    private final long[] overallWritten = new long[MetricsCounters.TOTALS];
+    private final CRC32 crc = new CRC32();
+
+    /** Totals of the keys restored but not yet taken by a set, by key name */
+    private final ConcurrentHashMap<String,long[]> restored = new ConcurrentHashMap<String,long[]>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong fullWritten = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong restoredSets = new AtomicLong();
+
+    private ScheduledFuture<?> task;
+
+    private SnapshotJournal( File dir, int segmentBytes, boolean sync ) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+    }
+
+    /**
+     * openFromProperties()
+     *
+     * Opens the journal in metrics.journal.dir, if set, and writes a record every
+     *    metrics.journal.interval.seconds. A journal that cannot be opened is reported and
+     *    left off, it never keeps the metrics from working.
+     *
+     * @return the journal, or null
+     */
+    static SnapshotJournal openFromProperties() {
+        String dir = System.getProperty( JournalDirProperty );
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try {
+            SnapshotJournal journal = open( new File( dir ),
+                    Integer.getInteger( JournalSegmentBytesProperty, DEFAULT_SEGMENT_BYTES ),
+                    Boolean.getBoolean( JournalSyncProperty ) );
+            journal.start( Long.getLong( JournalIntervalProperty, DEFAULT_INTERVAL_SECONDS ), TimeUnit.SECONDS );
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            System.out.printf( "metrics journal in %s could not be opened: %s\n", dir, e.getMessage() );
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * open()
+     *
+     * Restores the newest good state found in the given directory and starts a new
+     *    segment. Replaces, and closes, the journal opened before.
+     *
+     * @param segmentBytes size of a segment file, grown when a full record does not fit
+     * @param sync force every record to disk
+     */
+    public static synchronized SnapshotJournal open( File dir, int segmentBytes, boolean sync ) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException( "cannot create " + dir );
+        }
+        if (current != null) {
+            current.close();
+        }
+        final SnapshotJournal journal = new SnapshotJournal( dir, segmentBytes, sync );
+        synchronized (journal) {
+            journal.restore();
+            current = journal;
+            journal.claimExisting();
+            // Every set updated from here on is in the next delta, the full record has the rest
+            journal.tracker = ChangeTracker.open();
+            try {
+                journal.roll();
+            } catch (IOException | RuntimeException e) {
+                journal.tracker.close();
+                current = null;
+                throw e;
+            }
+        }
+        // Closed at exit after the ring is stopped, see MetricsScheduler
+        MetricsScheduler.installShutdownHook();
+        return journal;
+    }
+
+    /**
+     * @return the journal opened last, or null
+     */
+    public static SnapshotJournal current() { return current; }
+
+    /**
+     * start()
+     *
+     * Writes a record at the given interval on the MetricsScheduler thread.
+     */
+    public synchronized void start( long interval, TimeUnit unit ) {
+        if (task == null && segment != null) {
+            task = MetricsScheduler.get().scheduleWithFixedDelay( this::snapshotQuietly, interval, interval, unit );
+        }
+    }
+
+    /**
+     * close()
+     *
+     * Stops the periodic records and writes a last one.
+     */
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel( false );
+            task = null;
+        }
+        if (segment != null) {
+            // Let the ring apply what was published before the last record reads the totals
+            EventRing ring = EventRing.get();
+            if (ring != null) {
+                ring.awaitDrained( 1, TimeUnit.SECONDS );
+            }
+            snapshotQuietly();
+            segment.force();
+            segment = null;
+            tracker.close();
+        }
+        if (current == this) {
+            current = null;
+        }
+    }
+
+    /**
+     * snapshot()
+     *
+     * Appends a delta record of the sets changed since the last record, unless none did.
+     *    When the segment is full a new one is started with a full record instead.
+     *
+     * @return true if a record was written
+     */
+    public synchronized boolean snapshot() throws IOException {
+        if (segment == null) {
+            return false;
+        }
+        changed.clear();
+        tracker.drain( changed );
+        OverallMetrics.getOverallMetrics().getTotals( totals );
+        if (changed.isEmpty() && Arrays.equals( totals, overallWritten )) {
+            skipped.incrementAndGet();
+            return false;
+        }
+        encodeDelta();
+        if (!append()) {
+            roll();
+        }
+        return true;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.out.printf( "metrics journal snapshot failed: %s\n", e.getMessage() );
+            e.printStackTrace();
+        }
+    }
+
+    /** @return number of records written, full and delta */
+    public long getSnapshotCount() { return written.get(); }
+
+    /** @return number of full records written, one per segment */
+    public long getFullSnapshotCount() { return fullWritten.get(); }
+
+    /** @return number of intervals in which no record was written because nothing had changed */
+    public long getSkippedCount() { return skipped.get(); }
+
+    /** @return number of sets restored when the journal was opened, the overall totals included */
+    public long getRestoredCount() { return restoredSets.get(); }
+
+    /** @return number of restored keys whose set was not created yet */
+    public int getPendingCount() { return restored.size(); }
+
+    /** @return number of sets in the last record written */
+    int getLastSetCount() { return lastSets; }
+
+    /**
+     * claimRestored()
+     *
+     * Hands the restored totals of the key of a new set, if any, over to the set. Called
+     *    by the set once it is registered.
+     */
+    static void claimRestored( ProviderMetrics metrics ) {
+        SnapshotJournal journal = current;
+        if (journal != null && !journal.restored.isEmpty()) {
+            long[] values = journal.restored.remove( metrics.getMetricsKey().getKeyName() );
+            if (values != null) {
+                OverallMetrics.getOverallMetrics().handOver( metrics, values );
+            }
+        }
+    }
+
+    /*
+     * claimExisting()
+     *
+     * Hands restored totals over to the sets that already exist when the journal is opened.
+     */
+    private void claimExisting() {
+        for (ProviderMetrics metrics : ProviderMetrics.getAll()) {
+            claimRestored( metrics );
+        }
+    }
+
+    /*
+     * encodeDelta()
+     *
+     * Fills encoded with a delta record: the overall totals, already in totals, then the
+     *    current totals of every key among the changed sets, or a removal mark for a key
+     *    whose set is gone.
+     */
+    private void encodeDelta() {
+        while (true) {
+            try {
+                startRecord( DELTA );
+                putSet( OverallMetrics.getOverallMetrics().getMetricsKey().getKeyName(), totals );
+                names.clear();
+                for (MetricsCounters set : changed) {
+                    if (!(set instanceof ProviderMetrics)) {
+                        continue;
+                    }
+                    MetricsKey key = ((ProviderMetrics) set).getMetricsKey();
+                    if (!names.add( key.getKeyName() )) {
+                        continue;
+                    }
+                    ProviderMetrics live = ProviderMetrics.find( key );
+                    if (live != null) {
+                        putSet( live );
+                    } else {
+                        putName( key.getKeyName() );
+                        encoded.put( REMOVED );
+                        encodedSets++;
+                    }
+                }
+                endRecord();
+                return;
+            } catch (BufferOverflowException e) {
+                encoded = ByteBuffer.allocate( encoded.capacity() * 2 );
+            }
+        }
+    }
+
+    /*
+     * encodeFull()
+     *
+     * Fills encoded with a full record: the overall totals, then every set, then the restored
+     *    keys no set has taken yet. The overall totals come first, so that they never hold less
+     *    than the sum of the sets read after them.
+     */
+    private void encodeFull() {
+        OverallMetrics overall = OverallMetrics.getOverallMetrics();
+        while (true) {
+            try {
+                startRecord( FULL );
+                overall.getTotals( totals );
+                putSet( overall.getMetricsKey().getKeyName(), totals );
+                for (ProviderMetrics metrics : ProviderMetrics.getAll()) {
+                    putSet( metrics );
+                }
+                for (Map.Entry<String,long[]> entry : restored.entrySet()) {
+                    putSet( entry.getKey(), entry.getValue() );
+                }
+                endRecord();
+                return;
+            } catch (BufferOverflowException e) {
+                encoded = ByteBuffer.allocate( encoded.capacity() * 2 );
+            }
+        }
+    }
+
+    private void startRecord( byte kind ) {
+        encoded.clear();
+        encoded.put( kind );
+        encoded.putInt( 0 );
+        encodedSets = 0;
+    }
+
+    private void endRecord() {
+        encoded.putInt( 1, encodedSets );
+        encoded.flip();
+    }
+
+    private void putSet( ProviderMetrics metrics ) {
+        long[] values = new long[MetricsCounters.TOTALS];
+        metrics.getTotals( values );
+        putSet( metrics.getMetricsKey().getKeyName(), values );
+    }
+
+    private void putSet( String keyName, long[] values ) {
+        putName( keyName );
+        encoded.put( TOTALS );
+        for (long value : values) {
+            putVarLong( encoded, value );
+        }
+        encodedSets++;
+    }
+
+    private void putName( String keyName ) {
+        byte[] name = keyName.getBytes( StandardCharsets.UTF_8 );
+        putVarLong( encoded, name.length );
+        encoded.put( name );
+    }
+
+    /*
+     * append()
+     *
+     * Writes the encoded record at the end of the segment.
+     *
+     * @return false, and nothing written, if the record does not fit
+     */
+    private boolean append() {
+        int length = encoded.remaining();
+        if (segment.remaining() < RECORD_HEADER_BYTES + length + RECORD_TRAILER_BYTES) {
+            return false;
+        }
+        int start = segment.position();
+        segment.putInt( start + 4, length );
+        segment.putLong( start + 8, sequence++ );
+        segment.putLong( start + 16, System.currentTimeMillis() );
+        segment.position( start + RECORD_HEADER_BYTES );
+        segment.put( encoded );
+        segment.putInt( checksum( segment, start, length ) );
+        // The magic goes last: until it is there, the record does not exist
+        segment.putInt( start, RECORD_MAGIC );
+        if (sync) {
+            segment.force();
+        }
+
+        System.arraycopy( totals, 0, overallWritten, 0, totals.length );
+        lastSets = encodedSets;
+        written.incrementAndGet();
+        return true;
+    }
+
+    /*
+     * restore()
+     *
+     * Replays the newest segment that starts with a good full record, up to its last good
+     *    record, and restores the result: the overall totals into the counters, the keys
+     *    into restored, to wait for their sets.
+     */
+    private void restore() throws IOException {
+        long[] numbers = segmentNumbers();
+        for (int i = numbers.length - 1; i >= 0; i--) {
+            segmentNo = Math.max( segmentNo, numbers[i] );
+            Map<String,long[]> state = replay( segmentFile( numbers[i] ) );
+            if (state != null) {
+                apply( state );
+                return;
+            }
+        }
+    }
+
+    private void apply( Map<String,long[]> state ) {
+        OverallMetrics overall = OverallMetrics.getOverallMetrics();
+        // The overall totals hold the keys as well, which handOver() moves to their sets
+        long[] overallTotals = state.remove( overall.getMetricsKey().getKeyName() );
+        if (overallTotals != null) {
+            overall.addTotals( overallTotals );
+            restoredSets.incrementAndGet();
+        }
+        restored.putAll( state );
+        restoredSets.addAndGet( state.size() );
+    }
+    /*
+     * replay()
+     *
+     * Applies the records of a segment in order, up to the first one whose magic, length or
+     *    checksum is bad.
+     *
+     * @return the totals by key name, or null if the segment has no good full record first
+     */
+    private Map<String,long[]> replay( File file ) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            buffer = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+        }
+        int limit = buffer.limit();
+        if (limit < SEGMENT_HEADER_BYTES || buffer.getInt( 0 ) != SEGMENT_MAGIC || buffer.getInt( 4 ) != VERSION) {
+            return null;
+        }
+        Map<String,long[]> state = null;
+        int pos = SEGMENT_HEADER_BYTES;
+        while (limit - pos >= RECORD_HEADER_BYTES + RECORD_TRAILER_BYTES
+                && buffer.getInt( pos ) == RECORD_MAGIC) {
+            int length = buffer.getInt( pos + 4 );
+            if (length < 5 || length > limit - pos - RECORD_HEADER_BYTES - RECORD_TRAILER_BYTES
+                    || checksum( buffer, pos, length ) != buffer.getInt( pos + RECORD_HEADER_BYTES + length )) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit( pos + RECORD_HEADER_BYTES + length );
+            payload.position( pos + RECORD_HEADER_BYTES );
+            byte kind = payload.get();
+            if (state == null) {
+                if (kind != FULL) {
+                    return null;
+                }
+                state = new HashMap<String,long[]>();
+            }
+            try {
+                replayRecord( payload.slice(), state );
+            } catch (RuntimeException e) {
+                // Checksummed but not readable: written by something else, stop here
+                break;
+            }
+            sequence = buffer.getLong( pos + 8 ) + 1;
+            pos += RECORD_HEADER_BYTES + length + RECORD_TRAILER_BYTES;
+        }
+        return state;
+    }
+
+    private static void replayRecord( ByteBuffer payload, Map<String,long[]> state ) {
+        int count = payload.getInt();
+        // Applied only when the whole record reads well
+        Map<String,long[]> sets = new HashMap<String,long[]>();
+        for (int n = 0; n < count; n++) {
+            byte[] name = new byte[(int) getVarLong( payload )];
+            payload.get( name );
+            long[] values = null;
+            if (payload.get() == TOTALS) {
+                values = new long[MetricsCounters.TOTALS];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = getVarLong( payload );
+                }
+            }
+            sets.put( new String( name, StandardCharsets.UTF_8 ), values );
+        }
+        for (Map.Entry<String,long[]> entry : sets.entrySet()) {
+            if (entry.getValue() != null) {
+                state.put( entry.getKey(), entry.getValue() );
+            } else {
+                state.remove( entry.getKey() );
+            }
+        }
+    }
+
+    private int checksum( ByteBuffer buffer, int recordStart, int length ) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit( recordStart + RECORD_HEADER_BYTES + length );
+        covered.position( recordStart + 4 );
+        crc.reset();
+        crc.update( covered );
+        return (int) crc.getValue();
+    }
+
+    /*
+     * roll()
+     *
+     * Starts the next segment with a full record, and deletes the segments that are no
+     *    longer kept once it is written.
+     */
+    private void roll() throws IOException {
+        encodeFull();
+        int recordBytes = RECORD_HEADER_BYTES + encoded.remaining() + RECORD_TRAILER_BYTES;
+        segmentNo++;
+        int size = Math.max( segmentBytes, SEGMENT_HEADER_BYTES + 2 * recordBytes );
+        try (RandomAccessFile raf = new RandomAccessFile( segmentFile( segmentNo ), "rw" )) {
+            raf.setLength( size );
+            segment = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+        }
+        segment.putInt( 0, SEGMENT_MAGIC );
+        segment.putInt( 4, VERSION );
+        segment.putLong( 8, segmentNo );
+        segment.position( SEGMENT_HEADER_BYTES );
+        append();
+        fullWritten.incrementAndGet();
+
+        for (long number : segmentNumbers()) {
+            if (number <= segmentNo - KEPT_SEGMENTS) {
+                segmentFile( number ).delete();
+            }
+        }
+    }
+
+    private File segmentFile( long number ) {
+        return new File( dir, String.format( "%s%016x%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX ) );
+    }
+
+    /**
+     * @return the numbers of the segment files in the directory, in ascending order
+     */
+    private long[] segmentNumbers() {
+        String[] names = dir.list();
+        List<Long> numbers = new ArrayList<Long>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX )) {
+                    try {
+                        numbers.add( Long.parseLong( name.substring( SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length() ), 16 ) );
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        long[] sorted = new long[numbers.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = numbers.get( i );
+        }
+        Arrays.sort( sorted );
+        return sorted;
+    }
+
+    static void putVarLong( ByteBuffer buffer, long value ) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put( (byte) ((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        buffer.put( (byte) value );
+    }
+
+    static long getVarLong( ByteBuffer buffer ) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException( "malformed varint" );
+    }
+}
@@ -0,0 +1,104 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.counters.RollingWindows;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class WindowTicker
+ *
+ * Ticks the RollingWindows of the overall totals, and of the ProviderMetrics sets updated
+ * in the last second, once a second on the MetricsScheduler thread. A ChangeTracker tells
+ * which sets were updated; the others are not touched, their windows catch up with the
+ * global tick number, see RollingWindows.advance(), when read. The overall windows are
+ * ticked every second, the updaters of the overall set leave the tracker alone.
+ *
+ * Tick numbers are whole seconds since the ticker started, taken from System.nanoTime(),
+ * so a late run closes the seconds it missed instead of stretching one.
+ *
+ * Listeners are called on the same thread once every updated set was ticked, so the second
+ * they are given is closed everywhere, or is when read. A slow listener delays the next
+ * tick, it never stretches one.
+ *
+ * Only the counters of MetricsCounters.windowIndexOf() have windows: bytes, successful
+ * requests and time, of both directions. The transfer counters and the gauges have none.
+ */
+public final class WindowTicker implements Runnable {
+
+    /** Called after every tick */
+    public interface Listener {
+
+        /**
+         * @param tickNo the global tick number of the second just closed, see RollingWindows
+         */
+        void windowsClosed( long tickNo );
+    }
+
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+
+    private static WindowTicker instance;
+
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final long origin = System.nanoTime();
+
+    // --- Used by the ticking task only ----
+    private ChangeTracker tracker;
+    private final Set<MetricsCounters> changed = new LinkedHashSet<MetricsCounters>();
+
+    private WindowTicker() {
+    }
+
+    static synchronized void start() {
+        if (instance == null) {
+            instance = new WindowTicker();
+            MetricsScheduler.get().scheduleAtFixedRate( instance, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    public static void addListener( Listener listener ) {
+        listeners.addIfAbsent( listener );
+    }
+
+    public static void removeListener( Listener listener ) {
+        listeners.remove( listener );
+    }
+
+    @Override
+    public void run() {
+        // Tick numbers start at 1, 0 marks a history that was never ticked
+        long tickNo = (System.nanoTime() - origin) / TICK_NANOS;
+        if (tickNo < 1) {
+            return;
+        }
+        RollingWindows.advance( tickNo );
+        try {
+            if (tracker == null) {
+                // Opened on the first tick, the tracker only sees the updates made from then on
+                tracker = ChangeTracker.open();
+                changed.addAll( ProviderMetrics.getAll() );
+            }
+            OverallMetrics.getOverallMetrics().getWindows().tick( tickNo );
+            tracker.drain( changed );
+            for (MetricsCounters set : changed) {
+                set.getWindows().tick( tickNo );
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic task, report it and tick again next second
+            e.printStackTrace();
+        } finally {
+            changed.clear();
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.windowsClosed( tickNo );
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
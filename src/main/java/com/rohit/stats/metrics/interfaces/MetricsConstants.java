@@ -20,5 +20,130 @@ public interface MetricsConstants {
     String TotalSuccessfulPutRequests = "total.successful.put.requests";
     String TotalPutTime 	= "total.put.time";
 
+    //  ---- Latency histograms, and their percentile gauges in microseconds ----
+    String PutLatency = "put.latency";
+    String GetLatency = "get.latency";
+    String LatencyP50 = "p50";
+    String LatencyP90 = "p90";
+    String LatencyP99 = "p99";
+    String LatencyP999 = "p999";
+    String LatencyMax = "max";
+
+    //  ---- Latency sampling ----
+    //  One operation in latency.sample.every is timed. The sampled counts of each histogram
+    //  have the variance put.latency.sample.variance, and the relative standard error
+    //  put.latency.sample.error, in parts per million. metrics.latency.sample.every sets the
+    //  interval of the keys that have none of their own, 1 by default: every operation.
+    String LatencySampleEvery = "latency.sample.every";
+    String LatencySampleVariance = "sample.variance";
+    String LatencySampleError = "sample.error";
+    String LatencySampleEveryProperty = "metrics.latency.sample.every";
+
+    //  ---- Streaming transfers, see Transfer ----
+    //  The open transfers of each direction and the bytes they moved so far, the transfers
+    //  that failed or were abandoned, and the bytes moved per second over the last
+    //  TransferThroughputSeconds closed seconds of the rolling windows.
+    String PutTransfersInFlight = "put.transfers.in.flight";
+    String PutBytesInFlight = "put.bytes.in.flight";
+    String FailedPutTransfers = "put.transfers.failed";
+    String AbandonedPutTransfers = "put.transfers.abandoned";
+    String GetTransfersInFlight = "get.transfers.in.flight";
+    String GetBytesInFlight = "get.bytes.in.flight";
+    String FailedGetTransfers = "get.transfers.failed";
+    String AbandonedGetTransfers = "get.transfers.abandoned";
+    String BytesUpThroughput = "bytes.up.throughput";
+    String BytesDownThroughput = "bytes.down.throughput";
+    int TransferThroughputSeconds = 10;
+
+    //  ---- Throughput meters, per second: the instantaneous rate, and 1/5/15 minute EWMAs ----
+    String BytesUpRate = "bytes.up.rate";
+    String BytesDownRate = "bytes.down.rate";
+    String PutRequestRate = "put.request.rate";
+    String GetRequestRate = "get.request.rate";
+    String RateM1 = "m1";
+    String RateM5 = "m5";
+    String RateM15 = "m15";
+
+    //  ---- How OverallMetrics keeps its totals ----
+    //  "aggregate" sums the provider metric sets when read, "dual" also writes every update to
+    //  its own counters. Read once, when OverallMetrics is first created.
+    String OverallModeProperty = "metrics.overall.mode";
+    String OverallModeAggregate = "aggregate";
+    String OverallModeDualWrite = "dual";
+
+    //  ---- How updates are recorded ----
+    //  "direct" applies every inc* call on the calling thread, "ring" publishes it to an
+    //  EventRing of metrics.ring.size events drained by one aggregator thread. When the ring is
+    //  full producers "drop", "yield" or "park" (metrics.ring.full), and the idle aggregator
+    //  does "spin", "yield" or "park" (metrics.ring.wait). Read once, at startup.
+    String RecordingModeProperty = "metrics.recording.mode";
+    String RecordingModeDirect = "direct";
+    String RecordingModeRing = "ring";
+    String RingSizeProperty = "metrics.ring.size";
+    String RingFullProperty = "metrics.ring.full";
+    String RingWaitProperty = "metrics.ring.wait";
+
+    //  ---- Where the totals are published ----
+    //  metrics.counter.file copies them once a second to that memory mapped file, with room
+    //  for metrics.counter.file.slots sets, for other processes to read; the counters stay
+    //  on the heap. See CounterFile.
+    //  Not published unless set. Read once, at startup.
+    String CounterFileProperty = "metrics.counter.file";
+    String CounterFileSlotsProperty = "metrics.counter.file.slots";
+
+    //  ---- External views and read paths ----
+    //  The JmxReporter is only started when metrics.jmx.enabled is not "false".
+    //  metrics.read.path picks how MetricsManager reads: "direct" from the registry, or "jmx".
+    //  metrics.jmx.mode picks the MBeans: "metric", one per metric from the JmxReporter, or
+    //  "key", one KeyMBean per metric set with every metric as an attribute.
+    String JmxEnabledProperty = "metrics.jmx.enabled";
+    String JmxModeProperty = "metrics.jmx.mode";
+    String JmxModeMetric = "metric";
+    String JmxModeKey = "key";
+    String ReadPathProperty = "metrics.read.path";
+    //  metrics.prometheus.port starts the Prometheus endpoint, whose render is cached for
+    //  metrics.prometheus.cache.millis.
+    String PrometheusPortProperty = "metrics.prometheus.port";
+    String PrometheusCacheMillisProperty = "metrics.prometheus.cache.millis";
+    //  metrics.push.port starts a reporter that sends what changed every
+    //  metrics.push.interval.millis to metrics.push.host, as "statsd" or "graphite" lines
+    //  (metrics.push.format) over "udp" or "tcp" (metrics.push.protocol).
+    String PushHostProperty = "metrics.push.host";
+    String PushPortProperty = "metrics.push.port";
+    String PushProtocolProperty = "metrics.push.protocol";
+    String PushFormatProperty = "metrics.push.format";
+    String PushPrefixProperty = "metrics.push.prefix";
+    String PushIntervalMillisProperty = "metrics.push.interval.millis";
+    String PushPacketBytesProperty = "metrics.push.packet.bytes";
+    //  metrics.cluster.listen.port starts a ClusterAggregator merging the nodes that push to it.
+    //  metrics.cluster.push.port starts a ClusterPusher sending the sets of this JVM every
+    //  metrics.cluster.push.interval.millis to the aggregator on metrics.cluster.push.host, as
+    //  node metrics.cluster.node.id, host:pid by default.
+    String ClusterListenPortProperty = "metrics.cluster.listen.port";
+    String ClusterPushHostProperty = "metrics.cluster.push.host";
+    String ClusterPushPortProperty = "metrics.cluster.push.port";
+    String ClusterPushIntervalMillisProperty = "metrics.cluster.push.interval.millis";
+    String ClusterNodeIdProperty = "metrics.cluster.node.id";
+
+    //  ---- Idle key eviction of ProviderMetrics ----
+    //  Keys not updated for metrics.keys.idle.ttl.seconds, or the least recently updated ones
+    //  beyond metrics.keys.max, are evicted. Both are off unless set.
+    String KeysMaxProperty = "metrics.keys.max";
+    String KeysIdleTtlProperty = "metrics.keys.idle.ttl.seconds";
+    String KeysSweepIntervalProperty = "metrics.keys.sweep.interval.seconds";
+
+    //  ---- Snapshot journal of the lifetime totals ----
+    //  Snapshots are written every metrics.journal.interval.seconds to segment files in
+    //  metrics.journal.dir, and the last good one is restored when the journal is opened.
+    //  Off unless the directory is set. metrics.journal.sync=true forces every write to disk.
+    String JournalDirProperty = "metrics.journal.dir";
+    String JournalIntervalProperty = "metrics.journal.interval.seconds";
+    String JournalSegmentBytesProperty = "metrics.journal.segment.bytes";
+    String JournalSyncProperty = "metrics.journal.sync";
+
+    //  ---- Threshold rules ----
+    //  metrics.rules starts a RuleEngine with the given SloRules, separated by ';', each
+    //  "NAME: RULE" or just "RULE", e.g. "slow: AWS_METRICS get p99 > 500ms for 3x10s".
+    String RulesProperty = "metrics.rules";
 
 }
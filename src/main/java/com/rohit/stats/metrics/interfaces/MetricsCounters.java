@@ -1,22 +1,152 @@
 package com.rohit.stats.metrics.interfaces;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.DoubleGauge;
+import com.rohit.stats.counters.EwmaRate;
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.counters.RollingWindows;
+import com.rohit.stats.counters.SizeClassStats;
+import com.rohit.stats.counters.StripedCounter;
 import com.rohit.stats.counters.TimeCounter;
+import com.rohit.stats.metrics.ChangeTracker;
+import com.rohit.stats.metrics.CounterFile;
+import com.rohit.stats.metrics.EventRing;
+import com.rohit.stats.metrics.MetricsKey;
 import com.rohit.stats.metrics.OverallMetrics;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * class MetricsCounters
+ *
+ * Holds the counters tracked for a metric set and the updater methods used on the request path.
+ * The plain counters are StripedCounters, so request threads updating the same provider do not
+ * fight over one cache line.
+ *
+ * In ring recording mode the updaters only publish an event to the EventRing, and its
+ * aggregator thread applies it with record().
+ *
+ * Latency can be sampled: with a sampling interval of N, startPutTime() and startGetTime()
+ * pick one operation in N at random and return NOT_SAMPLED for the others, which then read
+ * no clock at all. A timed operation is recorded N times over in the time totals and the
+ * histogram, so those are unbiased estimates; byte and request counts stay exact.
+ *
+ * Blobs are also counted by log2 size class, see SizeClassStats: every incTotalBytesUp() and
+ * incTotalBytesDown() call is one blob of its class, and the times recorded with the
+ * incTotalPutTime() and incTotalGetTime() overloads taking the size add to its class too.
+ *
+ * Long uploads and downloads are better recorded as a Transfer, whose bytes count chunk by
+ * chunk while it runs, see startPutTransfer().
+ *
+ * The rolling windows, see getWindows(), keep the history of six counters only: the bytes,
+ * successful requests and time of PUT and of GET, see windowIndexOf(). The failed and
+ * abandoned transfer counters have no history, and MetricsManager refuses window queries
+ * over them.
+ *
+ * When a set is given a slot of the CounterFile its totals are also published there, for
+ * other processes to read; releaseStorage() gives the slot up.
+ */
 public abstract class MetricsCounters {
 
+    /** Activity bit set by every update, and cleared by the idle key sweep */
+    public static final int ACTIVE_SINCE_SWEEP = 1;
+    /** Activity bits of the ChangeTrackers, one each, see ChangeTracker */
+    public static final int TRACKER_ACTIVITY = ~ACTIVE_SINCE_SWEEP;
+    private static final int ALL_ACTIVITY = ACTIVE_SINCE_SWEEP | TRACKER_ACTIVITY;
+
+    private static final AtomicIntegerFieldUpdater<MetricsCounters> ACTIVITY =
+            AtomicIntegerFieldUpdater.newUpdater( MetricsCounters.class, "activity" );
+
+    /**
+     * Every activity bit is set by each update. Once set, an update only reads the field,
+     * so the cache line stays shared until an observer clears its bit again.
+     */
+    private volatile int activity;
+
+    /** The ring updates are published to, null when they are recorded directly */
+    private static final EventRing ring = EventRing.get();
+
+    /** Counters kept in the rolling windows, in the order of their RollingWindows index */
+    private static final String[] WINDOWED_COUNTERS = {
+            MetricsConstants.TotalBytesUp, MetricsConstants.TotalSuccessfulPutRequests, MetricsConstants.TotalPutTime,
+            MetricsConstants.TotalBytesDown, MetricsConstants.TotalSuccessfulGetRequests, MetricsConstants.TotalGetTime };
+
+    // --- Layout of the long[] used by getTotals() and addTotals() ----
+    public static final int TOTAL_BYTES_UP = 0;
+    public static final int TOTAL_PUT_REQUESTS = 1;
+    public static final int TOTAL_PUT_NANOS = 2;
+    public static final int TOTAL_PUT_TIMED = 3;
+    public static final int TOTAL_BYTES_DOWN = 4;
+    public static final int TOTAL_GET_REQUESTS = 5;
+    public static final int TOTAL_GET_NANOS = 6;
+    public static final int TOTAL_GET_TIMED = 7;
+    public static final int TOTALS = 8;
+
+    /** Start token of an operation left out of the latency sample */
+    public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /** Receives a copy of every update in dual write mode, null when the totals are aggregated */
     protected OverallMetrics overallMetrics;
 
+    /** The slot of the counter file the totals are published in, null when there is none */
+    private final CounterFile.Slot storage;
+
     // --- "total" Put Metrics ----
-    protected final Counter bytesUp = new Counter();
+    protected final StripedCounter bytesUp = new StripedCounter();
     protected final TimeCounter putTime = new TimeCounter();
-    protected final Counter successfulPutRequests = new Counter();
+    protected final StripedCounter successfulPutRequests = new StripedCounter();
 
     // --- "total" Get Metrics ----
-    protected final Counter bytesDown = new Counter();
+    protected final StripedCounter bytesDown = new StripedCounter();
     protected final TimeCounter getTime = new TimeCounter();
-    protected final Counter successfulGetRequests = new Counter();
+    protected final StripedCounter successfulGetRequests = new StripedCounter();
+
+    // --- Latency of every timed operation ----
+    protected final LatencyHistogram putLatency = new LatencyHistogram();
+    protected final LatencyHistogram getLatency = new LatencyHistogram();
+
+    // --- Latency sampling: one operation in latencySampleEvery is timed. The variance of the
+    //     estimated operation counts, the sum of N * (N - 1) over the samples ----
+    private volatile int latencySampleEvery = 1;
+    protected final StripedCounter putSampleVariance = new StripedCounter();
+    protected final StripedCounter getSampleVariance = new StripedCounter();
+
+    // --- Blobs by size class ----
+    protected final SizeClassStats putSizes = new SizeClassStats();
+    protected final SizeClassStats getSizes = new SizeClassStats();
+
+    // --- Streaming transfers: the open ones, and those that failed or were abandoned ----
+    private final Set<Transfer> openTransfers = ConcurrentHashMap.newKeySet();
+    protected final StripedCounter failedPutTransfers = new StripedCounter();
+    protected final StripedCounter abandonedPutTransfers = new StripedCounter();
+    protected final StripedCounter failedGetTransfers = new StripedCounter();
+    protected final StripedCounter abandonedGetTransfers = new StripedCounter();
+
+    // --- Recent history of the totals, set up by the subclass with newWindows() and
+    //     addRateMetrics(). The windows are also the lock of the whole history ----
+    protected RollingWindows windows;
+    protected EwmaRate bytesUpRate;
+    protected EwmaRate putRequestRate;
+    protected EwmaRate bytesDownRate;
+    protected EwmaRate getRequestRate;
+
+    protected MetricsCounters() {
+        this( null );
+    }
+
+    /**
+     * @param storage the counter file slot to publish the totals in, null for none
+     */
+    protected MetricsCounters( CounterFile.Slot storage ) {
+        this.storage = storage;
+    }
 
 
 
@@ -24,39 +154,603 @@ public abstract class MetricsCounters {
     //   "Put" metric updater methods.  On a "per root" basis
     //-------------------------------------------------------------------------
     public void incTotalBytesUp( long someNumber ) {
-        bytesUp.inc( someNumber );
-        overallMetrics.incTotalBytesUp(someNumber);
+        update( EventRing.BYTES_UP, someNumber );
+    }
+    /**
+     * @return the start token of one PUT, to be passed to incTotalPutTime(), NOT_SAMPLED
+     *    when the PUT is not timed
+     */
+    public long startPutTime() {
+        return isSampled() ? putTime.start() : NOT_SAMPLED;
     }
-    public void startPutTime() {
-        putTime.setStartTime();
+    /**
+     * Records the time of the PUT started with the given token.
+     */
+    public void incTotalPutTime( long startToken ) {
+        if (startToken != NOT_SAMPLED) {
+            update( EventRing.PUT_TIME, System.nanoTime() - startToken );
+        }
     }
-    public void incTotalPutTime() {
-        long time = putTime.recordCurrentTime();
-        putTime.inc( time );
-        overallMetrics.incTotalPutTime(time);
+    /**
+     * Records the time of the PUT of a blob of the given size, also in its size class.
+     */
+    public void incTotalPutTime( long startToken, long size ) {
+        if (startToken != NOT_SAMPLED) {
+            update( EventRing.PUT_TIME_SIZED, (System.nanoTime() - startToken) << SizeClassStats.CLASS_BITS
+                    | SizeClassStats.classOf( size ) );
+        }
     }
     public void incTotalSuccessfulPutRequests() {
-        successfulPutRequests.inc();
-        overallMetrics.incTotalSuccessfulPutRequests();
+        update( EventRing.PUT_REQUEST, 1 );
+    }
+    /**
+     * @return a PUT streamed in chunks, timed from now like startPutTime(); end it with
+     *    succeeded(), failed() or close()
+     */
+    public Transfer startPutTransfer() {
+        return new Transfer( this, OverallMetrics.getOverallMetrics(), true, startPutTime() );
     }
     //-------------------------------------------------------------------------
     //   "Get" metric updater methods, on a per root basis
     //-------------------------------------------------------------------------
     public void incTotalBytesDown( long someNumber ) {
-        bytesDown.inc( someNumber );
-        overallMetrics.incTotalBytesDown(someNumber);
+        update( EventRing.BYTES_DOWN, someNumber );
+    }
+    /**
+     * @return the start token of one GET, to be passed to incTotalGetTime(), NOT_SAMPLED
+     *    when the GET is not timed
+     */
+    public long startGetTime() {
+        return isSampled() ? getTime.start() : NOT_SAMPLED;
+    }
+    /**
+     * Records the time of the GET started with the given token.
+     */
+    public void incTotalGetTime( long startToken ) {
+        if (startToken != NOT_SAMPLED) {
+            update( EventRing.GET_TIME, System.nanoTime() - startToken );
+        }
     }
-    public void startGetTime() {
-        getTime.setStartTime();
+    /**
+     * Records the time of the GET of a blob of the given size, also in its size class.
+     */
+    public void incTotalGetTime( long startToken, long size ) {
+        if (startToken != NOT_SAMPLED) {
+            update( EventRing.GET_TIME_SIZED, (System.nanoTime() - startToken) << SizeClassStats.CLASS_BITS
+                    | SizeClassStats.classOf( size ) );
+        }
     }
-    public void incTotalGetTime() {
-        long time = getTime.recordCurrentTime();
-        getTime.inc( time );
-        overallMetrics.incTotalGetTime(time);
+
+    /**
+     * @return a GET streamed in chunks, timed from now like startGetTime(); end it with
+     *    succeeded(), failed() or close()
+     */
+    public Transfer startGetTransfer() {
+        return new Transfer( this, OverallMetrics.getOverallMetrics(), false, startGetTime() );
+    }
+
+    private boolean isSampled() {
+        int every = latencySampleEvery;
+        return every == 1 || ThreadLocalRandom.current().nextInt( every ) == 0;
     }
     public void incTotalSuccessfulGetRequests() {
-        successfulGetRequests.inc();
-        overallMetrics.incTotalSuccessfulGetRequests();
+        update( EventRing.GET_REQUEST, 1 );
+    }
+
+    //-------------------------------------------------------------------------
+    //   Streaming transfers, called by Transfer
+    //-------------------------------------------------------------------------
+    void recordChunk( boolean put, long bytes ) {
+        update( put ? EventRing.BYTES_UP_CHUNK : EventRing.BYTES_DOWN_CHUNK, bytes );
+    }
+
+    void recordTransferEnd( boolean put, Transfer.Outcome outcome, long bytes, long startToken ) {
+        if (outcome == Transfer.Outcome.SUCCEEDED) {
+            if (put) {
+                incTotalPutTime( startToken, bytes );
+                incTotalSuccessfulPutRequests();
+            } else {
+                incTotalGetTime( startToken, bytes );
+                incTotalSuccessfulGetRequests();
+            }
+        }
+        update( put ? EventRing.PUT_TRANSFER_END : EventRing.GET_TRANSFER_END,
+                bytes << OUTCOME_BITS | outcome.ordinal() );
+    }
+
+    void transferOpened( Transfer transfer ) {
+        openTransfers.add( transfer );
+    }
+
+    void transferClosed( Transfer transfer ) {
+        openTransfers.remove( transfer );
+    }
+
+    /**
+     * @return the number of open transfers of the given direction, or the bytes they moved
+     */
+    long inFlight( boolean put, boolean bytes ) {
+        long total = 0;
+        for (Transfer transfer : openTransfers) {
+            if (transfer.isPut() == put) {
+                total += bytes ? transfer.getBytes() : 1;
+            }
+        }
+        return total;
+    }
+
+    private void update( int op, long value ) {
+        if (ring != null) {
+            ring.publish( this, op, value );
+        } else {
+            record( op, value );
+        }
+    }
+
+    /**
+     * record()
+     *
+     * Applies one update, an EventRing op with its byte count or nanoseconds, to this set
+     *    and in dual write mode to the overall totals. Called by the updaters in direct
+     *    mode and by the ring's aggregator thread in ring mode. A time stands for as many
+     *    operations as the current sampling interval.
+     */
+    public final void record( int op, long value ) {
+        touch();
+        switch (op) {
+            case EventRing.BYTES_UP:
+                bytesUp.inc( value );
+                putSizes.recordBytes( value );
+                if (overallMetrics != null) {
+                    overallMetrics.incTotalBytesUp( value );
+                }
+                break;
+            case EventRing.PUT_TIME:
+                applyPutTime( value, -1 );
+                break;
+            case EventRing.PUT_TIME_SIZED:
+                applyPutTime( value >>> SizeClassStats.CLASS_BITS, (int) value & SIZE_CLASS_MASK );
+                break;
+            case EventRing.PUT_REQUEST:
+                successfulPutRequests.inc( value );
+                if (overallMetrics != null) {
+                    overallMetrics.incTotalSuccessfulPutRequests();
+                }
+                break;
+            case EventRing.BYTES_DOWN:
+                bytesDown.inc( value );
+                getSizes.recordBytes( value );
+                if (overallMetrics != null) {
+                    overallMetrics.incTotalBytesDown( value );
+                }
+                break;
+            case EventRing.GET_TIME:
+                applyGetTime( value, -1 );
+                break;
+            case EventRing.GET_TIME_SIZED:
+                applyGetTime( value >>> SizeClassStats.CLASS_BITS, (int) value & SIZE_CLASS_MASK );
+                break;
+            case EventRing.GET_REQUEST:
+                successfulGetRequests.inc( value );
+                if (overallMetrics != null) {
+                    overallMetrics.incTotalSuccessfulGetRequests();
+                }
+                break;
+            case EventRing.BYTES_UP_CHUNK:
+                bytesUp.inc( value );
+                if (overallMetrics != null) {
+                    ((MetricsCounters) overallMetrics).bytesUp.inc( value );
+                }
+                break;
+            case EventRing.BYTES_DOWN_CHUNK:
+                bytesDown.inc( value );
+                if (overallMetrics != null) {
+                    ((MetricsCounters) overallMetrics).bytesDown.inc( value );
+                }
+                break;
+            case EventRing.PUT_TRANSFER_END:
+                applyTransferEnd( true, value );
+                if (overallMetrics != null) {
+                    ((MetricsCounters) overallMetrics).applyTransferEnd( true, value );
+                }
+                break;
+            case EventRing.GET_TRANSFER_END:
+                applyTransferEnd( false, value );
+                if (overallMetrics != null) {
+                    ((MetricsCounters) overallMetrics).applyTransferEnd( false, value );
+                }
+                break;
+            default:
+                throw new IllegalArgumentException( "unknown op " + op );
+        }
+    }
+
+    private static final int SIZE_CLASS_MASK = (1 << SizeClassStats.CLASS_BITS) - 1;
+
+    private static final int OUTCOME_BITS = 2;
+    private static final Transfer.Outcome[] OUTCOMES = Transfer.Outcome.values();
+
+    /*
+     * Counts the end of a transfer, given as bytes << OUTCOME_BITS | outcome: a successful
+     *    one as a blob of its size class, the others as failed or abandoned.
+     */
+    private void applyTransferEnd( boolean put, long value ) {
+        switch (OUTCOMES[(int) value & ((1 << OUTCOME_BITS) - 1)]) {
+            case SUCCEEDED:
+                (put ? putSizes : getSizes).recordBytes( value >>> OUTCOME_BITS );
+                break;
+            case FAILED:
+                (put ? failedPutTransfers : failedGetTransfers).inc();
+                break;
+            default:
+                (put ? abandonedPutTransfers : abandonedGetTransfers).inc();
+                break;
+        }
+    }
+
+    /*
+     * Records one PUT time, standing for as many operations as the sampling interval, and
+     *    adds it to the given size class unless that is -1.
+     */
+    private void applyPutTime( long nanos, int sizeClass ) {
+        int weight = latencySampleEvery;
+        putTime.record( nanos * weight, weight );
+        putLatency.record( nanos, weight );
+        if (weight > 1) {
+            putSampleVariance.inc( (long) weight * (weight - 1) );
+        }
+        if (sizeClass >= 0) {
+            putSizes.recordTime( sizeClass, nanos * weight );
+        }
+        if (overallMetrics != null) {
+            overallMetrics.recordPutTime( nanos, weight );
+            if (sizeClass >= 0) {
+                ((MetricsCounters) overallMetrics).putSizes.recordTime( sizeClass, nanos * weight );
+            }
+        }
+    }
+
+    private void applyGetTime( long nanos, int sizeClass ) {
+        int weight = latencySampleEvery;
+        getTime.record( nanos * weight, weight );
+        getLatency.record( nanos, weight );
+        if (weight > 1) {
+            getSampleVariance.inc( (long) weight * (weight - 1) );
+        }
+        if (sizeClass >= 0) {
+            getSizes.recordTime( sizeClass, nanos * weight );
+        }
+        if (overallMetrics != null) {
+            overallMetrics.recordGetTime( nanos, weight );
+            if (sizeClass >= 0) {
+                ((MetricsCounters) overallMetrics).getSizes.recordTime( sizeClass, nanos * weight );
+            }
+        }
+    }
+
+    /**
+     * touch()
+     *
+     * Marks this set as used since every observer last looked, and queues it for the
+     *    change trackers that had not seen it changed yet.
+     */
+    protected final void touch() {
+        if (activity != ALL_ACTIVITY) {
+            int previous = ACTIVITY.getAndSet( this, ALL_ACTIVITY );
+            if ((~previous & TRACKER_ACTIVITY) != 0) {
+                ChangeTracker.changed( this, ~previous );
+            }
+        }
+    }
+
+    /**
+     * clearActivity()
+     *
+     * Clears one activity bit.
+     *
+     * @return true if the set was updated since the bit was last cleared
+     */
+    public final boolean clearActivity( int bit ) {
+        int current;
+        do {
+            current = activity;
+            if ((current & bit) == 0) {
+                return false;
+            }
+        } while (!ACTIVITY.compareAndSet( this, current, current & ~bit ));
+        return true;
+    }
+
+    /**
+     * getTotals()
+     *
+     * Copies the lifetime value of every counter into the given array, indexed by the
+     *    TOTAL_* constants. Time counters are copied in nanoseconds, with their operation count.
+     */
+    public void getTotals( long[] totals ) {
+        copyTotals( totals, bytesUp, successfulPutRequests, putTime, bytesDown, successfulGetRequests, getTime );
+    }
+
+    /**
+     * addTotals()
+     *
+     * Adds the given values, laid out as by getTotals(), to the counters of this set only,
+     *    e.g. to restore persisted totals. Nothing is forwarded to the overall totals, and
+     *    the amounts are left out of the rates and rolling windows.
+     */
+    public final void addTotals( long[] totals ) {
+        synchronized (windows) {
+            addToCounters( totals );
+            excludeFromHistory( totals );
+        }
+    }
+
+    /**
+     * mergeTotals()
+     *
+     * Adds the given amounts, laid out as by getTotals(), to the counters of this set as
+     *    updates that happened elsewhere, e.g. on another node. Unlike addTotals() they count
+     *    in the rates and rolling windows, and in dual write mode they are forwarded to the
+     *    overall totals.
+     */
+    public final void mergeTotals( long[] deltas ) {
+        touch();
+        addToCounters( deltas );
+        if (overallMetrics != null) {
+            ((MetricsCounters) overallMetrics).addToCounters( deltas );
+        }
+    }
+
+    /**
+     * excludeFromHistory()
+     *
+     * Leaves amounts just added to the counters, laid out as by getTotals(), out of the
+     *    rates and rolling windows. Hold the monitor of getWindows() around the add and
+     *    this call, so that no tick falls in between.
+     */
+    public final void excludeFromHistory( long[] totals ) {
+        synchronized (windows) {
+            windows.exclude( 0, totals[TOTAL_BYTES_UP] );
+            windows.exclude( 1, totals[TOTAL_PUT_REQUESTS] );
+            windows.exclude( 2, totals[TOTAL_PUT_NANOS] );
+            windows.exclude( 3, totals[TOTAL_BYTES_DOWN] );
+            windows.exclude( 4, totals[TOTAL_GET_REQUESTS] );
+            windows.exclude( 5, totals[TOTAL_GET_NANOS] );
+        }
+    }
+
+    protected void addToCounters( long[] totals ) {
+        addToCounters( totals, bytesUp, successfulPutRequests, putTime, bytesDown, successfulGetRequests, getTime );
+    }
+
+    protected static void copyTotals( long[] totals, Counter bytesUp, Counter putRequests, TimeCounter putTime,
+                                      Counter bytesDown, Counter getRequests, TimeCounter getTime ) {
+        totals[TOTAL_BYTES_UP] = bytesUp.getCount();
+        totals[TOTAL_PUT_REQUESTS] = putRequests.getCount();
+        totals[TOTAL_PUT_NANOS] = putTime.getTotalNanos();
+        totals[TOTAL_PUT_TIMED] = putTime.getOperationCount();
+        totals[TOTAL_BYTES_DOWN] = bytesDown.getCount();
+        totals[TOTAL_GET_REQUESTS] = getRequests.getCount();
+        totals[TOTAL_GET_NANOS] = getTime.getTotalNanos();
+        totals[TOTAL_GET_TIMED] = getTime.getOperationCount();
+    }
+
+    protected static void addToCounters( long[] totals, Counter bytesUp, Counter putRequests, TimeCounter putTime,
+                                         Counter bytesDown, Counter getRequests, TimeCounter getTime ) {
+        bytesUp.inc( totals[TOTAL_BYTES_UP] );
+        putRequests.inc( totals[TOTAL_PUT_REQUESTS] );
+        putTime.record( totals[TOTAL_PUT_NANOS], totals[TOTAL_PUT_TIMED] );
+        bytesDown.inc( totals[TOTAL_BYTES_DOWN] );
+        getRequests.inc( totals[TOTAL_GET_REQUESTS] );
+        getTime.record( totals[TOTAL_GET_NANOS], totals[TOTAL_GET_TIMED] );
+    }
+
+    /**
+     * @return the histogram of the PUT latencies of this set
+     */
+    public LatencyHistogram getPutLatency() { return putLatency; }
+
+    /**
+     * @return the histogram of the GET latencies of this set
+     */
+    public LatencyHistogram getGetLatency() { return getLatency; }
+
+    /**
+     * @return the PUT blobs of this set by size class
+     */
+    public SizeClassStats getPutSizes() { return putSizes; }
+
+    /**
+     * @return the GET blobs of this set by size class
+     */
+    public SizeClassStats getGetSizes() { return getSizes; }
+
+    /**
+     * @return one operation in this many is timed, 1 when every one is
+     */
+    public int getLatencySampleEvery() { return latencySampleEvery; }
+
+    /**
+     * setLatencySampleEvery()
+     *
+     * Times one PUT and one GET in the given number from now on, 1 to time every one.
+     *    A timing started before the change and recorded after it gets the new weight.
+     */
+    protected final void setLatencySampleEvery( int every ) {
+        if (every < 1) {
+            throw new IllegalArgumentException( "sampling interval must be at least 1, got " + every );
+        }
+        latencySampleEvery = every;
+    }
+
+    /**
+     * @return the transfers of the given direction that failed or were abandoned
+     */
+    public long getUnsuccessfulTransfers( boolean put ) {
+        return put ? failedPutTransfers.getCount() + abandonedPutTransfers.getCount()
+                : failedGetTransfers.getCount() + abandonedGetTransfers.getCount();
+    }
+
+    /**
+     * @return the counter file slot the totals are published in, null when there is none
+     */
+    public CounterFile.Slot getStorage() { return storage; }
+
+    /**
+     * releaseStorage()
+     *
+     * Gives up the counter file slot of the totals, if any, once the set is gone. What the
+     *    set counted so far is added to the retired slot, and the slot can go to another set.
+     */
+    public final void releaseStorage() {
+        if (storage != null) {
+            storage.release( this );
+        }
+    }
+
+    /**
+     * @return the key this set is registered under
+     */
+    public abstract MetricsKey getMetricsKey();
+
+    /**
+     * @return the rolling windows of this set's counters
+     */
+    public RollingWindows getWindows() { return windows; }
+
+    /**
+     * windowIndexOf()
+     *
+     * @param metricId a counter name from MetricsConstants, e.g. TotalBytesUp
+     * @return the index of that counter in getWindows(), or -1 if it is not kept
+     */
+    public static int windowIndexOf( String metricId ) {
+        for (int i = 0; i < WINDOWED_COUNTERS.length; i++) {
+            if (WINDOWED_COUNTERS[i].equals( metricId )) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * newWindows()
+     *
+     * @return rolling windows over the given counters, in the order of windowIndexOf()
+     */
+    protected static RollingWindows newWindows( Counter bytesUp, Counter putRequests, Counter putTime,
+                                                Counter bytesDown, Counter getRequests, Counter getTime ) {
+        return new RollingWindows( bytesUp, putRequests, putTime, bytesDown, getRequests, getTime );
+    }
+
+    /**
+     * addLatencyMetrics()
+     *
+     * Adds a latency histogram and its percentile gauges to a metric map, e.g.
+     *    "AWS_METRICS.put.latency" and "AWS_METRICS.put.latency.p99".
+     */
+    protected static void addLatencyMetrics( Map<String,Metric> metricMap, String keyName, String latencyId,
+                                             LatencyHistogram histogram ) {
+        String name = MetricRegistry.name( keyName, latencyId );
+        metricMap.put( name, histogram );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.LatencyP50 ), histogram.percentileGauge( 50.0 ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.LatencyP90 ), histogram.percentileGauge( 90.0 ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.LatencyP99 ), histogram.percentileGauge( 99.0 ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.LatencyP999 ), histogram.percentileGauge( 99.9 ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.LatencyMax ), histogram.maxGauge() );
+    }
+
+    /**
+     * addSamplingMetrics()
+     *
+     * Adds the latency sampling metrics of a set to a metric map, e.g.
+     *    "AWS_METRICS.latency.sample.every", and for the PUT latency
+     *    "AWS_METRICS.put.latency.sample.variance", and "AWS_METRICS.put.latency.sample.error",
+     *    the relative standard error of the estimated count of timed operations in parts per
+     *    million, 0 when nothing was sampled.
+     */
+    protected static void addSamplingMetrics( Map<String,Metric> metricMap, String keyName, LongGauge sampleEvery,
+                                              Counter putVariance, TimeCounter putTime,
+                                              Counter getVariance, TimeCounter getTime ) {
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.LatencySampleEvery ), sampleEvery );
+        addSampleError( metricMap, MetricRegistry.name( keyName, MetricsConstants.PutLatency ), putVariance, putTime );
+        addSampleError( metricMap, MetricRegistry.name( keyName, MetricsConstants.GetLatency ), getVariance, getTime );
+    }
+
+    private static void addSampleError( Map<String,Metric> metricMap, String latencyName, final Counter variance,
+                                        final TimeCounter time ) {
+        metricMap.put( MetricRegistry.name( latencyName, MetricsConstants.LatencySampleVariance ), variance );
+        metricMap.put( MetricRegistry.name( latencyName, MetricsConstants.LatencySampleError ), new LongGauge() {
+            @Override
+            public long getLongValue() {
+                long count = time.getOperationCount();
+                return count == 0 ? 0 : Math.round( 1e6 * Math.sqrt( variance.getCount() ) / count );
+            }
+        } );
+    }
+
+    /**
+     * addTransferMetrics()
+     *
+     * Adds the transfer metrics of a set to a metric map, e.g.
+     *    "AWS_METRICS.put.transfers.in.flight", "AWS_METRICS.put.bytes.in.flight",
+     *    "AWS_METRICS.put.transfers.failed" and "AWS_METRICS.bytes.up.throughput", the bytes
+     *    moved per second over the last TransferThroughputSeconds closed seconds. Call after
+     *    newWindows().
+     */
+    protected void addTransferMetrics( Map<String,Metric> metricMap, String keyName,
+                                       Counter failedPut, Counter abandonedPut,
+                                       Counter failedGet, Counter abandonedGet ) {
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.PutTransfersInFlight ),
+                new Transfer.InFlightGauge( this, true, false ) );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.PutBytesInFlight ),
+                new Transfer.InFlightGauge( this, true, true ) );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.FailedPutTransfers ), failedPut );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.AbandonedPutTransfers ), abandonedPut );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.GetTransfersInFlight ),
+                new Transfer.InFlightGauge( this, false, false ) );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.GetBytesInFlight ),
+                new Transfer.InFlightGauge( this, false, true ) );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.FailedGetTransfers ), failedGet );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.AbandonedGetTransfers ), abandonedGet );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.BytesUpThroughput ),
+                throughputGauge( windowIndexOf( MetricsConstants.TotalBytesUp ) ) );
+        metricMap.put( MetricRegistry.name( keyName, MetricsConstants.BytesDownThroughput ),
+                throughputGauge( windowIndexOf( MetricsConstants.TotalBytesDown ) ) );
+    }
+
+    private DoubleGauge throughputGauge( final int counter ) {
+        final RollingWindows history = windows;
+        return new DoubleGauge() {
+            @Override
+            public double getDoubleValue() {
+                long seconds = Math.min( history.closedSlots( RollingWindows.Resolution.SECOND ),
+                        MetricsConstants.TransferThroughputSeconds );
+                return seconds == 0 ? 0.0
+                        : (double) history.sum( counter, RollingWindows.Resolution.SECOND, (int) seconds ) / seconds;
+            }
+        };
+    }
+
+    /**
+     * addRateMetrics()
+     *
+     * Adds the throughput gauges of a counter to a metric map, e.g. "AWS_METRICS.bytes.up.rate"
+     *    for the instantaneous rate and "AWS_METRICS.bytes.up.rate.m1" for the 1 minute EWMA.
+     *    The rates are folded from the seconds of getWindows() when read, see EwmaRate.
+     *    Call after newWindows(), with a counter given to it.
+     *
+     * @return the rate meter behind the gauges
+     */
+    protected EwmaRate addRateMetrics( Map<String,Metric> metricMap, String keyName, String rateId,
+                                       Counter counter ) {
+        EwmaRate rate = new EwmaRate( windows, windows.indexOf( counter ) );
+        String name = MetricRegistry.name( keyName, rateId );
+        metricMap.put( name, rate.rateGauge( EwmaRate.INSTANT ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.RateM1 ), rate.rateGauge( EwmaRate.ONE_MINUTE ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.RateM5 ), rate.rateGauge( EwmaRate.FIVE_MINUTES ) );
+        metricMap.put( MetricRegistry.name( name, MetricsConstants.RateM15 ), rate.rateGauge( EwmaRate.FIFTEEN_MINUTES ) );
+        return rate;
     }
 
 }
@@ -0,0 +1,150 @@
+package com.rohit.stats.metrics.interfaces;
+
+import com.rohit.stats.counters.LongGauge;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * class Transfer
+ *
+ * One streaming PUT or GET, started with MetricsCounters.startPutTransfer() or
+ * startGetTransfer(). Its bytes are counted with chunk() as they move, so the byte counters,
+ * rates and windows of the set follow a long upload or download while it runs instead of
+ * taking it all at once, and the in-flight gauges show the open transfers and the bytes
+ * they moved so far.
+ *
+ * A transfer ends once, with succeeded(), failed() or close(), whichever comes first. Only
+ * a successful one counts as a request, with its time and as one blob of its size class;
+ * failed and abandoned ones are counted apart, and the bytes they moved stay in the byte
+ * counters. close() abandons a transfer that has not ended, so with try-with-resources no
+ * transfer stays open:
+ *
+ *     try (Transfer transfer = metrics.startPutTransfer()) {
+ *         while (...) { ... transfer.chunk( n ); }
+ *         transfer.succeeded();
+ *     }
+ *
+ * A transfer is driven by one thread at a time. chunk() costs an update of the byte counter,
+ * like incTotalBytesUp(), and an ordered write of the moved bytes into the transfer, where
+ * the gauges read them.
+ */
+public final class Transfer implements AutoCloseable {
+
+    /** How a transfer ended, OPEN while it runs */
+    public enum Outcome { OPEN, SUCCEEDED, FAILED, ABANDONED }
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private static final AtomicLongFieldUpdater<Transfer> MOVED =
+            AtomicLongFieldUpdater.newUpdater( Transfer.class, "moved" );
+
+    private static final AtomicIntegerFieldUpdater<Transfer> OUTCOME =
+            AtomicIntegerFieldUpdater.newUpdater( Transfer.class, "outcome" );
+
+    private final MetricsCounters set;
+    private final MetricsCounters overall;
+    private final boolean put;
+    private final long startToken;
+
+    /** Bytes moved so far, written by the driving thread only */
+    private volatile long moved;
+
+    private volatile int outcome;
+
+    Transfer( MetricsCounters set, MetricsCounters overall, boolean put, long startToken ) {
+        this.set = set;
+        this.overall = overall;
+        this.put = put;
+        this.startToken = startToken;
+        set.transferOpened( this );
+        if (overall != set) {
+            overall.transferOpened( this );
+        }
+    }
+
+    /**
+     * chunk()
+     *
+     * Counts the given number of bytes as moved.
+     */
+    public void chunk( long bytes ) {
+        MOVED.lazySet( this, moved + bytes );
+        set.recordChunk( put, bytes );
+    }
+
+    /**
+     * succeeded()
+     *
+     * Ends the transfer as a successful request, timed from its start.
+     *
+     * @return false if it had ended already
+     */
+    public boolean succeeded() {
+        return end( Outcome.SUCCEEDED );
+    }
+
+    /**
+     * failed()
+     *
+     * Ends the transfer as failed.
+     *
+     * @return false if it had ended already
+     */
+    public boolean failed() {
+        return end( Outcome.FAILED );
+    }
+
+    /**
+     * close()
+     *
+     * Ends the transfer as abandoned, unless it ended already.
+     */
+    @Override
+    public void close() {
+        end( Outcome.ABANDONED );
+    }
+
+    public boolean isPut() { return put; }
+
+    /**
+     * @return bytes moved so far
+     */
+    public long getBytes() { return moved; }
+
+    public Outcome getOutcome() { return OUTCOMES[outcome]; }
+
+    private boolean end( Outcome end ) {
+        if (!OUTCOME.compareAndSet( this, Outcome.OPEN.ordinal(), end.ordinal() )) {
+            return false;
+        }
+        set.transferClosed( this );
+        if (overall != set) {
+            overall.transferClosed( this );
+        }
+        set.recordTransferEnd( put, end, moved, startToken );
+        return true;
+    }
+
+    /**
+     * A gauge of the open transfers of one direction of a set, their number or their bytes.
+     *    Its values add up across sets, unlike most gauges.
+     */
+    public static final class InFlightGauge extends LongGauge {
+
+        private final MetricsCounters set;
+        private final boolean put;
+        private final boolean bytes;
+
+        InFlightGauge( MetricsCounters set, boolean put, boolean bytes ) {
+            this.set = set;
+            this.put = put;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long getLongValue() {
+            return set.inFlight( put, bytes );
+        }
+    }
+}
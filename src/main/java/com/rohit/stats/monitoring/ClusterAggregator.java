@@ -0,0 +1,468 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.metrics.LabelSet;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.MetricsScheduler;
+import com.rohit.stats.metrics.NodeSnapshot;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects NodeSnapshot frames from the ClusterPushers of many JVMs over TCP and merges them
+ * into the metric sets of this JVM, so that MetricsManager, JMX and the Prometheus endpoint
+ * here serve the cluster-wide view.
+ *
+ * One thread serves every connection with a Selector. For each node and key the aggregator
+ * keeps the cumulative values it last saw, and adds the difference to the local set of the
+ * key: counters with MetricsCounters.mergeTotals(), so that rates and rolling windows hold
+ * the cluster activity, and latency buckets with LatencyHistogram.addBucketCount(). A node
+ * that reports a new incarnation restarted: what was seen of it is forgotten, and its new
+ * values are added whole, whether or not they already passed the old ones. A value lower
+ * than the last one seen of the same incarnation is taken as a restart too. A node's own
+ * overall totals are not merged, the local ones add up the merged keys. A key this JVM
+ * already has with other labels is skipped and reported, the node stays connected.
+ *
+ * Started by startFromProperties() when metrics.cluster.listen.port is set. Best run in a
+ * JVM of its own, the local activity of the aggregator would count in the cluster totals.
+ */
+public class ClusterAggregator
+{
+    private static ClusterAggregator started;
+
+    private final ServerSocketChannel server;
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /** What was last seen of every node, by node id. Used by the selector thread only */
+    private final Map<String, NodeState> nodes = new HashMap<String, NodeState>();
+
+    private final AtomicLong frames = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong resets = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private static final class NodeState
+    {
+        long incarnation;
+
+        final Map<String, KeyState> keys = new HashMap<String, KeyState>();
+
+        NodeState(long incarnation)
+        {
+            this.incarnation = incarnation;
+        }
+    }
+
+    private static final class KeyState
+    {
+        final long[] totals = new long[MetricsCounters.TOTALS];
+
+        NodeSnapshot.Buckets put;
+
+        NodeSnapshot.Buckets get;
+
+        /** Set while the key is skipped, so that it is reported once */
+        boolean skipped;
+    }
+
+    /** A node connection, with its partly read frame */
+    private final class Connection implements NodeSnapshot.Sink
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        final NodeSnapshot.Decoder decoder = new NodeSnapshot.Decoder();
+
+        final long[] deltas = new long[MetricsCounters.TOTALS];
+
+        NodeState node;
+
+        String nodeId;
+
+        @Override
+        public void node(String nodeId, long incarnation, long sequence)
+        {
+            this.nodeId = nodeId;
+            node = nodes.get(nodeId);
+            if (node == null)
+            {
+                node = new NodeState(incarnation);
+                nodes.put(nodeId, node);
+            }
+            else if (node.incarnation != incarnation)
+            {
+                // The totals and histograms of the new process count from zero
+                node.incarnation = incarnation;
+                node.keys.clear();
+                resets.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void set(String keyName, LabelSet labels, long[] totals, NodeSnapshot.Buckets put,
+                        NodeSnapshot.Buckets get)
+        {
+            if (MetricsConstants.DEFAULT.equals(keyName))
+            {
+                return;
+            }
+            String id = labels.isEmpty() ? keyName : keyName + '{' + labels + '}';
+            KeyState state = node.keys.get(id);
+            if (state == null)
+            {
+                state = new KeyState();
+                node.keys.put(id, state);
+            }
+            MetricsKey key;
+            try
+            {
+                key = labels.isEmpty() ? MetricsKey.of(keyName) : MetricsKey.of(keyName, labels);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Labeled otherwise here: left out, and merged in full once the labels agree
+                skipped.incrementAndGet();
+                if (!state.skipped)
+                {
+                    state.skipped = true;
+                    System.out.printf("cluster aggregator skips %s of node %s: %s\n", keyName, nodeId, e.getMessage());
+                }
+                return;
+            }
+            state.skipped = false;
+            boolean reset = false;
+            for (int i = 0; i < totals.length; i++)
+            {
+                long last = state.totals[i];
+                reset |= totals[i] < last;
+                deltas[i] = totals[i] >= last ? totals[i] - last : totals[i];
+                state.totals[i] = totals[i];
+            }
+            if (reset)
+            {
+                resets.incrementAndGet();
+            }
+
+            MetricsCounters target = ProviderMetrics.forKey(key);
+            target.mergeTotals(deltas);
+            OverallMetrics dual = OverallMetrics.getDualWriteTarget();
+            state.put = merge(state.put, put, target.getPutLatency(), dual == null ? null : dual.getPutLatency());
+            state.get = merge(state.get, get, target.getGetLatency(), dual == null ? null : dual.getGetLatency());
+        }
+    }
+
+    public ClusterAggregator(int port) throws IOException
+    {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = MetricsScheduler.newThreadFactory("metrics-cluster-aggregator").newThread(this::run);
+    }
+
+    /**
+     * Starts the aggregator configured by metrics.cluster.listen.port, once per JVM
+     *
+     * @return the aggregator, null when no port is configured
+     */
+    public static synchronized ClusterAggregator startFromProperties() throws IOException
+    {
+        if (started != null)
+        {
+            return started;
+        }
+        Integer port = Integer.getInteger(MetricsConstants.ClusterListenPortProperty);
+        if (port == null)
+        {
+            return null;
+        }
+        ClusterAggregator aggregator = new ClusterAggregator(port);
+        aggregator.start();
+        started = aggregator;
+        return aggregator;
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Closes the listening socket and every connection
+     */
+    public void stop()
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            thread.join(1000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of frames merged
+     */
+    public long getFrameCount()
+    {
+        return frames.get();
+    }
+
+    /**
+     * @return number of frame bytes received
+     */
+    public long getByteCount()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * @return number of times a node reported a new incarnation, or a key of a node was seen
+     *         to go back, i.e. the node restarted
+     */
+    public long getResetCount()
+    {
+        return resets.get();
+    }
+
+    /**
+     * @return number of times a key was left out of a frame because this JVM has the key with
+     *         other labels
+     */
+    public long getSkippedCount()
+    {
+        return skipped.get();
+    }
+
+    private void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys())
+                {
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else if (key.isReadable())
+                    {
+                        read(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                close(key);
+            }
+            try
+            {
+                selector.close();
+                server.close();
+            }
+            catch (IOException e)
+            {
+                // closing anyway
+            }
+        }
+    }
+
+    private void accept()
+    {
+        SocketChannel channel = null;
+        try
+        {
+            channel = server.accept();
+            if (channel != null)
+            {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // One connection lost, e.g. out of file descriptors; the others keep being served
+            System.out.printf("cluster aggregator dropped %s: %s\n", channel, e);
+            if (channel != null)
+            {
+                close(channel);
+            }
+        }
+    }
+
+    private void read(SelectionKey key)
+    {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try
+        {
+            if (channel.read(connection.buffer) < 0)
+            {
+                close(key);
+                return;
+            }
+            ByteBuffer buffer = connection.buffer;
+            buffer.flip();
+            while (buffer.remaining() >= 4)
+            {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > NodeSnapshot.MAX_FRAME_BYTES)
+                {
+                    throw new IOException("bad frame length " + length);
+                }
+                if (buffer.remaining() < 4 + length)
+                {
+                    if (buffer.capacity() < 4 + length)
+                    {
+                        // Grow to hold the whole frame
+                        ByteBuffer grown = ByteBuffer.allocate(Math.max(4 + length, 2 * buffer.capacity()));
+                        grown.put(buffer);
+                        grown.flip();
+                        connection.buffer = buffer = grown;
+                    }
+                    break;
+                }
+                ByteBuffer frame = buffer.duplicate();
+                frame.position(buffer.position() + 4);
+                frame.limit(buffer.position() + 4 + length);
+                connection.decoder.decode(frame.slice(), connection);
+                buffer.position(buffer.position() + 4 + length);
+                frames.incrementAndGet();
+                bytes.addAndGet(4 + length);
+            }
+            buffer.compact();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.out.printf("cluster aggregator dropped %s: %s\n", channel, e);
+            close(key);
+        }
+    }
+
+    private static void close(SelectionKey key)
+    {
+        key.cancel();
+        close(key.channel());
+    }
+
+    private static void close(Channel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // closing anyway
+        }
+    }
+
+    /*
+     * Adds what the given buckets hold beyond the last ones seen to the targets, everything
+     * when a bucket went back, and returns the buckets to compare the next ones with.
+     */
+    private NodeSnapshot.Buckets merge(NodeSnapshot.Buckets last, NodeSnapshot.Buckets current,
+                    LatencyHistogram target, LatencyHistogram dual)
+    {
+        if (current.size() == 0 && last == null)
+        {
+            return null;
+        }
+        boolean reset = last != null && !covers(current, last);
+        if (reset)
+        {
+            resets.incrementAndGet();
+        }
+        int l = 0;
+        for (int i = 0; i < current.size(); i++)
+        {
+            int index = current.getIndex(i);
+            long previous = 0;
+            if (!reset && last != null)
+            {
+                while (l < last.size() && last.getIndex(l) < index)
+                {
+                    l++;
+                }
+                if (l < last.size() && last.getIndex(l) == index)
+                {
+                    previous = last.getCount(l);
+                }
+            }
+            long delta = current.getCount(i) - previous;
+            if (delta != 0)
+            {
+                target.addBucketCount(index, delta, current.getMax());
+                if (dual != null)
+                {
+                    dual.addBucketCount(index, delta, current.getMax());
+                }
+            }
+        }
+        return current.copy();
+    }
+
+    /** @return true if no bucket of current holds less than in last */
+    private static boolean covers(NodeSnapshot.Buckets current, NodeSnapshot.Buckets last)
+    {
+        int c = 0;
+        for (int l = 0; l < last.size(); l++)
+        {
+            while (c < current.size() && current.getIndex(c) < last.getIndex(l))
+            {
+                c++;
+            }
+            if (c == current.size() || current.getIndex(c) != last.getIndex(l)
+                            || current.getCount(c) < last.getCount(l))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
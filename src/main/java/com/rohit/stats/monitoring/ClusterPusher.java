@@ -0,0 +1,273 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.ChangeTracker;
+import com.rohit.stats.metrics.MetricsScheduler;
+import com.rohit.stats.metrics.NodeSnapshot;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the metric sets of this JVM to a ClusterAggregator as NodeSnapshot frames.
+ *
+ * The first frame of a connection carries every set, with full values. After that a
+ * ChangeTracker tells which sets were updated since the last frame and only those are sent,
+ * their totals as differences from the previous frame. A node that pushes nothing new sends
+ * an empty frame, which the aggregator takes as a sign of life. The overall set is not sent,
+ * the aggregator adds up its own.
+ *
+ * The connection is blocking and used by the pusher thread alone. When it fails it is
+ * closed and opened again on the next interval, with a full frame, so no update is lost to a
+ * dropped connection or a restarted aggregator. The node id and an incarnation drawn at
+ * start tell the aggregator which frames come from the same process.
+ *
+ * Started by startFromProperties() when metrics.cluster.push.port is set.
+ */
+public class ClusterPusher
+{
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000L;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private static ClusterPusher started;
+
+    private final InetSocketAddress target;
+
+    private final String nodeId;
+
+    private final long intervalNanos;
+
+    private final NodeSnapshot.Encoder encoder;
+
+    private final Set<MetricsCounters> changed = new LinkedHashSet<MetricsCounters>();
+
+    private final List<MetricsCounters> sending = new ArrayList<MetricsCounters>();
+
+    private long nextDue;
+
+    private volatile long sentFrames;
+
+    private volatile long failures;
+
+    private ChangeTracker tracker;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private SocketChannel socket;
+
+    public ClusterPusher(InetSocketAddress target, String nodeId, long intervalMillis)
+    {
+        this.target = target;
+        this.nodeId = nodeId;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.encoder = new NodeSnapshot.Encoder(nodeId, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Starts the pusher configured by the metrics.cluster.push.* properties, once per JVM
+     *
+     * @return the pusher, null when no port is configured
+     */
+    public static synchronized ClusterPusher startFromProperties()
+    {
+        if (started != null)
+        {
+            return started;
+        }
+        Integer port = Integer.getInteger(MetricsConstants.ClusterPushPortProperty);
+        if (port == null)
+        {
+            return null;
+        }
+        ClusterPusher pusher = new ClusterPusher(
+                        new InetSocketAddress(System.getProperty(MetricsConstants.ClusterPushHostProperty, "localhost"), port),
+                        System.getProperty(MetricsConstants.ClusterNodeIdProperty, defaultNodeId()),
+                        Long.getLong(MetricsConstants.ClusterPushIntervalMillisProperty, DEFAULT_INTERVAL_MILLIS));
+        pusher.start();
+        started = pusher;
+        return pusher;
+    }
+
+    /**
+     * @return host:pid of this JVM
+     */
+    public static String defaultNodeId()
+    {
+        // The runtime name is pid@host on the usual JVMs
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return at < 0 ? name : name.substring(at + 1) + ":" + name.substring(0, at);
+    }
+
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+        tracker = ChangeTracker.open();
+        executor = new ScheduledThreadPoolExecutor(1, MetricsScheduler.newThreadFactory("metrics-cluster-push"));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        nextDue = System.nanoTime() + intervalNanos;
+        executor.schedule(this::run, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the pusher after a last push, waiting for it at most one second
+     */
+    public synchronized void stop()
+    {
+        if (executor == null)
+        {
+            return;
+        }
+        executor.execute(() ->
+        {
+            push();
+            close();
+        });
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        tracker.close();
+        executor = null;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    public long getSentFrames()
+    {
+        return sentFrames;
+    }
+
+    /**
+     * @return number of pushes that failed to connect or write
+     */
+    public long getFailures()
+    {
+        return failures;
+    }
+
+    private void run()
+    {
+        try
+        {
+            push();
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+        }
+        long now = System.nanoTime();
+        do
+        {
+            nextDue += intervalNanos;
+        }
+        while (nextDue - now <= 0);
+        if (!executor.isShutdown())
+        {
+            executor.schedule(this::run, nextDue - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends the sets that changed since the last push, or all of them on a new connection.
+     * Runs on the pusher thread.
+     */
+    void push()
+    {
+        // Drained before connecting, a full frame covers what piled up meanwhile
+        tracker.drain(changed);
+        sending.clear();
+        if (socket == null)
+        {
+            try
+            {
+                socket = SocketChannel.open();
+                socket.socket().connect(target, CONNECT_TIMEOUT_MILLIS);
+            }
+            catch (IOException e)
+            {
+                failures++;
+                close();
+                changed.clear();
+                return;
+            }
+            encoder.reset();
+            sending.addAll(ProviderMetrics.getAll());
+        }
+        else
+        {
+            for (MetricsCounters set : changed)
+            {
+                if (!(set instanceof ProviderMetrics))
+                {
+                    continue;
+                }
+                if (ProviderMetrics.find(set.getMetricsKey()) == set)
+                {
+                    sending.add(set);
+                }
+                else
+                {
+                    // Removed or evicted, the aggregator keeps what it was sent
+                    encoder.forget(set);
+                }
+            }
+        }
+        changed.clear();
+
+        ByteBuffer frame = encoder.encode(sending);
+        try
+        {
+            while (frame.hasRemaining())
+            {
+                socket.write(frame);
+            }
+            sentFrames++;
+        }
+        catch (IOException e)
+        {
+            failures++;
+            close();
+        }
+    }
+
+    private void close()
+    {
+        if (socket != null)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // closing anyway
+            }
+            socket = null;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.CounterFile;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the totals of another JVM from its counter file, see CounterFile, without JMX,
+ * HTTP or any work in that JVM: the file is mapped read-only and its slots are read as they
+ * are being published, at most CounterFile.PUBLISH_MILLIS behind the writer's counters.
+ *
+ * A snapshot lists the live sets, the retired slot holding what the released sets left,
+ * and their sum; in dual write mode the writer's own overall set, DEFAULT, is listed too and
+ * left out of the sum. Run as a command it prints the snapshot every interval, with the
+ * bytes per second since the previous one:
+ *
+ *     java -cp ... com.rohit.Main counters FILE [interval=1s] [count=0] [match=TEXT]
+ *
+ * count=0 prints until stopped, match lists only the sets whose name contains the text.
+ */
+public class CounterFileReader
+{
+    /** Attempts at reading a slot that keeps changing */
+    private static final int SLOT_RETRIES = 100;
+
+    /** Written and read by fence() only */
+    private static volatile long fence;
+
+    private final File file;
+
+    /** The totals of one set, laid out as by MetricsCounters.getTotals() */
+    public static final class Row
+    {
+        private final String name;
+
+        private final long[] totals;
+
+        Row(String name, long[] totals)
+        {
+            this.name = name;
+            this.totals = totals;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long get(int total)
+        {
+            return totals[total];
+        }
+    }
+
+    /** What one read of the file saw */
+    public static final class Snapshot
+    {
+        private final long pid;
+
+        private final long startedMillis;
+
+        private final long overflow;
+
+        private final List<Row> rows;
+
+        private final Row total;
+
+        Snapshot(long pid, long startedMillis, long overflow, List<Row> rows, Row total)
+        {
+            this.pid = pid;
+            this.startedMillis = startedMillis;
+            this.overflow = overflow;
+            this.rows = rows;
+            this.total = total;
+        }
+
+        public long getPid()
+        {
+            return pid;
+        }
+
+        public long getStartedMillis()
+        {
+            return startedMillis;
+        }
+
+        /**
+         * @return number of sets the writer left out of the file, as it was full
+         */
+        public long getOverflow()
+        {
+            return overflow;
+        }
+
+        /**
+         * @return the live sets and the retired slot, in slot order
+         */
+        public List<Row> getRows()
+        {
+            return rows;
+        }
+
+        /**
+         * @return the sum of the rows, the overall set excluded
+         */
+        public Row getTotal()
+        {
+            return total;
+        }
+    }
+
+    public CounterFileReader(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Maps the file and reads every slot. The file is mapped again on each read, so a writer
+     * that restarted and replaced it is followed.
+     *
+     * @throws IOException
+     *             when the file is missing, or not yet or not a counter file
+     */
+    public Snapshot read() throws IOException
+    {
+        MappedByteBuffer mapped;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            long length = raf.length();
+            if (length < CounterFile.HEADER_BYTES)
+            {
+                throw new IOException(file + " is no counter file");
+            }
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        finally
+        {
+            raf.close();
+        }
+        mapped.order(ByteOrder.nativeOrder());
+        long magic = mapped.getLong(CounterFile.MAGIC_OFFSET);
+        // Ordered before the header reads, which the writer finished before the magic
+        fence();
+        if (magic != CounterFile.MAGIC)
+        {
+            throw new IOException(file + " is no counter file, or is being created");
+        }
+        int capacity = (int) mapped.getLong(CounterFile.CAPACITY_OFFSET);
+        if (mapped.capacity() < CounterFile.fileBytes(capacity))
+        {
+            throw new IOException(file + " is shorter than its " + capacity + " slots");
+        }
+        int used = (int) Math.min(mapped.getLong(CounterFile.USED_OFFSET), capacity);
+
+        List<Row> rows = new ArrayList<Row>();
+        long[] sum = new long[MetricsCounters.TOTALS];
+        for (int slot = 0; slot < used; slot++)
+        {
+            long[] totals = new long[MetricsCounters.TOTALS];
+            String name = readSlot(mapped, capacity, slot, totals);
+            if (name == null)
+            {
+                continue;
+            }
+            rows.add(new Row(name, totals));
+            if (!MetricsConstants.DEFAULT.equals(name))
+            {
+                for (int i = 0; i < sum.length; i++)
+                {
+                    sum[i] += totals[i];
+                }
+            }
+        }
+        return new Snapshot(mapped.getLong(CounterFile.PID_OFFSET), mapped.getLong(CounterFile.STARTED_OFFSET),
+                        mapped.getLong(CounterFile.OVERFLOW_OFFSET), rows, new Row("total", sum));
+    }
+
+    /*
+     * Returns the name of a live slot and reads its values into totals, or returns null for
+     * a slot that is free or released, retrying while the writer changes the slot. The first
+     * sequence read and the second one are fenced off from the reads of the slot, matching
+     * the fences of the writer.
+     */
+    private static String readSlot(MappedByteBuffer mapped, int capacity, int slot, long[] totals)
+    {
+        int at = (int) CounterFile.labelOffset(slot);
+        int values = (int) CounterFile.valueOffset(capacity, slot);
+        for (int attempt = 0; attempt < SLOT_RETRIES; attempt++)
+        {
+            long sequence = mapped.getLong(at + CounterFile.LABEL_SEQUENCE);
+            fence();
+            if ((sequence & 1) != 0)
+            {
+                Thread.yield();
+                continue;
+            }
+            long state = mapped.getLong(at + CounterFile.LABEL_STATE);
+            int length = (int) Math.min(Math.max(mapped.getLong(at + CounterFile.LABEL_NAME_LENGTH), 0),
+                            CounterFile.MAX_NAME_BYTES);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+            {
+                bytes[i] = mapped.get(at + CounterFile.LABEL_NAME + i);
+            }
+            for (int i = 0; i < totals.length; i++)
+            {
+                totals[i] = mapped.getLong(values + i * 8);
+            }
+            fence();
+            if (mapped.getLong(at + CounterFile.LABEL_SEQUENCE) == sequence)
+            {
+                return state == CounterFile.LIVE ? new String(bytes, StandardCharsets.UTF_8) : null;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Keeps the reads of the buffer before it ahead of those after it, as CounterFile.fence()
+     * does for the writes, with the same caveat for another process.
+     */
+    private static void fence()
+    {
+        fence = 0;
+        long ignored = fence;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.out.println("usage: counters FILE [interval=1s] [count=0] [match=TEXT]");
+            System.out.println("prints the totals another JVM publishes to FILE once a second");
+            System.exit(2);
+        }
+        long intervalMillis = 1000;
+        long count = 0;
+        String match = null;
+        for (int i = 1; i < args.length; i++)
+        {
+            int eq = args[i].indexOf('=');
+            String key = eq < 0 ? args[i] : args[i].substring(0, eq);
+            String value = eq < 0 ? "" : args[i].substring(eq + 1);
+            if ("interval".equals(key))
+            {
+                intervalMillis = parseMillis(value);
+            }
+            else if ("count".equals(key))
+            {
+                count = Long.parseLong(value);
+            }
+            else if ("match".equals(key))
+            {
+                match = value;
+            }
+            else
+            {
+                throw new IllegalArgumentException("unknown setting " + args[i]);
+            }
+        }
+
+        CounterFileReader reader = new CounterFileReader(new File(args[0]));
+        Map<String, long[]> previous = new HashMap<String, long[]>();
+        long previousNanos = 0;
+        for (long printed = 0; count == 0 || printed < count; printed++)
+        {
+            if (printed > 0)
+            {
+                Thread.sleep(intervalMillis);
+            }
+            Snapshot snapshot;
+            try
+            {
+                snapshot = reader.read();
+            }
+            catch (IOException e)
+            {
+                System.out.println(e.getMessage());
+                continue;
+            }
+            long now = System.nanoTime();
+            double seconds = previousNanos == 0 ? 0 : (now - previousNanos) / 1e9;
+            System.out.printf("pid %d, %d sets, %d overflowed%n", snapshot.getPid(), snapshot.getRows().size(),
+                            snapshot.getOverflow());
+            System.out.printf("%-32s %16s %10s %12s %16s %10s %12s %14s %14s%n", "key", "bytes_up", "puts",
+                            "put_ms", "bytes_down", "gets", "get_ms", "up_bytes/s", "down_bytes/s");
+            Map<String, long[]> current = new HashMap<String, long[]>();
+            List<Row> rows = new ArrayList<Row>(snapshot.getRows());
+            rows.add(snapshot.getTotal());
+            for (Row row : rows)
+            {
+                current.put(row.getName(), row.totals);
+                if (match != null && !row.getName().contains(match) && row != snapshot.getTotal())
+                {
+                    continue;
+                }
+                long[] last = previous.get(row.getName());
+                System.out.printf("%-32s %16d %10d %12d %16d %10d %12d %14s %14s%n", row.getName(),
+                                row.get(MetricsCounters.TOTAL_BYTES_UP), row.get(MetricsCounters.TOTAL_PUT_REQUESTS),
+                                TimeUnit.NANOSECONDS.toMillis(row.get(MetricsCounters.TOTAL_PUT_NANOS)),
+                                row.get(MetricsCounters.TOTAL_BYTES_DOWN), row.get(MetricsCounters.TOTAL_GET_REQUESTS),
+                                TimeUnit.NANOSECONDS.toMillis(row.get(MetricsCounters.TOTAL_GET_NANOS)),
+                                rate(row, last, MetricsCounters.TOTAL_BYTES_UP, seconds),
+                                rate(row, last, MetricsCounters.TOTAL_BYTES_DOWN, seconds));
+            }
+            System.out.println();
+            previous = current;
+            previousNanos = now;
+        }
+    }
+
+    private static String rate(Row row, long[] last, int total, double seconds)
+    {
+        if (last == null || seconds <= 0)
+        {
+            return "-";
+        }
+        // A value that went back belongs to a reused slot
+        long delta = row.get(total) - last[total];
+        return delta < 0 ? "-" : String.format("%.0f", delta / seconds);
+    }
+
+    private static long parseMillis(String value)
+    {
+        if (value.endsWith("ms"))
+        {
+            return Long.parseLong(value.substring(0, value.length() - 2));
+        }
+        if (value.endsWith("s"))
+        {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.substring(0, value.length() - 1)));
+        }
+        return Long.parseLong(value);
+    }
+}
@@ -0,0 +1,265 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+import com.rohit.stats.counters.DoubleGauge;
+import com.rohit.stats.counters.LongGauge;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the metrics of a MetricsKey straight from the MetricRegistry.
+ *
+ * The metrics behind every MetricsOption are looked up once per key and kept in an array
+ * indexed by the option ordinal, so a read is one pass over that array with no name
+ * building and no JMX. Reads into a MetricsSnapshot do not box either; reads into a
+ * MetricsResult box each value, as its fields are Longs. Partly registered keys are kept
+ * too, with the options they lack left null. Keys with no metric at all, unknown or evicted
+ * ones, are looked up again on every read rather than kept, so reading churning or made up
+ * key names cannot grow the cache. The registry notifies us when metrics are registered or
+ * removed, and the affected key is dropped, to be resolved again on its next read; so a key
+ * leaves the cache with its set.
+ *
+ * A read takes every option from its own metric in turn, while the metrics keep counting, so
+ * the values of one read are not taken at one instant: a PUT counted during the read may show
+ * in its bytes but not yet in its requests. MetricsCounters.getTotals() reads its counters in
+ * turn too; the counters of a set are independent, and nothing reads them as of one moment.
+ */
+class DirectMetricsReader extends MetricRegistryListener.Base
+{
+    private static final MetricsOption[] OPTIONS = MetricsOption.values();
+
+    /** What a key without metrics resolves to, shared and never written */
+    private static final Metric[] NONE = new Metric[OPTIONS.length];
+
+    private final MetricRegistry registry;
+
+    private final ConcurrentHashMap<String, Metric[]> resolved = new ConcurrentHashMap<String, Metric[]>();
+
+    /** Bumped on every registration and removal so that a resolve racing with one is not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    DirectMetricsReader(MetricRegistry registry)
+    {
+        this.registry = registry;
+        registry.addListener(this);
+    }
+
+    MetricRegistry getRegistry()
+    {
+        return registry;
+    }
+
+    /**
+     * @return number of keys whose metrics are kept
+     */
+    int getResolvedCount()
+    {
+        return resolved.size();
+    }
+
+    void close()
+    {
+        registry.removeListener(this);
+        resolved.clear();
+    }
+
+    /**
+     * Reads the requested options of the given key into the result, one metric after the
+     * other. Options whose metric is not registered read as 0, as they do through JMX.
+     */
+    void read(Iterable<MetricsOption> options, String keyName, MetricsResult result)
+    {
+        Metric[] metrics = resolve(keyName);
+        for (MetricsOption option : options)
+        {
+            if (option.getKind() == MetricsOption.Kind.RATE)
+            {
+                result.setRate(option, rate(metrics[option.ordinal()]));
+            }
+            else
+            {
+                result.set(option, value(metrics[option.ordinal()]));
+            }
+        }
+    }
+
+    /**
+     * Reads the requested options of the given key into the snapshot without allocating,
+     * once the key has been resolved.
+     */
+    void read(EnumSet<MetricsOption> options, String keyName, MetricsSnapshot snapshot)
+    {
+        Metric[] metrics = resolve(keyName);
+        for (MetricsOption option : OPTIONS)
+        {
+            if (!options.contains(option))
+            {
+                continue;
+            }
+            if (option.getKind() == MetricsOption.Kind.RATE)
+            {
+                snapshot.setRate(option, rate(metrics[option.ordinal()]));
+            }
+            else
+            {
+                snapshot.set(option, value(metrics[option.ordinal()]));
+            }
+        }
+    }
+
+    /**
+     * @return the metrics of the given key, indexed by option ordinal, all null for a key
+     *         without metrics
+     */
+    Metric[] resolve(String keyName)
+    {
+        Metric[] metrics = resolved.get(keyName);
+        if (metrics != null)
+        {
+            return metrics;
+        }
+
+        long start = generation.get();
+        Map<String, Metric> all = registry.getMetrics();
+        metrics = null;
+        for (MetricsOption option : OPTIONS)
+        {
+            Metric metric = all.get(MetricRegistry.name(keyName, option.getMetricId()));
+            if (metric != null)
+            {
+                if (metrics == null)
+                {
+                    metrics = new Metric[OPTIONS.length];
+                }
+                metrics[option.ordinal()] = metric;
+            }
+        }
+        if (metrics == null)
+        {
+            return NONE;
+        }
+        resolved.put(keyName, metrics);
+        if (generation.get() != start)
+        {
+            resolved.remove(keyName);
+        }
+        return metrics;
+    }
+
+    static long value(Metric metric)
+    {
+        if (metric instanceof Counter)
+        {
+            return ((Counter) metric).getCount();
+        }
+        if (metric instanceof LongGauge)
+        {
+            return ((LongGauge) metric).getLongValue();
+        }
+        if (metric instanceof Gauge)
+        {
+            Object value = ((Gauge<?>) metric).getValue();
+            return value instanceof Number ? ((Number) value).longValue() : 0L;
+        }
+        return 0L;
+    }
+
+    static double rate(Metric metric)
+    {
+        if (metric instanceof DoubleGauge)
+        {
+            return ((DoubleGauge) metric).getDoubleValue();
+        }
+        if (metric instanceof Gauge)
+        {
+            Object value = ((Gauge<?>) metric).getValue();
+            return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+        }
+        return value(metric);
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer)
+    {
+        invalidate(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name)
+    {
+        invalidate(name);
+    }
+
+    private void invalidate(String name)
+    {
+        generation.incrementAndGet();
+        for (MetricsOption option : OPTIONS)
+        {
+            String id = option.getMetricId();
+            int prefix = name.length() - id.length() - 1;
+            if (prefix > 0 && name.endsWith(id) && name.charAt(prefix) == '.')
+            {
+                resolved.remove(name.substring(0, prefix));
+                return;
+            }
+        }
+    }
+}
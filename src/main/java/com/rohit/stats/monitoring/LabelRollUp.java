@@ -0,0 +1,157 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.counters.TimeCounter;
+import com.rohit.stats.metrics.LabelIndex;
+import com.rohit.stats.metrics.LabelSet;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.Transfer;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates options over the series of each group of a LabelIndex query, for
+ * MetricsManager.rollUp().
+ *
+ * Counters, rates and the in-flight transfer gauges are summed. Time counters are summed in
+ * nanoseconds and converted to their report unit once. Percentiles are read from the merge
+ * of the histograms of the group, and the other gauges take the largest: the latency maxima,
+ * and the sampling interval and error of the most coarsely sampled series. Percentiles are
+ * the costly part, a merge walks the buckets of every histogram of the group.
+ */
+class LabelRollUp implements LabelIndex.GroupVisitor
+{
+    private final DirectMetricsReader reader;
+
+    private final MetricsOption[] options;
+
+    /** Slot of the histogram behind each GAUGE option, e.g. one slot for every "put.latency" option */
+    private final int[] histogramSlot;
+
+    private final int histograms;
+
+    private final Map<LabelSet, MetricsSnapshot> groups = new LinkedHashMap<LabelSet, MetricsSnapshot>();
+
+    LabelRollUp(DirectMetricsReader reader, EnumSet<MetricsOption> options)
+    {
+        this.reader = reader;
+        this.options = options.toArray(new MetricsOption[options.size()]);
+        this.histogramSlot = new int[this.options.length];
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (int o = 0; o < this.options.length; o++)
+        {
+            String id = this.options[o].getMetricId();
+            String histogramId = id.substring(0, id.lastIndexOf('.'));
+            Integer slot = slots.get(histogramId);
+            if (slot == null)
+            {
+                slot = slots.size();
+                slots.put(histogramId, slot);
+            }
+            histogramSlot[o] = slot;
+        }
+        this.histograms = slots.size();
+    }
+
+    Map<LabelSet, MetricsSnapshot> getGroups()
+    {
+        return groups;
+    }
+
+    @Override
+    public void visit(LabelSet group, ProviderMetrics[] series, int count)
+    {
+        long[] sums = new long[options.length];
+        double[] rates = new double[options.length];
+        TimeUnit[] units = new TimeUnit[options.length];
+        double[] percentiles = new double[options.length];
+        LatencyHistogram[] merged = new LatencyHistogram[histograms];
+        LatencyHistogram[] last = new LatencyHistogram[histograms];
+
+        for (int s = 0; s < count; s++)
+        {
+            Metric[] metrics = reader.resolve(series[s].getMetricsKey().getKeyName());
+            for (int o = 0; o < options.length; o++)
+            {
+                Metric metric = metrics[options[o].ordinal()];
+                if (metric == null)
+                {
+                    continue;
+                }
+                switch (options[o].getKind())
+                {
+                    case COUNTER:
+                        if (metric instanceof TimeCounter)
+                        {
+                            sums[o] += ((TimeCounter) metric).getTotalNanos();
+                            units[o] = ((TimeCounter) metric).getReportUnit();
+                        }
+                        else
+                        {
+                            sums[o] += ((Counter) metric).getCount();
+                        }
+                        break;
+                    case RATE:
+                        rates[o] += DirectMetricsReader.rate(metric);
+                        break;
+                    default:
+                        if (metric instanceof LatencyHistogram.PercentileGauge)
+                        {
+                            LatencyHistogram.PercentileGauge gauge = (LatencyHistogram.PercentileGauge) metric;
+                            percentiles[o] = gauge.getPercentile();
+                            int slot = histogramSlot[o];
+                            // Several percentiles of one histogram, merge it once
+                            if (last[slot] != gauge.getHistogram())
+                            {
+                                last[slot] = gauge.getHistogram();
+                                if (merged[slot] == null)
+                                {
+                                    merged[slot] = new LatencyHistogram();
+                                }
+                                merged[slot].merge(gauge.getHistogram());
+                            }
+                        }
+                        else if (metric instanceof Transfer.InFlightGauge)
+                        {
+                            sums[o] += ((Transfer.InFlightGauge) metric).getLongValue();
+                        }
+                        else
+                        {
+                            sums[o] = Math.max(sums[o], DirectMetricsReader.value(metric));
+                        }
+                        break;
+                }
+            }
+        }
+
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        for (int o = 0; o < options.length; o++)
+        {
+            MetricsOption option = options[o];
+            if (option.getKind() == MetricsOption.Kind.RATE)
+            {
+                snapshot.setRate(option, rates[o]);
+            }
+            else if (units[o] != null)
+            {
+                snapshot.set(option, units[o].convert(sums[o], TimeUnit.NANOSECONDS));
+            }
+            else if (percentiles[o] > 0)
+            {
+                LatencyHistogram histogram = merged[histogramSlot[o]];
+                snapshot.set(option, TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(percentiles[o])));
+            }
+            else
+            {
+                snapshot.set(option, sums[o]);
+            }
+        }
+        groups.put(group, snapshot);
+    }
+}
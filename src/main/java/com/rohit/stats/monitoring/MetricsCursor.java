@@ -0,0 +1,251 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Metric;
+import com.rohit.stats.metrics.ChangeTracker;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An incremental reader of the metrics, opened with MetricsManager.openCursor().
+ *
+ * Every read() returns only the keys that changed since the previous read, or since the
+ * cursor was opened. COUNTER options hold the change of the counter, GAUGE and RATE options
+ * their current value. The keys to look at come from a ChangeTracker, so keys that were not
+ * updated are never read. The overall key is looked at on every read.
+ *
+ * When the set of a key is removed or evicted, what its counters gained since the previous
+ * read is carried into the next delta of the key: added to the change of the key's new set,
+ * or returned alone, with COUNTER options only, when the key has no set any more.
+ *
+ * Up to ChangeTracker.MAX_OWNED_TRACKERS cursors can be open at once, each with its own
+ * position; the trackers the library uses itself are never taken. A cursor is meant for one
+ * consumer; close it when done. A cursor dropped without being closed gives its tracker back
+ * once it is collected.
+ */
+public class MetricsCursor implements Closeable
+{
+    private final MetricsManager manager;
+
+    private final EnumSet<MetricsOption> options;
+
+    private final ChangeTracker tracker;
+
+    /** What the previous read saw, by key name */
+    private final Map<String, Seen> seen = new HashMap<String, Seen>();
+
+    private final Set<MetricsCounters> changed = Collections.newSetFromMap(new IdentityHashMap<MetricsCounters, Boolean>());
+
+    /** What the counters of removed sets gained since the previous read, by key */
+    private final Map<MetricsKey, MetricsSnapshot> carried = new LinkedHashMap<MetricsKey, MetricsSnapshot>();
+
+    private static final class Seen
+    {
+        MetricsCounters set;
+        MetricsSnapshot values;
+        /** The metrics the values were read from, which keep counting once the set is removed */
+        Metric[] metrics;
+
+        Seen(MetricsCounters set, MetricsSnapshot values, Metric[] metrics)
+        {
+            this.set = set;
+            this.values = values;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException
+     *            if ChangeTracker.MAX_OWNED_TRACKERS cursors are open
+     */
+    MetricsCursor(MetricsManager manager, EnumSet<MetricsOption> options)
+    {
+        this.manager = manager;
+        this.options = EnumSet.copyOf(options);
+        this.tracker = ChangeTracker.openFor(this);
+        // Baseline of every key, read after the tracker is open so no update falls in between
+        remember(OverallMetrics.getOverallMetrics());
+        for (ProviderMetrics metrics : ProviderMetrics.getAll())
+        {
+            remember(metrics);
+        }
+    }
+
+    private void remember(MetricsCounters set)
+    {
+        String keyName = set.getMetricsKey().getKeyName();
+        MetricsSnapshot values = new MetricsSnapshot();
+        manager.getDirectReader().read(options, keyName, values);
+        seen.put(keyName, new Seen(set, values, manager.getDirectReader().resolve(keyName)));
+    }
+
+    /**
+     * Returns what changed since the previous read, by key. Keys with no change are left out.
+     */
+    public synchronized Map<MetricsKey, MetricsSnapshot> read()
+    {
+        if (tracker.isClosed())
+        {
+            throw new IllegalStateException("cursor is closed");
+        }
+        Map<MetricsKey, MetricsSnapshot> deltas = new LinkedHashMap<MetricsKey, MetricsSnapshot>();
+        tracker.drain(changed);
+        changed.add(OverallMetrics.getOverallMetrics());
+        // Removed sets first, so that their last changes go into the delta of their key
+        for (MetricsCounters set : changed)
+        {
+            if (!isLive(set))
+            {
+                release(set);
+            }
+        }
+        for (MetricsCounters set : changed)
+        {
+            if (isLive(set))
+            {
+                MetricsSnapshot delta = readDelta(set);
+                if (delta != null)
+                {
+                    deltas.put(set.getMetricsKey(), delta);
+                }
+            }
+        }
+        changed.clear();
+
+        // Keys whose set was removed, and whose new set, if any, did not change
+        while (!carried.isEmpty())
+        {
+            MetricsKey key = carried.keySet().iterator().next();
+            ProviderMetrics next = ProviderMetrics.find(key);
+            MetricsSnapshot delta = next != null ? readDelta(next) : carried.remove(key);
+            if (delta != null)
+            {
+                deltas.put(key, delta);
+            }
+        }
+        return deltas;
+    }
+
+    /*
+     * Forgets a removed or evicted set, and carries what its counters gained since the
+     * previous read. Sets never seen, or already forgotten, are left alone.
+     */
+    private void release(MetricsCounters set)
+    {
+        String keyName = set.getMetricsKey().getKeyName();
+        Seen previous = seen.get(keyName);
+        if (previous == null || previous.set != set)
+        {
+            return;
+        }
+        seen.remove(keyName);
+        MetricsSnapshot change = carried.get(set.getMetricsKey());
+        boolean any = false;
+        for (MetricsOption option : options)
+        {
+            Metric metric = previous.metrics[option.ordinal()];
+            if (option.getKind() != MetricsOption.Kind.COUNTER || metric == null)
+            {
+                continue;
+            }
+            if (change == null)
+            {
+                change = new MetricsSnapshot();
+            }
+            long gained = DirectMetricsReader.value(metric) - previous.values.get(option);
+            change.set(option, change.get(option) + gained);
+            any |= gained != 0;
+        }
+        if (any && !carried.containsKey(set.getMetricsKey()))
+        {
+            carried.put(set.getMetricsKey(), change);
+        }
+    }
+
+    /*
+     * Reads one live set, and returns its delta, with what a removed set of its key left
+     * added, or null if nothing changed.
+     */
+    private MetricsSnapshot readDelta(MetricsCounters set)
+    {
+        MetricsKey key = set.getMetricsKey();
+        String keyName = key.getKeyName();
+        Seen previous = seen.get(keyName);
+        if (previous == null || previous.set != set)
+        {
+            // A new set counts from 0
+            previous = new Seen(set, new MetricsSnapshot(), null);
+            seen.put(keyName, previous);
+        }
+        MetricsSnapshot carry = carried.remove(key);
+
+        MetricsSnapshot current = new MetricsSnapshot();
+        manager.getDirectReader().read(options, keyName, current);
+        previous.metrics = manager.getDirectReader().resolve(keyName);
+        MetricsSnapshot delta = new MetricsSnapshot();
+        boolean any = false;
+        for (MetricsOption option : options)
+        {
+            switch (option.getKind())
+            {
+                case COUNTER:
+                    long change = current.get(option) - previous.values.get(option);
+                    if (carry != null)
+                    {
+                        change += carry.get(option);
+                    }
+                    delta.set(option, change);
+                    any |= change != 0;
+                    break;
+                case RATE:
+                    delta.setRate(option, current.getRate(option));
+                    any |= current.getRate(option) != previous.values.getRate(option);
+                    break;
+                default:
+                    delta.set(option, current.get(option));
+                    any |= current.get(option) != previous.values.get(option);
+                    break;
+            }
+        }
+        previous.values = current;
+        return any ? delta : null;
+    }
+
+    private static boolean isLive(MetricsCounters set)
+    {
+        if (set instanceof OverallMetrics)
+        {
+            return set == OverallMetrics.getOverallMetrics();
+        }
+        return ProviderMetrics.find(set.getMetricsKey()) == set;
+    }
+
+    /**
+     * @return the options this cursor reads
+     */
+    public EnumSet<MetricsOption> getOptions()
+    {
+        return EnumSet.copyOf(options);
+    }
+
+    /**
+     * Stops tracking changes for this cursor
+     */
+    @Override
+    public synchronized void close()
+    {
+        tracker.close();
+        seen.clear();
+        carried.clear();
+    }
+}
@@ -11,18 +11,34 @@
  *******************************************************************************/
 package com.rohit.stats.monitoring;
 
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.RollingWindows;
+import com.rohit.stats.counters.SizeClassStats;
 import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import com.rohit.stats.metrics.KeyMBean;
+import com.rohit.stats.metrics.LabelIndex;
+import com.rohit.stats.metrics.LabelSet;
 import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
 
 import javax.management.*;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class handles the metrics management
  * 
+ * Metrics are read straight from the MetricRegistry by default. The original read path
+ * through the platform MBeanServer is still available with metrics.read.path=jmx or
+ * setReadPath(MetricsReadPath.JMX).
  *
  */
 public class MetricsManager
@@ -37,6 +53,22 @@ public class MetricsManager
 
     protected MBeanServerConnection server;
 
+    private volatile MetricsReadPath readPath = MetricsReadPath.getReadPath(
+                    System.getProperty(MetricsConstants.ReadPathProperty));
+
+    private volatile DirectMetricsReader directReader;
+
+    /** RollingWindows index of each option, -1 for options that have no history */
+    private static final int[] WINDOW_INDEX = new int[MetricsOption.values().length];
+    static
+    {
+        for (MetricsOption option : MetricsOption.values())
+        {
+            WINDOW_INDEX[option.ordinal()] = option.getKind() == MetricsOption.Kind.COUNTER
+                            ? MetricsCounters.windowIndexOf(option.getMetricId()) : -1;
+        }
+    }
+
     /**
      * Instantiate the server only once.
      */
@@ -50,6 +82,41 @@ public class MetricsManager
         return metricsManager;
     }
 
+    public MetricsReadPath getReadPath()
+    {
+        return readPath;
+    }
+
+    public void setReadPath(MetricsReadPath readPath)
+    {
+        this.readPath = readPath;
+    }
+
+    /**
+     * @return the reader for the current registry, replaced when the registry is
+     */
+    protected DirectMetricsReader getDirectReader()
+    {
+        MetricRegistry registry = OverallMetrics.getRegistry();
+        DirectMetricsReader reader = directReader;
+        if (reader == null || reader.getRegistry() != registry)
+        {
+            synchronized (this)
+            {
+                reader = directReader;
+                if (reader == null || reader.getRegistry() != registry)
+                {
+                    if (reader != null)
+                    {
+                        reader.close();
+                    }
+                    reader = directReader = new DirectMetricsReader(registry);
+                }
+            }
+        }
+        return reader;
+    }
+
     /**
      * Returns the metrics those kind of counting in Long format
      * 
@@ -98,10 +165,128 @@ public class MetricsManager
         return result;
     }
 
+    /**
+     * Returns the value of a gauge metric, such as a latency percentile, in Long format
+     *
+     * @param name
+     * @return the gauge value, 0 when the gauge is not registered
+     * @throws MalformedObjectNameException
+     * @throws AttributeNotFoundException
+     * @throws InstanceNotFoundException
+     * @throws MBeanException
+     * @throws ReflectionException
+     * @throws IOException
+     */
+    public Long getGaugeMetrics(String name, MetricsKey metricsKey)
+                    throws MalformedObjectNameException, AttributeNotFoundException, InstanceNotFoundException,
+                    MBeanException, ReflectionException, IOException
+    {
+        ObjectName metric = new ObjectName(METRICS_PREFIX + metricsKey.getKeyName() + "." + name);
+        Long result = 0L;
+        try
+        {
+            if (server.isRegistered(metric))
+            {
+                Object object = server.getAttribute(metric, "Value");
+                result = ((Number) object).longValue();
+            }
+            else
+            {
+                System.out.println("Metric is not registered : " + metric);
+            }
+        }
+        catch (InstanceNotFoundException e)
+        {
+            result = 0L;
+            System.out.printf("metric instance not found : %s error: %s\n", name, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a rate gauge, per second
+     *
+     * @param name
+     * @return the rate, 0 when the gauge is not registered
+     */
+    public Double getRateMetrics(String name, MetricsKey metricsKey)
+                    throws MalformedObjectNameException, AttributeNotFoundException, InstanceNotFoundException,
+                    MBeanException, ReflectionException, IOException
+    {
+        ObjectName metric = new ObjectName(METRICS_PREFIX + metricsKey.getKeyName() + "." + name);
+        Double result = 0.0;
+        try
+        {
+            if (server.isRegistered(metric))
+            {
+                Object object = server.getAttribute(metric, "Value");
+                result = ((Number) object).doubleValue();
+            }
+            else
+            {
+                System.out.println("Metric is not registered : " + metric);
+            }
+        }
+        catch (InstanceNotFoundException e)
+        {
+            result = 0.0;
+            System.out.printf("metric instance not found : %s error: %s\n", name, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Reads one option through JMX, from the Count or Value attribute depending on its kind
+     */
+    protected long getJmxMetric(MetricsOption option, MetricsKey metricsKey)
+                    throws MalformedObjectNameException, AttributeNotFoundException, InstanceNotFoundException,
+                    MBeanException, ReflectionException, IOException
+    {
+        if (option.getKind() == MetricsOption.Kind.GAUGE)
+        {
+            return getGaugeMetrics(option.getMetricId(), metricsKey);
+        }
+        return getCountMetrics(option.getMetricId(), metricsKey);
+    }
+
+    /**
+     * Reads the given options from the KeyMBean of the key with a single getAttributes call,
+     * in metrics.jmx.mode=key. Options of an unknown key are left out, and so read as 0.
+     */
+    protected AttributeList getKeyAttributes(Collection<MetricsOption> options, MetricsKey metricsKey)
+                    throws MalformedObjectNameException, ReflectionException, IOException
+    {
+        String[] names = new String[options.size()];
+        int i = 0;
+        for (MetricsOption option : options)
+        {
+            names[i++] = option.getMetricId();
+        }
+        try
+        {
+            return server.getAttributes(KeyMBean.objectName(metricsKey.getKeyName()), names);
+        }
+        catch (InstanceNotFoundException e)
+        {
+            System.out.printf("metric instance not found : %s error: %s\n", metricsKey.getKeyName(), e.getMessage());
+            return new AttributeList();
+        }
+    }
+
+    private static String latencyName(String latencyId, String percentileId)
+    {
+        return latencyId + "." + percentileId;
+    }
+
     protected void setMetric(MetricsOption option, MetricsResult result,MetricsKey metricsKey)
                     throws MalformedObjectNameException, AttributeNotFoundException, InstanceNotFoundException,
                     MBeanException, ReflectionException, IOException
     {
+        if (option.getKind() == MetricsOption.Kind.RATE)
+        {
+            result.setRate(option, getRateMetrics(option.getMetricId(), metricsKey));
+            return;
+        }
         switch (option)
         {
             case BYTES_UP:
@@ -129,6 +314,66 @@ public class MetricsManager
                 count = getCountMetrics(MetricsConstants.TotalSuccessfulGetRequests,metricsKey);
                 result.setTotalSuccessfulGets(count);
                 break;
+            // Latency percentiles
+            case PUT_LATENCY_P50:
+                count = getGaugeMetrics(latencyName(MetricsConstants.PutLatency, MetricsConstants.LatencyP50),metricsKey);
+                result.setPutLatencyP50(count);
+                break;
+            case PUT_LATENCY_P90:
+                count = getGaugeMetrics(latencyName(MetricsConstants.PutLatency, MetricsConstants.LatencyP90),metricsKey);
+                result.setPutLatencyP90(count);
+                break;
+            case PUT_LATENCY_P99:
+                count = getGaugeMetrics(latencyName(MetricsConstants.PutLatency, MetricsConstants.LatencyP99),metricsKey);
+                result.setPutLatencyP99(count);
+                break;
+            case PUT_LATENCY_P999:
+                count = getGaugeMetrics(latencyName(MetricsConstants.PutLatency, MetricsConstants.LatencyP999),metricsKey);
+                result.setPutLatencyP999(count);
+                break;
+            case PUT_LATENCY_MAX:
+                count = getGaugeMetrics(latencyName(MetricsConstants.PutLatency, MetricsConstants.LatencyMax),metricsKey);
+                result.setPutLatencyMax(count);
+                break;
+            case GET_LATENCY_P50:
+                count = getGaugeMetrics(latencyName(MetricsConstants.GetLatency, MetricsConstants.LatencyP50),metricsKey);
+                result.setGetLatencyP50(count);
+                break;
+            case GET_LATENCY_P90:
+                count = getGaugeMetrics(latencyName(MetricsConstants.GetLatency, MetricsConstants.LatencyP90),metricsKey);
+                result.setGetLatencyP90(count);
+                break;
+            case GET_LATENCY_P99:
+                count = getGaugeMetrics(latencyName(MetricsConstants.GetLatency, MetricsConstants.LatencyP99),metricsKey);
+                result.setGetLatencyP99(count);
+                break;
+            case GET_LATENCY_P999:
+                count = getGaugeMetrics(latencyName(MetricsConstants.GetLatency, MetricsConstants.LatencyP999),metricsKey);
+                result.setGetLatencyP999(count);
+                break;
+            case GET_LATENCY_MAX:
+                count = getGaugeMetrics(latencyName(MetricsConstants.GetLatency, MetricsConstants.LatencyMax),metricsKey);
+                result.setGetLatencyMax(count);
+                break;
+            // Latency sampling
+            case LATENCY_SAMPLE_EVERY:
+            case PUT_LATENCY_SAMPLE_ERROR:
+            case GET_LATENCY_SAMPLE_ERROR:
+                result.set(option, getGaugeMetrics(option.getMetricId(), metricsKey));
+                break;
+            // Streaming transfers
+            case PUT_TRANSFERS_IN_FLIGHT:
+            case PUT_BYTES_IN_FLIGHT:
+            case GET_TRANSFERS_IN_FLIGHT:
+            case GET_BYTES_IN_FLIGHT:
+                result.set(option, getGaugeMetrics(option.getMetricId(), metricsKey));
+                break;
+            case FAILED_PUT_TRANSFERS:
+            case ABANDONED_PUT_TRANSFERS:
+            case FAILED_GET_TRANSFERS:
+            case ABANDONED_GET_TRANSFERS:
+                result.set(option, getCountMetrics(option.getMetricId(), metricsKey));
+                break;
             default:
                 break;
         }
@@ -146,13 +391,35 @@ public class MetricsManager
     public MetricsResult getMetrics(List<MetricsOption> options, MetricsKey metricsKey)
                     throws Exception
     {
-        System.out.println("Collecting the monitoring metrics");
         if (options == null || options.isEmpty())
         {
             return null;
         }
 
         MetricsResult result = new MetricsResult();
+        if (readPath == MetricsReadPath.DIRECT || !OverallMetrics.isJmxEnabled())
+        {
+            getDirectReader().read(options, metricsKey.getKeyName(), result);
+            return result;
+        }
+
+        if (OverallMetrics.isKeyMBeanMode())
+        {
+            for (Attribute attribute : getKeyAttributes(options, metricsKey).asList())
+            {
+                MetricsOption option = MetricsOption.forMetricId(attribute.getName());
+                if (option.getKind() == MetricsOption.Kind.RATE)
+                {
+                    result.setRate(option, ((Number) attribute.getValue()).doubleValue());
+                }
+                else
+                {
+                    result.set(option, ((Number) attribute.getValue()).longValue());
+                }
+            }
+            return result;
+        }
+
         try
         {
 
@@ -176,4 +443,201 @@ public class MetricsManager
         return result;
     }
 
+    /**
+     * Returns the metrics for the given options as primitives in a new snapshot.
+     *
+     * @see #getSnapshot(EnumSet, MetricsKey, MetricsSnapshot)
+     */
+    public MetricsSnapshot getSnapshot(EnumSet<MetricsOption> options, MetricsKey metricsKey)
+                    throws Exception
+    {
+        return getSnapshot(options, metricsKey, new MetricsSnapshot());
+    }
+
+    /**
+     * Clears the given snapshot and fills it with the metrics for the given options.
+     * On the direct read path this does not allocate, so a poller can reuse one snapshot.
+     *
+     * @param options
+     *            Options to collect the metrics for
+     * @param snapshot
+     *            Filled in and returned
+     * @return the given snapshot
+     * @throws Exception
+     */
+    public MetricsSnapshot getSnapshot(EnumSet<MetricsOption> options, MetricsKey metricsKey, MetricsSnapshot snapshot)
+                    throws Exception
+    {
+        snapshot.clear();
+        if (readPath == MetricsReadPath.DIRECT || !OverallMetrics.isJmxEnabled())
+        {
+            getDirectReader().read(options, metricsKey.getKeyName(), snapshot);
+            return snapshot;
+        }
+
+        if (OverallMetrics.isKeyMBeanMode())
+        {
+            for (Attribute attribute : getKeyAttributes(options, metricsKey).asList())
+            {
+                MetricsOption option = MetricsOption.forMetricId(attribute.getName());
+                if (option.getKind() == MetricsOption.Kind.RATE)
+                {
+                    snapshot.setRate(option, ((Number) attribute.getValue()).doubleValue());
+                }
+                else
+                {
+                    snapshot.set(option, ((Number) attribute.getValue()).longValue());
+                }
+            }
+            return snapshot;
+        }
+
+        for (MetricsOption option : options)
+        {
+            if (option.getKind() == MetricsOption.Kind.RATE)
+            {
+                snapshot.setRate(option, getRateMetrics(option.getMetricId(), metricsKey));
+            }
+            else
+            {
+                snapshot.set(option, getJmxMetric(option, metricsKey));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Opens a cursor that returns only what changed since its previous read, for every key.
+     * Cursors read straight from the registry, whatever the read path.
+     *
+     * @param options
+     *            Options to collect the metrics for
+     * @return a new cursor, to be closed when done
+     * @throws IllegalStateException
+     *            if too many cursors are open
+     */
+    public MetricsCursor openCursor(EnumSet<MetricsOption> options)
+    {
+        return new MetricsCursor(this, options);
+    }
+
+    /**
+     * Aggregates the given options over every key whose labels include the filter, one result
+     * per distinct combination of values of the group-by labels. E.g. the bytes down by region
+     * across all providers:
+     *
+     *     rollUp(EnumSet.of(MetricsOption.BYTES_DOWN), LabelSet.EMPTY, "region")
+     *
+     * Counters and rates are summed, percentiles read from the merged histograms and the
+     * latency maxima take the largest. Keys are found through the LabelIndex, so only the
+     * matching keys are read. Keys lacking a group-by label are grouped without it.
+     *
+     * @param options
+     *            Options to aggregate
+     * @param filter
+     *            Labels a key must have, LabelSet.EMPTY for all keys
+     * @param groupBy
+     *            Names of the labels to group by, none for a single total
+     * @return the aggregates by the values of the group-by labels
+     */
+    public Map<LabelSet, MetricsSnapshot> rollUp(EnumSet<MetricsOption> options, LabelSet filter, String... groupBy)
+    {
+        LabelRollUp rollUp = new LabelRollUp(getDirectReader(), options);
+        LabelIndex.get().query(filter, groupBy, rollUp);
+        return rollUp.getGroups();
+    }
+
+    /**
+     * Returns the PUT and GET blobs of the given key by log2 size class, with their bytes and
+     * time, e.g. to compare the throughput of small and large blobs of a provider. The DEFAULT
+     * key gives the blobs of all keys.
+     *
+     * @return a copy of the breakdown, null for an unknown key
+     */
+    public SizeClassBreakdown getSizeClasses(MetricsKey metricsKey)
+    {
+        SizeClassBreakdown breakdown = new SizeClassBreakdown();
+        SizeClassStats put = breakdown.stats(SizeClassBreakdown.Direction.PUT);
+        SizeClassStats get = breakdown.stats(SizeClassBreakdown.Direction.GET);
+        OverallMetrics overall = OverallMetrics.getOverallMetrics();
+        if (overall.getMetricsKey().equals(metricsKey))
+        {
+            overall.addSizeClassesTo(put, get);
+            return breakdown;
+        }
+        ProviderMetrics metrics = ProviderMetrics.find(metricsKey);
+        if (metrics == null)
+        {
+            return null;
+        }
+        metrics.getPutSizes().addTo(put);
+        metrics.getGetSizes().addTo(get);
+        return breakdown;
+    }
+
+    /**
+     * Returns the total of a counter option over the most recent window of the given length,
+     * e.g. the bytes up of the last 60 seconds. The window is rounded up to whole slots of
+     * the finest resolution that covers it, and capped at 48 hours. PUT_TIME and GET_TIME
+     * are summed in nanoseconds.
+     *
+     * @param option
+     *            A COUNTER option
+     * @return the window total, 0 for an unknown key
+     */
+    public long getWindowSum(MetricsOption option, MetricsKey metricsKey, long duration, TimeUnit unit)
+    {
+        RollingWindows windows = getWindows(metricsKey);
+        if (windows == null)
+        {
+            return 0L;
+        }
+        RollingWindows.Resolution resolution = RollingWindows.Resolution.covering(duration, unit);
+        long seconds = Math.max(unit.toSeconds(duration), 1);
+        long slots = (seconds + resolution.getSlotSeconds() - 1) / resolution.getSlotSeconds();
+        return windows.sum(windowIndex(option), resolution, (int) Math.min(slots, resolution.getSlots()));
+    }
+
+    /**
+     * Copies the per slot totals of a counter option at the given resolution into the given
+     * array, oldest first, e.g. the bytes up of each of the last 60 minutes. Does not allocate.
+     *
+     * @param option
+     *            A COUNTER option
+     * @param series
+     *            Filled in from index 0
+     * @return number of slots copied, 0 for an unknown key
+     */
+    public int getWindowSeries(MetricsOption option, MetricsKey metricsKey, RollingWindows.Resolution resolution,
+                    long[] series)
+    {
+        RollingWindows windows = getWindows(metricsKey);
+        if (windows == null)
+        {
+            return 0;
+        }
+        return windows.series(windowIndex(option), resolution, series);
+    }
+
+    private static int windowIndex(MetricsOption option)
+    {
+        int index = WINDOW_INDEX[option.ordinal()];
+        if (index < 0)
+        {
+            throw new IllegalArgumentException("No rolling window for " + option);
+        }
+        return index;
+    }
+
+    /**
+     * @return the rolling windows of the given key, the overall totals for the DEFAULT key
+     */
+    protected RollingWindows getWindows(MetricsKey metricsKey)
+    {
+        OverallMetrics overall = OverallMetrics.getOverallMetrics();
+        MetricsCounters counters = overall.getMetricsKey().equals(metricsKey)
+                        ? overall : ProviderMetrics.find(metricsKey);
+        return counters == null ? null : counters.getWindows();
+    }
+
 }
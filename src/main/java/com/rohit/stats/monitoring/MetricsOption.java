@@ -11,30 +11,139 @@
  *******************************************************************************/
 package com.rohit.stats.monitoring;
 
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+
 import java.util.HashMap;
 import java.util.Map;
 
 public enum MetricsOption
 {
     //PUT request metrics
-    BYTES_UP,
-    TOTAL_SUCCESSFUL_PUTS,
-    PUT_TIME,
+    BYTES_UP(Kind.COUNTER, MetricsConstants.TotalBytesUp),
+    TOTAL_SUCCESSFUL_PUTS(Kind.COUNTER, MetricsConstants.TotalSuccessfulPutRequests),
+    PUT_TIME(Kind.COUNTER, MetricsConstants.TotalPutTime),
 
     //GET request metrics
-    BYTES_DOWN,
-    TOTAL_SUCCESSFUL_GETS,
-    GET_TIME;
+    BYTES_DOWN(Kind.COUNTER, MetricsConstants.TotalBytesDown),
+    TOTAL_SUCCESSFUL_GETS(Kind.COUNTER, MetricsConstants.TotalSuccessfulGetRequests),
+    GET_TIME(Kind.COUNTER, MetricsConstants.TotalGetTime),
+
+    //PUT latency percentiles, in microseconds
+    PUT_LATENCY_P50(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencyP50),
+    PUT_LATENCY_P90(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencyP90),
+    PUT_LATENCY_P99(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencyP99),
+    PUT_LATENCY_P999(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencyP999),
+    PUT_LATENCY_MAX(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencyMax),
+
+    //GET latency percentiles, in microseconds
+    GET_LATENCY_P50(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencyP50),
+    GET_LATENCY_P90(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencyP90),
+    GET_LATENCY_P99(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencyP99),
+    GET_LATENCY_P999(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencyP999),
+    GET_LATENCY_MAX(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencyMax),
+
+    //Latency sampling: one operation in N is timed, and the relative standard error of the
+    //estimated PUT and GET counts, in parts per million
+    LATENCY_SAMPLE_EVERY(Kind.GAUGE, MetricsConstants.LatencySampleEvery),
+    PUT_LATENCY_SAMPLE_ERROR(Kind.GAUGE, MetricsConstants.PutLatency, MetricsConstants.LatencySampleError),
+    GET_LATENCY_SAMPLE_ERROR(Kind.GAUGE, MetricsConstants.GetLatency, MetricsConstants.LatencySampleError),
+
+    //Streaming transfers: open ones and the bytes they moved so far, failed and abandoned ones
+    PUT_TRANSFERS_IN_FLIGHT(Kind.GAUGE, MetricsConstants.PutTransfersInFlight),
+    PUT_BYTES_IN_FLIGHT(Kind.GAUGE, MetricsConstants.PutBytesInFlight),
+    FAILED_PUT_TRANSFERS(Kind.COUNTER, MetricsConstants.FailedPutTransfers),
+    ABANDONED_PUT_TRANSFERS(Kind.COUNTER, MetricsConstants.AbandonedPutTransfers),
+    GET_TRANSFERS_IN_FLIGHT(Kind.GAUGE, MetricsConstants.GetTransfersInFlight),
+    GET_BYTES_IN_FLIGHT(Kind.GAUGE, MetricsConstants.GetBytesInFlight),
+    FAILED_GET_TRANSFERS(Kind.COUNTER, MetricsConstants.FailedGetTransfers),
+    ABANDONED_GET_TRANSFERS(Kind.COUNTER, MetricsConstants.AbandonedGetTransfers),
+
+    //Throughput, per second: instantaneous, and 1/5/15 minute moving averages
+    BYTES_UP_RATE(Kind.RATE, MetricsConstants.BytesUpRate),
+    BYTES_UP_RATE_M1(Kind.RATE, MetricsConstants.BytesUpRate, MetricsConstants.RateM1),
+    BYTES_UP_RATE_M5(Kind.RATE, MetricsConstants.BytesUpRate, MetricsConstants.RateM5),
+    BYTES_UP_RATE_M15(Kind.RATE, MetricsConstants.BytesUpRate, MetricsConstants.RateM15),
+    PUT_REQUEST_RATE(Kind.RATE, MetricsConstants.PutRequestRate),
+    PUT_REQUEST_RATE_M1(Kind.RATE, MetricsConstants.PutRequestRate, MetricsConstants.RateM1),
+    PUT_REQUEST_RATE_M5(Kind.RATE, MetricsConstants.PutRequestRate, MetricsConstants.RateM5),
+    PUT_REQUEST_RATE_M15(Kind.RATE, MetricsConstants.PutRequestRate, MetricsConstants.RateM15),
+    BYTES_DOWN_RATE(Kind.RATE, MetricsConstants.BytesDownRate),
+    BYTES_DOWN_RATE_M1(Kind.RATE, MetricsConstants.BytesDownRate, MetricsConstants.RateM1),
+    BYTES_DOWN_RATE_M5(Kind.RATE, MetricsConstants.BytesDownRate, MetricsConstants.RateM5),
+    BYTES_DOWN_RATE_M15(Kind.RATE, MetricsConstants.BytesDownRate, MetricsConstants.RateM15),
+    GET_REQUEST_RATE(Kind.RATE, MetricsConstants.GetRequestRate),
+    GET_REQUEST_RATE_M1(Kind.RATE, MetricsConstants.GetRequestRate, MetricsConstants.RateM1),
+    GET_REQUEST_RATE_M5(Kind.RATE, MetricsConstants.GetRequestRate, MetricsConstants.RateM5),
+    GET_REQUEST_RATE_M15(Kind.RATE, MetricsConstants.GetRequestRate, MetricsConstants.RateM15),
+
+    //Bytes per second over the last few closed seconds, see MetricsConstants.TransferThroughputSeconds
+    BYTES_UP_THROUGHPUT(Kind.RATE, MetricsConstants.BytesUpThroughput),
+    BYTES_DOWN_THROUGHPUT(Kind.RATE, MetricsConstants.BytesDownThroughput);
+
+    /**
+     * What kind of metric backs an option, and so which JMX attribute holds its value.
+     * RATE options are gauges with a double value, read with getRate().
+     */
+    public enum Kind
+    {
+        COUNTER("Count"),
+        GAUGE("Value"),
+        RATE("Value");
+
+        private final String jmxAttribute;
+
+        Kind(String jmxAttribute)
+        {
+            this.jmxAttribute = jmxAttribute;
+        }
+
+        public String getJmxAttribute()
+        {
+            return jmxAttribute;
+        }
+    }
+
+    /** Name of the metric behind this option, without the MetricsKey prefix */
+    private final String metricId;
+
+    private final Kind kind;
+
+    MetricsOption(Kind kind, String metricId, String... names)
+    {
+        this.kind = kind;
+        this.metricId = MetricRegistry.name(metricId, names);
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public String getMetricId()
+    {
+        return metricId;
+    }
 
     private static final Map<String, MetricsOption> optionMap = new HashMap<String, MetricsOption>();
+    private static final Map<String, MetricsOption> metricIdMap = new HashMap<String, MetricsOption>();
     static
     {
         for (MetricsOption op : MetricsOption.values())
         {
             optionMap.put(op.name().toLowerCase(), op);
+            metricIdMap.put(op.metricId, op);
         }
     }
 
+    /**
+     * @return the option of the given metric id, e.g. "total.bytes.up", or null
+     */
+    public static MetricsOption forMetricId(String metricId)
+    {
+        return metricIdMap.get(metricId);
+    }
+
     public static MetricsOption getOption(String option)
     {
         return optionMap.get(option);
@@ -0,0 +1,18 @@
+package com.rohit.stats.monitoring;
+
+/**
+ * How MetricsManager reads the metrics of a MetricsKey
+ */
+public enum MetricsReadPath
+{
+    /** Straight from the MetricRegistry, in one pass over the key's metrics */
+    DIRECT,
+
+    /** Through the platform MBeanServer, one attribute lookup per option */
+    JMX;
+
+    public static MetricsReadPath getReadPath(String path)
+    {
+        return "jmx".equalsIgnoreCase(path) ? JMX : DIRECT;
+    }
+}
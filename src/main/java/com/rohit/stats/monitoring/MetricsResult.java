@@ -11,6 +11,8 @@
  *******************************************************************************/
 package com.rohit.stats.monitoring;
 
+import java.util.EnumMap;
+import java.util.Map;
 
 public class MetricsResult
 {
@@ -27,6 +29,51 @@ public class MetricsResult
 
     private Long totalSuccessfulGets;
 
+    private Long putLatencyP50;
+
+    private Long putLatencyP90;
+
+    private Long putLatencyP99;
+
+    private Long putLatencyP999;
+
+    private Long putLatencyMax;
+
+    private Long getLatencyP50;
+
+    private Long getLatencyP90;
+
+    private Long getLatencyP99;
+
+    private Long getLatencyP999;
+
+    private Long getLatencyMax;
+
+    private Long latencySampleEvery;
+
+    private Long putLatencySampleError;
+
+    private Long getLatencySampleError;
+
+    private Long putTransfersInFlight;
+
+    private Long putBytesInFlight;
+
+    private Long failedPutTransfers;
+
+    private Long abandonedPutTransfers;
+
+    private Long getTransfersInFlight;
+
+    private Long getBytesInFlight;
+
+    private Long failedGetTransfers;
+
+    private Long abandonedGetTransfers;
+
+    /** Values of the RATE options, per second */
+    private final EnumMap<MetricsOption, Double> rates = new EnumMap<MetricsOption, Double>(MetricsOption.class);
+
     public Long getBytesUp()
     {
         return bytesUp;
@@ -87,6 +134,343 @@ public class MetricsResult
         this.getTime = getTime;
     }
 
+    public Long getPutLatencyP50()
+    {
+        return putLatencyP50;
+    }
+
+    public void setPutLatencyP50(Long putLatencyP50)
+    {
+        this.putLatencyP50 = putLatencyP50;
+    }
+
+    public Long getPutLatencyP90()
+    {
+        return putLatencyP90;
+    }
+
+    public void setPutLatencyP90(Long putLatencyP90)
+    {
+        this.putLatencyP90 = putLatencyP90;
+    }
+
+    public Long getPutLatencyP99()
+    {
+        return putLatencyP99;
+    }
+
+    public void setPutLatencyP99(Long putLatencyP99)
+    {
+        this.putLatencyP99 = putLatencyP99;
+    }
+
+    public Long getPutLatencyP999()
+    {
+        return putLatencyP999;
+    }
+
+    public void setPutLatencyP999(Long putLatencyP999)
+    {
+        this.putLatencyP999 = putLatencyP999;
+    }
+
+    public Long getPutLatencyMax()
+    {
+        return putLatencyMax;
+    }
+
+    public void setPutLatencyMax(Long putLatencyMax)
+    {
+        this.putLatencyMax = putLatencyMax;
+    }
+
+    public Long getGetLatencyP50()
+    {
+        return getLatencyP50;
+    }
+
+    public void setGetLatencyP50(Long getLatencyP50)
+    {
+        this.getLatencyP50 = getLatencyP50;
+    }
+
+    public Long getGetLatencyP90()
+    {
+        return getLatencyP90;
+    }
+
+    public void setGetLatencyP90(Long getLatencyP90)
+    {
+        this.getLatencyP90 = getLatencyP90;
+    }
+
+    public Long getGetLatencyP99()
+    {
+        return getLatencyP99;
+    }
+
+    public void setGetLatencyP99(Long getLatencyP99)
+    {
+        this.getLatencyP99 = getLatencyP99;
+    }
+
+    public Long getGetLatencyP999()
+    {
+        return getLatencyP999;
+    }
+
+    public void setGetLatencyP999(Long getLatencyP999)
+    {
+        this.getLatencyP999 = getLatencyP999;
+    }
+
+    public Long getGetLatencyMax()
+    {
+        return getLatencyMax;
+    }
+
+    public void setGetLatencyMax(Long getLatencyMax)
+    {
+        this.getLatencyMax = getLatencyMax;
+    }
+
+    /**
+     * @return one operation in this many is timed, 1 when every one is
+     */
+    public Long getLatencySampleEvery()
+    {
+        return latencySampleEvery;
+    }
+
+    public void setLatencySampleEvery(Long latencySampleEvery)
+    {
+        this.latencySampleEvery = latencySampleEvery;
+    }
+
+    /**
+     * @return the relative standard error of the estimated PUT latencies, in parts per million
+     */
+    public Long getPutLatencySampleError()
+    {
+        return putLatencySampleError;
+    }
+
+    public void setPutLatencySampleError(Long putLatencySampleError)
+    {
+        this.putLatencySampleError = putLatencySampleError;
+    }
+
+    /**
+     * @return the relative standard error of the estimated GET latencies, in parts per million
+     */
+    public Long getGetLatencySampleError()
+    {
+        return getLatencySampleError;
+    }
+
+    public void setGetLatencySampleError(Long getLatencySampleError)
+    {
+        this.getLatencySampleError = getLatencySampleError;
+    }
+
+
+    /**
+     * @return the number of PUT transfers open
+     */
+    public Long getPutTransfersInFlight()
+    {
+        return putTransfersInFlight;
+    }
+
+    public void setPutTransfersInFlight(Long putTransfersInFlight)
+    {
+        this.putTransfersInFlight = putTransfersInFlight;
+    }
+
+    /**
+     * @return the bytes moved so far by the open PUT transfers
+     */
+    public Long getPutBytesInFlight()
+    {
+        return putBytesInFlight;
+    }
+
+    public void setPutBytesInFlight(Long putBytesInFlight)
+    {
+        this.putBytesInFlight = putBytesInFlight;
+    }
+
+    public Long getFailedPutTransfers()
+    {
+        return failedPutTransfers;
+    }
+
+    public void setFailedPutTransfers(Long failedPutTransfers)
+    {
+        this.failedPutTransfers = failedPutTransfers;
+    }
+
+    public Long getAbandonedPutTransfers()
+    {
+        return abandonedPutTransfers;
+    }
+
+    public void setAbandonedPutTransfers(Long abandonedPutTransfers)
+    {
+        this.abandonedPutTransfers = abandonedPutTransfers;
+    }
+
+    /**
+     * @return the number of GET transfers open
+     */
+    public Long getGetTransfersInFlight()
+    {
+        return getTransfersInFlight;
+    }
+
+    public void setGetTransfersInFlight(Long getTransfersInFlight)
+    {
+        this.getTransfersInFlight = getTransfersInFlight;
+    }
+
+    /**
+     * @return the bytes moved so far by the open GET transfers
+     */
+    public Long getGetBytesInFlight()
+    {
+        return getBytesInFlight;
+    }
+
+    public void setGetBytesInFlight(Long getBytesInFlight)
+    {
+        this.getBytesInFlight = getBytesInFlight;
+    }
+
+    public Long getFailedGetTransfers()
+    {
+        return failedGetTransfers;
+    }
+
+    public void setFailedGetTransfers(Long failedGetTransfers)
+    {
+        this.failedGetTransfers = failedGetTransfers;
+    }
+
+    public Long getAbandonedGetTransfers()
+    {
+        return abandonedGetTransfers;
+    }
+
+    public void setAbandonedGetTransfers(Long abandonedGetTransfers)
+    {
+        this.abandonedGetTransfers = abandonedGetTransfers;
+    }
+
+    /**
+     * Sets the field that holds the given option
+     */
+    public void set(MetricsOption option, Long value)
+    {
+        switch (option)
+        {
+            case BYTES_UP:
+                setBytesUp(value);
+                break;
+            case BYTES_DOWN:
+                setBytesDown(value);
+                break;
+            case TOTAL_SUCCESSFUL_PUTS:
+                setTotalSuccessfulPuts(value);
+                break;
+            case PUT_TIME:
+                setPutTime(value);
+                break;
+            case TOTAL_SUCCESSFUL_GETS:
+                setTotalSuccessfulGets(value);
+                break;
+            case GET_TIME:
+                setGetTime(value);
+                break;
+            case PUT_LATENCY_P50:
+                setPutLatencyP50(value);
+                break;
+            case PUT_LATENCY_P90:
+                setPutLatencyP90(value);
+                break;
+            case PUT_LATENCY_P99:
+                setPutLatencyP99(value);
+                break;
+            case PUT_LATENCY_P999:
+                setPutLatencyP999(value);
+                break;
+            case PUT_LATENCY_MAX:
+                setPutLatencyMax(value);
+                break;
+            case GET_LATENCY_P50:
+                setGetLatencyP50(value);
+                break;
+            case GET_LATENCY_P90:
+                setGetLatencyP90(value);
+                break;
+            case GET_LATENCY_P99:
+                setGetLatencyP99(value);
+                break;
+            case GET_LATENCY_P999:
+                setGetLatencyP999(value);
+                break;
+            case GET_LATENCY_MAX:
+                setGetLatencyMax(value);
+                break;
+            case LATENCY_SAMPLE_EVERY:
+                setLatencySampleEvery(value);
+                break;
+            case PUT_LATENCY_SAMPLE_ERROR:
+                setPutLatencySampleError(value);
+                break;
+            case GET_LATENCY_SAMPLE_ERROR:
+                setGetLatencySampleError(value);
+                break;
+            case PUT_TRANSFERS_IN_FLIGHT:
+                setPutTransfersInFlight(value);
+                break;
+            case PUT_BYTES_IN_FLIGHT:
+                setPutBytesInFlight(value);
+                break;
+            case FAILED_PUT_TRANSFERS:
+                setFailedPutTransfers(value);
+                break;
+            case ABANDONED_PUT_TRANSFERS:
+                setAbandonedPutTransfers(value);
+                break;
+            case GET_TRANSFERS_IN_FLIGHT:
+                setGetTransfersInFlight(value);
+                break;
+            case GET_BYTES_IN_FLIGHT:
+                setGetBytesInFlight(value);
+                break;
+            case FAILED_GET_TRANSFERS:
+                setFailedGetTransfers(value);
+                break;
+            case ABANDONED_GET_TRANSFERS:
+                setAbandonedGetTransfers(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the value of a RATE option, null if it was not collected
+     */
+    public Double getRate(MetricsOption option)
+    {
+        return rates.get(option);
+    }
+
+    public void setRate(MetricsOption option, Double value)
+    {
+        rates.put(option, value);
+    }
 
     @Override
     public String toString()
@@ -117,6 +501,95 @@ public class MetricsResult
         {
             sb.append("get_time:").append(getTime).append("\n");
         }
+        if (putLatencyP50 != null)
+        {
+            sb.append("put_latency_p50:").append(putLatencyP50).append("\n");
+        }
+        if (putLatencyP90 != null)
+        {
+            sb.append("put_latency_p90:").append(putLatencyP90).append("\n");
+        }
+        if (putLatencyP99 != null)
+        {
+            sb.append("put_latency_p99:").append(putLatencyP99).append("\n");
+        }
+        if (putLatencyP999 != null)
+        {
+            sb.append("put_latency_p999:").append(putLatencyP999).append("\n");
+        }
+        if (putLatencyMax != null)
+        {
+            sb.append("put_latency_max:").append(putLatencyMax).append("\n");
+        }
+        if (getLatencyP50 != null)
+        {
+            sb.append("get_latency_p50:").append(getLatencyP50).append("\n");
+        }
+        if (getLatencyP90 != null)
+        {
+            sb.append("get_latency_p90:").append(getLatencyP90).append("\n");
+        }
+        if (getLatencyP99 != null)
+        {
+            sb.append("get_latency_p99:").append(getLatencyP99).append("\n");
+        }
+        if (getLatencyP999 != null)
+        {
+            sb.append("get_latency_p999:").append(getLatencyP999).append("\n");
+        }
+        if (getLatencyMax != null)
+        {
+            sb.append("get_latency_max:").append(getLatencyMax).append("\n");
+        }
+        if (latencySampleEvery != null)
+        {
+            sb.append("latency_sample_every:").append(latencySampleEvery).append("\n");
+        }
+        if (putLatencySampleError != null)
+        {
+            sb.append("put_latency_sample_error:").append(putLatencySampleError).append("\n");
+        }
+        if (getLatencySampleError != null)
+        {
+            sb.append("get_latency_sample_error:").append(getLatencySampleError).append("\n");
+        }
+        if (putTransfersInFlight != null)
+        {
+            sb.append("put_transfers_in_flight:").append(putTransfersInFlight).append("\n");
+        }
+        if (putBytesInFlight != null)
+        {
+            sb.append("put_bytes_in_flight:").append(putBytesInFlight).append("\n");
+        }
+        if (failedPutTransfers != null)
+        {
+            sb.append("failed_put_transfers:").append(failedPutTransfers).append("\n");
+        }
+        if (abandonedPutTransfers != null)
+        {
+            sb.append("abandoned_put_transfers:").append(abandonedPutTransfers).append("\n");
+        }
+        if (getTransfersInFlight != null)
+        {
+            sb.append("get_transfers_in_flight:").append(getTransfersInFlight).append("\n");
+        }
+        if (getBytesInFlight != null)
+        {
+            sb.append("get_bytes_in_flight:").append(getBytesInFlight).append("\n");
+        }
+        if (failedGetTransfers != null)
+        {
+            sb.append("failed_get_transfers:").append(failedGetTransfers).append("\n");
+        }
+        if (abandonedGetTransfers != null)
+        {
+            sb.append("abandoned_get_transfers:").append(abandonedGetTransfers).append("\n");
+        }
+        for (Map.Entry<MetricsOption, Double> rate : rates.entrySet())
+        {
+            sb.append(rate.getKey().name().toLowerCase()).append(":")
+                            .append(String.format("%.2f", rate.getValue())).append("\n");
+        }
         return sb.toString();
     }
 
@@ -0,0 +1,144 @@
+package com.rohit.stats.monitoring;
+
+/**
+ * The values of a set of MetricsOptions for one MetricsKey, held as primitives.
+ *
+ * Values live in a long[] indexed by MetricsOption.ordinal(), and a bitmask records which
+ * options were filled in. A snapshot can be cleared and filled again by
+ * MetricsManager.getSnapshot, so a poller can keep one instance and read stats without
+ * allocating.
+ *
+ * RATE options hold a double, read with getRate(); get() returns them rounded.
+ */
+public class MetricsSnapshot
+{
+    private static final MetricsOption[] OPTIONS = MetricsOption.values();
+
+    static
+    {
+        if (OPTIONS.length > Long.SIZE)
+        {
+            throw new IllegalStateException("MetricsSnapshot holds at most 64 options, found " + OPTIONS.length);
+        }
+    }
+
+    private final long[] values = new long[OPTIONS.length];
+
+    private final double[] rates = new double[OPTIONS.length];
+
+    private long present;
+
+    /**
+     * @return true if the option was filled in
+     */
+    public boolean has(MetricsOption option)
+    {
+        return (present & bit(option)) != 0;
+    }
+
+    /**
+     * @return the value of the option, 0 if it was not filled in
+     */
+    public long get(MetricsOption option)
+    {
+        return values[option.ordinal()];
+    }
+
+    public void set(MetricsOption option, long value)
+    {
+        values[option.ordinal()] = value;
+        present |= bit(option);
+    }
+
+    /**
+     * @return the value of the option as a double, 0 if it was not filled in
+     */
+    public double getRate(MetricsOption option)
+    {
+        if (option.getKind() == MetricsOption.Kind.RATE)
+        {
+            return rates[option.ordinal()];
+        }
+        return values[option.ordinal()];
+    }
+
+    public void setRate(MetricsOption option, double rate)
+    {
+        rates[option.ordinal()] = rate;
+        set(option, Math.round(rate));
+    }
+
+    /**
+     * @return bit n is set when the option with ordinal n was filled in
+     */
+    public long getPresentMask()
+    {
+        return present;
+    }
+
+    /**
+     * Forgets every value, so that the instance can be filled again
+     */
+    public void clear()
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = 0L;
+            rates[i] = 0.0;
+        }
+        present = 0L;
+    }
+
+    /**
+     * @return the filled in options as a MetricsResult
+     */
+    public MetricsResult toResult()
+    {
+        MetricsResult result = new MetricsResult();
+        for (MetricsOption option : OPTIONS)
+        {
+            if (!has(option))
+            {
+                continue;
+            }
+            if (option.getKind() == MetricsOption.Kind.RATE)
+            {
+                result.setRate(option, rates[option.ordinal()]);
+            }
+            else
+            {
+                result.set(option, values[option.ordinal()]);
+            }
+        }
+        return result;
+    }
+
+    private static long bit(MetricsOption option)
+    {
+        return 1L << option.ordinal();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (MetricsOption option : OPTIONS)
+        {
+            if (has(option))
+            {
+                sb.append(option.name().toLowerCase()).append(":");
+                if (option.getKind() == MetricsOption.Kind.RATE)
+                {
+                    sb.append(String.format("%.2f", rates[option.ordinal()]));
+                }
+                else
+                {
+                    sb.append(values[option.ordinal()]);
+                }
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.MetricsScheduler;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves every MetricsKey in the Prometheus text format at /metrics, on the JDK's built in
+ * HTTP server.
+ *
+ * A render is cached for the scrape interval, metrics.prometheus.cache.millis, so that
+ * scrapers arriving together share one walk over the registry: the first one renders, the
+ * others wait for it and send the same bytes. The text is rendered into a buffer that is
+ * reused from one render to the next, and only the final copy of each render is allocated.
+ *
+ * Started by startFromProperties() when metrics.prometheus.port is set.
+ */
+public class PrometheusEndpoint implements HttpHandler
+{
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final long DEFAULT_CACHE_MILLIS = 5000L;
+
+    private static PrometheusEndpoint started;
+
+    private final int port;
+
+    private final long cacheNanos;
+
+    private final Object renderLock = new Object();
+
+    private PrometheusRenderer renderer;
+
+    /** The last render, with the System.nanoTime() it was made at */
+    private volatile byte[] cached;
+
+    private volatile long cachedAt;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public PrometheusEndpoint(int port, long cacheMillis)
+    {
+        this.port = port;
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+    }
+
+    /**
+     * Starts the endpoint on metrics.prometheus.port, if set, once per JVM
+     *
+     * @return the endpoint, null when no port is configured or it could not be bound
+     */
+    public static synchronized PrometheusEndpoint startFromProperties()
+    {
+        if (started != null)
+        {
+            return started;
+        }
+        Integer port = Integer.getInteger(MetricsConstants.PrometheusPortProperty);
+        if (port == null)
+        {
+            return null;
+        }
+        PrometheusEndpoint endpoint = new PrometheusEndpoint(port,
+                        Long.getLong(MetricsConstants.PrometheusCacheMillisProperty, DEFAULT_CACHE_MILLIS));
+        try
+        {
+            endpoint.start();
+        }
+        catch (IOException e)
+        {
+            System.out.printf("Prometheus endpoint could not be started on port %d: %s\n", port, e.getMessage());
+            return null;
+        }
+        started = endpoint;
+        return endpoint;
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (server != null)
+        {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, this);
+        executor = Executors.newFixedThreadPool(2, MetricsScheduler.newThreadFactory("metrics-prometheus"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the port the endpoint listens on, useful when it was started on port 0
+     */
+    public synchronized int getPort()
+    {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * Returns the exposition text, rendered at most once per cache interval. The returned
+     * array is shared and must not be changed.
+     */
+    public byte[] scrape()
+    {
+        byte[] body = cached;
+        if (body != null && System.nanoTime() - cachedAt < cacheNanos)
+        {
+            return body;
+        }
+        synchronized (renderLock)
+        {
+            // Another scraper may have rendered while we waited
+            body = cached;
+            long now = System.nanoTime();
+            if (body != null && now - cachedAt < cacheNanos)
+            {
+                return body;
+            }
+            DirectMetricsReader reader = MetricsManager.getMetricsManager().getDirectReader();
+            if (renderer == null || renderer.getReader() != reader)
+            {
+                renderer = new PrometheusRenderer(reader);
+            }
+            int length = renderer.render();
+            body = Arrays.copyOf(renderer.getBuffer(), length);
+            cached = body;
+            cachedAt = now;
+            return body;
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape();
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}
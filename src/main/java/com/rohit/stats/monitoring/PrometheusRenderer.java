@@ -0,0 +1,420 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Metric;
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.metrics.LabelSet;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders every MetricsOption of every MetricsKey in the Prometheus text format, e.g.
+ *
+ *     # TYPE metrics_bytes_up counter
+ *     metrics_bytes_up{key="AWS_METRICS"} 1024
+ *     metrics_bytes_up{key="aws-eu",provider="aws",region="eu-west-1"} 512
+ *
+ * The labels of a key follow its name as Prometheus labels. Characters a Prometheus label
+ * name cannot hold become '_', and a label that would clash with "key" or start with the
+ * reserved "__" is prefixed with "label_".
+ *
+ * The metrics are taken from the DirectMetricsReader cache. A first pass reads every value,
+ * computing all percentiles of a histogram in one walk over its buckets; a second pass
+ * writes the text family by family. Values, label bytes and text all go into arrays that
+ * are kept from one render to the next, so a render allocates nothing once they have grown
+ * to size, apart from resolving new keys.
+ *
+ * Not thread safe, PrometheusEndpoint renders under a lock.
+ */
+class PrometheusRenderer
+{
+    private static final MetricsOption[] OPTIONS = MetricsOption.values();
+
+    /** "# HELP ...\n# TYPE ...\n" and "name{" of every option, built once */
+    private static final byte[][] HEADERS = new byte[OPTIONS.length][];
+    private static final byte[][] SAMPLE_PREFIXES = new byte[OPTIONS.length][];
+
+    static
+    {
+        for (MetricsOption option : OPTIONS)
+        {
+            String name = "metrics_" + option.name().toLowerCase();
+            String type = option.getKind() == MetricsOption.Kind.COUNTER ? "counter" : "gauge";
+            HEADERS[option.ordinal()] = ("# HELP " + name + " " + option.getMetricId() + "\n# TYPE " + name + " "
+                            + type + "\n").getBytes(StandardCharsets.US_ASCII);
+            SAMPLE_PREFIXES[option.ordinal()] = (name + "{").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final DirectMetricsReader reader;
+
+    private byte[] buffer = new byte[64 * 1024];
+    private int length;
+
+    /** Keys and their metrics of the current render, reused */
+    private String[] names = new String[16];
+    private LabelSet[] keyLabels = new LabelSet[16];
+    private Metric[][] metrics = new Metric[16][];
+
+    /** Values by [key * OPTIONS.length + ordinal], RATE values as double bits */
+    private long[] values = new long[16 * OPTIONS.length];
+
+    /** Labels of all keys as 'key="...",name="..."', key k at labelStart[k] up to labelStart[k + 1] */
+    private byte[] labels = new byte[16 * 32];
+    private int[] labelStart = new int[17];
+
+    /** Percentiles of one histogram, being read together */
+    private final double[] percentiles = new double[OPTIONS.length];
+    private final int[] percentileOptions = new int[OPTIONS.length];
+    private final long[] percentileValues = new long[OPTIONS.length];
+
+    PrometheusRenderer(DirectMetricsReader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * Renders all keys into the buffer
+     *
+     * @return number of bytes rendered, see getBuffer()
+     */
+    int render()
+    {
+        int keys = collectKeys();
+        if (values.length < keys * OPTIONS.length)
+        {
+            values = new long[keys * OPTIONS.length * 2];
+        }
+        for (int k = 0; k < keys; k++)
+        {
+            readValues(k);
+        }
+        encodeLabels(keys);
+
+        length = 0;
+        for (MetricsOption option : OPTIONS)
+        {
+            int index = option.ordinal();
+            boolean rate = option.getKind() == MetricsOption.Kind.RATE;
+            write(HEADERS[index]);
+            for (int k = 0; k < keys; k++)
+            {
+                if (metrics[k][index] == null)
+                {
+                    continue;
+                }
+                long value = values[k * OPTIONS.length + index];
+                write(SAMPLE_PREFIXES[index]);
+                write(labels, labelStart[k], labelStart[k + 1] - labelStart[k]);
+                writeAscii("} ");
+                if (rate)
+                {
+                    writeDouble(Double.longBitsToDouble(value));
+                }
+                else
+                {
+                    writeLong(value);
+                }
+                writeByte('\n');
+            }
+        }
+        // Let go of the sets, so that evicted ones are not kept until the next render
+        Arrays.fill(metrics, 0, keys, null);
+        Arrays.fill(keyLabels, 0, keys, null);
+        return length;
+    }
+
+    private void readValues(int k)
+    {
+        Metric[] row = metrics[k];
+        int base = k * OPTIONS.length;
+        for (MetricsOption option : OPTIONS)
+        {
+            int index = option.ordinal();
+            Metric metric = row[index];
+            if (metric instanceof LatencyHistogram.PercentileGauge)
+            {
+                readPercentiles(row, base, index);
+            }
+            else if (metric != null)
+            {
+                values[base + index] = option.getKind() == MetricsOption.Kind.RATE
+                                ? Double.doubleToRawLongBits(DirectMetricsReader.rate(metric))
+                                : DirectMetricsReader.value(metric);
+            }
+        }
+    }
+
+    /**
+     * Reads the percentile at the given option and the later ones of the same histogram in
+     * one walk, unless it was read with an earlier one
+     */
+    private void readPercentiles(Metric[] row, int base, int first)
+    {
+        LatencyHistogram histogram = ((LatencyHistogram.PercentileGauge) row[first]).getHistogram();
+        for (int i = 0; i < first; i++)
+        {
+            if (row[i] instanceof LatencyHistogram.PercentileGauge
+                            && ((LatencyHistogram.PercentileGauge) row[i]).getHistogram() == histogram)
+            {
+                return;
+            }
+        }
+        int count = 0;
+        for (int i = first; i < row.length; i++)
+        {
+            if (row[i] instanceof LatencyHistogram.PercentileGauge
+                            && ((LatencyHistogram.PercentileGauge) row[i]).getHistogram() == histogram)
+            {
+                percentiles[count] = ((LatencyHistogram.PercentileGauge) row[i]).getPercentile();
+                percentileOptions[count++] = i;
+            }
+        }
+        histogram.getValuesAtPercentiles(percentiles, count, percentileValues);
+        for (int p = 0; p < count; p++)
+        {
+            values[base + percentileOptions[p]] = TimeUnit.NANOSECONDS.toMicros(percentileValues[p]);
+        }
+    }
+
+    private void encodeLabels(int keys)
+    {
+        if (labelStart.length < keys + 1)
+        {
+            labelStart = new int[keys * 2 + 1];
+        }
+        // The label area is written through the text buffer, then swapped back
+        byte[] text = buffer;
+        buffer = labels;
+        length = 0;
+        for (int k = 0; k < keys; k++)
+        {
+            labelStart[k] = length;
+            writeAscii("key=\"");
+            writeLabelValue(names[k]);
+            writeByte('"');
+            LabelSet set = keyLabels[k];
+            for (int i = 0; i < set.size(); i++)
+            {
+                writeByte(',');
+                writeLabelName(set.getName(i));
+                writeAscii("=\"");
+                writeLabelValue(set.getValue(i));
+                writeByte('"');
+            }
+        }
+        labelStart[keys] = length;
+        labels = buffer;
+        buffer = text;
+    }
+
+    DirectMetricsReader getReader()
+    {
+        return reader;
+    }
+
+    byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    int getLength()
+    {
+        return length;
+    }
+
+    private int collectKeys()
+    {
+        int keys = 0;
+        keys = addKey(keys, OverallMetrics.getOverallMetrics().getMetricsKey());
+        for (ProviderMetrics provider : ProviderMetrics.getAll())
+        {
+            keys = addKey(keys, provider.getMetricsKey());
+        }
+        return keys;
+    }
+
+    private int addKey(int keys, MetricsKey key)
+    {
+        if (keys == names.length)
+        {
+            names = Arrays.copyOf(names, keys * 2);
+            metrics = Arrays.copyOf(metrics, keys * 2);
+            keyLabels = Arrays.copyOf(keyLabels, keys * 2);
+        }
+        names[keys] = key.getKeyName();
+        keyLabels[keys] = key.getLabels();
+        metrics[keys] = reader.resolve(key.getKeyName());
+        return keys + 1;
+    }
+
+    private void ensure(int extra)
+    {
+        if (length + extra > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void write(byte[] bytes)
+    {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int count)
+    {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void writeByte(int b)
+    {
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeAscii(String s)
+    {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes a label name as Prometheus allows it, [a-zA-Z_][a-zA-Z0-9_]*, see the class comment
+     */
+    private void writeLabelName(String name)
+    {
+        if (name.equals("key") || name.startsWith("__"))
+        {
+            writeAscii("label_");
+        }
+        else if (name.charAt(0) >= '0' && name.charAt(0) <= '9')
+        {
+            writeByte('_');
+        }
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            boolean valid = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+            writeByte(valid ? c : '_');
+        }
+    }
+
+    /**
+     * Writes a label value, escaping backslash, double quote and new line, as UTF-8
+     */
+    private void writeLabelValue(String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"')
+            {
+                writeByte('\\');
+                writeByte(c);
+            }
+            else if (c == '\n')
+            {
+                writeByte('\\');
+                writeByte('n');
+            }
+            else if (c < 0x80)
+            {
+                writeByte(c);
+            }
+            else
+            {
+                int codePoint = Character.codePointAt(value, i);
+                i += Character.charCount(codePoint) - 1;
+                writeCodePoint(codePoint);
+            }
+        }
+    }
+
+    private void writeCodePoint(int cp)
+    {
+        if (cp < 0x800)
+        {
+            writeByte(0xC0 | (cp >> 6));
+        }
+        else if (cp < 0x10000)
+        {
+            writeByte(0xE0 | (cp >> 12));
+            writeByte(0x80 | ((cp >> 6) & 0x3F));
+        }
+        else
+        {
+            writeByte(0xF0 | (cp >> 18));
+            writeByte(0x80 | ((cp >> 12) & 0x3F));
+            writeByte(0x80 | ((cp >> 6) & 0x3F));
+        }
+        writeByte(0x80 | (cp & 0x3F));
+    }
+
+    private void writeLong(long value)
+    {
+        ensure(20);
+        if (value == Long.MIN_VALUE)
+        {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0)
+        {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do
+        {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+        // Digits went in backwards
+        for (int i = start, j = length - 1; i < j; i++, j--)
+        {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    /**
+     * Writes a rate with 3 decimals, which is plenty for per second values
+     */
+    private void writeDouble(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            writeAscii(Double.isNaN(value) ? "NaN" : value > 0 ? "+Inf" : "-Inf");
+            return;
+        }
+        if (Math.abs(value) >= 9e15)
+        {
+            // Too large for thousandths in a long, and the decimals do not matter any more
+            writeLong(Math.round(value));
+            return;
+        }
+        long thousandths = Math.round(value * 1000.0);
+        if (thousandths < 0)
+        {
+            writeByte('-');
+            thousandths = -thousandths;
+        }
+        writeLong(thousandths / 1000);
+        writeByte('.');
+        long fraction = thousandths % 1000;
+        writeByte('0' + (int) (fraction / 100));
+        writeByte('0' + (int) (fraction / 10 % 10));
+        writeByte('0' + (int) (fraction % 10));
+    }
+}
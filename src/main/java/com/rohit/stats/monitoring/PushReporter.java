@@ -0,0 +1,521 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.DoubleGauge;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.metrics.MetricsScheduler;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the metrics of the registry to a StatsD or Graphite collector.
+ *
+ * Every interval the reporter walks the MetricRegistry on its own thread and compares each
+ * counter and gauge with what it sent last; only the ones that changed are sent. StatsD
+ * counters go out as the delta since the last flush ("name:5|c") and gauges as their value
+ * ("name:12|g"). Graphite lines carry the value and the flush time ("name 12 1700000000").
+ *
+ * Over UDP the lines are packed into datagrams of at most metrics.push.packet.bytes, 1432 by
+ * default so that a datagram fits a 1500 byte MTU. Over TCP they are appended to one buffer
+ * that is written as far as the socket takes it, the rest going out on the next flush. Both
+ * channels are non-blocking: when the collector is slow or gone, lines are dropped and
+ * counted instead of piling up. The reporter only reads, metric writers never wait for it.
+ *
+ * Its own metrics are registered with the others, and pushed with them: push.sent.lines,
+ * push.dropped.lines and push.lag.millis, how late the last flush started. One reporter per
+ * registry.
+ *
+ * Started by startFromProperties() when metrics.push.port is set.
+ */
+public class PushReporter
+{
+    public enum Protocol
+    {
+        UDP, TCP
+    }
+
+    public enum Format
+    {
+        STATSD, GRAPHITE
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10000L;
+
+    public static final int DEFAULT_PACKET_BYTES = 1432;
+
+    private static final int TCP_BUFFER_BYTES = 256 * 1024;
+
+    public static final String SENT_LINES = "push.sent.lines";
+    public static final String DROPPED_LINES = "push.dropped.lines";
+    public static final String LAG_MILLIS = "push.lag.millis";
+
+    private static PushReporter started;
+
+    private final InetSocketAddress target;
+
+    private final Protocol protocol;
+
+    private final Format format;
+
+    private final String prefix;
+
+    private final long intervalNanos;
+
+    /** The datagram being filled, or the bytes not yet written to the socket */
+    private final ByteBuffer buffer;
+
+    /** Lines in the buffer */
+    private int bufferLines;
+
+    private final Counter sentLines = new Counter();
+
+    private final Counter droppedLines = new Counter();
+
+    private volatile long lagMillis;
+
+    /** What was last sent of every metric, by registry name */
+    private final HashMap<String, Sent> sent = new HashMap<String, Sent>();
+
+    private final StringBuilder line = new StringBuilder(128);
+
+    private long flushNo;
+
+    private long nextDue;
+
+    private MetricRegistry registry;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private DatagramChannel datagrams;
+
+    private SocketChannel socket;
+
+    private static final class Sent
+    {
+        /** Name as pushed, prefixed and with the characters the protocols reserve replaced */
+        final String name;
+
+        /** Last value sent, thousandths for double gauges */
+        long value;
+
+        /** Number of the last flush that saw the metric */
+        long seen;
+
+        Sent(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    public PushReporter(InetSocketAddress target, Protocol protocol, Format format, String prefix,
+                    long intervalMillis, int packetBytes)
+    {
+        this.target = target;
+        this.protocol = protocol;
+        this.format = format;
+        this.prefix = prefix == null || prefix.isEmpty() || prefix.endsWith(".") ? prefix : prefix + ".";
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.buffer = ByteBuffer.allocate(protocol == Protocol.UDP ? packetBytes : TCP_BUFFER_BYTES);
+    }
+
+    /**
+     * Starts the reporter configured by the metrics.push.* properties, once per JVM
+     *
+     * @return the reporter, null when no port is configured
+     */
+    public static synchronized PushReporter startFromProperties()
+    {
+        if (started != null)
+        {
+            return started;
+        }
+        Integer port = Integer.getInteger(MetricsConstants.PushPortProperty);
+        if (port == null)
+        {
+            return null;
+        }
+        PushReporter reporter = new PushReporter(
+                        new InetSocketAddress(System.getProperty(MetricsConstants.PushHostProperty, "localhost"), port),
+                        Protocol.valueOf(System.getProperty(MetricsConstants.PushProtocolProperty, "udp").toUpperCase()),
+                        Format.valueOf(System.getProperty(MetricsConstants.PushFormatProperty, "statsd").toUpperCase()),
+                        System.getProperty(MetricsConstants.PushPrefixProperty, ""),
+                        Long.getLong(MetricsConstants.PushIntervalMillisProperty, DEFAULT_INTERVAL_MILLIS),
+                        Integer.getInteger(MetricsConstants.PushPacketBytesProperty, DEFAULT_PACKET_BYTES));
+        reporter.start();
+        started = reporter;
+        return reporter;
+    }
+
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+        registry = OverallMetrics.getRegistry();
+        registry.register(SENT_LINES, sentLines);
+        registry.register(DROPPED_LINES, droppedLines);
+        registry.register(LAG_MILLIS, new LongGauge()
+        {
+            @Override
+            public long getLongValue()
+            {
+                return lagMillis;
+            }
+        });
+        executor = new ScheduledThreadPoolExecutor(1, MetricsScheduler.newThreadFactory("metrics-push"));
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        nextDue = System.nanoTime() + intervalNanos;
+        executor.schedule(this::run, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the reporter after a last flush, waiting for it at most one second
+     */
+    public synchronized void stop()
+    {
+        if (executor == null)
+        {
+            return;
+        }
+        executor.execute(() ->
+        {
+            flush();
+            close(datagrams);
+            close(socket);
+        });
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        registry.remove(SENT_LINES);
+        registry.remove(DROPPED_LINES);
+        registry.remove(LAG_MILLIS);
+        executor = null;
+    }
+
+    public long getSentLines()
+    {
+        return sentLines.getCount();
+    }
+
+    public long getDroppedLines()
+    {
+        return droppedLines.getCount();
+    }
+
+    public long getLagMillis()
+    {
+        return lagMillis;
+    }
+
+    private void run()
+    {
+        long start = System.nanoTime();
+        lagMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(start - nextDue, 0));
+        try
+        {
+            flush();
+        }
+        catch (RuntimeException e)
+        {
+            // Report it and try again next interval, the values not sent go with the next diff
+            e.printStackTrace();
+        }
+        // Flushes missed while this one was late or slow are skipped, not run back to back
+        long now = System.nanoTime();
+        do
+        {
+            nextDue += intervalNanos;
+        }
+        while (nextDue - now <= 0);
+        if (!executor.isShutdown())
+        {
+            executor.schedule(this::run, nextDue - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends every metric that changed since the last flush. Runs on the reporter thread.
+     */
+    void flush()
+    {
+        long epochSeconds = System.currentTimeMillis() / 1000L;
+        long flush = ++flushNo;
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet())
+        {
+            Metric metric = entry.getValue();
+            if (metric instanceof Counter)
+            {
+                report(entry.getKey(), ((Counter) metric).getCount(), true, false, flush, epochSeconds);
+            }
+            else if (metric instanceof LongGauge)
+            {
+                report(entry.getKey(), ((LongGauge) metric).getLongValue(), false, false, flush, epochSeconds);
+            }
+            else if (metric instanceof DoubleGauge)
+            {
+                reportDouble(entry.getKey(), ((DoubleGauge) metric).getDoubleValue(), flush, epochSeconds);
+            }
+            else if (metric instanceof Gauge)
+            {
+                Object value = ((Gauge<?>) metric).getValue();
+                if (value instanceof Long || value instanceof Integer)
+                {
+                    report(entry.getKey(), ((Number) value).longValue(), false, false, flush, epochSeconds);
+                }
+                else if (value instanceof Number)
+                {
+                    reportDouble(entry.getKey(), ((Number) value).doubleValue(), flush, epochSeconds);
+                }
+            }
+            // Histograms, meters and timers are not registered by this project
+        }
+        if (protocol == Protocol.UDP)
+        {
+            sendDatagram();
+        }
+        else
+        {
+            writeSocket();
+        }
+        // Forget the metrics that were removed from the registry
+        sent.values().removeIf(s -> s.seen != flush);
+    }
+
+    private void reportDouble(String metricName, double value, long flush, long epochSeconds)
+    {
+        if (!Double.isNaN(value) && !Double.isInfinite(value) && Math.abs(value) < 9e15)
+        {
+            report(metricName, Math.round(value * 1000.0), false, true, flush, epochSeconds);
+        }
+    }
+
+    private void report(String metricName, long value, boolean counter, boolean thousandths, long flush,
+                    long epochSeconds)
+    {
+        Sent last = sent.get(metricName);
+        boolean first = last == null;
+        if (first)
+        {
+            last = new Sent(pushName(metricName));
+            sent.put(metricName, last);
+        }
+        last.seen = flush;
+        if (!first && value == last.value)
+        {
+            return;
+        }
+        long previous = first ? 0 : last.value;
+        last.value = value;
+
+        line.setLength(0);
+        line.append(last.name);
+        if (format == Format.STATSD)
+        {
+            line.append(':');
+            if (counter)
+            {
+                // A counter that went backwards was recreated, count from its new value
+                long delta = value >= previous ? value - previous : value;
+                if (delta == 0)
+                {
+                    return;
+                }
+                line.append(delta).append("|c");
+            }
+            else
+            {
+                appendValue(value, thousandths);
+                line.append("|g");
+            }
+        }
+        else
+        {
+            line.append(' ');
+            appendValue(value, thousandths);
+            line.append(' ').append(epochSeconds);
+        }
+        line.append('\n');
+        emit();
+    }
+
+    private void appendValue(long value, boolean thousandths)
+    {
+        if (!thousandths)
+        {
+            line.append(value);
+            return;
+        }
+        if (value < 0)
+        {
+            line.append('-');
+            value = -value;
+        }
+        long fraction = value % 1000;
+        line.append(value / 1000).append('.');
+        line.append((char) ('0' + fraction / 100)).append((char) ('0' + fraction / 10 % 10))
+                        .append((char) ('0' + fraction % 10));
+    }
+
+    private String pushName(String metricName)
+    {
+        StringBuilder name = new StringBuilder(prefix.length() + metricName.length());
+        name.append(prefix);
+        for (int i = 0; i < metricName.length(); i++)
+        {
+            char c = metricName.charAt(i);
+            boolean allowed = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.'
+                            || c == '_' || c == '-';
+            name.append(allowed ? c : '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Adds the line to the buffer, sending the datagram first if the line does not fit
+     */
+    private void emit()
+    {
+        int bytes = line.length();
+        if (bytes > buffer.remaining())
+        {
+            if (protocol == Protocol.UDP)
+            {
+                sendDatagram();
+            }
+            else
+            {
+                writeSocket();
+            }
+            if (bytes > buffer.remaining())
+            {
+                // Longer than a datagram, or the collector is not keeping up with the stream
+                droppedLines.inc();
+                return;
+            }
+        }
+        for (int i = 0; i < bytes; i++)
+        {
+            buffer.put((byte) line.charAt(i));
+        }
+        bufferLines++;
+    }
+
+    private void sendDatagram()
+    {
+        if (bufferLines == 0)
+        {
+            return;
+        }
+        buffer.flip();
+        try
+        {
+            if (datagrams == null)
+            {
+                datagrams = DatagramChannel.open();
+                datagrams.configureBlocking(false);
+            }
+            // A non-blocking send either takes the whole datagram or, when the socket buffer is full, nothing
+            if (datagrams.send(buffer, target) > 0)
+            {
+                sentLines.inc(bufferLines);
+            }
+            else
+            {
+                droppedLines.inc(bufferLines);
+            }
+        }
+        catch (IOException e)
+        {
+            droppedLines.inc(bufferLines);
+            close(datagrams);
+            datagrams = null;
+        }
+        buffer.clear();
+        bufferLines = 0;
+    }
+
+    /**
+     * Writes as much of the buffer as the socket takes, connecting first if needed. Lines
+     * only count as sent once their last byte is written.
+     */
+    private void writeSocket()
+    {
+        if (protocol != Protocol.TCP || bufferLines == 0)
+        {
+            return;
+        }
+        try
+        {
+            if (socket == null)
+            {
+                socket = SocketChannel.open();
+                socket.configureBlocking(false);
+                socket.connect(target);
+            }
+            if (socket.isConnectionPending() && !socket.finishConnect())
+            {
+                // Still connecting, the lines wait in the buffer
+                return;
+            }
+            buffer.flip();
+            int from = buffer.position();
+            socket.write(buffer);
+            int written = 0;
+            for (int i = from; i < buffer.position(); i++)
+            {
+                if (buffer.get(i) == '\n')
+                {
+                    written++;
+                }
+            }
+            buffer.compact();
+            sentLines.inc(written);
+            bufferLines -= written;
+        }
+        catch (IOException e)
+        {
+            // The connection is gone, and with it the lines it had not taken
+            droppedLines.inc(bufferLines);
+            buffer.clear();
+            bufferLines = 0;
+            close(socket);
+            socket = null;
+        }
+    }
+
+    private static void close(Channel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.counters.LatencyHistogram;
+import com.rohit.stats.counters.RollingWindows;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.WindowTicker;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Evaluates SloRules in process, each time one of their windows closes, and tells its
+ * listeners when a rule changes state.
+ *
+ * Nothing runs on the record path. The engine is a WindowTicker listener: right after the
+ * second that ends a window was closed in every set, the rules of that window length are
+ * evaluated on the ticker thread, one after the other. Each rule reads what it needs of its
+ * set, the window sums of RollingWindows or the difference between a few lifetime totals and
+ * those it kept from its previous window, so a rule on a key costs a map lookup and a few
+ * counter reads, never a percentile computation; see SloRule.
+ *
+ * A rule on the overall totals costs the same in dual write mode. When aggregating, every
+ * overall counter and histogram read is a pass over all the sets, so the engine reads the
+ * overall totals once per tick, and the count above a threshold once per tick and threshold,
+ * and every overall rule closing on that tick shares them.
+ *
+ * A breached window makes a rule PENDING, or FIRING once the rule's number of consecutive
+ * windows is breached; any other window makes it OK again. Listeners are called on the ticker
+ * thread, so they should hand anything slow to another one.
+ *
+ * A rule whose key has no set has no values, and a set that is removed and comes back starts
+ * the rule afresh. Rules can be added and removed at any time; they keep their state across
+ * other rules' changes.
+ *
+ * Started by startFromProperties() when metrics.rules is set, with a listener printing every
+ * change.
+ */
+public class RuleEngine implements WindowTicker.Listener
+{
+    /** Told of every change of state of a rule */
+    public interface Listener
+    {
+        /**
+         * @param value
+         *            the value of the window that caused the change, see SloRule
+         */
+        void stateChanged(SloRule rule, SloRule.State from, SloRule.State to, double value);
+    }
+
+    private static RuleEngine started;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /** The rules by window length, replaced on every change. Evaluated by the ticker thread only */
+    private volatile Group[] groups = new Group[0];
+
+    /** Last tick seen, by the ticker thread */
+    private long lastTick;
+
+    private volatile long lastEvaluationNanos;
+
+    private volatile int lastEvaluatedRules;
+
+    /** What the overall rules read on the current tick, by the ticker thread */
+    private final OverallReading overall = new OverallReading();
+
+    private static final class Group
+    {
+        final int seconds;
+
+        final Evaluation[] rules;
+
+        Group(int seconds, Evaluation[] rules)
+        {
+            this.seconds = seconds;
+            this.rules = rules;
+        }
+    }
+
+    /**
+     * The overall values read on one tick, each read on first use; cleared on every tick
+     */
+    private static final class OverallReading
+    {
+        final long[] totals = new long[MetricsCounters.TOTALS];
+
+        boolean hasTotals;
+
+        /** Counts above a threshold, by threshold, for PUTs and GETs */
+        final Map<Long, Long> putAbove = new HashMap<Long, Long>();
+
+        final Map<Long, Long> getAbove = new HashMap<Long, Long>();
+
+        /** Unsuccessful transfers of PUTs and GETs, -1 until read */
+        final long[] unsuccessful = new long[2];
+
+        void clear()
+        {
+            hasTotals = false;
+            putAbove.clear();
+            getAbove.clear();
+            Arrays.fill(unsuccessful, -1);
+        }
+
+        void getTotals(MetricsCounters set, long[] into)
+        {
+            if (!hasTotals)
+            {
+                set.getTotals(totals);
+                hasTotals = true;
+            }
+            System.arraycopy(totals, 0, into, 0, totals.length);
+        }
+
+        long getCountAbove(MetricsCounters set, boolean put, long nanos)
+        {
+            Map<Long, Long> above = put ? putAbove : getAbove;
+            Long count = above.get(nanos);
+            if (count == null)
+            {
+                count = (put ? set.getPutLatency() : set.getGetLatency()).getCountAbove(nanos);
+                above.put(nanos, count);
+            }
+            return count;
+        }
+
+        long getUnsuccessfulTransfers(MetricsCounters set, boolean put)
+        {
+            int i = put ? 0 : 1;
+            if (unsuccessful[i] < 0)
+            {
+                unsuccessful[i] = set.getUnsuccessfulTransfers(put);
+            }
+            return unsuccessful[i];
+        }
+    }
+
+    /** A rule with its state, changed by the ticker thread only once added */
+    private static final class Evaluation
+    {
+        final SloRule rule;
+
+        final long[] totals = new long[MetricsCounters.TOTALS];
+
+        MetricsCounters set;
+
+        /** What the set had when the previous window closed, as the rule's signal needs */
+        long lastCount;
+
+        long lastTotal;
+
+        int breaches;
+
+        volatile SloRule.State state = SloRule.State.OK;
+
+        volatile double value = Double.NaN;
+
+        Evaluation(SloRule rule)
+        {
+            this.rule = rule;
+        }
+
+        /**
+         * Binds the rule to the current set of its key, keeping the set's totals as the
+         * start of the next window
+         *
+         * @param shared
+         *            the overall values of the tick, null to read the set itself
+         * @return false when the key has no set
+         */
+        boolean bind(MetricsCounters current, OverallReading shared)
+        {
+            set = current;
+            if (current == null)
+            {
+                return false;
+            }
+            measure(shared);
+            return true;
+        }
+
+        /**
+         * @return the value of the window closed now, NaN when it had no operations
+         */
+        double evaluate(MetricsCounters current, int seconds, OverallReading shared)
+        {
+            if (current != set)
+            {
+                bind(current, shared);
+                return Double.NaN;
+            }
+            if (current == null)
+            {
+                return Double.NaN;
+            }
+            long count = lastCount;
+            long total = lastTotal;
+            measure(shared);
+            // A count that went back was a racing update, it shows in the next window
+            long windowCount = Math.max(lastCount - count, 0);
+            long windowTotal = Math.max(lastTotal - total, 0);
+            switch (rule.getSignal())
+            {
+                case PERCENTILE:
+                    return windowTotal == 0 ? Double.NaN : 100.0 * Math.min(windowCount, windowTotal) / windowTotal;
+                case MEAN:
+                    return windowTotal == 0 ? Double.NaN : windowCount / 1e6 / windowTotal;
+                case ERRORS:
+                    long requests = windowSum(current, seconds);
+                    return windowCount + requests == 0 ? Double.NaN : 100.0 * windowCount / (windowCount + requests);
+                default:
+                    return (double) windowSum(current, seconds) / seconds;
+            }
+        }
+
+        private long windowSum(MetricsCounters current, int seconds)
+        {
+            return current.getWindows().sum(rule.getWindowCounter(), RollingWindows.Resolution.SECOND, seconds);
+        }
+
+        /*
+         * Reads the lifetime totals the signal's windows are the differences of: operations
+         * slower than the threshold and timed operations for PERCENTILE, nanoseconds and
+         * timed operations for MEAN, unsuccessful transfers for ERRORS.
+         */
+        private void measure(OverallReading shared)
+        {
+            boolean put = rule.isPut();
+            switch (rule.getSignal())
+            {
+                case PERCENTILE:
+                    if (shared != null)
+                    {
+                        lastCount = shared.getCountAbove(set, put, rule.getThresholdNanos());
+                        shared.getTotals(set, totals);
+                    }
+                    else
+                    {
+                        LatencyHistogram histogram = put ? set.getPutLatency() : set.getGetLatency();
+                        lastCount = histogram.getCountAbove(rule.getThresholdNanos());
+                        set.getTotals(totals);
+                    }
+                    lastTotal = totals[put ? MetricsCounters.TOTAL_PUT_TIMED : MetricsCounters.TOTAL_GET_TIMED];
+                    break;
+                case MEAN:
+                    if (shared != null)
+                    {
+                        shared.getTotals(set, totals);
+                    }
+                    else
+                    {
+                        set.getTotals(totals);
+                    }
+                    lastCount = totals[put ? MetricsCounters.TOTAL_PUT_NANOS : MetricsCounters.TOTAL_GET_NANOS];
+                    lastTotal = totals[put ? MetricsCounters.TOTAL_PUT_TIMED : MetricsCounters.TOTAL_GET_TIMED];
+                    break;
+                case ERRORS:
+                    lastCount = shared != null ? shared.getUnsuccessfulTransfers(set, put)
+                                    : set.getUnsuccessfulTransfers(put);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Starts the engine with the rules of metrics.rules, once per JVM, printing every change
+     * of state. The rules are separated by ';', each one "NAME: RULE" or just "RULE", named
+     * by its text.
+     *
+     * @return the engine, null when no rules are configured
+     * @throws IllegalArgumentException
+     *             when a rule is invalid
+     */
+    public static synchronized RuleEngine startFromProperties()
+    {
+        if (started != null)
+        {
+            return started;
+        }
+        String rules = System.getProperty(MetricsConstants.RulesProperty);
+        if (rules == null || rules.trim().isEmpty())
+        {
+            return null;
+        }
+        RuleEngine engine = new RuleEngine();
+        for (String rule : rules.split(";"))
+        {
+            if (rule.trim().isEmpty())
+            {
+                continue;
+            }
+            int colon = rule.indexOf(':');
+            engine.add(colon < 0 ? SloRule.parse(rule.trim(), rule)
+                            : SloRule.parse(rule.substring(0, colon).trim(), rule.substring(colon + 1)));
+        }
+        engine.addListener(new Listener()
+        {
+            @Override
+            public void stateChanged(SloRule rule, SloRule.State from, SloRule.State to, double value)
+            {
+                System.out.printf("rule %s: %s -> %s, %.3f%n", rule.getName(), from, to, value);
+            }
+        });
+        engine.start();
+        started = engine;
+        return engine;
+    }
+
+    public void addListener(Listener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts evaluating the rules as their windows close
+     */
+    public void start()
+    {
+        // The ticker starts with the overall set
+        OverallMetrics.getOverallMetrics();
+        WindowTicker.addListener(this);
+    }
+
+    public void stop()
+    {
+        WindowTicker.removeListener(this);
+    }
+
+    /**
+     * Adds a rule, which starts OK with its first window closing after now
+     *
+     * @throws IllegalArgumentException
+     *             when the engine has a rule of the same name
+     */
+    public synchronized void add(SloRule rule)
+    {
+        if (find(rule.getName()) != null)
+        {
+            throw new IllegalArgumentException("there is a rule named " + rule.getName() + " already");
+        }
+        Evaluation evaluation = new Evaluation(rule);
+        // Written before the groups are published, so the ticker thread sees the binding
+        evaluation.bind(resolve(rule), null);
+        Group[] current = groups;
+        for (int g = 0; g < current.length; g++)
+        {
+            if (current[g].seconds == rule.getWindowSeconds())
+            {
+                Evaluation[] rules = Arrays.copyOf(current[g].rules, current[g].rules.length + 1);
+                rules[rules.length - 1] = evaluation;
+                Group[] next = current.clone();
+                next[g] = new Group(rule.getWindowSeconds(), rules);
+                groups = next;
+                return;
+            }
+        }
+        Group[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new Group(rule.getWindowSeconds(), new Evaluation[] { evaluation });
+        groups = next;
+    }
+
+    /**
+     * @return the removed rule, null when there was none of the name
+     */
+    public synchronized SloRule remove(String name)
+    {
+        Group[] current = groups;
+        for (int g = 0; g < current.length; g++)
+        {
+            Evaluation[] rules = current[g].rules;
+            for (int r = 0; r < rules.length; r++)
+            {
+                if (rules[r].rule.getName().equals(name))
+                {
+                    Group[] next;
+                    if (rules.length == 1)
+                    {
+                        next = new Group[current.length - 1];
+                        System.arraycopy(current, 0, next, 0, g);
+                        System.arraycopy(current, g + 1, next, g, current.length - g - 1);
+                    }
+                    else
+                    {
+                        Evaluation[] left = new Evaluation[rules.length - 1];
+                        System.arraycopy(rules, 0, left, 0, r);
+                        System.arraycopy(rules, r + 1, left, r, rules.length - r - 1);
+                        next = current.clone();
+                        next[g] = new Group(current[g].seconds, left);
+                    }
+                    groups = next;
+                    return rules[r].rule;
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<SloRule> getRules()
+    {
+        List<SloRule> rules = new ArrayList<SloRule>();
+        for (Group group : groups)
+        {
+            for (Evaluation evaluation : group.rules)
+            {
+                rules.add(evaluation.rule);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * @return the state of the rule of the given name, null when there is none
+     */
+    public SloRule.State getState(String name)
+    {
+        Evaluation evaluation = find(name);
+        return evaluation == null ? null : evaluation.state;
+    }
+
+    /**
+     * @return the value of the last closed window of the rule of the given name, NaN when it
+     *         had none or there is no such rule
+     */
+    public double getValue(String name)
+    {
+        Evaluation evaluation = find(name);
+        return evaluation == null ? Double.NaN : evaluation.value;
+    }
+
+    /**
+     * @return how long the last evaluation of due rules took, in nanoseconds
+     */
+    public long getLastEvaluationNanos()
+    {
+        return lastEvaluationNanos;
+    }
+
+    /**
+     * @return number of rules the last evaluation evaluated
+     */
+    public int getLastEvaluatedRules()
+    {
+        return lastEvaluatedRules;
+    }
+
+    @Override
+    public void windowsClosed(long tickNo)
+    {
+        long previous = lastTick;
+        lastTick = tickNo;
+        if (previous == 0)
+        {
+            // Windows are whole multiples of their length, none closes before the first tick
+            previous = tickNo - 1;
+        }
+        long start = System.nanoTime();
+        overall.clear();
+        int evaluated = 0;
+        for (Group group : groups)
+        {
+            // Ticks a late run skipped still close their windows, once
+            if (tickNo / group.seconds == previous / group.seconds)
+            {
+                continue;
+            }
+            for (Evaluation evaluation : group.rules)
+            {
+                evaluate(evaluation, group.seconds);
+            }
+            evaluated += group.rules.length;
+        }
+        if (evaluated > 0)
+        {
+            lastEvaluationNanos = System.nanoTime() - start;
+            lastEvaluatedRules = evaluated;
+        }
+    }
+
+    private void evaluate(Evaluation evaluation, int seconds)
+    {
+        SloRule rule = evaluation.rule;
+        double value = evaluation.evaluate(resolve(rule), seconds, rule.isOverall() ? overall : null);
+        evaluation.value = value;
+        SloRule.State to;
+        if (rule.breaches(value))
+        {
+            evaluation.breaches = Math.min(evaluation.breaches + 1, rule.getWindows());
+            to = evaluation.breaches >= rule.getWindows() ? SloRule.State.FIRING : SloRule.State.PENDING;
+        }
+        else
+        {
+            evaluation.breaches = 0;
+            to = SloRule.State.OK;
+        }
+        SloRule.State from = evaluation.state;
+        if (to != from)
+        {
+            evaluation.state = to;
+            for (Listener listener : listeners)
+            {
+                try
+                {
+                    listener.stateChanged(rule, from, to, value);
+                }
+                catch (RuntimeException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static MetricsCounters resolve(SloRule rule)
+    {
+        return rule.isOverall() ? OverallMetrics.getOverallMetrics() : ProviderMetrics.find(rule.getKey());
+    }
+
+    private Evaluation find(String name)
+    {
+        for (Group group : groups)
+        {
+            for (Evaluation evaluation : group.rules)
+            {
+                if (evaluation.rule.getName().equals(name))
+                {
+                    return evaluation;
+                }
+            }
+        }
+        return null;
+    }
+}
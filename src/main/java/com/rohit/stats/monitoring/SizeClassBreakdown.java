@@ -0,0 +1,92 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.counters.SizeClassStats;
+
+/**
+ * The PUT and GET blobs of one MetricsKey by log2 size class, as returned by
+ * MetricsManager.getSizeClasses(): for each class the number of blobs, their bytes and the
+ * time spent on them. Class c holds the sizes from getLowerBound(c) up to, not including,
+ * getLowerBound(c + 1).
+ *
+ * The throughput of a class is its bytes over its time, so it compares how fast small and
+ * large blobs move, e.g. to pick a multipart threshold. Only times recorded with the sized
+ * incTotalPutTime() and incTotalGetTime() count in a class.
+ */
+public class SizeClassBreakdown
+{
+    public enum Direction
+    {
+        PUT, GET
+    }
+
+    private final SizeClassStats put = new SizeClassStats();
+
+    private final SizeClassStats get = new SizeClassStats();
+
+    SizeClassStats stats(Direction direction)
+    {
+        return direction == Direction.PUT ? put : get;
+    }
+
+    public int getClassCount()
+    {
+        return SizeClassStats.CLASSES;
+    }
+
+    /**
+     * @return the smallest blob size of the given class, in bytes
+     */
+    public long getLowerBound(int sizeClass)
+    {
+        return SizeClassStats.lowerBound(sizeClass);
+    }
+
+    public long getOps(Direction direction, int sizeClass)
+    {
+        return stats(direction).getOps(sizeClass);
+    }
+
+    public long getBytes(Direction direction, int sizeClass)
+    {
+        return stats(direction).getBytes(sizeClass);
+    }
+
+    /**
+     * @return the time spent on the blobs of the class, in nanoseconds
+     */
+    public long getNanos(Direction direction, int sizeClass)
+    {
+        return stats(direction).getNanos(sizeClass);
+    }
+
+    /**
+     * @return bytes per second of time spent on the blobs of the class, 0 when none was timed
+     */
+    public double getThroughput(Direction direction, int sizeClass)
+    {
+        long nanos = getNanos(direction, sizeClass);
+        return nanos == 0 ? 0.0 : getBytes(direction, sizeClass) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Direction direction : Direction.values())
+        {
+            for (int c = 0; c < getClassCount(); c++)
+            {
+                long ops = getOps(direction, c);
+                if (ops == 0)
+                {
+                    continue;
+                }
+                sb.append(direction.name().toLowerCase()).append(" >=").append(getLowerBound(c)).append(':')
+                                .append(" ops ").append(ops).append(" bytes ").append(getBytes(direction, c))
+                                .append(" nanos ").append(getNanos(direction, c))
+                                .append(String.format(" bytes/s %.0f", getThroughput(direction, c))).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,385 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.counters.RollingWindows;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A threshold on one signal of one MetricsKey, checked by a RuleEngine over consecutive
+ * windows of whole seconds, e.g.
+ *
+ *     AWS_METRICS get p99 > 500ms for 3x10s
+ *     AZURE_METRICS put errors > 1%
+ *
+ * reads "the GET p99 of AWS_METRICS is above 500 ms in 3 consecutive 10 second windows" and
+ * "more than 1% of the PUTs of AZURE_METRICS fail in a 10 second window". The form is
+ *
+ *     KEY put|get SIGNAL >|< THRESHOLD [for [Nx]Ws]
+ *
+ * with KEY a key name, DEFAULT for the overall totals, and SIGNAL one of
+ *
+ *     pNN       a latency percentile, e.g. p99 or p99.9, over a latency like 500ms, 2s or 750us
+ *     mean      the mean latency, over a latency
+ *     errors    the failed and abandoned transfers, in percent of the requests, e.g. 1%
+ *     rate      the successful requests per second
+ *     bytes     the bytes moved per second
+ *
+ * A window lasts 10 seconds unless given, at most as long as the seconds ring of
+ * RollingWindows, and a rule fires after 1 breached window unless given more. Windows of
+ * the same length close together in all rules, on multiples of their length.
+ *
+ * A percentile rule does not compute the percentile: the p99 of a window is above 500 ms
+ * when more than 1% of its operations are slower than 500 ms, which the latency histograms
+ * tell by their bucket counts alone, at the resolution of their buckets. The value of such a
+ * rule is that share of slower operations, in percent. The values of the other rules are in
+ * milliseconds, percent or per second, as their thresholds. A window without operations has
+ * no value and breaches no rule, unless it is counted in requests or bytes.
+ *
+ * Rules are immutable, and compiled by parse() into what the engine needs on every window.
+ */
+public final class SloRule
+{
+    public enum Signal
+    {
+        PERCENTILE, MEAN, ERRORS, RATE, BYTES
+    }
+
+    /** OK, breached in fewer consecutive windows than the rule needs, or firing */
+    public enum State
+    {
+        OK, PENDING, FIRING
+    }
+
+    public static final int DEFAULT_WINDOW_SECONDS = 10;
+
+    private final String name;
+
+    private final String text;
+
+    private final MetricsKey key;
+
+    private final boolean overall;
+
+    private final boolean put;
+
+    private final Signal signal;
+
+    private final double percentile;
+
+    private final boolean above;
+
+    /** The threshold, in nanoseconds for latencies */
+    private final double threshold;
+
+    private final long thresholdNanos;
+
+    /** What a window's value is compared with */
+    private final double limit;
+
+    private final int windowSeconds;
+
+    private final int windows;
+
+    /** The RollingWindows counter read by RATE, BYTES and ERRORS rules */
+    private final int windowCounter;
+
+    private SloRule(String name, String text, MetricsKey key, boolean put, Signal signal, double percentile,
+                    boolean above, double threshold, int windowSeconds, int windows)
+    {
+        this.name = name;
+        this.text = text;
+        this.key = key;
+        this.overall = MetricsConstants.DEFAULT.equals(key.getKeyName());
+        this.put = put;
+        this.signal = signal;
+        this.percentile = percentile;
+        this.above = above;
+        this.threshold = threshold;
+        this.thresholdNanos = (long) threshold;
+        this.windowSeconds = windowSeconds;
+        this.windows = windows;
+        switch (signal)
+        {
+            case PERCENTILE:
+                limit = 100.0 - percentile;
+                break;
+            case MEAN:
+                limit = threshold / TimeUnit.MILLISECONDS.toNanos(1);
+                break;
+            default:
+                limit = threshold;
+        }
+        String counter;
+        if (signal == Signal.BYTES)
+        {
+            counter = put ? MetricsConstants.TotalBytesUp : MetricsConstants.TotalBytesDown;
+        }
+        else
+        {
+            counter = put ? MetricsConstants.TotalSuccessfulPutRequests : MetricsConstants.TotalSuccessfulGetRequests;
+        }
+        this.windowCounter = MetricsCounters.windowIndexOf(counter);
+    }
+
+    /**
+     * Compiles a rule from its text, whose first word is the key name
+     *
+     * @throws IllegalArgumentException
+     *             when the text is no rule
+     */
+    public static SloRule parse(String name, String text)
+    {
+        String trimmed = text.trim();
+        int space = trimmed.indexOf(' ');
+        if (space < 0)
+        {
+            throw new IllegalArgumentException("no condition in rule " + name + ": " + text);
+        }
+        return parse(name, MetricsKey.of(trimmed.substring(0, space)), trimmed.substring(space + 1));
+    }
+
+    /**
+     * Compiles a rule on the given key, e.g. a labeled one, from its text without the key name
+     *
+     * @throws IllegalArgumentException
+     *             when the condition is no rule
+     */
+    public static SloRule parse(String name, MetricsKey key, String condition)
+    {
+        String[] words = condition.trim().split("\\s+");
+        if (words.length != 4 && words.length != 6 || words.length == 6 && !"for".equals(words[4]))
+        {
+            throw invalid(name, condition, "expected put|get SIGNAL >|< THRESHOLD [for [Nx]Ws]");
+        }
+        boolean put;
+        if ("put".equalsIgnoreCase(words[0]))
+        {
+            put = true;
+        }
+        else if ("get".equalsIgnoreCase(words[0]))
+        {
+            put = false;
+        }
+        else
+        {
+            throw invalid(name, condition, "no direction " + words[0]);
+        }
+
+        Signal signal;
+        double percentile = 0;
+        String s = words[1].toLowerCase();
+        if (s.startsWith("p"))
+        {
+            signal = Signal.PERCENTILE;
+            percentile = number(name, condition, s.substring(1));
+            if (!(percentile > 0 && percentile < 100))
+            {
+                throw invalid(name, condition, "percentile " + s + " is not between p0 and p100");
+            }
+        }
+        else if ("mean".equals(s))
+        {
+            signal = Signal.MEAN;
+        }
+        else if ("errors".equals(s))
+        {
+            signal = Signal.ERRORS;
+        }
+        else if ("rate".equals(s))
+        {
+            signal = Signal.RATE;
+        }
+        else if ("bytes".equals(s))
+        {
+            signal = Signal.BYTES;
+        }
+        else
+        {
+            throw invalid(name, condition, "no signal " + words[1]);
+        }
+
+        boolean above;
+        if (">".equals(words[2]))
+        {
+            above = true;
+        }
+        else if ("<".equals(words[2]))
+        {
+            above = false;
+        }
+        else
+        {
+            throw invalid(name, condition, "no comparison " + words[2]);
+        }
+
+        String t = words[3].toLowerCase();
+        double threshold;
+        if (signal == Signal.PERCENTILE || signal == Signal.MEAN)
+        {
+            threshold = nanos(name, condition, t);
+        }
+        else if (signal == Signal.ERRORS)
+        {
+            threshold = number(name, condition, t.endsWith("%") ? t.substring(0, t.length() - 1) : t);
+        }
+        else
+        {
+            threshold = number(name, condition, t);
+        }
+
+        int windowSeconds = DEFAULT_WINDOW_SECONDS;
+        int windows = 1;
+        if (words.length == 6)
+        {
+            String w = words[5].toLowerCase();
+            int x = w.indexOf('x');
+            if (x >= 0)
+            {
+                windows = (int) number(name, condition, w.substring(0, x));
+                w = w.substring(x + 1);
+            }
+            if (!w.endsWith("s"))
+            {
+                throw invalid(name, condition, "window " + words[5] + " is not in seconds");
+            }
+            windowSeconds = (int) number(name, condition, w.substring(0, w.length() - 1));
+        }
+        int maxSeconds = RollingWindows.Resolution.SECOND.getSlots();
+        if (windowSeconds < 1 || windowSeconds > maxSeconds || windows < 1)
+        {
+            throw invalid(name, condition, "windows must be 1 to " + maxSeconds + " seconds, at least 1 of them");
+        }
+        return new SloRule(name, key.getKeyName() + " " + condition.trim(), key, put, signal, percentile, above,
+                        threshold, windowSeconds, windows);
+    }
+
+    private static double number(String name, String condition, String value)
+    {
+        try
+        {
+            double n = Double.parseDouble(value);
+            if (n < 0 || Double.isNaN(n) || Double.isInfinite(n))
+            {
+                throw invalid(name, condition, "no number " + value);
+            }
+            return n;
+        }
+        catch (NumberFormatException e)
+        {
+            throw invalid(name, condition, "no number " + value);
+        }
+    }
+
+    private static double nanos(String name, String condition, String value)
+    {
+        if (value.endsWith("ns"))
+        {
+            return number(name, condition, value.substring(0, value.length() - 2));
+        }
+        if (value.endsWith("us"))
+        {
+            return number(name, condition, value.substring(0, value.length() - 2)) * 1e3;
+        }
+        if (value.endsWith("ms"))
+        {
+            return number(name, condition, value.substring(0, value.length() - 2)) * 1e6;
+        }
+        if (value.endsWith("s"))
+        {
+            return number(name, condition, value.substring(0, value.length() - 1)) * 1e9;
+        }
+        throw invalid(name, condition, "latency " + value + " has no unit, ns, us, ms or s");
+    }
+
+    private static IllegalArgumentException invalid(String name, String condition, String why)
+    {
+        return new IllegalArgumentException("rule " + name + " (" + condition + "): " + why);
+    }
+
+    /**
+     * @return whether a window of the given value breaches the rule
+     */
+    boolean breaches(double value)
+    {
+        // NaN, a window without operations, compares false either way
+        return above ? value > limit : value < limit;
+    }
+
+    boolean isOverall()
+    {
+        return overall;
+    }
+
+    long getThresholdNanos()
+    {
+        return thresholdNanos;
+    }
+
+    int getWindowCounter()
+    {
+        return windowCounter;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public MetricsKey getKey()
+    {
+        return key;
+    }
+
+    public boolean isPut()
+    {
+        return put;
+    }
+
+    public Signal getSignal()
+    {
+        return signal;
+    }
+
+    /**
+     * @return the percentile of a PERCENTILE rule, 0 for the others
+     */
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    public boolean isAbove()
+    {
+        return above;
+    }
+
+    /**
+     * @return the threshold, in nanoseconds for latencies, in percent or per second for the others
+     */
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    public int getWindowSeconds()
+    {
+        return windowSeconds;
+    }
+
+    /**
+     * @return number of consecutive breached windows the rule fires after
+     */
+    public int getWindows()
+    {
+        return windows;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + text;
+    }
+}
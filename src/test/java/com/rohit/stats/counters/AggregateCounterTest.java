@@ -0,0 +1,86 @@
+package com.rohit.stats.counters;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Removes the sources of aggregates while another thread reads them, and checks that no read
+ * sees a removed source missing or counted twice.
+ */
+public class AggregateCounterTest
+{
+    private static final int SOURCES = 20000;
+
+    @Test
+    public void removalIsOneStepToReaders() throws Exception
+    {
+        final AggregateCounter counter = new AggregateCounter();
+        final AggregateTimeCounter time = new AggregateTimeCounter();
+        StripedCounter[] counters = new StripedCounter[SOURCES];
+        TimeCounter[] times = new TimeCounter[SOURCES];
+        for (int i = 0; i < SOURCES; i++)
+        {
+            counters[i] = new StripedCounter();
+            counters[i].inc(3);
+            counter.addSource(counters[i]);
+            times[i] = new TimeCounter();
+            times[i].record(5, 2);
+            time.addSource(times[i]);
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong wrong = new AtomicLong();
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!stop.get())
+                {
+                    if (counter.getCount() != 3L * SOURCES || time.getTotalNanos() != 5L * SOURCES
+                                    || time.getOperationCount() != 2L * SOURCES)
+                    {
+                        wrong.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        try
+        {
+            for (int i = 0; i < SOURCES; i++)
+            {
+                counter.removeSource(counters[i]);
+                time.removeSource(times[i]);
+            }
+        }
+        finally
+        {
+            stop.set(true);
+            reader.join();
+        }
+
+        assertEquals("reads off during a removal", 0, wrong.get());
+        assertEquals(0, counter.getSourceCount());
+        assertEquals(3L * SOURCES, counter.getCount());
+        assertEquals(5L * SOURCES, time.getTotalNanos());
+        assertEquals(2L * SOURCES, time.getOperationCount());
+    }
+
+    @Test
+    public void removingUnknownSourceKeepsTotal()
+    {
+        AggregateCounter counter = new AggregateCounter();
+        StripedCounter source = new StripedCounter();
+        source.inc(4);
+        counter.addSource(source);
+        counter.removeSource(source);
+        counter.removeSource(source);
+        counter.removeSource(new StripedCounter());
+        assertEquals(4, counter.getCount());
+    }
+}
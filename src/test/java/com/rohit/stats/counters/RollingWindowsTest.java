@@ -0,0 +1,113 @@
+package com.rohit.stats.counters;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ticks windows of its own with tick numbers far ahead of the global one, so that reads do
+ * not catch them up, and checks the slots of every resolution; one test catches an instance
+ * up to the global tick number through a read instead.
+ */
+public class RollingWindowsTest
+{
+    /** A whole number of hours, so that minutes and hours close on the seconds they should */
+    private static final long BASE = 1000L * 3600;
+
+    private final StripedCounter counter = new StripedCounter();
+
+    private final RollingWindows windows = new RollingWindows(counter);
+
+    @Test
+    public void skippedSecondsCloseWithZero()
+    {
+        counter.inc(1);
+        windows.tick(BASE);
+        counter.inc(2);
+        windows.tick(BASE + 3);
+        // A tick at or before the last one is ignored
+        counter.inc(4);
+        windows.tick(BASE + 2);
+
+        long[] series = new long[4];
+        assertEquals(4, windows.series(0, RollingWindows.Resolution.SECOND, series));
+        assertArrayEquals(new long[] { 1, 0, 0, 2 }, series);
+        assertEquals(BASE + 4, windows.closedSlots(RollingWindows.Resolution.SECOND));
+        assertEquals(3, windows.getClosedTotal(0));
+
+        windows.tick(BASE + 4);
+        assertEquals(4, windows.sum(0, RollingWindows.Resolution.SECOND, 1));
+        assertEquals(7, windows.sum(0, RollingWindows.Resolution.SECOND, 120));
+    }
+
+    @Test
+    public void excludedAmountShowsInNoSlot()
+    {
+        windows.tick(BASE);
+        synchronized (windows)
+        {
+            counter.inc(10);
+            windows.exclude(0, 10);
+        }
+        counter.inc(3);
+        windows.tick(BASE + 1);
+
+        assertEquals(3, windows.sum(0, RollingWindows.Resolution.SECOND, 1));
+        assertEquals(3, windows.getClosedTotal(0));
+        assertEquals(13, counter.getCount());
+    }
+
+    @Test
+    public void secondsRollUpIntoMinutesAndHours()
+    {
+        EwmaRate rate = new EwmaRate(windows, 0);
+        windows.tick(BASE);
+        for (long t = BASE + 1; t <= BASE + 3600; t++)
+        {
+            counter.inc(10);
+            windows.tick(t);
+        }
+
+        // Seconds BASE + 1 up to BASE + 3599 closed the hour, second BASE + 3600 opened the next
+        assertEquals(BASE + 3601, windows.closedSlots(RollingWindows.Resolution.SECOND));
+        assertEquals((BASE + 3600) / 60, windows.closedSlots(RollingWindows.Resolution.MINUTE));
+        assertEquals(BASE / 3600 + 1, windows.closedSlots(RollingWindows.Resolution.HOUR));
+
+        // The seconds ring holds its last lap only
+        assertEquals(1200, windows.sum(0, RollingWindows.Resolution.SECOND, 1000));
+        long[] minutes = new long[60];
+        assertEquals(60, windows.series(0, RollingWindows.Resolution.MINUTE, minutes));
+        assertEquals(590, minutes[0]);
+        for (int m = 1; m < 60; m++)
+        {
+            assertEquals(600, minutes[m]);
+        }
+        assertEquals(35990, windows.sum(0, RollingWindows.Resolution.HOUR, 48));
+        assertEquals(36000, windows.getClosedTotal(0));
+
+        assertEquals(10.0, rate.getRate(EwmaRate.INSTANT), 0.0);
+        assertEquals(10.0, rate.getRate(EwmaRate.ONE_MINUTE), 1e-6);
+    }
+
+    @Test
+    public void readCatchesUpToGlobalTick()
+    {
+        long now = RollingWindows.currentTick();
+        if (now < 2)
+        {
+            // No ticker running, so take the global tick number forward ourselves
+            now = 2;
+            RollingWindows.advance(now);
+        }
+        windows.tick(now - 1);
+        counter.inc(5);
+
+        // Not ticked since, so the read closes the seconds up to the global one first
+        long closed = windows.closedSlots(RollingWindows.Resolution.SECOND);
+        assertTrue("closed " + closed + " at " + now, closed > now);
+        assertEquals(5, windows.sum(0, RollingWindows.Resolution.SECOND, 1));
+        assertEquals(5, windows.sum(0, RollingWindows.Resolution.SECOND, 120));
+    }
+}
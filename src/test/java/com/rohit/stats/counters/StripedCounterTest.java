@@ -0,0 +1,80 @@
+package com.rohit.stats.counters;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Updates one StripedCounter from many threads at once, so that it spreads over its cells,
+ * and checks that no update is lost.
+ */
+public class StripedCounterTest
+{
+    private static final int THREADS = 8;
+
+    private static final int UPDATES = 200000;
+
+    @Test
+    public void countIsExactUnderContention() throws Exception
+    {
+        final StripedCounter counter = new StripedCounter();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++)
+        {
+            final int id = i;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (int n = 0; n < UPDATES; n++)
+                    {
+                        counter.inc();
+                        counter.inc(id);
+                        if (n % 4 == 0)
+                        {
+                            counter.dec();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        long expected = 0;
+        for (int id = 0; id < THREADS; id++)
+        {
+            expected += (long) UPDATES * (1 + id) - UPDATES / 4;
+        }
+        assertEquals(expected, counter.getCount());
+    }
+
+    @Test
+    public void decrementsGoBelowZero()
+    {
+        StripedCounter counter = new StripedCounter();
+        counter.inc(5);
+        counter.dec(8);
+        counter.dec();
+        assertEquals(-4, counter.getCount());
+    }
+}
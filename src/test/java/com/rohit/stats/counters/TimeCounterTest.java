@@ -0,0 +1,98 @@
+package com.rohit.stats.counters;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times overlapping operations on one TimeCounter from many threads, each with its own start
+ * token, and checks the totals against what every stop() reported.
+ */
+public class TimeCounterTest
+{
+    private static final int THREADS = 8;
+
+    private static final int OPERATIONS = 50000;
+
+    @Test
+    public void overlappingOperationsAreExact() throws Exception
+    {
+        final TimeCounter counter = new TimeCounter(TimeUnit.NANOSECONDS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong elapsed = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    long sum = 0;
+                    for (int n = 0; n < OPERATIONS; n++)
+                    {
+                        // Two operations of this thread open at once, as well as those of the others
+                        long outer = counter.start();
+                        long inner = counter.start();
+                        sum += counter.stop(inner);
+                        sum += counter.stop(outer);
+                    }
+                    elapsed.addAndGet(sum);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertEquals(2L * THREADS * OPERATIONS, counter.getOperationCount());
+        assertEquals(elapsed.get(), counter.getTotalNanos());
+        assertEquals(elapsed.get(), counter.getCount());
+    }
+
+    @Test
+    public void tokenMeasuresItsOwnOperation() throws Exception
+    {
+        TimeCounter counter = new TimeCounter(TimeUnit.MILLISECONDS);
+        long first = counter.start();
+        Thread.sleep(20);
+        long second = counter.start();
+        long secondNanos = counter.stop(second);
+        long firstNanos = counter.stop(first);
+
+        assertTrue(firstNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(firstNanos > secondNanos);
+        assertEquals(2, counter.getOperationCount());
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(firstNanos + secondNanos), counter.getCount());
+    }
+
+    @Test
+    public void reportUnitAmountsLeaveOperationCount()
+    {
+        TimeCounter counter = new TimeCounter(TimeUnit.MILLISECONDS);
+        counter.record(TimeUnit.MILLISECONDS.toNanos(5));
+        counter.inc(7);
+        counter.dec();
+        assertEquals(11, counter.getCount());
+        assertEquals(1, counter.getOperationCount());
+    }
+}
@@ -0,0 +1,177 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import com.rohit.stats.monitoring.CounterFileReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes slots of a CounterFile of its own and reads them back with a CounterFileReader, as
+ * another process would, including while a slot is being rewritten.
+ */
+public class CounterFileTest
+{
+    private File path;
+
+    private CounterFile file;
+
+    @Before
+    public void createFile() throws Exception
+    {
+        path = File.createTempFile("counters", ".bin");
+        file = new CounterFile(path, 8);
+    }
+
+    @After
+    public void deleteFile()
+    {
+        path.delete();
+    }
+
+    @Test
+    public void publishedTotalsAreRead() throws Exception
+    {
+        file.publish(file.allocateSlot("a"), values(3));
+        file.publish(file.allocateSlot("b"), values(4));
+
+        CounterFileReader.Snapshot snapshot = new CounterFileReader(path).read();
+        assertEquals(3, snapshot.getRows().size());
+        assertEquals(CounterFile.RETIRED_NAME, snapshot.getRows().get(0).getName());
+        assertEquals(3, row(snapshot, "a").get(MetricsCounters.TOTAL_BYTES_UP));
+        assertEquals(4, row(snapshot, "b").get(MetricsCounters.TOTAL_GET_NANOS));
+        assertEquals(7, snapshot.getTotal().get(MetricsCounters.TOTAL_PUT_REQUESTS));
+    }
+
+    @Test
+    public void slotBeingWrittenIsSkipped() throws Exception
+    {
+        CounterFile.Slot slot = file.allocateSlot("a");
+        file.publish(slot, values(5));
+        file.publish(file.allocateSlot("b"), values(6));
+
+        // Leave the sequence of slot a odd, as a writer stopped halfway through would
+        MappedByteBuffer mapped = map();
+        int sequence = (int) CounterFile.labelOffset(slot.getIndex()) + CounterFile.LABEL_SEQUENCE;
+        mapped.putLong(sequence, mapped.getLong(sequence) + 1);
+        CounterFileReader.Snapshot snapshot = new CounterFileReader(path).read();
+        assertNull(row(snapshot, "a"));
+        assertEquals(6, row(snapshot, "b").get(MetricsCounters.TOTAL_BYTES_UP));
+        assertEquals(6, snapshot.getTotal().get(MetricsCounters.TOTAL_BYTES_UP));
+
+        mapped.putLong(sequence, mapped.getLong(sequence) + 1);
+        snapshot = new CounterFileReader(path).read();
+        assertEquals(5, row(snapshot, "a").get(MetricsCounters.TOTAL_BYTES_UP));
+    }
+
+    @Test
+    public void readsNeverSeeATornSlot() throws Exception
+    {
+        final CounterFile.Slot slot = file.allocateSlot("a");
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (long n = 1; !stop.get(); n++)
+                {
+                    file.publish(slot, values(n));
+                }
+            }
+        });
+        writer.start();
+
+        CounterFileReader reader = new CounterFileReader(path);
+        int whole = 0;
+        try
+        {
+            for (int i = 0; i < 2000; i++)
+            {
+                CounterFileReader.Row row = row(reader.read(), "a");
+                if (row == null)
+                {
+                    // Still changing after every retry, which is allowed but never torn
+                    continue;
+                }
+                whole++;
+                long first = row.get(0);
+                for (int total = 1; total < MetricsCounters.TOTALS; total++)
+                {
+                    assertEquals("slot torn at total " + total, first, row.get(total));
+                }
+            }
+        }
+        finally
+        {
+            stop.set(true);
+            writer.join();
+        }
+        assertTrue("no read of the slot succeeded", whole > 0);
+    }
+
+    @Test
+    public void fileWithoutMagicIsRefused() throws Exception
+    {
+        MappedByteBuffer mapped = map();
+        mapped.putLong(CounterFile.MAGIC_OFFSET, 0);
+        try
+        {
+            new CounterFileReader(path).read();
+            fail("read a file without magic");
+        }
+        catch (IOException expected)
+        {
+            assertNotNull(expected.getMessage());
+        }
+    }
+
+    private static long[] values(long n)
+    {
+        long[] values = new long[MetricsCounters.TOTALS];
+        Arrays.fill(values, n);
+        return values;
+    }
+
+    private static CounterFileReader.Row row(CounterFileReader.Snapshot snapshot, String name)
+    {
+        for (CounterFileReader.Row row : snapshot.getRows())
+        {
+            if (row.getName().equals(name))
+            {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private MappedByteBuffer map() throws Exception
+    {
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try
+        {
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            mapped.order(ByteOrder.nativeOrder());
+            return mapped;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
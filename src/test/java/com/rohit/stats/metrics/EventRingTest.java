@@ -0,0 +1,214 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs rings of its own, whose handler checks the events instead of recording them into a
+ * set, so that the order and count of what the aggregator applies can be seen.
+ */
+public class EventRingTest
+{
+    private static final int PRODUCERS = 4;
+
+    private static final int EVENTS = 200000;
+
+    private EventRing ring;
+
+    @After
+    public void stopRing()
+    {
+        if (ring != null)
+        {
+            ring.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void eventsOfEachProducerAreAppliedInOrder() throws Exception
+    {
+        // The op is the producer, the value its own sequence
+        final long[] last = new long[PRODUCERS];
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final AtomicLong applied = new AtomicLong();
+        ring = new EventRing(64, EventRing.FullStrategy.YIELD, EventRing.WaitStrategy.YIELD, new EventRing.Handler()
+        {
+            @Override
+            public void apply(MetricsCounters set, int op, long value)
+            {
+                if (value != last[op] + 1 && error.get() == null)
+                {
+                    error.set("producer " + op + " applied " + value + " after " + last[op]);
+                }
+                last[op] = value;
+                applied.incrementAndGet();
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++)
+        {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (long n = 1; n <= EVENTS; n++)
+                    {
+                        ring.publish(null, producer, n);
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : producers)
+        {
+            thread.join();
+        }
+
+        assertTrue(ring.awaitDrained(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertEquals((long) PRODUCERS * EVENTS, applied.get());
+        assertEquals((long) PRODUCERS * EVENTS, ring.getPublishedCount());
+        assertEquals(0, ring.getDroppedCount());
+        assertTrue(ring.getMaxOccupancy() <= ring.getCapacity());
+    }
+
+    @Test
+    public void fullRingDropsEvents() throws Exception
+    {
+        BlockingHandler handler = new BlockingHandler();
+        ring = new EventRing(8, EventRing.FullStrategy.DROP, EventRing.WaitStrategy.PARK, handler);
+        ring.publish(null, 0, 1);
+        handler.awaitBlocked();
+
+        // The slot being applied is not handed back, so 7 more fit
+        for (int i = 0; i < 20; i++)
+        {
+            ring.publish(null, 0, 1);
+        }
+        assertEquals(8, ring.getPublishedCount());
+        assertEquals(13, ring.getDroppedCount());
+
+        handler.release();
+        assertTrue(ring.awaitDrained(1, TimeUnit.SECONDS));
+        assertEquals(8, handler.applied.get());
+    }
+
+    @Test
+    public void fullRingMakesProducersWait() throws Exception
+    {
+        BlockingHandler handler = new BlockingHandler();
+        ring = new EventRing(8, EventRing.FullStrategy.PARK, EventRing.WaitStrategy.PARK, handler);
+        for (int i = 0; i < 8; i++)
+        {
+            ring.publish(null, 0, 1);
+        }
+        handler.awaitBlocked();
+
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ring.publish(null, 0, 1);
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue("published into a full ring", producer.isAlive());
+
+        handler.release();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertTrue(ring.awaitDrained(1, TimeUnit.SECONDS));
+        assertEquals(9, handler.applied.get());
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void stopAppliesEveryPublishedEvent() throws Exception
+    {
+        final AtomicLong applied = new AtomicLong();
+        ring = new EventRing(1024, EventRing.FullStrategy.YIELD, EventRing.WaitStrategy.PARK, new EventRing.Handler()
+        {
+            @Override
+            public void apply(MetricsCounters set, int op, long value)
+            {
+                applied.addAndGet(value);
+            }
+        });
+        for (int i = 0; i < 1000; i++)
+        {
+            ring.publish(null, 0, 1);
+        }
+        assertTrue(ring.stop(1, TimeUnit.SECONDS));
+        assertTrue(ring.isStopped());
+        assertEquals(1000, applied.get());
+
+        // Applied by the publishing thread from now on
+        ring.publish(null, 0, 5);
+        assertEquals(1005, applied.get());
+        assertEquals(1000, ring.getPublishedCount());
+    }
+
+    /** Counts events, and holds the aggregator on the first one until released */
+    private static final class BlockingHandler implements EventRing.Handler
+    {
+        final AtomicLong applied = new AtomicLong();
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void apply(MetricsCounters set, int op, long value)
+        {
+            blocked.countDown();
+            try
+            {
+                released.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            applied.incrementAndGet();
+        }
+
+        void awaitBlocked() throws InterruptedException
+        {
+            assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        }
+
+        void release()
+        {
+            released.countDown();
+        }
+    }
+}
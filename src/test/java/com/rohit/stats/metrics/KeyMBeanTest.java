@@ -0,0 +1,128 @@
+package com.rohit.stats.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Registers the KeyMBean of a key of its own with the platform MBeanServer, whatever the JMX
+ * mode of the run, and reads its attributes back through the server, before and after a new
+ * set of the key replaces the first one.
+ */
+public class KeyMBeanTest
+{
+    private final MetricsKey key = MetricsKey.of("KEYMBEAN_TEST_" + System.nanoTime());
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private ProviderMetrics first;
+
+    private ProviderMetrics second;
+
+    @After
+    public void removeSets()
+    {
+        for (ProviderMetrics metrics : new ProviderMetrics[] { first, second })
+        {
+            if (metrics != null)
+            {
+                KeyMBean.unregister(metrics);
+            }
+        }
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void attributesAreReadInOnePass() throws Exception
+    {
+        first = ProviderMetrics.forKey(key);
+        first.incTotalBytesUp(100);
+        first.incTotalSuccessfulPutRequests();
+        first.incTotalPutTime(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        KeyMBean.register(first, first.getMetrics());
+        ObjectName name = KeyMBean.objectName(key.getKeyName());
+        assertTrue(server.isRegistered(name));
+
+        Map<String, String> types = new HashMap<String, String>();
+        for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes())
+        {
+            types.put(attribute.getName(), attribute.getType());
+        }
+        assertEquals(Long.class.getName(), types.get("total.bytes.up"));
+        assertEquals(Long.class.getName(), types.get("put.latency.p99"));
+        assertEquals(Double.class.getName(), types.get("bytes.up.rate"));
+        // The histogram itself is its operation count
+        assertEquals(Long.class.getName(), types.get("put.latency"));
+
+        AttributeList values = server.getAttributes(name, new String[] { "total.bytes.up",
+                        "total.successful.put.requests", "no.such.metric", "put.latency", "put.latency.p50",
+                        "put.latency.p99" });
+        assertEquals(5, values.size());
+        Map<String, Object> byName = new HashMap<String, Object>();
+        for (Object value : values)
+        {
+            byName.put(((Attribute) value).getName(), ((Attribute) value).getValue());
+        }
+        assertEquals(Long.valueOf(100), byName.get("total.bytes.up"));
+        assertEquals(Long.valueOf(1), byName.get("total.successful.put.requests"));
+        assertEquals(Long.valueOf(1), byName.get("put.latency"));
+        // One operation of a second, in microseconds, within the histogram's resolution
+        long p99 = (Long) byName.get("put.latency.p99");
+        assertTrue("p99 " + p99, p99 >= 900000 && p99 <= 1100000);
+        assertEquals(p99, byName.get("put.latency.p50"));
+
+        assertEquals(Long.valueOf(100), server.getAttribute(name, "total.bytes.up"));
+        try
+        {
+            server.getAttribute(name, "no.such.metric");
+            fail("unknown attribute read");
+        }
+        catch (AttributeNotFoundException expected)
+        {
+            // Left out of getAttributes(), refused by getAttribute()
+        }
+    }
+
+    @Test
+    public void replacedMBeanStaysWhenOldSetGoes() throws Exception
+    {
+        int before = KeyMBean.getRegisteredCount();
+        first = ProviderMetrics.forKey(key);
+        first.incTotalBytesUp(100);
+        KeyMBean.register(first, first.getMetrics());
+        assertEquals(before + 1, KeyMBean.getRegisteredCount());
+
+        // A new set of the key, e.g. after an eviction, takes the name over
+        ProviderMetrics.remove(key);
+        second = ProviderMetrics.forKey(key);
+        second.incTotalBytesUp(7);
+        KeyMBean.register(second, second.getMetrics());
+        assertEquals(before + 1, KeyMBean.getRegisteredCount());
+        ObjectName name = KeyMBean.objectName(key.getKeyName());
+        assertEquals(Long.valueOf(7), server.getAttribute(name, "total.bytes.up"));
+
+        // The old set going does not take the new one's MBean with it
+        KeyMBean.unregister(first);
+        assertTrue(server.isRegistered(name));
+        assertEquals(Long.valueOf(7), server.getAttribute(name, "total.bytes.up"));
+
+        KeyMBean.unregister(second);
+        assertFalse(server.isRegistered(name));
+        assertEquals(before, KeyMBean.getRegisteredCount());
+    }
+}
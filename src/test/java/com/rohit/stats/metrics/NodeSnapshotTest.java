@@ -0,0 +1,89 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Encodes frames of sets that are not registered anywhere, as those of another node, and
+ * decodes them again.
+ */
+public class NodeSnapshotTest
+{
+    /** A metric set of another node */
+    private static final class NodeSet extends MetricsCounters
+    {
+        private final MetricsKey key;
+
+        NodeSet(MetricsKey key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public MetricsKey getMetricsKey()
+        {
+            return key;
+        }
+
+        void addBytesUp(long bytes)
+        {
+            long[] amounts = new long[MetricsCounters.TOTALS];
+            amounts[MetricsCounters.TOTAL_BYTES_UP] = bytes;
+            addToCounters(amounts);
+        }
+    }
+
+    /** Keeps the bytes up of every set of the last frame, by key name and labels */
+    private static final class Received implements NodeSnapshot.Sink
+    {
+        final Map<String, Long> bytesUp = new HashMap<String, Long>();
+
+        @Override
+        public void node(String nodeId, long incarnation, long sequence)
+        {
+        }
+
+        @Override
+        public void set(String keyName, LabelSet labels, long[] totals, NodeSnapshot.Buckets put,
+                        NodeSnapshot.Buckets get)
+        {
+            bytesUp.put(keyName + "{" + labels + "}", totals[MetricsCounters.TOTAL_BYTES_UP]);
+        }
+    }
+
+    @Test
+    public void keysSharingANameKeepTheirOwnBase()
+    {
+        NodeSet eu = new NodeSet(new MetricsKey("SHARED", LabelSet.of("region", "eu")));
+        NodeSet us = new NodeSet(new MetricsKey("SHARED", LabelSet.of("region", "us")));
+        NodeSnapshot.Encoder encoder = new NodeSnapshot.Encoder("a", 1);
+        NodeSnapshot.Decoder decoder = new NodeSnapshot.Decoder();
+        Received received = new Received();
+
+        eu.addBytesUp(5);
+        us.addBytesUp(7);
+        decode(encoder.encode(Arrays.asList(eu, us)), decoder, received);
+        assertEquals(Long.valueOf(5), received.bytesUp.get("SHARED{region=eu}"));
+        assertEquals(Long.valueOf(7), received.bytesUp.get("SHARED{region=us}"));
+
+        // Differences from now on, each from the base of its own set
+        eu.addBytesUp(1);
+        us.addBytesUp(2);
+        decode(encoder.encode(Arrays.asList(eu, us)), decoder, received);
+        assertEquals(Long.valueOf(6), received.bytesUp.get("SHARED{region=eu}"));
+        assertEquals(Long.valueOf(9), received.bytesUp.get("SHARED{region=us}"));
+    }
+
+    private static void decode(ByteBuffer frame, NodeSnapshot.Decoder decoder, NodeSnapshot.Sink sink)
+    {
+        frame.getInt();
+        decoder.decode(frame.slice(), sink);
+    }
+}
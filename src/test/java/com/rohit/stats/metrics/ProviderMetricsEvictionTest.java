@@ -0,0 +1,124 @@
+package com.rohit.stats.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Evicts the set of one key over and over while request threads keep looking it up with
+ * forKey() and updating it, and checks that the overall totals still count every update
+ * once the retired sets are flushed.
+ */
+public class ProviderMetricsEvictionTest
+{
+    private static final int WRITERS = 4;
+
+    private static final int UPDATES = 500000;
+
+    private final MetricsKey key = MetricsKey.of("EVICTION_TEST_" + System.nanoTime());
+
+    @After
+    public void removeKey()
+    {
+        ProviderMetrics.remove(key);
+        OverallMetrics.flushRetired();
+    }
+
+    @Test
+    public void totalsAreExactAcrossConcurrentEviction() throws Exception
+    {
+        OverallMetrics overall = OverallMetrics.getOverallMetrics();
+        long[] before = new long[MetricsCounters.TOTALS];
+        overall.getTotals(before);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(WRITERS);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++)
+        {
+            Thread writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int n = 0; n < UPDATES; n++)
+                        {
+                            ProviderMetrics metrics = ProviderMetrics.forKey(MetricsKey.of(key.getKeyName()));
+                            metrics.incTotalBytesUp(3);
+                            metrics.incTotalSuccessfulPutRequests();
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        final AtomicLong evictions = new AtomicLong();
+        Thread evictor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (done.getCount() > 0)
+                {
+                    ProviderMetrics metrics = ProviderMetrics.find(key);
+                    if (metrics != null && ProviderMetrics.evict(metrics))
+                    {
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        });
+        evictor.start();
+        start.countDown();
+        for (Thread writer : writers)
+        {
+            writer.join();
+        }
+        evictor.join();
+        assertTrue("the set was never evicted", evictions.get() > 0);
+
+        OverallMetrics.flushRetired();
+        long[] after = new long[MetricsCounters.TOTALS];
+        overall.getTotals(after);
+        assertEquals(3L * WRITERS * UPDATES, after[MetricsCounters.TOTAL_BYTES_UP] - before[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals((long) WRITERS * UPDATES,
+                        after[MetricsCounters.TOTAL_PUT_REQUESTS] - before[MetricsCounters.TOTAL_PUT_REQUESTS]);
+
+        // The set built after the last eviction owns every one of its names in the registry
+        ProviderMetrics live = ProviderMetrics.forKey(key);
+        MetricRegistry registry = OverallMetrics.getRegistry();
+        String name = MetricRegistry.name(key.getKeyName(), MetricsConstants.TotalBytesUp);
+        for (Map.Entry<String,Metric> entry : live.getMetrics().entrySet())
+        {
+            assertSame(entry.getKey(), entry.getValue(), registry.getMetrics().get(entry.getKey()));
+        }
+        assertSame(live.getMetricsKey(), MetricsKey.of(key.getKeyName()));
+        assertTrue(registry.getMetrics().containsKey(name));
+    }
+}
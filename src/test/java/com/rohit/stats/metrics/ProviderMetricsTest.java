@@ -0,0 +1,185 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import com.rohit.stats.monitoring.MetricsManager;
+import com.rohit.stats.monitoring.MetricsOption;
+import com.rohit.stats.monitoring.MetricsResult;
+import com.rohit.stats.monitoring.MetricsSnapshot;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Looks up the sets of labeled keys of its own, and times their operations with and without
+ * latency sampling, reading the results back through MetricsManager.
+ */
+public class ProviderMetricsTest
+{
+    private static final int OPERATIONS = 40000;
+
+    private final String name = "PROVIDER_TEST_" + System.nanoTime();
+
+    private final MetricsKey key = MetricsKey.of(name, LabelSet.of("provider", "aws", "region", name));
+
+    private final MetricsManager manager = MetricsManager.getMetricsManager();
+
+    @After
+    public void removeSet()
+    {
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void labeledKeyIsFoundByNameAndLabels() throws Exception
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        metrics.incTotalBytesUp(100);
+
+        assertSame(key, MetricsKey.of(name));
+        assertSame(key, MetricsKey.of(name, LabelSet.parse("region=" + name + ",provider=aws")));
+        assertSame(metrics, ProviderMetrics.find(MetricsKey.of(name)));
+        assertSame(metrics, ProviderMetrics.forKey(MetricsKey.of(name, key.getLabels())));
+        try
+        {
+            MetricsKey.of(name, LabelSet.of("provider", "azure"));
+            fail("key found with other labels");
+        }
+        catch (IllegalArgumentException expected)
+        {
+            // The key keeps the labels it was created with
+        }
+
+        MetricsResult result = manager.getMetrics(Arrays.asList(MetricsOption.BYTES_UP), key);
+        assertEquals(Long.valueOf(100), result.getBytesUp());
+        Map<LabelSet, MetricsSnapshot> groups = manager.rollUp(EnumSet.of(MetricsOption.BYTES_UP),
+                        LabelSet.of("region", name), "provider");
+        assertEquals(1, groups.size());
+        assertEquals(100, groups.get(LabelSet.of("provider", "aws")).get(MetricsOption.BYTES_UP));
+    }
+
+    @Test
+    public void lookupWithoutSetKeepsNoKey()
+    {
+        // Looked up by name only, as a reader would, while the name has no set
+        MetricsKey probe = MetricsKey.of(name);
+        assertNotSame(probe, MetricsKey.of(name));
+        assertEquals(probe, key);
+        assertNull(ProviderMetrics.find(probe));
+
+        // So the labels of the set created later are not refused
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        assertSame(key, metrics.getMetricsKey());
+        assertSame(key, MetricsKey.of(name));
+
+        // Once the set is gone, its labels go with it
+        ProviderMetrics.remove(key);
+        MetricsKey.of(name);
+        MetricsKey relabeled = MetricsKey.of(name, LabelSet.of("provider", "azure"));
+        assertSame(relabeled, ProviderMetrics.forKey(relabeled).getMetricsKey());
+        assertSame(relabeled, MetricsKey.of(name));
+    }
+
+    @Test
+    public void everyOperationIsTimedByDefault() throws Exception
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        assertEquals(1, metrics.getLatencySampleEvery());
+        for (int i = 0; i < 1000; i++)
+        {
+            long token = metrics.startPutTime();
+            assertNotEquals(MetricsCounters.NOT_SAMPLED, token);
+            metrics.incTotalPutTime(token);
+        }
+
+        long[] totals = totals(metrics);
+        assertEquals(1000, totals[MetricsCounters.TOTAL_PUT_TIMED]);
+        MetricsResult result = manager.getMetrics(
+                        Arrays.asList(MetricsOption.LATENCY_SAMPLE_EVERY, MetricsOption.PUT_LATENCY_SAMPLE_ERROR), key);
+        assertEquals(Long.valueOf(1), result.getLatencySampleEvery());
+        assertEquals(Long.valueOf(0), result.getPutLatencySampleError());
+    }
+
+    @Test
+    public void sampledKeyTimesOneInNAndScales() throws Exception
+    {
+        // Set before the key has a set, which picks the interval up when created
+        ProviderMetrics.setLatencySampling(key, 4);
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        assertEquals(4, metrics.getLatencySampleEvery());
+
+        int sampled = 0;
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            long token = metrics.startPutTime();
+            if (token != MetricsCounters.NOT_SAMPLED)
+            {
+                sampled++;
+            }
+            metrics.incTotalPutTime(token);
+            metrics.incTotalSuccessfulPutRequests();
+        }
+
+        // Binomial with a standard deviation of about 87 around 10000
+        assertTrue("sampled " + sampled, Math.abs(sampled - OPERATIONS / 4) < 1000);
+        long[] totals = totals(metrics);
+        assertEquals(OPERATIONS, totals[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(4L * sampled, totals[MetricsCounters.TOTAL_PUT_TIMED]);
+
+        MetricsResult result = manager.getMetrics(
+                        Arrays.asList(MetricsOption.LATENCY_SAMPLE_EVERY, MetricsOption.PUT_LATENCY_SAMPLE_ERROR,
+                                        MetricsOption.GET_LATENCY_SAMPLE_ERROR), key);
+        assertEquals(Long.valueOf(4), result.getLatencySampleEvery());
+        long error = Math.round(1e6 * Math.sqrt(12.0 * sampled) / (4.0 * sampled));
+        assertEquals(Long.valueOf(error), result.getPutLatencySampleError());
+        assertEquals(Long.valueOf(0), result.getGetLatencySampleError());
+    }
+
+    @Test
+    public void samplingAppliesToExistingSet()
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        ProviderMetrics.setLatencySampling(key, 1000000);
+        assertEquals(1000000, metrics.getLatencySampleEvery());
+
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            long token = metrics.startGetTime();
+            if (token != MetricsCounters.NOT_SAMPLED)
+            {
+                sampled++;
+            }
+            metrics.incTotalGetTime(token);
+        }
+        assertEquals(1000000L * sampled, totals(metrics)[MetricsCounters.TOTAL_GET_TIMED]);
+
+        try
+        {
+            ProviderMetrics.setLatencySampling(key, 0);
+            fail("interval 0 taken");
+        }
+        catch (IllegalArgumentException expected)
+        {
+            assertEquals(1000000, metrics.getLatencySampleEvery());
+        }
+        ProviderMetrics.setLatencySampling(key, 1);
+    }
+
+    private static long[] totals(MetricsCounters metrics)
+    {
+        long[] totals = new long[MetricsCounters.TOTALS];
+        metrics.getTotals(totals);
+        return totals;
+    }
+}
@@ -0,0 +1,199 @@
+package com.rohit.stats.metrics;
+
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes journals to a directory of its own, reopens them as a restart would, and checks
+ * what is restored, including after the last record was torn or corrupted.
+ */
+public class SnapshotJournalTest
+{
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    private final String prefix = "JOURNAL_TEST_" + System.nanoTime() + "_";
+
+    private File dir;
+
+    private SnapshotJournal journal;
+
+    @Before
+    public void createDir() throws Exception
+    {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void closeJournal()
+    {
+        SnapshotJournal current = SnapshotJournal.current();
+        if (current != null)
+        {
+            current.close();
+        }
+        for (ProviderMetrics metrics : ProviderMetrics.getAll())
+        {
+            if (metrics.getMetricsKey().getKeyName().startsWith(prefix))
+            {
+                ProviderMetrics.remove(metrics.getMetricsKey());
+            }
+        }
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void onlyChangedSetsAreWritten() throws Exception
+    {
+        ProviderMetrics a = set("a");
+        set("b").incTotalBytesUp(1);
+        set("c").incTotalBytesUp(1);
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        assertEquals(1, journal.getFullSnapshotCount());
+        long records = journal.getSnapshotCount();
+
+        a.incTotalBytesUp(5);
+        assertTrue(journal.snapshot());
+        // The overall totals and a, b and c are left out
+        assertEquals(2, journal.getLastSetCount());
+
+        long skipped = journal.getSkippedCount();
+        assertFalse(journal.snapshot());
+        assertEquals(skipped + 1, journal.getSkippedCount());
+        assertEquals(records + 1, journal.getSnapshotCount());
+    }
+
+    @Test
+    public void keysAreRestoredWhenTheirSetIsCreated() throws Exception
+    {
+        set("a").incTotalBytesUp(11);
+        set("a").incTotalSuccessfulPutRequests();
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        set("b").incTotalBytesDown(13);
+        journal.snapshot();
+        journal.close();
+
+        long[] journaled = totals(OverallMetrics.getOverallMetrics());
+        ProviderMetrics.remove(key("a"));
+        ProviderMetrics.remove(key("b"));
+
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        // Opening creates no sets, the overall totals get everything at once
+        assertNull(ProviderMetrics.find(key("a")));
+        assertNull(ProviderMetrics.find(key("b")));
+        long[] overall = totals(OverallMetrics.getOverallMetrics());
+        assertEquals(2 * journaled[MetricsCounters.TOTAL_BYTES_UP], overall[MetricsCounters.TOTAL_BYTES_UP]);
+        int pending = journal.getPendingCount();
+
+        assertEquals(11, totals(set("a"))[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals(1, totals(set("a"))[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(13, totals(set("b"))[MetricsCounters.TOTAL_BYTES_DOWN]);
+        assertEquals(pending - 2, journal.getPendingCount());
+        // Taken by the sets, not added a second time
+        assertArrayEquals(overall, totals(OverallMetrics.getOverallMetrics()));
+    }
+
+    @Test
+    public void removedKeysAreNotRestored() throws Exception
+    {
+        set("a").incTotalBytesUp(3);
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        ProviderMetrics.remove(key("a"));
+        OverallMetrics.flushRetired();
+        assertTrue(journal.snapshot());
+        journal.close();
+
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        assertEquals(0, totals(set("a"))[MetricsCounters.TOTAL_BYTES_UP]);
+    }
+
+    @Test
+    public void tornRecordIsNotRestored() throws Exception
+    {
+        restoreAfterDamagingLastRecord(0);
+    }
+
+    @Test
+    public void corruptRecordIsNotRestored() throws Exception
+    {
+        restoreAfterDamagingLastRecord(SnapshotJournal.RECORD_HEADER_BYTES + 1);
+    }
+
+    /*
+     * Journals 5 then 12 for one key and damages the byte at the given offset of the last
+     *    record, which must leave the 5 of the record before it.
+     */
+    private void restoreAfterDamagingLastRecord(int offset) throws Exception
+    {
+        ProviderMetrics a = set("a");
+        a.incTotalBytesUp(5);
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        a.incTotalBytesUp(7);
+        assertTrue(journal.snapshot());
+        journal.close();
+        ProviderMetrics.remove(key("a"));
+
+        File[] segments = dir.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+        try
+        {
+            MappedByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            int last = -1;
+            int pos = SnapshotJournal.SEGMENT_HEADER_BYTES;
+            while (segment.getInt(pos) == SnapshotJournal.RECORD_MAGIC)
+            {
+                last = pos;
+                pos += SnapshotJournal.RECORD_HEADER_BYTES + segment.getInt(pos + 4) + SnapshotJournal.RECORD_TRAILER_BYTES;
+            }
+            assertTrue(last > SnapshotJournal.SEGMENT_HEADER_BYTES);
+            segment.put(last + offset, (byte) ~segment.get(last + offset));
+            segment.force();
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        journal = SnapshotJournal.open(dir, SEGMENT_BYTES, false);
+        assertEquals(5, totals(set("a"))[MetricsCounters.TOTAL_BYTES_UP]);
+    }
+
+    private MetricsKey key(String name)
+    {
+        return MetricsKey.of(prefix + name);
+    }
+
+    private ProviderMetrics set(String name)
+    {
+        return ProviderMetrics.forKey(key(name));
+    }
+
+    private static long[] totals(MetricsCounters metrics)
+    {
+        long[] totals = new long[MetricsCounters.TOTALS];
+        metrics.getTotals(totals);
+        return totals;
+    }
+}
@@ -0,0 +1,142 @@
+package com.rohit.stats.metrics.interfaces;
+
+import com.rohit.stats.counters.SizeClassStats;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.OverallMetrics;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.monitoring.MetricsManager;
+import com.rohit.stats.monitoring.MetricsOption;
+import com.rohit.stats.monitoring.MetricsResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams transfers on a key of its own, chunk by chunk, and checks the byte counters and
+ * in-flight gauges while they run, and what each outcome counts once they end.
+ */
+public class TransferTest
+{
+    private static final List<MetricsOption> OPTIONS = Arrays.asList(MetricsOption.BYTES_UP,
+                    MetricsOption.TOTAL_SUCCESSFUL_PUTS, MetricsOption.PUT_TRANSFERS_IN_FLIGHT,
+                    MetricsOption.PUT_BYTES_IN_FLIGHT, MetricsOption.FAILED_PUT_TRANSFERS,
+                    MetricsOption.ABANDONED_PUT_TRANSFERS, MetricsOption.BYTES_DOWN,
+                    MetricsOption.TOTAL_SUCCESSFUL_GETS, MetricsOption.GET_TRANSFERS_IN_FLIGHT,
+                    MetricsOption.GET_BYTES_IN_FLIGHT, MetricsOption.FAILED_GET_TRANSFERS,
+                    MetricsOption.ABANDONED_GET_TRANSFERS);
+
+    private final MetricsKey key = MetricsKey.of("TRANSFER_TEST_" + System.nanoTime());
+
+    private final MetricsManager manager = MetricsManager.getMetricsManager();
+
+    @After
+    public void removeSet()
+    {
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void chunksCountWhileTransferRuns() throws Exception
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        MetricsCounters overall = OverallMetrics.getOverallMetrics();
+        long overallInFlight = overall.inFlight(true, false);
+
+        Transfer transfer = metrics.startPutTransfer();
+        transfer.chunk(1000);
+        transfer.chunk(500);
+
+        MetricsResult running = read();
+        assertEquals(Long.valueOf(1500), running.getBytesUp());
+        assertEquals(Long.valueOf(0), running.getTotalSuccessfulPuts());
+        assertEquals(Long.valueOf(1), running.getPutTransfersInFlight());
+        assertEquals(Long.valueOf(1500), running.getPutBytesInFlight());
+        assertEquals(overallInFlight + 1, overall.inFlight(true, false));
+        assertEquals(Transfer.Outcome.OPEN, transfer.getOutcome());
+
+        transfer.chunk(548);
+        assertTrue(transfer.succeeded());
+        assertFalse(transfer.failed());
+        transfer.close();
+
+        MetricsResult done = read();
+        assertEquals(Transfer.Outcome.SUCCEEDED, transfer.getOutcome());
+        assertEquals(Long.valueOf(2048), done.getBytesUp());
+        assertEquals(Long.valueOf(1), done.getTotalSuccessfulPuts());
+        assertEquals(Long.valueOf(0), done.getPutTransfersInFlight());
+        assertEquals(Long.valueOf(0), done.getPutBytesInFlight());
+        assertEquals(Long.valueOf(0), done.getFailedPutTransfers());
+        assertEquals(Long.valueOf(0), done.getAbandonedPutTransfers());
+        assertEquals(overallInFlight, overall.inFlight(true, false));
+
+        // Timed and counted as one blob of its size class
+        long[] totals = new long[MetricsCounters.TOTALS];
+        metrics.getTotals(totals);
+        assertEquals(1, totals[MetricsCounters.TOTAL_PUT_TIMED]);
+        assertEquals(1, metrics.getPutSizes().getOps(SizeClassStats.classOf(2048)));
+        assertEquals(2048, metrics.getPutSizes().getBytes(SizeClassStats.classOf(2048)));
+    }
+
+    @Test
+    public void failedAndAbandonedAreCountedApart() throws Exception
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+
+        Transfer failed = metrics.startGetTransfer();
+        failed.chunk(300);
+        Transfer abandoned = metrics.startGetTransfer();
+        abandoned.chunk(200);
+        assertEquals(Long.valueOf(2), read().getGetTransfersInFlight());
+        assertEquals(Long.valueOf(500), read().getGetBytesInFlight());
+
+        assertTrue(failed.failed());
+        abandoned.close();
+        assertFalse(abandoned.succeeded());
+
+        MetricsResult result = read();
+        assertEquals(Transfer.Outcome.FAILED, failed.getOutcome());
+        assertEquals(Transfer.Outcome.ABANDONED, abandoned.getOutcome());
+        // The bytes moved stay counted, but neither is a request
+        assertEquals(Long.valueOf(500), result.getBytesDown());
+        assertEquals(Long.valueOf(0), result.getTotalSuccessfulGets());
+        assertEquals(Long.valueOf(1), result.getFailedGetTransfers());
+        assertEquals(Long.valueOf(1), result.getAbandonedGetTransfers());
+        assertEquals(Long.valueOf(0), result.getGetTransfersInFlight());
+        assertEquals(Long.valueOf(0), result.getGetBytesInFlight());
+        assertEquals(0, metrics.getGetSizes().getOps(SizeClassStats.classOf(300)));
+    }
+
+    @Test
+    public void tryWithResourcesLeavesNothingOpen() throws Exception
+    {
+        ProviderMetrics metrics = ProviderMetrics.forKey(key);
+        try
+        {
+            try (Transfer transfer = metrics.startPutTransfer())
+            {
+                transfer.chunk(64);
+                throw new IllegalStateException("connection reset");
+            }
+        }
+        catch (IllegalStateException expected)
+        {
+            // The transfer was closed on the way out
+        }
+
+        MetricsResult result = read();
+        assertEquals(Long.valueOf(1), result.getAbandonedPutTransfers());
+        assertEquals(Long.valueOf(0), result.getPutTransfersInFlight());
+        assertEquals(Long.valueOf(64), result.getBytesUp());
+    }
+
+    private MetricsResult read() throws Exception
+    {
+        return manager.getMetrics(OPTIONS, key);
+    }
+}
@@ -0,0 +1,275 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.LabelSet;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.NodeSnapshot;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsCounters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a ClusterAggregator on the loopback address and connects several nodes to it, each
+ * sending the NodeSnapshot frames of its own metric set as a ClusterPusher does. The sets of
+ * the nodes are kept apart from the ProviderMetrics of this JVM, where the aggregator merges
+ * them, as they would be in a JVM of their own.
+ */
+public class ClusterAggregatorTest
+{
+    private static final long WAIT_MILLIS = 5000;
+
+    private ClusterAggregator aggregator;
+
+    private MetricsKey key;
+
+    /** A metric set not registered anywhere, as the set of a node lives in another JVM */
+    private static final class NodeSet extends MetricsCounters
+    {
+        private final MetricsKey key;
+
+        NodeSet(MetricsKey key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public MetricsKey getMetricsKey()
+        {
+            return key;
+        }
+
+        void add(long[] amounts)
+        {
+            addToCounters(amounts);
+        }
+    }
+
+    /** One node: its metric set, and the connection its frames go out on */
+    private final class Node
+    {
+        final NodeSet set = new NodeSet(key);
+
+        final NodeSnapshot.Encoder encoder;
+
+        SocketChannel socket;
+
+        Node(String nodeId, long incarnation) throws IOException
+        {
+            encoder = new NodeSnapshot.Encoder(nodeId, incarnation);
+            socket = connect();
+        }
+
+        /** Opens a new connection, whose first frame carries full values */
+        void reconnect() throws IOException
+        {
+            socket.close();
+            socket = connect();
+            encoder.reset();
+        }
+
+        private SocketChannel connect() throws IOException
+        {
+            return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), aggregator.getPort()));
+        }
+
+        void put(long bytes, long nanos)
+        {
+            long[] amounts = new long[MetricsCounters.TOTALS];
+            amounts[MetricsCounters.TOTAL_BYTES_UP] = bytes;
+            amounts[MetricsCounters.TOTAL_PUT_REQUESTS] = 1;
+            amounts[MetricsCounters.TOTAL_PUT_NANOS] = nanos;
+            amounts[MetricsCounters.TOTAL_PUT_TIMED] = 1;
+            set.add(amounts);
+            set.getPutLatency().record(nanos);
+        }
+
+        void push() throws IOException, InterruptedException
+        {
+            push(set);
+        }
+
+        void push(MetricsCounters... sets) throws IOException, InterruptedException
+        {
+            long frames = aggregator.getFrameCount();
+            ByteBuffer frame = encoder.encode(Arrays.asList(sets));
+            while (frame.hasRemaining())
+            {
+                socket.write(frame);
+            }
+            awaitFrames(frames + 1);
+        }
+
+        void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+
+    @Before
+    public void startAggregator() throws IOException
+    {
+        aggregator = new ClusterAggregator(0);
+        aggregator.start();
+        key = MetricsKey.of("CLUSTER_TEST_" + System.nanoTime());
+    }
+
+    @After
+    public void stopAggregator()
+    {
+        aggregator.stop();
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void totalsOfAllNodesAreMerged() throws Exception
+    {
+        Node a = new Node("a", 1);
+        Node b = new Node("b", 1);
+        Node c = new Node("c", 1);
+        a.put(100, 1000000);
+        a.put(200, 2000000);
+        b.put(50, 3000000);
+        a.push();
+        b.push();
+        c.push();
+
+        long[] totals = merged();
+        assertEquals(350, totals[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals(3, totals[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(6000000, totals[MetricsCounters.TOTAL_PUT_NANOS]);
+        assertEquals(3, totals[MetricsCounters.TOTAL_PUT_TIMED]);
+        assertEquals(3, ProviderMetrics.find(key).getPutLatency().getTotalCount());
+
+        // Later frames carry differences, b sends its set unchanged
+        a.put(1000, 1000000);
+        c.put(7, 1000000);
+        a.push();
+        b.push();
+        c.push();
+
+        totals = merged();
+        assertEquals(1357, totals[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals(5, totals[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(5, ProviderMetrics.find(key).getPutLatency().getTotalCount());
+        assertEquals(0, aggregator.getResetCount());
+        a.close();
+        b.close();
+        c.close();
+    }
+
+    @Test
+    public void restartedNodeCountsFromZero() throws Exception
+    {
+        Node a = new Node("a", 1);
+        Node b = new Node("b", 1);
+        a.put(100, 1000000);
+        b.put(10, 1000000);
+        a.push();
+        b.push();
+        a.close();
+
+        // The same node id restarts, and is already past its old totals by its first push
+        Node restarted = new Node("a", 2);
+        restarted.put(300, 1000000);
+        restarted.put(400, 1000000);
+        restarted.push();
+
+        long[] totals = merged();
+        assertEquals(810, totals[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals(4, totals[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(4, ProviderMetrics.find(key).getPutLatency().getTotalCount());
+        assertEquals(1, aggregator.getResetCount());
+
+        restarted.put(5, 1000000);
+        restarted.push();
+        assertEquals(815, merged()[MetricsCounters.TOTAL_BYTES_UP]);
+        restarted.close();
+        b.close();
+    }
+
+    @Test
+    public void reconnectedNodeIsNotCountedTwice() throws Exception
+    {
+        Node a = new Node("a", 1);
+        a.put(100, 1000000);
+        a.push();
+
+        // A new connection of the same process starts again with full values
+        a.reconnect();
+        a.put(20, 1000000);
+        a.push();
+
+        long[] totals = merged();
+        assertEquals(120, totals[MetricsCounters.TOTAL_BYTES_UP]);
+        assertEquals(2, totals[MetricsCounters.TOTAL_PUT_REQUESTS]);
+        assertEquals(2, ProviderMetrics.find(key).getPutLatency().getTotalCount());
+        assertEquals(0, aggregator.getResetCount());
+        a.close();
+    }
+
+    @Test
+    public void keyWithOtherLabelsIsSkipped() throws Exception
+    {
+        MetricsKey labeled = MetricsKey.of("CLUSTER_TEST_LABELED_" + System.nanoTime(), LabelSet.of("region", "eu"));
+        ProviderMetrics.forKey(labeled);
+        try
+        {
+            // The node has the key with other labels, and the key of the test in the same frame
+            Node a = new Node("a", 1);
+            NodeSet other = new NodeSet(new MetricsKey(labeled.getKeyName(), LabelSet.of("region", "us")));
+            long[] amounts = new long[MetricsCounters.TOTALS];
+            amounts[MetricsCounters.TOTAL_BYTES_UP] = 9;
+            other.add(amounts);
+            a.put(100, 1000000);
+            a.push(other, a.set);
+            assertEquals(1, aggregator.getSkippedCount());
+            assertEquals(100, merged()[MetricsCounters.TOTAL_BYTES_UP]);
+            long[] local = new long[MetricsCounters.TOTALS];
+            ProviderMetrics.find(labeled).getTotals(local);
+            assertEquals(0, local[MetricsCounters.TOTAL_BYTES_UP]);
+
+            // Still connected
+            a.put(20, 1000000);
+            a.push(other, a.set);
+            assertEquals(2, aggregator.getSkippedCount());
+            assertEquals(120, merged()[MetricsCounters.TOTAL_BYTES_UP]);
+            a.close();
+        }
+        finally
+        {
+            ProviderMetrics.remove(labeled);
+        }
+    }
+
+    private long[] merged()
+    {
+        ProviderMetrics metrics = ProviderMetrics.find(key);
+        assertTrue("no set merged for " + key.getKeyName(), metrics != null);
+        long[] totals = new long[MetricsCounters.TOTALS];
+        metrics.getTotals(totals);
+        return totals;
+    }
+
+    private void awaitFrames(long frames) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+        while (aggregator.getFrameCount() < frames)
+        {
+            assertTrue("aggregator merged " + aggregator.getFrameCount() + " of " + frames + " frames",
+                            System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
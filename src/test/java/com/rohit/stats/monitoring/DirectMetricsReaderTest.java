@@ -0,0 +1,61 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Resolves keys against a MetricRegistry of its own, to check what the reader keeps.
+ */
+public class DirectMetricsReaderTest
+{
+    private final MetricRegistry registry = new MetricRegistry();
+
+    private final DirectMetricsReader reader = new DirectMetricsReader(registry);
+
+    @After
+    public void close()
+    {
+        reader.close();
+    }
+
+    @Test
+    public void unknownKeysAreNotKept()
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            Metric[] metrics = reader.resolve("UNKNOWN_" + i);
+            assertNull(metrics[MetricsOption.BYTES_UP.ordinal()]);
+        }
+        assertEquals(0, reader.getResolvedCount());
+    }
+
+    @Test
+    public void keyLeavesWithItsMetrics()
+    {
+        String name = MetricRegistry.name("KEY", MetricsConstants.TotalBytesUp);
+        Counter counter = registry.counter(name);
+        counter.inc(7);
+
+        MetricsResult result = new MetricsResult();
+        reader.read(Collections.singletonList(MetricsOption.BYTES_UP), "KEY", result);
+        assertEquals(Long.valueOf(7), result.getBytesUp());
+        assertSame(counter, reader.resolve("KEY")[MetricsOption.BYTES_UP.ordinal()]);
+        assertEquals(1, reader.getResolvedCount());
+
+        // Removing the set's metrics drops the key, and a read then keeps nothing
+        registry.remove(name);
+        assertEquals(0, reader.getResolvedCount());
+        assertNull(reader.resolve("KEY")[MetricsOption.BYTES_UP.ordinal()]);
+        assertEquals(0, reader.getResolvedCount());
+    }
+}
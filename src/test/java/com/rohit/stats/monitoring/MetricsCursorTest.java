@@ -0,0 +1,118 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.ChangeTracker;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads the changes of a key of its own through cursors, while its set is updated, removed
+ * and created again.
+ */
+public class MetricsCursorTest
+{
+    private static final EnumSet<MetricsOption> OPTIONS = EnumSet.of(MetricsOption.BYTES_UP,
+                    MetricsOption.TOTAL_SUCCESSFUL_PUTS);
+
+    private final MetricsKey key = MetricsKey.of("CURSOR_TEST_" + System.nanoTime());
+
+    private final MetricsManager manager = MetricsManager.getMetricsManager();
+
+    private final List<MetricsCursor> cursors = new ArrayList<MetricsCursor>();
+
+    @After
+    public void closeCursors()
+    {
+        for (MetricsCursor cursor : cursors)
+        {
+            cursor.close();
+        }
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void changesBeforeRemovalAreCarried()
+    {
+        MetricsCursor cursor = open();
+        ProviderMetrics.forKey(key).incTotalBytesUp(10);
+        assertEquals(10, cursor.read().get(key).get(MetricsOption.BYTES_UP));
+
+        // Gained and removed between two reads, with no set of the key left
+        ProviderMetrics.forKey(key).incTotalBytesUp(5);
+        ProviderMetrics.remove(key);
+        MetricsSnapshot delta = cursor.read().get(key);
+        assertEquals(5, delta.get(MetricsOption.BYTES_UP));
+        assertFalse(delta.has(MetricsOption.LATENCY_SAMPLE_EVERY));
+        assertNull(cursor.read().get(key));
+
+        // Gained and removed, and a new set of the key counting already
+        ProviderMetrics.forKey(key).incTotalBytesUp(2);
+        assertEquals(2, cursor.read().get(key).get(MetricsOption.BYTES_UP));
+        ProviderMetrics.forKey(key).incTotalBytesUp(4);
+        ProviderMetrics.remove(key);
+        ProviderMetrics.forKey(key).incTotalBytesUp(3);
+        ProviderMetrics.forKey(key).incTotalSuccessfulPutRequests();
+        delta = cursor.read().get(key);
+        assertEquals(7, delta.get(MetricsOption.BYTES_UP));
+        assertEquals(1, delta.get(MetricsOption.TOTAL_SUCCESSFUL_PUTS));
+        assertNull(cursor.read().get(key));
+    }
+
+    @Test
+    public void droppedCursorGivesBackItsTracker() throws Exception
+    {
+        int before = ChangeTracker.getOwnedCount();
+        manager.openCursor(OPTIONS);
+        assertEquals(before + 1, ChangeTracker.getOwnedCount());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ChangeTracker.getOwnedCount() > before)
+        {
+            assertTrue("tracker of a dropped cursor still open", System.nanoTime() < deadline);
+            System.gc();
+            Thread.sleep(10);
+            // Opening frees the trackers of collected owners
+            manager.openCursor(OPTIONS).close();
+        }
+    }
+
+    @Test
+    public void cursorsLeaveTheReservedTrackers()
+    {
+        while (ChangeTracker.getOwnedCount() < ChangeTracker.MAX_OWNED_TRACKERS)
+        {
+            open();
+        }
+        try
+        {
+            open();
+            fail("opened more than " + ChangeTracker.MAX_OWNED_TRACKERS + " cursors");
+        }
+        catch (IllegalStateException expected)
+        {
+            assertTrue(expected.getMessage().contains(String.valueOf(ChangeTracker.MAX_OWNED_TRACKERS)));
+        }
+        // The library's own consumers still get theirs
+        ChangeTracker.open().close();
+    }
+
+    private MetricsCursor open()
+    {
+        MetricsCursor cursor = manager.openCursor(OPTIONS);
+        cursors.add(cursor);
+        return cursor;
+    }
+}
@@ -0,0 +1,64 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.LabelSet;
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders the registered sets, including a labeled key of its own, and looks for the samples
+ * of that key in the text.
+ */
+public class PrometheusRendererTest
+{
+    private final String name = "PROMETHEUS_TEST_" + System.nanoTime();
+
+    private final MetricsKey key = MetricsKey.of(name,
+                    LabelSet.of("provider", "aws", "region", "eu \"west\"", "key", "k", "2.zone", "a"));
+
+    @After
+    public void removeSet()
+    {
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void labelsOfKeyAreRendered()
+    {
+        ProviderMetrics.forKey(key).incTotalBytesUp(1024);
+
+        String text = render();
+        String line = "metrics_bytes_up{key=\"" + name + "\",_2_zone=\"a\",label_key=\"k\",provider=\"aws\","
+                        + "region=\"eu \\\"west\\\"\"} 1024\n";
+        assertTrue(text, text.contains(line));
+    }
+
+    @Test
+    public void keyWithoutLabelsHasOnlyItsName()
+    {
+        MetricsKey plain = MetricsKey.of(name + "_PLAIN");
+        try
+        {
+            ProviderMetrics.forKey(plain).incTotalBytesUp(3);
+
+            String text = render();
+            assertTrue(text, text.contains("metrics_bytes_up{key=\"" + name + "_PLAIN\"} 3\n"));
+        }
+        finally
+        {
+            ProviderMetrics.remove(plain);
+        }
+    }
+
+    private static String render()
+    {
+        PrometheusRenderer renderer = new PrometheusRenderer(MetricsManager.getMetricsManager().getDirectReader());
+        int length = renderer.render();
+        return new String(renderer.getBuffer(), 0, length, StandardCharsets.UTF_8);
+    }
+}
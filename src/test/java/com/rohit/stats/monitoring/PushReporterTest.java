@@ -0,0 +1,252 @@
+package com.rohit.stats.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.rohit.stats.counters.LongGauge;
+import com.rohit.stats.metrics.OverallMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pushes to a DatagramSocket on the loopback address and checks the datagrams received. The
+ * reporters are started with an interval of an hour and flushed by the test itself.
+ */
+public class PushReporterTest
+{
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final MetricRegistry registry = OverallMetrics.getRegistry();
+
+    private DatagramSocket collector;
+
+    private PushReporter reporter;
+
+    private final List<String> registered = new ArrayList<String>();
+
+    @Before
+    public void openCollector() throws Exception
+    {
+        collector = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        collector.setSoTimeout(200);
+    }
+
+    @After
+    public void close()
+    {
+        if (reporter != null)
+        {
+            reporter.stop();
+        }
+        for (String name : registered)
+        {
+            registry.remove(name);
+        }
+        collector.close();
+    }
+
+    @Test
+    public void statsdSendsCounterDeltasAndChangedGauges() throws Exception
+    {
+        Counter counter = register("test.push.statsd.count", new Counter());
+        final long[] gauge = { 12 };
+        register("test.push.statsd.gauge", new LongGauge()
+        {
+            @Override
+            public long getLongValue()
+            {
+                return gauge[0];
+            }
+        });
+        reporter = start(PushReporter.Format.STATSD, "app", PushReporter.DEFAULT_PACKET_BYTES);
+
+        counter.inc(5);
+        reporter.flush();
+        List<String> lines = lines(receive());
+        assertTrue(lines.toString(), lines.contains("app.test.push.statsd.count:5|c"));
+        assertTrue(lines.toString(), lines.contains("app.test.push.statsd.gauge:12|g"));
+
+        counter.inc(3);
+        reporter.flush();
+        lines = lines(receive());
+        assertTrue(lines.toString(), lines.contains("app.test.push.statsd.count:3|c"));
+        assertFalse("an unchanged gauge is not sent again", contains(lines, "app.test.push.statsd.gauge"));
+
+        gauge[0] = 7;
+        reporter.flush();
+        lines = lines(receive());
+        assertTrue(lines.toString(), lines.contains("app.test.push.statsd.gauge:7|g"));
+        assertFalse("an unchanged counter is not sent again", contains(lines, "app.test.push.statsd.count"));
+        assertEquals(0, reporter.getDroppedLines());
+    }
+
+    @Test
+    public void graphiteSendsValueAndTime() throws Exception
+    {
+        Counter counter = register("test.push.graphite.count", new Counter());
+        reporter = start(PushReporter.Format.GRAPHITE, "", PushReporter.DEFAULT_PACKET_BYTES);
+
+        counter.inc(42);
+        long before = System.currentTimeMillis() / 1000L;
+        reporter.flush();
+        long after = System.currentTimeMillis() / 1000L;
+
+        String line = find(lines(receive()), "test.push.graphite.count ");
+        String[] fields = line.split(" ");
+        assertEquals(3, fields.length);
+        assertEquals("42", fields[1]);
+        long time = Long.parseLong(fields[2]);
+        assertTrue(line, time >= before && time <= after);
+    }
+
+    @Test
+    public void linesArePackedIntoDatagramsOfAtMostThePacketSize() throws Exception
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            register("test.push.batch." + i, new Counter()).inc(i + 1);
+        }
+        int packetBytes = 120;
+        reporter = start(PushReporter.Format.STATSD, "", packetBytes);
+
+        long sentBefore = reporter.getSentLines();
+        reporter.flush();
+        List<String> datagrams = receive();
+
+        int received = 0;
+        for (String datagram : datagrams)
+        {
+            assertTrue(datagram, datagram.length() <= packetBytes);
+            assertTrue("a datagram holds whole lines: " + datagram, datagram.endsWith("\n"));
+            received += lines(datagram).size();
+        }
+        assertTrue("20 lines do not fit one datagram of " + packetBytes + " bytes", datagrams.size() > 1);
+        assertEquals(reporter.getSentLines() - sentBefore, received);
+        List<String> lines = lines(datagrams);
+        for (int i = 0; i < 20; i++)
+        {
+            assertTrue(lines.toString(), lines.contains("test.push.batch." + i + ":" + (i + 1) + "|c"));
+        }
+    }
+
+    @Test
+    public void lineLongerThanADatagramIsDroppedAndCounted() throws Exception
+    {
+        StringBuilder name = new StringBuilder("test.push.drop.");
+        while (name.length() < 80)
+        {
+            name.append('x');
+        }
+        register(name.toString(), new Counter()).inc();
+        register("test.push.kept", new Counter()).inc();
+        reporter = start(PushReporter.Format.STATSD, "", 64);
+
+        long droppedBefore = reporter.getDroppedLines();
+        reporter.flush();
+        List<String> lines = lines(receive());
+
+        assertTrue(reporter.getDroppedLines() > droppedBefore);
+        assertFalse(contains(lines, name.toString()));
+        assertTrue("the lines that fit are still sent: " + lines, lines.contains("test.push.kept:1|c"));
+    }
+
+    private PushReporter start(PushReporter.Format format, String prefix, int packetBytes)
+    {
+        PushReporter started = new PushReporter(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), collector.getLocalPort()),
+                        PushReporter.Protocol.UDP, format, prefix, HOUR_MILLIS, packetBytes);
+        started.start();
+        return started;
+    }
+
+    private <T extends Metric> T register(String name, T metric)
+    {
+        registry.register(name, metric);
+        registered.add(name);
+        return metric;
+    }
+
+    /**
+     * @return the datagrams waiting at the collector, as text
+     */
+    private List<String> receive() throws Exception
+    {
+        List<String> datagrams = new ArrayList<String>();
+        byte[] bytes = new byte[64 * 1024];
+        while (true)
+        {
+            DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+            try
+            {
+                collector.receive(packet);
+            }
+            catch (SocketTimeoutException e)
+            {
+                return datagrams;
+            }
+            datagrams.add(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> lines(List<String> datagrams)
+    {
+        List<String> lines = new ArrayList<String>();
+        for (String datagram : datagrams)
+        {
+            lines.addAll(lines(datagram));
+        }
+        return lines;
+    }
+
+    private static List<String> lines(String datagram)
+    {
+        List<String> lines = new ArrayList<String>();
+        for (String line : datagram.split("\n"))
+        {
+            if (!line.isEmpty())
+            {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static boolean contains(List<String> lines, String name)
+    {
+        for (String line : lines)
+        {
+            if (line.startsWith(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String find(List<String> lines, String start)
+    {
+        for (String line : lines)
+        {
+            if (line.startsWith(start))
+            {
+                return line;
+            }
+        }
+        throw new AssertionError("no line starting with " + start + " in " + lines);
+    }
+}
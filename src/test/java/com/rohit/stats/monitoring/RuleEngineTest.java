@@ -0,0 +1,167 @@
+package com.rohit.stats.monitoring;
+
+import com.rohit.stats.metrics.MetricsKey;
+import com.rohit.stats.metrics.ProviderMetrics;
+import com.rohit.stats.metrics.interfaces.MetricsConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Evaluates a latency rule on a key of its own, closing its windows by calling the engine
+ * with tick numbers as the WindowTicker would, late ones included, and checks every change
+ * of state the listener is told of.
+ */
+public class RuleEngineTest
+{
+    private static final String RULE = "slow puts";
+
+    private final MetricsKey key = MetricsKey.of("RULE_TEST_" + System.nanoTime());
+
+    private final RuleEngine engine = new RuleEngine();
+
+    private final List<String> changes = new ArrayList<String>();
+
+    private ProviderMetrics metrics;
+
+    @Before
+    public void addRule()
+    {
+        metrics = ProviderMetrics.forKey(key);
+        engine.add(SloRule.parse(RULE, key, "put p99 > 500ms for 3x10s"));
+        engine.addListener(new RuleEngine.Listener()
+        {
+            @Override
+            public void stateChanged(SloRule rule, SloRule.State from, SloRule.State to, double value)
+            {
+                changes.add(from + ">" + to);
+            }
+        });
+    }
+
+    @After
+    public void removeSet()
+    {
+        ProviderMetrics.remove(key);
+    }
+
+    @Test
+    public void breachedWindowsGoPendingThenFiring()
+    {
+        slowPut();
+        engine.windowsClosed(10);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+        assertEquals(100.0, engine.getValue(RULE), 0.0);
+
+        // Not the end of a 10 second window, nothing is evaluated
+        fastPut();
+        engine.windowsClosed(15);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+
+        // Half of the window's operations are slower than 500 ms
+        slowPut();
+        engine.windowsClosed(20);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+        assertEquals(50.0, engine.getValue(RULE), 0.0);
+
+        slowPut();
+        engine.windowsClosed(30);
+        assertEquals(SloRule.State.FIRING, engine.getState(RULE));
+
+        slowPut();
+        engine.windowsClosed(40);
+        assertEquals(SloRule.State.FIRING, engine.getState(RULE));
+
+        fastPut();
+        engine.windowsClosed(50);
+        assertEquals(SloRule.State.OK, engine.getState(RULE));
+        assertEquals(0.0, engine.getValue(RULE), 0.0);
+
+        assertEquals("[OK>PENDING, PENDING>FIRING, FIRING>OK]", changes.toString());
+    }
+
+    @Test
+    public void lateTickClosesSkippedWindowsOnce()
+    {
+        slowPut();
+        engine.windowsClosed(10);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+
+        // The run for ticks 20 to 40 was late: the windows it skipped close as one
+        slowPut();
+        engine.windowsClosed(45);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+        assertEquals(1, engine.getLastEvaluatedRules());
+
+        slowPut();
+        engine.windowsClosed(50);
+        assertEquals(SloRule.State.FIRING, engine.getState(RULE));
+        assertEquals("[OK>PENDING, PENDING>FIRING]", changes.toString());
+    }
+
+    @Test
+    public void windowWithoutOperationsEndsBreach()
+    {
+        slowPut();
+        engine.windowsClosed(10);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+
+        engine.windowsClosed(20);
+        assertEquals(SloRule.State.OK, engine.getState(RULE));
+        assertTrue(Double.isNaN(engine.getValue(RULE)));
+
+        // The count of breached windows starts over
+        slowPut();
+        engine.windowsClosed(30);
+        slowPut();
+        engine.windowsClosed(40);
+        assertEquals(SloRule.State.PENDING, engine.getState(RULE));
+        assertEquals("[OK>PENDING, PENDING>OK, OK>PENDING]", changes.toString());
+    }
+
+    @Test
+    public void overallRulesShareTheirTick()
+    {
+        RuleEngine overall = new RuleEngine();
+        MetricsKey all = MetricsKey.of(MetricsConstants.DEFAULT);
+        overall.add(SloRule.parse("overall fast", all, "put p99 > 500ms for 1x10s"));
+        overall.add(SloRule.parse("overall slow", all, "put p99 > 2s for 1x10s"));
+        overall.add(SloRule.parse("overall mean", all, "put mean > 100ms for 1x10s"));
+
+        // Nothing else records in between, so the overall window holds our PUTs only
+        slowPut();
+        slowPut();
+        overall.windowsClosed(10);
+        assertEquals(SloRule.State.FIRING, overall.getState("overall fast"));
+        assertEquals(100.0, overall.getValue("overall fast"), 0.0);
+        // Read on the same tick, but above their own threshold
+        assertEquals(SloRule.State.OK, overall.getState("overall slow"));
+        assertEquals(0.0, overall.getValue("overall slow"), 0.0);
+        assertEquals(SloRule.State.FIRING, overall.getState("overall mean"));
+        assertEquals(3, overall.getLastEvaluatedRules());
+
+        // The next tick reads the overall values again
+        fastPut();
+        overall.windowsClosed(20);
+        assertEquals(SloRule.State.OK, overall.getState("overall fast"));
+        assertEquals(0.0, overall.getValue("overall fast"), 0.0);
+    }
+
+    /** Records a PUT of one second, with a start token taken that long ago */
+    private void slowPut()
+    {
+        metrics.incTotalPutTime(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void fastPut()
+    {
+        metrics.incTotalPutTime(metrics.startPutTime());
+    }
+}